@@ -110,6 +110,9 @@ public class PlaygroundServer implements HttpHandler {
   private static final int    MAX_SCRIPT_LEN   = intProp("jactl.playground.maxScriptLen", 100_000);
   private static final int    MAX_BODY_BYTES   = intProp("jactl.playground.maxBodyBytes", 256 * 1024);
   private static final int    MAX_CONCURRENT   = intProp("jactl.playground.maxConcurrent", 4);
+  /** Bounds for the cache of compiled scripts (number of scripts and total byte code size). */
+  private static final int    MAX_CACHED       = intProp("jactl.playground.maxCachedScripts", 256);
+  private static final long   MAX_CACHED_BYTES = longProp("jactl.playground.maxCachedBytes", 16 * 1024 * 1024L);
   /**
    * Allowed CORS origin. Set to "*" to allow any (dev only). Set to "off"/"none"/""
    * to disable in-service CORS entirely — do that only if the reverse proxy (nginx)
@@ -131,37 +134,28 @@ public class PlaygroundServer implements HttpHandler {
 
   // ---- Shared state --------------------------------------------------------
 
-  // Compilation is serialised because we do not rely on the Jactl compiler being
-  // safe to run concurrently across its shared static tables; script execution
-  // (which may sleep) still runs concurrently on the worker pool.
-  private final Object compileLock = new Object();
-
   private final Semaphore       slots  = new Semaphore(MAX_CONCURRENT);
   private final ExecutorService runners;
 
   /**
-   * Build a fresh sandboxed context for a single request.
+   * Sandboxed context shared by all requests.
    *
-   * <p>Deliberately NOT reused across requests: a JactlContext owns a
-   * DynamicClassLoader that strong-references every class it defines, and each
-   * distinct script compiles to a new class (named by md5 of its source). A
-   * long-lived shared context would therefore pin one class per distinct
-   * submission forever and eventually exhaust metaspace. Building a new context
-   * per request lets the classloader and its generated class become unreachable
-   * once the request completes, so memory is bounded by in-flight requests
-   * rather than total requests. It's cheap: with async(false) no event-loop
-   * thread pool is created, and the builtin function tables are shared statics
-   * (not re-registered per context).</p>
+   * <p>Compiled scripts are kept in a bounded script cache so that resubmitting
+   * the same snippet does not recompile it. Each cached script has its classes
+   * defined in its own class loader, so once a script is evicted (least recently
+   * used, bounded by count and byte code size) and its request has completed,
+   * its generated classes can be unloaded. Memory is therefore bounded by the
+   * cache limits and in-flight requests rather than by total distinct
+   * submissions. With async(false) no event-loop thread pool is created.
+   * allowHostAccess / allowHostClassLookup are left at their (denying) defaults.</p>
    */
-  private static JactlContext newContext() {
-    return JactlContext.create()
-                       .async(false)                 // run on our worker thread so we can interrupt it
-                       .maxExecutionTime(MAX_EXEC_MS) // cooperative wall-clock limit
-                       .maxLoopIterations(MAX_LOOPS)  // cooperative loop limit
-                       .disableEval(true)             // no dynamic eval()
-                       .build();
-    // allowHostAccess / allowHostClassLookup are left at their (denying) defaults.
-  }
+  private final JactlContext context = JactlContext.create()
+                                                   .async(false)                 // run on our worker thread so we can interrupt it
+                                                   .maxExecutionTime(MAX_EXEC_MS) // cooperative wall-clock limit
+                                                   .maxLoopIterations(MAX_LOOPS)  // cooperative loop limit
+                                                   .disableEval(true)             // no dynamic eval()
+                                                   .scriptCache(MAX_CACHED, MAX_CACHED_BYTES)
+                                                   .build();
 
   public PlaygroundServer() {
     final AtomicLong n = new AtomicLong();
@@ -303,15 +297,9 @@ public class PlaygroundServer implements HttpHandler {
     BoundedWriter out = new BoundedWriter(MAX_OUTPUT_CHARS);
 
     Callable<Object> task = () -> {
-      // A fresh, single-use context per request (see newContext()): its
-      // DynamicClassLoader and the class it compiles become unreachable when this
-      // task returns, so generated classes can be reclaimed rather than leaking.
-      JactlContext context = newContext();
-      JactlScript compiled;
-      synchronized (compileLock) {
-        // Compilation counts toward the wall-clock budget since it runs inside the task.
-        compiled = Jactl.compileScript(script, new LinkedHashMap<>(), context);
-      }
+      // Shared context (see context field): evicted scripts have their classes unloaded
+      // Compilation counts toward the wall-clock budget since it runs inside the task.
+      JactlScript compiled = Jactl.compileScript(script, new LinkedHashMap<>(), context);
       return compiled.eval(new LinkedHashMap<>(), new StringReader(input == null ? "" : input), out);
     };
 
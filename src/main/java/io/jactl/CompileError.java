@@ -42,6 +42,16 @@ public class CompileError extends JactlError {
     super(error, token, captureStackTrace);
   }
 
+  /**
+   * Create a compile error for an unexpected exception that occurred during compilation
+   * @param error   the error message
+   * @param token   the location where error occurred (can be null)
+   * @param cause   the exception
+   */
+  public CompileError(String error, Location token, Throwable cause) {
+    super(error, token, true, cause);
+  }
+
   public CompileError(List<CompileError> errors) {
     super(null, null, true);
     this.errors = errors;
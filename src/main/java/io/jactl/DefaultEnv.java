@@ -17,23 +17,76 @@
 
 package io.jactl;
 
+import io.jactl.runtime.TimerWheel;
+
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Default execution environment. Uses one single-threaded event loop per core and a pool of threads
+ * for blocking work. The thread context returned by {@link #getThreadContext()} identifies the event loop
+ * of the current thread so that events (including timers) scheduled with that context are run on the same
+ * event loop thread.
+ * Timers are managed by a {@link TimerWheel} which runs expired timers on their event loops.
+ */
 public class DefaultEnv implements JactlEnv {
   private static int eventLoopThreads = Runtime.getRuntime().availableProcessors();
   private static int blockingThreads  = Runtime.getRuntime().availableProcessors() * 4;
+  private static int timerTickMs      = Integer.getInteger("jactl.timer.tick-ms", 1);
+
+  private static final ThreadLocal<EventLoop> currentLoop = new ThreadLocal<>();
+  private static final AtomicInteger          nextLoop    = new AtomicInteger();
 
   // Make static for the moment to avoid creating too many threads during unit test executions
-  private static ExecutorService          eventLoop        = Executors.newFixedThreadPool(eventLoopThreads);
-  private static ExecutorService          blockingExecutor = Executors.newFixedThreadPool(blockingThreads);
-  private static ScheduledExecutorService timerService     = Executors.newSingleThreadScheduledExecutor();
+  private static EventLoop[]     eventLoops       = createEventLoops();
+  private static ExecutorService blockingExecutor = Executors.newFixedThreadPool(blockingThreads);
+  private static TimerWheel      timerWheel       = new TimerWheel(timerTickMs, "jactl-timer");
+
+  /**
+   * Single threaded event loop. Used as the thread context for threads of the loop.
+   */
+  private static class EventLoop {
+    private final ExecutorService executor;
+
+    EventLoop() {
+      ThreadFactory factory = Executors.defaultThreadFactory();
+      executor = Executors.newSingleThreadExecutor(r -> factory.newThread(() -> {
+        currentLoop.set(this);
+        r.run();
+      }));
+    }
+  }
+
+  private static EventLoop[] createEventLoops() {
+    EventLoop[] loops = new EventLoop[eventLoopThreads];
+    for (int i = 0; i < loops.length; i++) {
+      loops[i] = new EventLoop();
+    }
+    return loops;
+  }
+
+  /**
+   * Get the event loop for the given thread context. If there is no thread context then
+   * we pick the next event loop in round-robin order to spread new work across the loops.
+   */
+  private static EventLoop eventLoop(Object threadContext) {
+    if (threadContext instanceof EventLoop) {
+      return (EventLoop)threadContext;
+    }
+    return eventLoops[Math.floorMod(nextLoop.getAndIncrement(), eventLoops.length)];
+  }
+
+  // Timers without a thread context run on the current event loop if we are on one
+  private static EventLoop currentOrNextLoop() {
+    EventLoop loop = currentLoop.get();
+    return loop != null ? loop : eventLoop(null);
+  }
 
   @Override
   public void scheduleEvent(Object threadContext, Runnable event) {
-    eventLoop.submit(event);
+    eventLoop(threadContext).executor.submit(event);
   }
 
   @Override
@@ -42,17 +95,18 @@ public class DefaultEnv implements JactlEnv {
       scheduleEvent(threadContext, event);
     }
     else {
-      timerService.schedule(event, timeMs, TimeUnit.MILLISECONDS);
+      timerWheel.schedule(event, timeMs, eventLoop(threadContext).executor);
     }
   }
 
   @Override
   public void scheduleEvent(Runnable event, long timeMs) {
+    EventLoop loop = currentOrNextLoop();
     if (timeMs <= 0) {
-      scheduleEvent(null, event);
+      loop.executor.submit(event);
     }
     else {
-      timerService.schedule(event, timeMs, TimeUnit.MILLISECONDS);
+      timerWheel.schedule(event, timeMs, loop.executor);
     }
   }
 
@@ -63,12 +117,14 @@ public class DefaultEnv implements JactlEnv {
 
   @Override
   public Object getThreadContext() {
-    return null;
+    return currentLoop.get();
   }
 
   public static void shutdown() {
-    eventLoop.shutdown();
+    for (EventLoop loop: eventLoops) {
+      loop.executor.shutdown();
+    }
     blockingExecutor.shutdown();
-    timerService.shutdown();
+    timerWheel.shutdown();
   }
 }
@@ -0,0 +1,299 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl;
+
+import java.util.*;
+
+/**
+ * <p>Slot layout of the global variables used by a compiled script.</p>
+ * <p>Each global variable that the script refers to is allocated a slot at compile time. Rather than
+ * passing a HashMap of globals to the script, a host can get the layout from
+ * {@link JactlScript#getGlobalsLayout()} and then use {@link #newGlobals()} to create a {@link Globals}
+ * object whose values are stored in an array indexed by slot. When the script is run with a Globals object
+ * created from its own layout, access to the global variables is an array access rather than a Map
+ * lookup.</p>
+ * <p>Globals is itself a Map so it can be passed anywhere a Map of globals is expected (including to other
+ * scripts with a different layout, which will just do normal Map lookups) and values for names that are
+ * not part of the layout can still be put into it.</p>
+ * <p>For example:</p>
+ * <pre>
+ *   JactlScript         script  = Jactl.compileScript("x + y", Utils.mapOf("x", 0, "y", 0));
+ *   GlobalsLayout       layout  = script.getGlobalsLayout();
+ *   int                 xSlot   = layout.slotOf("x");
+ *   int                 ySlot   = layout.slotOf("y");
+ *   for (...) {
+ *     GlobalsLayout.Globals globals = layout.newGlobals().set(xSlot, 1).set(ySlot, 2);
+ *     script.eval(globals);
+ *   }
+ * </pre>
+ */
+public class GlobalsLayout {
+
+  private final String[]            names;
+  private final Map<String,Integer> slots;
+
+  /**
+   * Create a layout where global with name names[i] is in slot i
+   * @param names  the names of the globals
+   */
+  public GlobalsLayout(String... names) {
+    this.names = new String[names.length];
+    this.slots = new HashMap<>();
+    for (int i = 0; i < names.length; i++) {
+      // Generated code compares names by reference so make sure they are interned
+      this.names[i] = names[i].intern();
+      if (slots.put(this.names[i], i) != null) {
+        throw new IllegalArgumentException("Duplicate global name '" + names[i] + "'");
+      }
+    }
+  }
+
+  /**
+   * @return the number of slots
+   */
+  public int size() {
+    return names.length;
+  }
+
+  /**
+   * @return the names of the globals in slot order
+   */
+  public List<String> getNames() {
+    return Collections.unmodifiableList(Arrays.asList(names));
+  }
+
+  /**
+   * Get the slot for the given global
+   * @param name  the name of the global variable
+   * @return the slot or -1 if there is no such global in the layout
+   */
+  public int slotOf(String name) {
+    Integer slot = slots.get(name);
+    return slot == null ? -1 : slot;
+  }
+
+  /**
+   * @return a new Globals object with no values set
+   */
+  public Globals newGlobals() {
+    return new Globals(this);
+  }
+
+  /**
+   * Create a new Globals object populated from the given Map
+   * @param values  the values for the globals
+   * @return the new Globals object
+   */
+  public Globals newGlobals(Map<String,Object> values) {
+    Globals globals = new Globals(this);
+    globals.putAll(values);
+    return globals;
+  }
+
+  @Override public String toString() {
+    return "GlobalsLayout" + Arrays.toString(names);
+  }
+
+  /**
+   * Values of global variables stored in slots as given by a GlobalsLayout.
+   * Values for names not in the layout are stored in an overflow Map.
+   * Like HashMap, Globals is not thread safe.
+   */
+  public static final class Globals extends AbstractMap<String,Object> {
+    private static final Object UNSET = new Object();
+
+    private final GlobalsLayout      layout;
+    private final Object[]           values;
+    private       Map<String,Object> overflow;
+
+    private Globals(GlobalsLayout layout) {
+      this.layout = layout;
+      this.values = new Object[layout.names.length];
+      Arrays.fill(values, UNSET);
+    }
+
+    public GlobalsLayout getLayout() {
+      return layout;
+    }
+
+    /**
+     * Set value for given slot
+     * @param slot  the slot
+     * @param value the value
+     * @return this Globals object so that calls can be chained
+     */
+    public Globals set(int slot, Object value) {
+      values[slot] = value;
+      return this;
+    }
+
+    /**
+     * Get value in given slot
+     * @param slot  the slot
+     * @return the value or null if not set
+     */
+    public Object get(int slot) {
+      Object value = values[slot];
+      return value == UNSET ? null : value;
+    }
+
+    /**
+     * Used by generated code to get value of global. The slot is the one allocated when the script
+     * was compiled so we check that our layout has the same global in that slot and otherwise fall back
+     * to a lookup by name.
+     * @param slot  the slot in the layout of the compiled script
+     * @param name  the (interned) name of the global
+     * @return the value of the global
+     */
+    public Object get(int slot, String name) {
+      if (slot < values.length && layout.names[slot] == name) {
+        Object value = values[slot];
+        return value == UNSET ? null : value;
+      }
+      return get(name);
+    }
+
+    /**
+     * Used by generated code to set value of global (see {@link #get(int, String)}).
+     * @param slot  the slot in the layout of the compiled script
+     * @param name  the (interned) name of the global
+     * @param value the value
+     */
+    public void put(int slot, String name, Object value) {
+      if (slot < values.length && layout.names[slot] == name) {
+        values[slot] = value;
+      }
+      else {
+        put(name, value);
+      }
+    }
+
+    @Override public Object get(Object key) {
+      Integer slot = layout.slots.get(key);
+      if (slot != null) {
+        return get((int)slot);
+      }
+      return overflow == null ? null : overflow.get(key);
+    }
+
+    @Override public boolean containsKey(Object key) {
+      Integer slot = layout.slots.get(key);
+      if (slot != null) {
+        return values[slot] != UNSET;
+      }
+      return overflow != null && overflow.containsKey(key);
+    }
+
+    @Override public Object put(String key, Object value) {
+      Integer slot = layout.slots.get(key);
+      if (slot != null) {
+        Object old = get((int)slot);
+        values[slot] = value;
+        return old;
+      }
+      if (overflow == null) {
+        overflow = new HashMap<>();
+      }
+      return overflow.put(key, value);
+    }
+
+    @Override public Object remove(Object key) {
+      Integer slot = layout.slots.get(key);
+      if (slot != null) {
+        Object old = get((int)slot);
+        values[slot] = UNSET;
+        return old;
+      }
+      return overflow == null ? null : overflow.remove(key);
+    }
+
+    @Override public void clear() {
+      Arrays.fill(values, UNSET);
+      overflow = null;
+    }
+
+    @Override public int size() {
+      int size = overflow == null ? 0 : overflow.size();
+      for (Object value: values) {
+        if (value != UNSET) {
+          size++;
+        }
+      }
+      return size;
+    }
+
+    @Override public Set<Entry<String,Object>> entrySet() {
+      return new AbstractSet<Entry<String, Object>>() {
+        @Override public int size() { return Globals.this.size(); }
+        @Override public Iterator<Entry<String,Object>> iterator() {
+          return new Iterator<Entry<String, Object>>() {
+            int                                  slot         = nextSlot(0);
+            Iterator<Entry<String,Object>>       overflowIter = null;
+            String                               lastKey      = null;
+            private int nextSlot(int start) {
+              int i = start;
+              while (i < values.length && values[i] == UNSET) {
+                i++;
+              }
+              return i;
+            }
+            @Override public boolean hasNext() {
+              if (slot < values.length) {
+                return true;
+              }
+              if (overflowIter == null && overflow != null) {
+                overflowIter = overflow.entrySet().iterator();
+              }
+              return overflowIter != null && overflowIter.hasNext();
+            }
+            @Override public Entry<String,Object> next() {
+              if (!hasNext()) {
+                throw new NoSuchElementException();
+              }
+              if (slot < values.length) {
+                int i = slot;
+                slot    = nextSlot(slot + 1);
+                lastKey = layout.names[i];
+                return new SimpleEntry<String,Object>(layout.names[i], values[i]) {
+                  @Override public Object setValue(Object value) {
+                    values[i] = value;
+                    return super.setValue(value);
+                  }
+                };
+              }
+              lastKey = null;
+              return overflowIter.next();
+            }
+            @Override public void remove() {
+              if (lastKey != null) {
+                values[layout.slots.get(lastKey)] = UNSET;
+                lastKey = null;
+              }
+              else if (overflowIter != null) {
+                overflowIter.remove();
+              }
+              else {
+                throw new IllegalStateException();
+              }
+            }
+          };
+        }
+      };
+    }
+  }
+}
@@ -246,6 +246,23 @@ public class Jactl {
     Compiler.compileClass(source, jactlContext, pkgName, globals);
   }
 
+  /**
+   * <p>Compile multiple scripts and classes in parallel. Classes are compiled before scripts and can be
+   * given in any order: if a class refers to another class that has not yet been compiled it will be
+   * retried once the other class has been compiled.</p>
+   * <p>Compilation runs on the ForkJoinPool common pool (or on the ForkJoinPool of the caller if invoked
+   * from within a ForkJoinPool task). Only the defining of the generated classes in the JactlContext
+   * is serialised.</p>
+   * <p>NOTE: this cannot be used for a JactlContext in repl mode.</p>
+   * @param sources       the sources to compile
+   * @param jactlContext  the JactlContext
+   * @return list of compiled scripts in the same order as the sources (with null for each class source)
+   * @throws CompileError with errors for all sources that could not be compiled
+   */
+  public static List<JactlScript> compileAll(List<JactlSource> sources, JactlContext jactlContext) {
+    return Compiler.compileAll(sources, jactlContext);
+  }
+
   /**
    * Create a JactlFunction for a global function to be registered.
    * @return the new JactlFunction object
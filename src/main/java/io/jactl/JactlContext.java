@@ -17,14 +17,17 @@
 
 package io.jactl;
 
+import io.jactl.compiler.CompiledCodeCache;
 import io.jactl.compiler.Compiler;
 import io.jactl.compiler.JactlClassLoader;
+import io.jactl.compiler.ScriptCache;
 import io.jactl.resolver.Imports;
 import io.jactl.runtime.*;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.lang.invoke.MethodHandle;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
@@ -32,6 +35,7 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicBoolean;
@@ -69,6 +73,15 @@ public class JactlContext {
   public boolean checkClasses           = false;   // Whether to run CheckClassAdapter on generated byte code to check for errors (slowish)
   public long maxLoopLimit              = -1;      // -1 is no limit, otherwise number of loop iterations per script invocation
   public int  maxExecutionTimeMs        = -1;      // -1 is no limit, otherwise maximum duration in ms for a script invocation
+  public int  maxCheckpointDeltas       = 0;       // 0 means always save full checkpoints, otherwise max deltas between full checkpoints
+  public CheckpointCodec checkpointCodec = null;   // Codec for compressing checkpoints (null means no compression)
+  public boolean lazyRestore            = false;   // Whether lists/maps are only restored from checkpoints on first access
+  public int  outputBufferSize          = 0;       // 0 means flush output on every print, otherwise size of output buffer
+  public boolean persistentCollections  = false;   // Whether non-mutating list/map operators return structurally shared collections
+  public int  checkpointBatchSize       = 0;       // 0 means no batching, otherwise max checkpoints per batch
+  public long checkpointBatchDelayMs    = 0;       // Max time to wait for a batch to fill before saving it
+
+  private CheckpointBatcher checkpointBatcher = null;
 
   private final Map<Class,Map<String, HostClassMethodInvoker>> hostMethods       = new HashMap<>();
   private final Map<Class,Map<String, HostClassMethodInvoker>> staticHostMethods = new HashMap<>();
@@ -117,19 +130,26 @@ public class JactlContext {
   public String javaPackage = Utils.JACTL_PKG;   // The Java package under which compiled classes will be generated
   public String internalJavaPackage;
 
-  Set<String>                       packages         = new HashSet<>();
-  Map<String, JactlClassDescriptor> classDescriptors = new HashMap<>();  // Keyed on internal name
+  // Concurrent since scripts/classes can be compiled in parallel (see Jactl.compileAll())
+  Set<String>                       packages         = ConcurrentHashMap.newKeySet();
+  Map<String, JactlClassDescriptor> classDescriptors = new ConcurrentHashMap<>();  // Keyed on internal name
 
   private PackageChecker       packageChecker = name -> packages.contains(name);
   private ClassLookup          classLookup    = name -> classDescriptors.get(name);
   private ClassAdder           classAdder     = this::_defineClass;
   private boolean              isIdePlugin    = false;
   private File                 buildDir;
+  private CompiledCodeCache    compiledCodeCache;
+  private ScriptCache          scriptCache;
+
+  // Classes defined by ScriptClassLoaders keyed on internal name. Held weakly so that they do not
+  // stop the class loader from being unloaded once the script has been evicted from the ScriptCache.
+  private final Map<String,WeakReference<Class<?>>> scriptClasses = new ConcurrentHashMap<>();
 
   private Functions            functions;
   private RegisteredClasses    registeredClasses;
 
-  DynamicClassLoader           classLoader = new DynamicClassLoader();
+  volatile DynamicClassLoader  classLoader = new DynamicClassLoader();
 
   ///////////////////////////////
 
@@ -157,11 +177,24 @@ public class JactlContext {
    * @return the class or null if not found
    */
   public Class getClass(String internalName) {
-    return classLoader.findClassByInternalName(internalName);
+    WeakReference<Class<?>> ref  = scriptClasses.get(internalName);
+    Class<?>                clss = ref == null ? null : ref.get();
+    return clss != null ? clss : classLoader.findClassByInternalName(internalName);
   }
 
   public JactlClassDescriptor getExistingClassDescriptor(String internalName) {
-    return classDescriptors.get(internalName);
+    JactlClassDescriptor desc = classDescriptors.get(internalName);
+    return desc != null ? desc : getScriptClassDescriptor(internalName);
+  }
+
+  // Class descriptors of scripts evicted from the ScriptCache are no longer in classDescriptors but
+  // can still be needed while the script is running (or being restored from a checkpoint), so we find
+  // them via the ScriptClassLoader of the class.
+  private JactlClassDescriptor getScriptClassDescriptor(String internalName) {
+    WeakReference<Class<?>> ref  = scriptClasses.get(internalName);
+    Class<?>                clss = ref == null ? null : ref.get();
+    return clss != null && clss.getClassLoader() instanceof ScriptClassLoader ? ((ScriptClassLoader)clss.getClassLoader()).getDescriptor(internalName)
+                                                                              : null;
   }
 
   ///////////////////////////////////
@@ -174,7 +207,8 @@ public class JactlContext {
     return classAdder.addClass(source, descriptor, bytes);
   }
 
-  private Class<?> _defineClass(String source, JactlClassDescriptor descriptor, byte[] bytes) {
+  // Synchronised since classes can be compiled in parallel and we may need to replace the class loader
+  private synchronized Class<?> _defineClass(String source, JactlClassDescriptor descriptor, byte[] bytes) {
     String className = descriptor.getInternalName().replace('/', '.');
     Class<?> clss = classLoader.getClass(className);
     if (clss != null) {
@@ -211,6 +245,48 @@ public class JactlContext {
     return clss;
   }
 
+  /**
+   * Define class from byte code loaded from the {@link CompiledCodeCache}.
+   * @param internalName  the internal name of the class
+   * @param descriptor    the class descriptor (or null if script has no classes that need their descriptor)
+   * @param bytes         the byte code
+   * @return the class
+   */
+  public synchronized Class<?> defineCachedClass(String internalName, JactlClassDescriptor descriptor, byte[] bytes) {
+    String className = internalName.replace('/', '.');
+    if (classLoader.getClass(className) != null) {
+      // Redefining existing class so create a new ClassLoader (see _defineClass())
+      classLoader = new DynamicClassLoader(classLoader);
+    }
+    Class<?> clss = classLoader.defineClass(internalName, className, null, bytes);
+    if (descriptor != null) {
+      addClass(descriptor);
+    }
+    return clss;
+  }
+
+  /**
+   * @return the CompiledCodeCache or null if compiled scripts are not being cached
+   */
+  public CompiledCodeCache getCompiledCodeCache() {
+    return compiledCodeCache;
+  }
+
+  /**
+   * @return the ScriptCache or null if compiled scripts are not being cached
+   */
+  public ScriptCache getScriptCache() {
+    return scriptCache;
+  }
+
+  /**
+   * Create a new class loader for the classes of a single script (see {@link ScriptCache}).
+   * @return the new ScriptClassLoader
+   */
+  public ScriptClassLoader newScriptClassLoader() {
+    return new ScriptClassLoader(classLoader);
+  }
+
   public interface PackageChecker { boolean exists(String name); }
 
   // Helper that maps internal name (jactl.pkg.a.b.c.A$B$C) to class descriptor
@@ -367,6 +443,86 @@ public class JactlContext {
      */
     public JactlContextBuilder maxExecutionTime(int limitMs)     { maxExecutionTimeMs = limitMs; return this; }
 
+    /**
+     * Enable delta checkpoints. When enabled, the first checkpoint for a script instance is saved as a full
+     * checkpoint and subsequent checkpoints only record the objects that have changed since the previous
+     * checkpoint. These are passed to {@link JactlEnv#saveCheckpointDelta} instead of
+     * {@link JactlEnv#saveCheckpoint}. After the given number of deltas a new full checkpoint is saved so
+     * that the environment can discard the older checkpoint data for the instance.
+     * @param maxDeltas the maximum number of deltas between full checkpoints (defaults to 0 meaning that
+     *                  deltas are disabled and full checkpoints are always saved)
+     * @return this JactlContextBuilder
+     */
+    public JactlContextBuilder checkpointDeltas(int maxDeltas)   { maxCheckpointDeltas = maxDeltas; return this; }
+
+    /**
+     * Whether to restore lists and maps lazily when recovering from a checkpoint. When enabled, the contents
+     * of each list and map are only restored from the checkpoint the first time that the list or map is accessed
+     * which means that scripts which only use a small part of their state can resume much faster.
+     * The checkpoint data is kept in memory until all lists and maps have been restored.
+     * @param value true to enable lazy restore (defaults to false)
+     * @return this JactlContextBuilder
+     */
+    public JactlContextBuilder lazyRestore(boolean value)        { lazyRestore = value; return this; }
+
+    /**
+     * Enable batching of checkpoints. When enabled, checkpoints from different script instances are collected
+     * and passed to {@link JactlEnv#saveCheckpoints(List)} as a single batch once <code>maxSize</code> checkpoints
+     * have been collected or once <code>maxDelayMs</code> has expired since the first checkpoint in the batch.
+     * Each script instance is resumed once the JactlEnv has saved the batch containing its checkpoint.
+     * @param maxSize     the maximum number of checkpoints in a batch (defaults to 0 meaning no batching)
+     * @param maxDelayMs  the maximum time in ms that a checkpoint waits for the batch to fill (0 means that the
+     *                    batch is saved on the next event-loop event)
+     * @return this JactlContextBuilder
+     */
+    public JactlContextBuilder checkpointBatch(int maxSize, long maxDelayMs) {
+      if (maxSize < 0 || maxDelayMs < 0) {
+        throw new IllegalArgumentException("Checkpoint batch size and delay must not be negative");
+      }
+      checkpointBatchSize    = maxSize;
+      checkpointBatchDelayMs = maxDelayMs;
+      return this;
+    }
+
+    /**
+     * Set the codec used to compress checkpoints before they are passed to the JactlEnv to be saved.
+     * Built-in codecs are {@link CheckpointCodec#DEFLATE} (better compression) and {@link CheckpointCodec#LZ}
+     * (faster). {@link CheckpointCodec#deflate(int)} can be used to choose a different Deflater compression
+     * level. The codec is recorded in each checkpoint so checkpoints can be restored by a JactlContext that
+     * uses a different codec as long as the codec is a built-in codec or is the codec of the restoring
+     * JactlContext.
+     * @param codec the codec (defaults to null meaning no compression)
+     * @return this JactlContextBuilder
+     */
+    public JactlContextBuilder checkpointCodec(CheckpointCodec codec) {
+      boolean isBuiltin = codec instanceof CheckpointCodec.DeflateCodec || codec instanceof CheckpointCodec.LzCodec;
+      if (codec != null && !isBuiltin && (codec.id() < 16 || codec.id() > 127)) {
+        throw new IllegalArgumentException("Codec id must be between 16 and 127 for non built-in codecs: " + codec.id());
+      }
+      checkpointCodec = codec;
+      return this;
+    }
+
+    /**
+     * Buffer print/println output for each script invocation rather than flushing the output Writer after every
+     * print. Buffered output is written and flushed once the buffer reaches the given size, and whenever the
+     * script suspends (including for a checkpoint) or completes.
+     * @param size the buffer size in chars (defaults to 0 meaning that output is flushed on every print)
+     * @return this JactlContextBuilder
+     */
+    public JactlContextBuilder outputBufferSize(int size)        { outputBufferSize = size; return this; }
+
+    /**
+     * Use persistent (structurally shared) lists and maps for the results of the non-mutating list and map
+     * operators (<code>+</code>, <code>&lt;&lt;</code> and <code>-</code>). Rather than copying the entire
+     * list or map for each operation, the result shares most of its structure with the original so that
+     * building up a list with <code>x = x + [item]</code> in a loop takes near linear time rather than
+     * quadratic time. Individual element access is slightly slower than for normal lists and maps.
+     * @param value true to enable persistent collections (defaults to false)
+     * @return this JactlContextBuilder
+     */
+    public JactlContextBuilder persistentCollections(boolean value) { persistentCollections = value; return this; }
+
     /**
      * Disable the use of eval() in scripts
      * @param value true if eval should be disabled
@@ -409,6 +565,33 @@ public class JactlContext {
      * @return the JactlContextBuilder
      */
     public JactlContextBuilder localAliasesForGlobals(boolean value) { localAliasesForGlobals = value; return this; } 
+
+    /**
+     * Cache the byte code of compiled scripts in the given directory so that when the same script is compiled
+     * again (for example, after a restart) the script classes are loaded directly from the cached byte code rather
+     * than having to compile the script again. Entries are keyed on the script source, the Jactl version, the
+     * options of this JactlContext, the types of the globals passed in at compile time, and the sources of
+     * any Jactl classes compiled in this JactlContext.
+     * <p>NOTE: since the cached byte code is loaded as is, the directory must not be writable by anyone who
+     *          is not trusted. The directory should also be cleared if registered functions or classes change
+     *          in a way that is not compatible with previously compiled scripts.</p>
+     * @param dir  the directory for the cache (created if it does not exist)
+     * @return this JactlContextBuilder
+     */
+    public JactlContextBuilder compiledCodeCache(String dir) { compiledCodeCache = new CompiledCodeCache(new File(dir)); return this; }
+
+    /**
+     * Cache compiled scripts so that compiling the same script again (with globals of the same types)
+     * returns the already compiled script. Each cached script has its classes defined in its own class
+     * loader so that when a script is evicted from the cache its classes can be unloaded once nothing
+     * else refers to them (e.g. the JactlScript object or script instances still running).
+     * Scripts are evicted in least recently used order once there are more than maxScripts scripts
+     * in the cache or once the total size of their byte code exceeds maxBytes.
+     * @param maxScripts  maximum number of scripts to cache
+     * @param maxBytes    maximum total size in bytes of the byte code of the cached scripts
+     * @return this JactlContextBuilder
+     */
+    public JactlContextBuilder scriptCache(int maxScripts, long maxBytes) { scriptCache = new ScriptCache(maxScripts, maxBytes); return this; }
     
     /**
      * Build the JactlContext. This should be invoked last after chaining all the other calls used to configure
@@ -427,6 +610,7 @@ public class JactlContext {
       if (executionEnv == null && isAsync) {
         executionEnv = new DefaultEnv();
       }
+      checkpointBatcher = checkpointBatchSize > 0 ? new CheckpointBatcher(executionEnv, checkpointBatchSize, checkpointBatchDelayMs) : null;
       internalJavaPackage = javaPackage.replace('.', '/');
       JactlClassLoader.registerJactlPkg(javaPackage);
       return JactlContext.this;
@@ -468,20 +652,46 @@ public class JactlContext {
   public boolean globalAliases() {
     return localAliasesForGlobals && !replMode;
   }
+
+  public boolean localAliasesForGlobals() {
+    return localAliasesForGlobals;
+  }
   
+  /**
+   * Check whether host class is allowed by the allowHostClassLookup predicate. Since the result can
+   * affect the code generated for a script, the check is recorded by the {@link CompiledCodeCache}
+   * (if there is one) so that it can be repeated before cached code is reused.
+   * @param className  the fully qualified name of the host class
+   * @return true if the host class can be accessed
+   */
+  public boolean isHostClassAllowed(String className) {
+    boolean allowed = allowHostClassLookup != null && allowHostClassLookup.test(className);
+    if (compiledCodeCache != null) {
+      compiledCodeCache.hostClassChecked(className, allowed);
+    }
+    return allowed;
+  }
+
   public Object getApplicationContext() {
     return applicationContext;
   }
   
   public MethodHandle getConstructor(Class<?> clss) {
-    return constructors.computeIfAbsent(clss, c -> {
-      try {
-        return MethodHandles.lookup().unreflectConstructor(c.getConstructor());
-      }
-      catch (IllegalAccessException | NoSuchMethodException | ClassCastException e) {
-        throw new IllegalStateException("Error looking up no-arg constructor for " + clss.getName(), e);
-      }
-    });
+    MethodHandle constructor = constructors.get(clss);
+    if (constructor != null) {
+      return constructor;
+    }
+    try {
+      constructor = MethodHandles.lookup().unreflectConstructor(clss.getConstructor());
+    }
+    catch (IllegalAccessException | NoSuchMethodException | ClassCastException e) {
+      throw new IllegalStateException("Error looking up no-arg constructor for " + clss.getName(), e);
+    }
+    // Don't cache constructor for class of an evicted script since this would stop it from being unloaded
+    if (!(clss.getClassLoader() instanceof ScriptClassLoader && ((ScriptClassLoader)clss.getClassLoader()).isReleased())) {
+      constructors.putIfAbsent(clss, constructor);
+    }
+    return constructor;
   }
   
   public Functions getFunctions() {
@@ -603,6 +813,9 @@ public class JactlContext {
 
   public JactlClassDescriptor getClassDescriptor(String internalName) {
     JactlClassDescriptor desc = classLookup.lookup(internalName);
+    if (desc == null) {
+      desc = getScriptClassDescriptor(internalName);
+    }
     if (desc == null) {
       internalName = internalName.startsWith(internalJavaPackage) ? internalName.substring(internalJavaPackage.length() + 1) : internalName;
       desc = getRegisteredClasses().getClassDescriptor(internalName.replace('/','.'));
@@ -637,9 +850,41 @@ public class JactlContext {
   }
 
   public void saveCheckpoint(UUID id, int checkpointId, byte[] checkpoint, String source, int offset, Object result, Consumer<Object> resumer) {
+    if (checkpointBatcher != null) {
+      checkpointBatcher.add(new CheckpointRecord(id, checkpointId, checkpoint, false, source, offset, result, resumer));
+      return;
+    }
     executionEnv.saveCheckpoint(id, checkpointId, checkpoint, source, offset, result, resumer);
   }
 
+  public void saveCheckpoint(UUID id, int checkpointId, ByteBuffer checkpoint, Runnable release, String source, int offset, Object result, Consumer<Object> resumer) {
+    if (checkpointBatcher != null) {
+      // Batched checkpoints can outlive the encoding buffer so copy and release it straight away
+      byte[] buf = new byte[checkpoint.remaining()];
+      checkpoint.get(buf);
+      release.run();
+      saveCheckpoint(id, checkpointId, buf, source, offset, result, resumer);
+      return;
+    }
+    executionEnv.saveCheckpoint(id, checkpointId, checkpoint, release, source, offset, result, resumer);
+  }
+
+  public void saveCheckpointDelta(UUID id, int checkpointId, byte[] delta, String source, int offset, Object result, Consumer<Object> resumer) {
+    if (checkpointBatcher != null) {
+      checkpointBatcher.add(new CheckpointRecord(id, checkpointId, delta, true, source, offset, result, resumer));
+      return;
+    }
+    executionEnv.saveCheckpointDelta(id, checkpointId, delta, source, offset, result, resumer);
+  }
+
+  public int maxCheckpointDeltas() { return maxCheckpointDeltas; }
+
+  public CheckpointCodec checkpointCodec() { return checkpointCodec; }
+
+  public boolean lazyRestore() { return lazyRestore; }
+
+  public boolean persistentCollections() { return persistentCollections; }
+
   /**
    * Delete the checkpoint (possibly asynchronously in the background).
    * We don't need to wait for delete since the worst that will happen is that if we die before
@@ -666,6 +911,35 @@ public class JactlContext {
     scheduleEvent(null, () -> resumeContinuation(resultHandler, result, cont, cont.scriptInstance, state));
   }
 
+  /**
+   * Restore checkpoint from a full checkpoint and subsequent deltas (see {@link JactlEnv#saveCheckpointDelta})
+   * and run script from where it had been checkpointed.
+   * Invoke result handler with final result once script has finished.
+   * @param checkpoints    the full checkpoint followed by any deltas in checkpointId order
+   * @param resultHandler  handler to be invoked with final script result
+   */
+  public void recoverCheckpoint(List<byte[]> checkpoints, Consumer<Object> resultHandler) {
+    checkFullCheckpoint(checkpoints);
+    recoverCheckpoint(Restorer.applyDeltas(this, checkpoints), resultHandler);
+  }
+
+  /**
+   * Combine a full checkpoint and subsequent deltas into a single full checkpoint.
+   * @param checkpoints  the full checkpoint followed by any deltas in checkpointId order
+   * @return the full checkpoint
+   */
+  public byte[] compactCheckpoints(List<byte[]> checkpoints) {
+    checkFullCheckpoint(checkpoints);
+    byte[] image = Restorer.applyDeltas(this, checkpoints);
+    return Checkpointer.compress(this, image, 0, image.length);
+  }
+
+  private static void checkFullCheckpoint(List<byte[]> checkpoints) {
+    if (checkpoints.isEmpty() || Checkpointer.isDelta(checkpoints.get(0))) {
+      throw new IllegalArgumentException("First checkpoint must be a full checkpoint");
+    }
+  }
+
   //////////////////////////////////
 
   public JactlType typeOf(Object obj) {
@@ -733,7 +1007,7 @@ public class JactlContext {
     if (desc != null) {
       return createInstanceType(desc);
     }
-    if (context != null && context.allowHostAccess && context.allowHostClassLookup != null && context.allowHostClassLookup.test(clss.getName())) {
+    if (context != null && context.allowHostAccess && context.isHostClassAllowed(clss.getName())) {
       return createInstanceType(clss, true, context);
     }
     return defaultType;
@@ -746,7 +1020,7 @@ public class JactlContext {
       throw new RuntimeError("Access to host classes not allowed (see allowHostAccess flag). Class is " + parent.getClass().getName(), source, offset);
     }
     Class<?> parentClass = parent.getClass();
-    if (allowHostClassLookup == null || !allowHostClassLookup.test(parentClass.getName())) {
+    if (!isHostClassAllowed(parentClass.getName())) {
       // Class is not an allowed class
       throw new RuntimeError("Host class " + parentClass.getName() + " is not an allowed class (see allowHostClassLookup option)", source, offset);
     }
@@ -772,7 +1046,7 @@ public class JactlContext {
     if (!allowHostAccess) {
       throw new RuntimeError("Access to host classes not allowed (see allowHostAccess flag). Class is " + parentClass.getName(), source, offset);
     }
-    if (allowHostClassLookup == null || !allowHostClassLookup.test(parentClass.getName())) {
+    if (!isHostClassAllowed(parentClass.getName())) {
       // Class is not an allowed class
       throw new RuntimeError("Host class " + parentClass.getName() + " is not an allowed class (see allowHostClassLookup option)", source, offset);
     }
@@ -864,7 +1138,7 @@ public class JactlContext {
         // Eliminate methods belonging to base classes that have not been enabled
         List<Method> enabledMethods = new ArrayList<>();
         for (Method m: methods) {
-          if (allowHostClassLookup.test(m.getDeclaringClass().getName())) {
+          if (isHostClassAllowed(m.getDeclaringClass().getName())) {
             enabledMethods.add(m);
           }
         }
@@ -889,7 +1163,7 @@ public class JactlContext {
       return null;
     }
     Method method = methods.get(0);
-    if (!this.allowHostClassLookup.test(method.getDeclaringClass().getName())) {
+    if (!isHostClassAllowed(method.getDeclaringClass().getName())) {
       errorHandler.accept("Method is from base class '" + method.getDeclaringClass().getName() + "' that is not an allowed host class (see allowHostClassLookup option)");
     }
     return method;
@@ -979,6 +1253,7 @@ public class JactlContext {
     RuntimeState.setState(state);
     try {
       Object result = cont.continueExecution(asyncResult);
+      RuntimeState.flushOutput();
       // We finally get the real result out of the script execution
       cleanUp(instance);
       completion.accept(result);
@@ -993,6 +1268,7 @@ public class JactlContext {
   }
 
   private void cleanUp(JactlScriptObject instance) {
+    RuntimeState.flushOutputQuietly();     // In case of error
     RuntimeState.resetState();
     if (instance != null && instance._$j$isCheckpointed()) {
       instance._$j$incrementCheckpointId();
@@ -1021,9 +1297,9 @@ public class JactlContext {
   ////////////////////////////////////////////
   
   public class DynamicClassLoader extends ClassLoader {
-    private Map<String,Class<?>> classes                = new HashMap<>();
-    private Map<String,String>   classSource            = new HashMap<>();
-    private Map<String,Class<?>> classesByInternalName  = new HashMap<>();
+    private Map<String,Class<?>> classes                = new ConcurrentHashMap<>();
+    private Map<String,String>   classSource            = new ConcurrentHashMap<>();
+    private Map<String,Class<?>> classesByInternalName  = new ConcurrentHashMap<>();
     private DynamicClassLoader   previous               = null;
 
     DynamicClassLoader() {
@@ -1090,6 +1366,94 @@ public class JactlContext {
     }
   }
 
+  /**
+   * Class loader for the classes of a single script compiled when a {@link ScriptCache} has been
+   * configured. Classes of the script are defined in this loader rather than the DynamicClassLoader
+   * so that, once the script has been evicted from the cache and nothing else refers to them, the
+   * class loader and its classes can be garbage collected (freeing the metaspace they use).
+   */
+  public class ScriptClassLoader extends ClassLoader {
+    private final Map<String,JactlClassDescriptor> descriptors = new ConcurrentHashMap<>();
+    private       long                             size        = 0;
+    private volatile boolean                       released    = false;
+
+    ScriptClassLoader(DynamicClassLoader parent) {
+      super(parent);
+    }
+
+    /**
+     * Define class of script being compiled
+     * @param descriptor  the class descriptor
+     * @param bytes       the byte code
+     * @return the class
+     */
+    public synchronized Class<?> defineClass(JactlClassDescriptor descriptor, byte[] bytes) {
+      return defineClass(descriptor.getInternalName(), descriptor, bytes);
+    }
+
+    /**
+     * Define class of script using byte code loaded from {@link CompiledCodeCache}
+     * @param internalName  the internal name of the class
+     * @param descriptor    the class descriptor (or null if script has no classes that need their descriptor)
+     * @param bytes         the byte code
+     * @return the class
+     */
+    public synchronized Class<?> defineClass(String internalName, JactlClassDescriptor descriptor, byte[] bytes) {
+      Class<?> clss = defineClass(internalName.replace('/', '.'), bytes, 0, bytes.length);
+      scriptClasses.put(internalName, new WeakReference<>(clss));
+      size += bytes.length;
+      if (descriptor != null) {
+        addClass(descriptor);
+        descriptors.put(internalName, descriptor);
+      }
+      return clss;
+    }
+
+    /**
+     * Get descriptor of one of our classes. Descriptors remain available after we have been released
+     * since instances of the script may still be running (or restored from a checkpoint).
+     * @param internalName  the internal name of the class
+     * @return the class descriptor or null if not one of our classes
+     */
+    public JactlClassDescriptor getDescriptor(String internalName) {
+      return descriptors.get(internalName);
+    }
+
+    /**
+     * @return the total size of the byte code of the classes defined by this class loader
+     */
+    public synchronized long getSize() {
+      return size;
+    }
+
+    /**
+     * Remove references to our classes held by the JactlContext so that we can be unloaded once
+     * nothing else refers to the classes. Scripts already handed out can still be run: their class
+     * descriptors are found via {@link #getDescriptor(String)} rather than the JactlContext.
+     */
+    public synchronized void release() {
+      released = true;
+      descriptors.values().forEach(descriptor -> classDescriptors.remove(descriptor.getInternalName(), descriptor));
+      constructors.keySet().removeIf(clss -> clss.getClassLoader() == this);
+      getFunctions().removeClasses(this);
+      InvokeDynamicBootstrap.MaxDepthCallSite.removeClasses(this);
+      // Entries for our classes remain while the classes are still alive (in case of a checkpoint
+      // being restored for a running instance) so just purge entries for unloaded classes
+      scriptClasses.values().removeIf(ref -> ref.get() == null);
+    }
+
+    /**
+     * @return true if we have been released (script evicted from ScriptCache)
+     */
+    public boolean isReleased() {
+      return released;
+    }
+
+    public JactlContext getJactlContext() {
+      return JactlContext.this;
+    }
+  }
+
   //////////////////////////////////
   
   private static class HostClassMethodInvoker {
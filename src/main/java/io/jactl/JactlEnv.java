@@ -17,6 +17,10 @@
 
 package io.jactl;
 
+import io.jactl.runtime.CheckpointRecord;
+
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.UUID;
 import java.util.function.Consumer;
 
@@ -91,6 +95,82 @@ public interface JactlEnv {
     resumer.accept(result);
   }
 
+  /**
+   * <p>Save checkpoint with given id where the checkpoint is passed as a ByteBuffer rather than a byte[].</p>
+   * <p>The ByteBuffer is a read-only view over the buffer that the checkpoint was encoded into, so no copy of
+   * the checkpoint has been made. Implementations can write it directly to a channel or copy it into a buffer
+   * they own (a direct ByteBuffer, for example) and must then invoke <code>release</code> to allow the buffer to be
+   * reused for other checkpoints. The ByteBuffer must not be accessed after <code>release</code> has been invoked.
+   * The release callback can be invoked from any thread.</p>
+   * <p>The default implementation copies the checkpoint into a byte[], releases the buffer, and then invokes
+   * {@link #saveCheckpoint(UUID, int, byte[], String, int, Object, Consumer)} so environments only need to override
+   * this method if they want to avoid the copy.</p>
+   * <p>Other requirements are the same as for {@link #saveCheckpoint(UUID, int, byte[], String, int, Object, Consumer)}.</p>
+   * @param id           unique id that identifies script instance
+   * @param checkpointId the checkpoint id for this script instance (guaranteed to be incrementing with no gaps)
+   * @param checkpoint   the checkpointed state to be saved
+   * @param release      callback to be invoked once the checkpoint buffer is no longer needed
+   * @param source       source code line (for error reporting)
+   * @param offset       offset where checkpointing occurring (for errors)
+   * @param result       result to pass to resumer once checkpoint has been saved (error passed in if error during save)
+   * @param resumer      the code to invoke to resume execution once checkpoint has been saved
+   */
+  default void saveCheckpoint(UUID id, int checkpointId, ByteBuffer checkpoint, Runnable release, String source, int offset, Object result, Consumer<Object> resumer) {
+    byte[] buf = new byte[checkpoint.remaining()];
+    checkpoint.get(buf);
+    release.run();
+    saveCheckpoint(id, checkpointId, buf, source, offset, result, resumer);
+  }
+
+  /**
+   * <p>Save a delta checkpoint with given id.</p>
+   * <p>This is only invoked if delta checkpoints have been enabled (see
+   * {@link JactlContext.JactlContextBuilder#checkpointDeltas(int)}). The first checkpoint for a script instance
+   * is always passed to {@link #saveCheckpoint} as a full checkpoint and subsequent checkpoints are passed to this
+   * method as deltas that only contain the objects that have changed since the previous checkpoint.</p>
+   * <p>Each time a full checkpoint is saved via {@link #saveCheckpoint} it replaces the previous full checkpoint
+   * and any deltas for the script instance, so implementations can discard them at that point. The maximum number
+   * of deltas between full checkpoints is configurable when building the JactlContext.</p>
+   * <p>To recover, pass the full checkpoint followed by the deltas, in checkpointId order, to
+   * {@link JactlContext#recoverCheckpoint(List, Consumer)} or use {@link JactlContext#compactCheckpoints(List)}
+   * to combine them into a new full checkpoint.</p>
+   * <p>Threading and resumption requirements are the same as for {@link #saveCheckpoint}.</p>
+   * @param id           unique id that identifies script instance
+   * @param checkpointId the checkpoint id for this script instance (guaranteed to be incrementing with no gaps)
+   * @param delta        the delta from the previous checkpoint
+   * @param source       source code line (for error reporting)
+   * @param offset       offset where checkpointing occurring (for errors)
+   * @param result       result to pass to resumer once checkpoint has been saved (error passed in if error during save)
+   * @param resumer      the code to invoke to resume execution once checkpoint has been saved
+   */
+  default void saveCheckpointDelta(UUID id, int checkpointId, byte[] delta, String source, int offset, Object result, Consumer<Object> resumer) {
+    resumer.accept(result);
+  }
+
+  /**
+   * <p>Save a batch of checkpoints for multiple script instances in a single operation.</p>
+   * <p>This is only invoked if checkpoint batching has been enabled (see
+   * {@link JactlContext.JactlContextBuilder#checkpointBatch(int, long)}). Checkpoints from different script
+   * instances are collected until the batch is full or the maximum delay has expired and are then passed to this
+   * method so that they can be persisted with a single write (group commit) rather than one write per checkpoint.</p>
+   * <p>Once the batch has been saved, {@link CheckpointRecord#resume()} should be invoked for each record (or
+   * {@link CheckpointRecord#fail(String)} if the save failed). Threading and resumption requirements are the same as
+   * for {@link #saveCheckpoint}.</p>
+   * <p>The default implementation passes each record to {@link #saveCheckpoint} or {@link #saveCheckpointDelta}
+   * individually.</p>
+   * @param records  the checkpoints to be saved
+   */
+  default void saveCheckpoints(List<CheckpointRecord> records) {
+    for (CheckpointRecord record: records) {
+      if (record.isDelta()) {
+        saveCheckpointDelta(record.getId(), record.getCheckpointId(), record.getCheckpoint(), record.getSource(), record.getOffset(), record.getResult(), record.getResumer());
+      }
+      else {
+        saveCheckpoint(record.getId(), record.getCheckpointId(), record.getCheckpoint(), record.getSource(), record.getOffset(), record.getResult(), record.getResumer());
+      }
+    }
+  }
+
   /**
    * Delete checkpoint data for given id once script instance has completed
    * @param id           the id of the script instance
@@ -45,6 +45,7 @@ public class JactlScript {
   private JactlScriptObject                                 scriptInstance;    // For when we don't need per invocation instance
   private volatile MethodHandle                             scriptConstructor;
   private volatile MethodHandle                             scriptMainMethodHandle;
+  private volatile GlobalsLayout                            globalsLayout;
 
   private JactlScript(Class<?> compiledClass, JactlContext jactlContext, boolean isAsync, boolean needsPerInvocationInstance) {
     this.compiledClass = compiledClass;
@@ -102,6 +103,7 @@ public class JactlScript {
         try {
           instance = (JactlScriptObject) getScriptConstructor().invokeExact();
           Object result = (Object)getScriptMainMethodHandle().invokeExact(instance, (Continuation) null, map);
+          flushOutput(false);
           cleanUp(instance, jactlContext);
           return result;
         }
@@ -109,10 +111,12 @@ public class JactlScript {
           throw c;
         }
         catch (RuntimeError e) {
+          flushOutput(true);
           cleanUp(instance, jactlContext);
           throw e;
         }
         catch (Throwable e) {
+          flushOutput(true);
           cleanUp(instance, jactlContext);
           throw new RuntimeException(e);
         }
@@ -122,12 +126,16 @@ public class JactlScript {
       if (needsPerInvocationInstance) {
         invoker = map -> {
           try {
-            return (Object) getScriptMainMethodHandle().invokeExact((JactlScriptObject) getScriptConstructor().invokeExact(), map);
+            Object result = (Object) getScriptMainMethodHandle().invokeExact((JactlScriptObject) getScriptConstructor().invokeExact(), map);
+            flushOutput(false);
+            return result;
           }
           catch (RuntimeError e) {
+            flushOutput(true);
             throw e;
           }
           catch (Throwable e) {
+            flushOutput(true);
             throw new RuntimeException(e);
           }
         };
@@ -140,7 +148,8 @@ public class JactlScript {
           try {
             if (scriptInstance == null) {
               scriptInstance = (JactlScriptObject) compiledClass.newInstance();
-              invoker = globals -> scriptInstance._$j$main(globals);
+              invoker = jactlContext.outputBufferSize > 0 ? this::runScriptInstance
+                                                          : globals -> scriptInstance._$j$main(globals);
             }
           }
           catch (RuntimeError e) {
@@ -149,7 +158,7 @@ public class JactlScript {
           catch (Throwable e) {
             throw new RuntimeException(e);
           }
-          return scriptInstance._$j$main(map);
+          return runScriptInstance(map);
         };
       }
     }
@@ -199,6 +208,33 @@ public class JactlScript {
     return result;
   }
 
+  private Object runScriptInstance(Map<String,Object> globals) {
+    try {
+      Object result = scriptInstance._$j$main(globals);
+      flushOutput(false);
+      return result;
+    }
+    catch (RuntimeException | Error e) {
+      flushOutput(true);
+      throw e;
+    }
+  }
+
+  /**
+   * Write any output buffered during the script invocation (if output buffering enabled)
+   * @param ignoreErrors  true if script has already failed and we should ignore any errors
+   */
+  private void flushOutput(boolean ignoreErrors) {
+    if (jactlContext.outputBufferSize > 0) {
+      if (ignoreErrors) {
+        RuntimeState.flushOutputQuietly();
+      }
+      else {
+        RuntimeState.flushOutput();
+      }
+    }
+  }
+
   private static void cleanUp(JactlScriptObject instance, JactlContext context) {
     if (instance != null && instance._$j$isCheckpointed()) {
       context.deleteCheckpoint(instance._$j$getInstanceId(), instance._$j$checkpointId());
@@ -209,6 +245,38 @@ public class JactlScript {
     return compiledClass;
   }
 
+  /**
+   * <p>Get the layout of the global variables used by the script.</p>
+   * <p>Running the script with globals created via {@link GlobalsLayout#newGlobals()} means that access
+   * to the globals within the script is done via array slots rather than Map lookups.</p>
+   * @return the GlobalsLayout for the script
+   */
+  public GlobalsLayout getGlobalsLayout() {
+    GlobalsLayout result = globalsLayout;
+    if (result == null) {
+      String[] names;
+      try {
+        names = (String[])compiledClass.getField(Utils.JACTL_GLOBAL_NAMES).get(null);
+      }
+      catch (NoSuchFieldException e) {
+        names = new String[0];     // Compiled by earlier version
+      }
+      catch (IllegalAccessException e) {
+        throw new IllegalStateException("Internal error: " + e, e);
+      }
+      globalsLayout = result = new GlobalsLayout(names);
+    }
+    return result;
+  }
+
+  /**
+   * Create new (empty) Globals object for the GlobalsLayout of the script
+   * @return the new Globals object
+   */
+  public GlobalsLayout.Globals newGlobals() {
+    return getGlobalsLayout().newGlobals();
+  }
+
   /**
    * <p>Run the script with the given global variables. When finished it will invoke the
    * completion with the result. The completion may or may not be invoked on the same
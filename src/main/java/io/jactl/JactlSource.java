@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl;
+
+import java.util.Map;
+
+/**
+ * Source code for a Jactl script or class to be compiled by {@link Jactl#compileAll(java.util.List, JactlContext)}.
+ */
+public class JactlSource {
+
+  private final boolean            isClass;
+  private final String             source;
+  private final String             packageName;
+  private final Map<String,Object> globals;
+
+  private JactlSource(boolean isClass, String source, String packageName, Map<String,Object> globals) {
+    this.isClass     = isClass;
+    this.source      = source;
+    this.packageName = packageName;
+    this.globals     = globals;
+  }
+
+  /**
+   * Source for a script in the default Jactl package
+   * @param source   the source code
+   * @param globals  Map of global variables the script can reference
+   * @return the JactlSource
+   */
+  public static JactlSource script(String source, Map<String,Object> globals) {
+    return script(source, globals, Utils.DEFAULT_JACTL_PKG);
+  }
+
+  /**
+   * Source for a script
+   * @param source       the source code
+   * @param globals      Map of global variables the script can reference
+   * @param packageName  the Jactl package to compile the script into
+   * @return the JactlSource
+   */
+  public static JactlSource script(String source, Map<String,Object> globals, String packageName) {
+    return new JactlSource(false, source, packageName, globals);
+  }
+
+  /**
+   * Source for a class. If no package declaration in the class then class will be
+   * put into the root package.
+   * @param source  the source code for the class declaration
+   * @return the JactlSource
+   */
+  public static JactlSource jactlClass(String source) {
+    return jactlClass(source, "");
+  }
+
+  /**
+   * Source for a class (see {@link Jactl#compileClass(String, JactlContext, String)} for
+   * the meaning of the package name)
+   * @param source       the source code for the class declaration
+   * @param packageName  the Jactl package for the class
+   * @return the JactlSource
+   */
+  public static JactlSource jactlClass(String source, String packageName) {
+    return jactlClass(source, packageName, Utils.mapOf());
+  }
+
+  /**
+   * Source for a class that can access globals (see {@link JactlContext.JactlContextBuilder#classAccessToGlobals(boolean)})
+   * @param source       the source code for the class declaration
+   * @param packageName  the Jactl package for the class
+   * @param globals      Map of global variables the class can access
+   * @return the JactlSource
+   */
+  public static JactlSource jactlClass(String source, String packageName, Map<String,Object> globals) {
+    return new JactlSource(true, source, packageName, globals);
+  }
+
+  public boolean            isClass()        { return isClass; }
+  public String             getSource()      { return source; }
+  public String             getPackageName() { return packageName; }
+  public Map<String,Object> getGlobals()     { return globals; }
+}
@@ -2333,7 +2333,7 @@ public class Parser {
                 }
                 String fullClassName = pkg + "." + Stream.concat(Stream.of(outerClass.getStringValue()), innerClassPath.stream().map(Token::getStringValue)).collect(Collectors.joining("$"));
                 // If not a Jactl package and is a host class
-                if (!context.packageExists(pkg) && context.allowHostClassLookup.test(fullClassName)) {
+                if (!context.packageExists(pkg) && context.isHostClassAllowed(fullClassName)) {
                   Expr.ClassPath classPath = new Expr.ClassPath(path.get(0).newIdent(pkg), outerClass.newIdent(String.join(".", outerClass.getStringValue(), innerClassPath.stream().map(Token::getStringValue).collect(Collectors.joining(".")))));
                   try {
                     classPath.hostClass = Class.forName(fullClassName);
@@ -90,6 +90,7 @@ public class Utils {
   public static final String JACTL_LIST_INTERNAL = Type.getInternalName(JACTL_LIST_TYPE);
 
   public static final String JACTL_GLOBALS_NAME = JACTL_PREFIX + "globals";
+  public static final String JACTL_GLOBAL_NAMES = JACTL_PREFIX + "globalNames";     // Names of globals in slot order
   public static final String SOURCE_VAR_NAME    = JACTL_PREFIX + "source";
   public static final String OFFSET_VAR_NAME    = JACTL_PREFIX + "offset";
   public static final String ARGS_VAR_NAME      = JACTL_PREFIX + "args";
@@ -639,6 +640,11 @@ public class Utils {
 
   public static void loadContinuationArray(MethodVisitor mv, int contSlot, JactlType type) {
     mv.visitVarInsn(ALOAD, contSlot);
+    loadContinuationArray(mv, type);
+  }
+
+  // Continuation must already be on the stack
+  public static void loadContinuationArray(MethodVisitor mv, JactlType type) {
     mv.visitFieldInsn(GETFIELD, "io/jactl/runtime/Continuation",
                       type.isPrimitive() ? "localPrimitives" : "localObjects",
                       type.isPrimitive() ? "[J" : "[Ljava/lang/Object;");
@@ -0,0 +1,66 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Execution environment that runs blocking work on virtual threads when running on a JVM that supports
+ * them (Java 21+). This allows very large numbers of scripts to be blocked at the same time without having
+ * to size the blocking thread pool. Event-loop work and timers are handled the same way as for
+ * {@link DefaultEnv}.
+ * <p>On older JVMs blocking work is run on the DefaultEnv blocking thread pool.</p>
+ */
+public class VirtualThreadEnv extends DefaultEnv {
+  // Looked up reflectively since we still need to run on Java 8
+  private static final ExecutorService virtualThreadExecutor = createVirtualThreadExecutor();
+
+  private static ExecutorService createVirtualThreadExecutor() {
+    try {
+      return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+    }
+    catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * @return true if the JVM supports virtual threads and blocking work will be run on them
+   */
+  public static boolean virtualThreadsSupported() {
+    return virtualThreadExecutor != null;
+  }
+
+  @Override
+  public void scheduleBlocking(Runnable blocking) {
+    if (virtualThreadExecutor == null) {
+      super.scheduleBlocking(blocking);
+    }
+    else {
+      virtualThreadExecutor.submit(blocking);
+    }
+  }
+
+  public static void shutdown() {
+    DefaultEnv.shutdown();
+    if (virtualThreadExecutor != null) {
+      virtualThreadExecutor.shutdown();
+    }
+  }
+}
@@ -27,6 +27,7 @@ import java.math.BigDecimal;
 import java.util.*;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -59,6 +60,9 @@ public class ClassCompiler {
 
   final         Map<Object,String> classConstantNames = new HashMap<>();
   private       int                classConstantCnt   = 0;
+  private final Map<String,String> regexPatternNames  = new HashMap<>();
+  Map<String,byte[]>               classBytes         = null;    // If non-null then collect byte code of classes for CompiledCodeCache
+  JactlContext.ScriptClassLoader   scriptClassLoader  = null;    // If non-null then define classes in this loader (see ScriptCache)
 
   private static final String CONTINUATION_METHOD_DESCRIPTOR = Type.getMethodDescriptor(Type.getType(Object.class), Type.getType(Continuation.class));
 
@@ -157,6 +161,39 @@ public class ClassCompiler {
     });
   }
 
+  /**
+   * Get name of static field that holds the precompiled Pattern for a constant regex, creating
+   * the field (and its initialisation in the class initialiser) the first time the regex is seen.
+   * @param regex      the regex
+   * @param modifiers  the modifiers (only 'i', 'm', 's')
+   * @return the field name or null if the regex is invalid (so error will be reported at runtime as usual)
+   */
+  String regexPatternField(String regex, String modifiers) {
+    String key       = modifiers + "/" + regex;
+    String fieldName = regexPatternNames.get(key);
+    if (fieldName == null) {
+      try {
+        PatternCache.compile(regex, modifiers, source, 0);
+      }
+      catch (RuntimeError e) {
+        return null;
+      }
+      fieldName = JACTL_PREFIX + "pattern_" + regexPatternNames.size();
+      FieldVisitor fv = cv.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC, fieldName, Type.getDescriptor(Pattern.class), null, null);
+      fv.visitEnd();
+      classInit.visitLdcInsn(regex);
+      classInit.visitLdcInsn(modifiers);
+      classInit.visitInsn(ACONST_NULL);
+      Utils.loadConst(classInit, 0, context);
+      classInit.visitMethodInsn(INVOKESTATIC, Type.getInternalName(PatternCache.class), "compile",
+                                Type.getMethodDescriptor(Type.getType(Pattern.class), Type.getType(String.class), Type.getType(String.class), Type.getType(String.class), Type.INT_TYPE),
+                                false);
+      classInit.visitFieldInsn(PUTSTATIC, internalName, fieldName, Type.getDescriptor(Pattern.class));
+      regexPatternNames.put(key, fieldName);
+    }
+    return fieldName;
+  }
+
   protected void printNewTrace() {
     if (printer == null || !debug(3)) {
       return;
@@ -188,6 +225,8 @@ public class ClassCompiler {
     orderedInnerClasses.forEach(clss -> {
       if (clss != classDecl) {
         ClassCompiler compiler = new ClassCompiler(source, context, pkg, clss, sourceName);
+        compiler.classBytes        = classBytes;
+        compiler.scriptClassLoader = scriptClassLoader;
         compiler.compileSingleClass();
       }
     });
@@ -225,7 +264,11 @@ public class ClassCompiler {
     if (context.printSize) {
       System.out.println("Class " + className + ": compiled size = " + bytes.length);
     }
-    compiledClass = context.defineClass(globalsHaveErasedType() ? source : null, classDescriptor, bytes);
+    compiledClass = scriptClassLoader != null ? scriptClassLoader.defineClass(classDescriptor, bytes)
+                                              : context.defineClass(globalsHaveErasedType() ? source : null, classDescriptor, bytes);
+    if (classBytes != null) {
+      classBytes.put(internalName, bytes);
+    }
   }
 
   /**
@@ -703,8 +746,7 @@ public class ClassCompiler {
   private void compileToJsonFunction() {
     final int THIS_SLOT      = 0;
     final int BUFF_SLOT      = 1;
-    final int FIRST_SLOT     = 2;
-    final int ARR_SLOT_START = 3;
+    final int ARR_SLOT_START = 2;
     MethodVisitor mv = cv.visitMethod(ACC_PUBLIC, Utils.JACTL_WRITE_JSON, Type.getMethodDescriptor(Utils.VOID_TYPE, Utils.JSON_ENCODER_TYPE),
                                       null, null);
     BiConsumer<String, Class> invoke = (method,type) -> mv.visitMethodInsn(INVOKEVIRTUAL, Utils.JSON_ENCODER_INTERNAL, method,
@@ -712,62 +754,36 @@ public class ClassCompiler {
                                                                            false);
 
     mv.visitCode();
-    mv.visitVarInsn(ALOAD, BUFF_SLOT);
-    Utils.loadConst(mv, '{', context);
-    invoke.accept("writeByte", char.class);
-    boolean notFirstOutput = false;
+    // Every field is always written (null values as null) so we know at compile time which fields need a
+    // preceding ',' and can precompute the encoded bytes for '{' or ',' plus the quoted field name and ':'
+    // in a static field rather than encoding the field name each time.
     boolean first = true;
-    boolean usingFirstSlot = false;
     for (Iterator<Map.Entry<String, JactlType>> iter = classDescriptor.getAllFieldsStream().iterator(); iter.hasNext(); ) {
       Map.Entry<String, JactlType> f     = iter.next();
       String                       field = f.getKey();
-      JactlType type  = f.getValue();
-      if (!type.isPrimitive()) {
-        if (first) {
-          // If we are first, and we are not a primitive then we need to initialise flag to know whether we have
-          // output any field yet or not
-          Utils.loadConst(mv, 0, context);         // 0 - first, non-zero for anything else
-          mv.visitVarInsn(ISTORE, FIRST_SLOT);
-          usingFirstSlot = true;
-        }
-      }
-
-      if (notFirstOutput) {
-        mv.visitVarInsn(ALOAD, BUFF_SLOT);
-        Utils.loadConst(mv, ',', context);
-        invoke.accept("writeByte", char.class);
-      }
-      else
-      if (usingFirstSlot) {
-        if (!first) {
-          Label isFirst = new Label();
-          mv.visitVarInsn(ILOAD, FIRST_SLOT);
-          mv.visitJumpInsn(IFEQ, isFirst);
-          mv.visitVarInsn(ALOAD, BUFF_SLOT);
-          Utils.loadConst(mv, ',', context);
-          invoke.accept("writeByte", char.class);
-          mv.visitLabel(isFirst);
-        }
-        mv.visitIincInsn(FIRST_SLOT, 1);
-      }
-
-      if (type.isPrimitive()) {
-        notFirstOutput = true;   // Definitely know that we have output something since primitives can't be null
-      }
-
-      mv.visitVarInsn(ALOAD, BUFF_SLOT);
-      Utils.loadConst(mv, field, context);
-      invoke.accept("writeString", String.class);
+      JactlType                    type  = f.getValue();
+      String                       name  = JACTL_PREFIX + "jsonField_" + field;
+      FieldVisitor                 fv    = cv.visitField(ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC, name, "[B", null, null);
+      fv.visitEnd();
+      Utils.loadConst(classInit, first ? '{' : ',', context);
+      classInit.visitLdcInsn(field);
+      classInit.visitMethodInsn(INVOKESTATIC, Utils.JSON_ENCODER_INTERNAL, "fieldName", "(CLjava/lang/String;)[B", false);
+      classInit.visitFieldInsn(PUTSTATIC, internalName, name, "[B");
 
       mv.visitVarInsn(ALOAD, BUFF_SLOT);
-      Utils.loadConst(mv, ':', context);
-      invoke.accept("writeByte", char.class);
+      mv.visitFieldInsn(GETSTATIC, internalName, name, "[B");
+      invoke.accept("writeBytes", byte[].class);
       mv.visitVarInsn(ALOAD, BUFF_SLOT);
       mv.visitVarInsn(ALOAD, THIS_SLOT);
       mv.visitFieldInsn(GETFIELD, internalName, field, type.descriptor());
       writeField(mv, type, invoke, ARR_SLOT_START);
       first = false;
     }
+    if (first) {
+      mv.visitVarInsn(ALOAD, BUFF_SLOT);
+      Utils.loadConst(mv, '{', context);
+      invoke.accept("writeByte", char.class);
+    }
     mv.visitVarInsn(ALOAD, BUFF_SLOT);
     Utils.loadConst(mv, '}', context);
     invoke.accept("writeByte", char.class);
@@ -785,7 +801,8 @@ public class ClassCompiler {
     final int ARR_IDX_SLOT = arraySlots;
     final int ARR_SLOT     = arraySlots + 1;
     switch (type.getType()) {
-      case BYTE:
+      case BYTE:    Utils.loadConst(mv, 255, context); mv.visitInsn(IAND);    // Bytes are 0-255
+                    invoke.accept("writeInt", int.class);           break;
       case INT:     invoke.accept("writeInt", int.class);           break;
       case BOOLEAN: invoke.accept("writeBoolean", boolean.class);   break;
       case LONG:    invoke.accept("writeLong", long.class);         break;
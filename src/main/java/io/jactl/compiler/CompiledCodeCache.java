@@ -0,0 +1,368 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl.compiler;
+
+import io.jactl.CompileError;
+import io.jactl.JactlContext;
+import io.jactl.JactlScript;
+import io.jactl.JactlType;
+import io.jactl.Stmt;
+import io.jactl.Utils;
+import io.jactl.runtime.JactlClassDescriptor;
+
+import java.io.*;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * <p>Persistent on-disk cache of the byte code of compiled scripts.</p>
+ * <p>Each entry is stored in its own file whose name is the md5 of a key made up of the md5 of the
+ * script source, the Jactl version, the context options that affect code generation, the names and
+ * types of the globals passed in at compile time, and the sources of the Jactl classes that have
+ * been compiled in the JactlContext (since scripts can refer to these classes). When a script with
+ * the same key is compiled again (for example, after a restart) the classes are defined directly from
+ * the cached byte code without having to parse, resolve, analyse, or compile the script. Scripts that
+ * declare classes still need to be parsed and resolved in order to recreate the class descriptors of
+ * these classes, but the analysis and code generation are skipped.</p>
+ * <p>Files are written to a temporary file and then renamed so that multiple JactlContexts (or
+ * processes) can share the same directory. Any entry that cannot be read is treated as a miss.</p>
+ * <p>NOTE: byte code in the cache is loaded without any checks so the cache directory must only be
+ *          writable by the application. The cache cannot detect changes to registered functions or
+ *          host classes, so the directory should be cleared when these change in an incompatible way.</p>
+ */
+public class CompiledCodeCache {
+
+  private static final int    MAGIC  = 0x4A43430A;   // "JCC\n"
+  private static final int    FORMAT = 3;            // Version of the layout of each entry
+  private static final String SUFFIX = ".jcc";
+
+  private final File                 dir;
+  private final Map<String,String>   classSources = new TreeMap<>();    // Internal class name -> md5 of source
+  private       String               classesHash  = null;
+
+  // Results of allowHostClassLookup checks made while compiling a script on the current thread
+  private final ThreadLocal<Map<String,Boolean>> hostClassChecks = new ThreadLocal<>();
+
+  private final LongAdder hits   = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder errors = new LongAdder();
+
+  /**
+   * Create cache that stores entries in given directory (which will be created if it does not exist)
+   * @param dir  the directory
+   */
+  public CompiledCodeCache(File dir) {
+    if (dir.exists()) {
+      if (!dir.isDirectory()) {
+        throw new IllegalArgumentException("'" + dir.getPath() + "' is not a directory");
+      }
+    }
+    else if (!dir.mkdirs() && !dir.isDirectory()) {
+      throw new IllegalArgumentException("Could not create directory '" + dir.getPath() + "'");
+    }
+    this.dir = dir;
+  }
+
+  /**
+   * Record that a Jactl class has been compiled. Scripts compiled after this can refer to the class
+   * so the source of the class forms part of the key for subsequent scripts.
+   * @param internalName  the internal name of the class
+   * @param source        the source code of the class
+   */
+  public synchronized void classCompiled(String internalName, String source) {
+    classSources.put(internalName, Utils.md5Hash(source));
+    classesHash = null;
+  }
+
+  /**
+   * Get the key for a script
+   * @param source       the script source
+   * @param context      the JactlContext
+   * @param className    the class name for the script (or null for default name)
+   * @param packageName  the Jactl package of the script
+   * @param globals      the globals passed in at compile time
+   * @return the key
+   */
+  public String key(String source, JactlContext context, String className, String packageName, Map<String,Object> globals) {
+    return scriptKey(source, context, className, packageName, globals) + ";classes=" + classesHash();
+  }
+
+  /**
+   * Get the part of the key for a script that does not depend on the Jactl classes that have been
+   * compiled (also used by {@link ScriptCache})
+   * @param source       the script source
+   * @param context      the JactlContext
+   * @param className    the class name for the script (or null for default name)
+   * @param packageName  the Jactl package of the script
+   * @param globals      the globals passed in at compile time
+   * @return the key
+   */
+  static String scriptKey(String source, JactlContext context, String className, String packageName, Map<String,Object> globals) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("version=").append(Utils.JACTL_VERSION)
+      .append(";source=").append(Utils.md5Hash(source))
+      .append(";class=").append(className)
+      .append(";package=").append(packageName)
+      .append(";javaPackage=").append(context.javaPackage)
+      .append(";options=").append(options(context))
+      .append(";globals=");
+    if (globals != null) {
+      new TreeMap<>(globals).forEach((name, value) -> {
+        JactlType type = value instanceof JactlType ? context.typeFromClass(((JactlType)value).getJavaClass())
+                                                    : value == null ? JactlType.ANY : JactlContext.typeOf(value, context);
+        sb.append(name).append(':').append(type).append(',');
+      });
+    }
+    return sb.toString();
+  }
+
+  private static String options(JactlContext context) {
+    return "evaluateConstExprs:"      + context.evaluateConstExprs +
+           ",disableEval:"            + context.disableEval +
+           ",disablePrint:"           + context.disablePrint +
+           ",disableDie:"             + context.disableDie +
+           ",printLoop:"              + context.printLoop() +
+           ",nonPrintLoop:"           + context.nonPrintLoop() +
+           ",autoCreateAsync:"        + context.autoCreateAsync +
+           ",classAccessToGlobals:"   + context.classAccessToGlobals +
+           ",allowUndeclaredGlobals:" + context.allowUndeclaredGlobals +
+           ",allowHostAccess:"        + context.allowHostAccess +
+           ",async:"                  + context.isAsync +
+           ",invokeDynamic:"          + context.invokeDynamic +
+           ",maxLoopLimit:"           + context.maxLoopLimit +
+           ",maxExecutionTimeMs:"     + context.maxExecutionTimeMs +
+           ",minScale:"               + context.minScale +
+           ",localAliasesForGlobals:" + context.localAliasesForGlobals() +
+           ",globalAliases:"          + context.globalAliases();
+  }
+
+  /**
+   * Record the result of checking a host class against the allowHostClassLookup predicate of the
+   * JactlContext. The predicate itself cannot form part of the key so the checks made while compiling
+   * a script are stored with the script and repeated when it is loaded. If any check gives a different
+   * result then the entry is treated as a miss. This stops a JactlContext with a restrictive predicate
+   * from loading code compiled by one with a more permissive predicate (and vice versa).
+   * @param className  the name of the host class
+   * @param allowed    whether access to the class is allowed
+   */
+  public void hostClassChecked(String className, boolean allowed) {
+    Map<String,Boolean> checks = hostClassChecks.get();
+    if (checks != null) {
+      checks.put(className, allowed);
+    }
+  }
+
+  /**
+   * Start recording host class checks for the script about to be compiled on the current thread
+   */
+  void startCompile() {
+    hostClassChecks.set(new TreeMap<>());
+  }
+
+  /**
+   * Stop recording host class checks for current thread
+   * @return the checks made since {@link #startCompile()}
+   */
+  Map<String,Boolean> endCompile() {
+    Map<String,Boolean> checks = hostClassChecks.get();
+    hostClassChecks.remove();
+    return checks == null ? Collections.emptyMap() : checks;
+  }
+
+  private synchronized String classesHash() {
+    if (classesHash == null) {
+      StringBuilder sb = new StringBuilder();
+      classSources.forEach((name, hash) -> sb.append(name).append('=').append(hash).append(';'));
+      classesHash = Utils.md5Hash(sb.toString());
+    }
+    return classesHash;
+  }
+
+  /**
+   * Load script from cache.
+   * @param key      the key for the script
+   * @param context  the JactlContext in which to define the classes of the script
+   * @return the JactlScript or null if not in the cache
+   */
+  public JactlScript load(String key, JactlContext context) {
+    return load(key, context, null, null);
+  }
+
+  /**
+   * <p>Load script from cache.</p>
+   * <p>The class descriptors of any classes declared by the script cannot be recreated from the byte
+   * code but are needed at runtime (e.g. for method invocation on untyped values and for restoring
+   * checkpoints). For such scripts the resolver is invoked to parse and resolve the script again
+   * (which is still much cheaper than a full compile) so that the descriptors can be registered
+   * with the class loader.</p>
+   * @param key          the key for the script
+   * @param context      the JactlContext in which to define the classes of the script
+   * @param classLoader  the class loader for the classes of the script (or null to use the
+   *                     class loader of the JactlContext)
+   * @param resolver     parses and resolves the script returning its class descriptor (if null
+   *                     then scripts that declare classes are treated as a miss)
+   * @return the JactlScript or null if not in the cache
+   */
+  public JactlScript load(String key, JactlContext context, JactlContext.ScriptClassLoader classLoader, Supplier<JactlClassDescriptor> resolver) {
+    File file = file(key);
+    if (!file.exists()) {
+      misses.increment();
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT || !key.equals(in.readUTF())) {
+        misses.increment();
+        return null;
+      }
+      int hostClassCount = in.readInt();
+      for (int i = 0; i < hostClassCount; i++) {
+        String className = in.readUTF();
+        if (in.readBoolean() != (context.allowHostClassLookup != null && context.allowHostClassLookup.test(className))) {
+          misses.increment();
+          return null;
+        }
+      }
+      boolean  isAsync           = in.readBoolean();
+      boolean  hasFnUsesGlobals  = in.readBoolean();
+      boolean  hasClasses        = in.readBoolean();
+      if (hasClasses && resolver == null) {
+        misses.increment();
+        return null;
+      }
+      Map<String,JactlClassDescriptor> descriptors = hasClasses ? allDescriptors(resolver.get()) : Collections.emptyMap();
+      int      count             = in.readInt();
+      Class<?> scriptClass       = null;
+      for (int i = 0; i < count; i++) {
+        String internalName = in.readUTF();
+        byte[] bytes        = new byte[in.readInt()];
+        in.readFully(bytes);
+        JactlClassDescriptor descriptor = descriptors.get(internalName);
+        if (hasClasses && descriptor == null) {
+          throw new IOException("No class descriptor for " + internalName);
+        }
+        scriptClass = classLoader != null ? classLoader.defineClass(internalName, descriptor, bytes)
+                                          : context.defineCachedClass(internalName, descriptor, bytes);
+      }
+      if (scriptClass == null) {
+        throw new IOException("No classes in cache entry");
+      }
+      hits.increment();
+      return JactlScript.createScript(scriptClass, context, isAsync, hasFnUsesGlobals);
+    }
+    catch (IOException | LinkageError | CompileError e) {
+      // Treat corrupt or incompatible entry as a miss so that script gets compiled (and entry rewritten)
+      errors.increment();
+      misses.increment();
+      return null;
+    }
+  }
+
+  private static Map<String,JactlClassDescriptor> allDescriptors(JactlClassDescriptor scriptDescriptor) {
+    Map<String,JactlClassDescriptor> descriptors = new HashMap<>();
+    addDescriptors(scriptDescriptor.getUserData(Stmt.ClassDecl.class), descriptors);
+    return descriptors;
+  }
+
+  private static void addDescriptors(Stmt.ClassDecl classDecl, Map<String,JactlClassDescriptor> descriptors) {
+    descriptors.put(classDecl.classDescriptor.getInternalName(), classDecl.classDescriptor);
+    classDecl.innerClasses.forEach(inner -> addDescriptors(inner, descriptors));
+  }
+
+  /**
+   * Store the compiled classes of a script in the cache. Errors writing to the cache are ignored
+   * (apart from being counted) since the cache is only an optimisation.
+   * @param key               the key for the script
+   * @param classes           the byte code of the classes keyed on internal name (in the order they need to be defined
+   *                          with the script class itself last)
+   * @param hostClassChecks   the results of allowHostClassLookup checks made during compilation (see {@link #hostClassChecked(String, boolean)})
+   * @param isAsync           whether the script main is async
+   * @param hasFnUsesGlobals  whether script has functions/closures that use globals
+   * @param hasClasses        whether script declares classes (whose descriptors will need to be recreated when loaded)
+   */
+  public void store(String key, Map<String,byte[]> classes, Map<String,Boolean> hostClassChecks, boolean isAsync, boolean hasFnUsesGlobals, boolean hasClasses) {
+    File tmp = null;
+    try {
+      tmp = File.createTempFile("jactl", ".tmp", dir);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT);
+        out.writeUTF(key);
+        out.writeInt(hostClassChecks.size());
+        for (Map.Entry<String,Boolean> entry: hostClassChecks.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeBoolean(entry.getValue());
+        }
+        out.writeBoolean(isAsync);
+        out.writeBoolean(hasFnUsesGlobals);
+        out.writeBoolean(hasClasses);
+        out.writeInt(classes.size());
+        for (Map.Entry<String,byte[]> entry: classes.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeInt(entry.getValue().length);
+          out.write(entry.getValue());
+        }
+      }
+      try {
+        Files.move(tmp.toPath(), file(key).toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      }
+      catch (AtomicMoveNotSupportedException e) {
+        Files.move(tmp.toPath(), file(key).toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+      tmp = null;
+    }
+    catch (IOException e) {
+      errors.increment();
+    }
+    finally {
+      if (tmp != null) {
+        tmp.delete();
+      }
+    }
+  }
+
+  private File file(String key) {
+    return new File(dir, Utils.md5Hash(key) + SUFFIX);
+  }
+
+  /**
+   * Remove all entries from the cache directory
+   */
+  public void clear() {
+    File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+    if (files != null) {
+      Arrays.stream(files).forEach(File::delete);
+    }
+  }
+
+  /** @return the cache directory */
+  public File getDir()     { return dir; }
+  /** @return number of scripts loaded from the cache */
+  public long getHits()    { return hits.sum(); }
+  /** @return number of scripts not found in the cache */
+  public long getMisses()  { return misses.sum(); }
+  /** @return number of errors reading or writing cache entries */
+  public long getErrors()  { return errors.sum(); }
+
+  @Override public String toString() {
+    return "CompiledCodeCache[dir=" + dir + ", hits=" + getHits() + ", misses=" + getMisses() + ", errors=" + getErrors() + "]";
+  }
+}
@@ -24,8 +24,10 @@ import io.jactl.runtime.JactlClassDescriptor;
 
 import java.io.BufferedReader;
 import java.io.PrintStream;
-import java.util.Map;
+import java.util.*;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 /**
  * Internal class for invoking Jactl compiler. The methods in the {@link Jactl} class should be used instead
@@ -64,8 +66,66 @@ public class Compiler {
   }
 
   public static JactlScript compileScript(String source, JactlContext jactlContext, String className, String packageName, Map<String, Object> bindings) {
-    JactlClassDescriptor descriptor = parseAndResolve(source, jactlContext, className, packageName, bindings);
-    return compileClass(descriptor, jactlContext);
+    ScriptCache       scriptCache = jactlContext.replMode ? null : jactlContext.getScriptCache();
+    CompiledCodeCache codeCache   = jactlContext.replMode ? null : jactlContext.getCompiledCodeCache();
+    if (scriptCache == null && codeCache == null) {
+      JactlClassDescriptor descriptor = parseAndResolve(source, jactlContext, className, packageName, bindings);
+      return compileClass(descriptor, jactlContext);
+    }
+    String scriptKey = null;
+    if (scriptCache != null) {
+      scriptKey = scriptCache.key(source, jactlContext, className, packageName, bindings);
+      JactlScript script = scriptCache.get(scriptKey);
+      if (script != null) {
+        return script;
+      }
+    }
+
+    // Each cached script gets its own class loader so that its classes can be unloaded once evicted
+    JactlContext.ScriptClassLoader classLoader = scriptCache == null ? null : jactlContext.newScriptClassLoader();
+    String      codeKey = null;
+    JactlScript script  = null;
+    if (codeCache != null) {
+      codeKey = codeCache.key(source, jactlContext, className, packageName, bindings);
+      script  = codeCache.load(codeKey, jactlContext, classLoader, () -> parseAndResolve(source, jactlContext, className, packageName, bindings));
+      if (script == null && classLoader != null && classLoader.getSize() > 0) {
+        // Some classes loaded before error so start again with new class loader
+        classLoader.release();
+        classLoader = jactlContext.newScriptClassLoader();
+      }
+    }
+    if (script == null) {
+      if (codeCache != null) {
+        codeCache.startCompile();
+      }
+      try {
+        JactlClassDescriptor descriptor = parseAndResolve(source, jactlContext, className, packageName, bindings);
+        Stmt.ClassDecl       classDecl  = descriptor.getUserData(Stmt.ClassDecl.class);
+        new Analyser(jactlContext).analyseClass(classDecl);
+        ScriptCompiler compiler = new ScriptCompiler(source, jactlContext, classDecl);
+        compiler.classBytes        = codeCache == null ? null : new LinkedHashMap<>();
+        compiler.scriptClassLoader = classLoader;
+        script = compiler.compile();
+        if (codeCache != null) {
+          codeCache.store(codeKey, compiler.classBytes, codeCache.endCompile(), classDecl.scriptMain.declExpr.functionDescriptor.isAsync(), classDecl.hasFnUsesGlobals, !classDecl.innerClasses.isEmpty());
+        }
+      }
+      catch (RuntimeException e) {
+        if (classLoader != null) {
+          classLoader.release();
+        }
+        throw e;
+      }
+      finally {
+        if (codeCache != null) {
+          codeCache.endCompile();
+        }
+      }
+    }
+    if (scriptCache != null) {
+      scriptCache.put(scriptKey, script, classLoader);
+    }
+    return script;
   }
 
   public static JactlClassDescriptor parseAndResolve(String source, JactlContext jactlContext, String className, String packageName, Map<String, Object> bindings) {
@@ -117,6 +177,67 @@ public class Compiler {
     compileClass(source, jactlContext, packageName, scriptClass);
   }
 
+  /**
+   * Compile multiple scripts and classes in parallel (see {@link Jactl#compileAll(List, JactlContext)}).
+   * Classes are compiled first, in rounds: since a class can refer to another class that has not yet been
+   * compiled, any class that fails to compile is retried in the next round as long as at least one class
+   * compiled successfully in the current round. Once all classes have been compiled, the scripts are then
+   * compiled. Errors for all sources are reported together in a single CompileError (unexpected
+   * exceptions are converted into CompileErrors).
+   */
+  public static List<JactlScript> compileAll(List<JactlSource> sources, JactlContext jactlContext) {
+    if (jactlContext.replMode) {
+      throw new IllegalStateException("Cannot compile in parallel in repl mode");
+    }
+    int            count   = sources.size();
+    JactlScript[]  scripts = new JactlScript[count];
+    CompileError[] errors  = new CompileError[count];
+    List<Integer>  pending = IntStream.range(0, count).filter(i -> sources.get(i).isClass()).boxed().collect(Collectors.toList());
+    while (!pending.isEmpty()) {
+      pending.parallelStream().forEach(i -> {
+        JactlSource source = sources.get(i);
+        try {
+          compileClass(source.getSource(), jactlContext, source.getPackageName(), source.getGlobals());
+          errors[i] = null;
+        }
+        catch (RuntimeException e) {
+          errors[i] = toCompileError(e);
+        }
+      });
+      List<Integer> failed = pending.stream().filter(i -> errors[i] != null).collect(Collectors.toList());
+      if (failed.size() == pending.size()) {
+        break;
+      }
+      pending = failed;
+    }
+    IntStream.range(0, count).parallel().filter(i -> !sources.get(i).isClass()).forEach(i -> {
+      JactlSource source = sources.get(i);
+      try {
+        scripts[i] = compileScript(source.getSource(), jactlContext, null, source.getPackageName(), source.getGlobals());
+      }
+      catch (RuntimeException e) {
+        errors[i] = toCompileError(e);
+      }
+    });
+    List<CompileError> allErrors = Arrays.stream(errors).filter(Objects::nonNull).flatMap(e -> e.getErrors().stream()).collect(Collectors.toList());
+    if (!allErrors.isEmpty()) {
+      throw new CompileError(allErrors);
+    }
+    return Arrays.asList(scripts);
+  }
+
+  // Convert unexpected errors into CompileErrors so that they can be reported along with the
+  // errors for the other sources rather than being lost on one of the threads
+  private static CompileError toCompileError(RuntimeException e) {
+    if (e instanceof CompileError) {
+      return (CompileError)e;
+    }
+    if (e instanceof JactlError) {
+      return new CompileError(((JactlError)e).getErrorMessage(), ((JactlError)e).getLocation());
+    }
+    return new CompileError("Internal error", null, e);
+  }
+
   public static JactlScript compileWithCompletion(String source, JactlContext jactlContext, Stmt.ClassDecl script) {
     ScriptCompiler compiler = new ScriptCompiler(source, jactlContext, script);
     return compiler.compile();
@@ -125,5 +246,14 @@ public class Compiler {
   public static void compileClass(String source, JactlContext jactlContext, String packageName, Stmt.ClassDecl clss) {
     ClassCompiler compiler = new ClassCompiler(source, jactlContext, packageName, clss, clss.name.getStringValue() + ".jactl");
     compiler.compileClass();
+    CompiledCodeCache cache = jactlContext.getCompiledCodeCache();
+    if (cache != null) {
+      // Scripts compiled from now on can refer to this class
+      cache.classCompiled(clss.classDescriptor.getInternalName(), source);
+    }
+    ScriptCache scriptCache = jactlContext.getScriptCache();
+    if (scriptCache != null) {
+      scriptCache.classCompiled();
+    }
   }
 }
@@ -24,6 +24,7 @@ import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Type;
 
 import java.util.*;
+import java.util.function.BiConsumer;
 
 import static io.jactl.JactlType.*;
 import static io.jactl.JactlType.DOUBLE;
@@ -429,7 +430,17 @@ public class LocalTypes {
     }
   }
 
-  public void saveLocals(int continuationVar, int globalsVar, int longArr, int objArr, JactlContext jactlContext) {
+  /**
+   * Emit code to save our locals into the arrays of a Continuation when suspending.
+   * @param continuationVar     slot of the Continuation parameter
+   * @param globalsVar          slot of globals (not saved)
+   * @param longArr             slot to use for array of primitive values
+   * @param objArr              slot to use for array of object values
+   * @param jactlContext        the JactlContext
+   * @param createContinuation  emits code to leave the Continuation on the stack given the sizes of
+   *                            its long[] and Object[] (0 if no array needed)
+   */
+  public void saveLocals(int continuationVar, int globalsVar, int longArr, int objArr, JactlContext jactlContext, BiConsumer<Integer,Integer> createContinuation) {
     int  startSlot = isStatic ? 0 : 1;
     List<LocalEntry> entries = new ArrayList<>(locals.size() - startSlot);
     boolean savePrimitives = false;
@@ -451,29 +462,15 @@ public class LocalTypes {
       }
     }
 
-    if (!savePrimitives) {
-      mv.visitInsn(ACONST_NULL);
-      _storeLocal(longArr);
-    }
-    if (!saveObjects) {
-      mv.visitInsn(ACONST_NULL);
-      _storeLocal(objArr);
-    }
-
-    if (!savePrimitives && !saveObjects) {
-      return;   // nothing to do
-    }
-
-    Utils.loadConst(mv, locals.size(), jactlContext);
-    if (savePrimitives && saveObjects) {
-      mv.visitInsn(DUP);
-    }
+    createContinuation.accept(savePrimitives ? locals.size() : 0, saveObjects ? locals.size() : 0);
     if (savePrimitives) {
-      mv.visitIntInsn(NEWARRAY, T_LONG);
+      mv.visitInsn(DUP);
+      Utils.loadContinuationArray(mv, LONG);
       _storeLocal(longArr);
     }
     if (saveObjects) {
-      mv.visitTypeInsn(ANEWARRAY, "java/lang/Object");
+      mv.visitInsn(DUP);
+      Utils.loadContinuationArray(mv, ANY);
       _storeLocal(objArr);
     }
 
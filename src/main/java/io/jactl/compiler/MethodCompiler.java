@@ -32,6 +32,7 @@ import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -1071,18 +1072,61 @@ public class MethodCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     castToString(expr.string.location);
     loadVar(expr.captureArrVarDecl);
     swap();
-    compile(expr.pattern);
-    castToString(expr.pattern.location);
-    expect(3);
+    String patternField = regexPatternField(expr.pattern, modifiers);
+    if (patternField == null) {
+      compile(expr.pattern);
+      castToString(expr.pattern.location);
+      expect(3);
+    }
+    else {
+      expect(2);
+      loadRegexPattern(patternField);
+    }
     loadConst(globalModifier);
     loadConst(modifiers);
     loadLocation(expr.operator);
-    invokeMethod(RegexMatcher.REGEX_FIND_METHOD);
+    invokeMethod(patternField != null ? RegexMatcher.REGEX_FIND_PATTERN_METHOD : RegexMatcher.REGEX_FIND_METHOD);
     if (expr.operator.is(BANG_GRAVE)) {
       _booleanNot();
     }
   }
 
+  /**
+   * If the regex pattern is a constant then get the name of the static field in our class that
+   * holds the precompiled Pattern so that we don't have to look up the pattern cache every time.
+   * @return the field name or null if pattern is not a constant
+   */
+  private String regexPatternField(Expr pattern, String modifiers) {
+    String regex = constRegex(pattern);
+    return regex == null ? null : classCompiler.regexPatternField(regex, modifiers);
+  }
+
+  /**
+   * Load precompiled Pattern onto stack. NOTE: there is no JactlType for Pattern so it is tracked as ANY
+   * which means that it must be consumed before anything that could spill the stack to local vars.
+   */
+  private void loadRegexPattern(String fieldName) {
+    mv.visitFieldInsn(GETSTATIC, classCompiler.internalName, fieldName, Type.getDescriptor(Pattern.class));
+    pushType(ANY);
+  }
+
+  private static String constRegex(Expr pattern) {
+    if (pattern.isConst) {
+      return pattern.constValue instanceof String ? (String)pattern.constValue : null;
+    }
+    if (!(pattern instanceof Expr.ExprString)) {
+      return null;
+    }
+    StringBuilder sb = new StringBuilder();
+    for (Expr expr: ((Expr.ExprString)pattern).exprList) {
+      if (!expr.isConst || !(expr.constValue instanceof String)) {
+        return null;
+      }
+      sb.append((String)expr.constValue);
+    }
+    return sb.toString();
+  }
+
   private static String getStrippedModifiers(String exprModifiers) {
     String        modifiers = "";
     if (!exprModifiers.isEmpty()) {
@@ -1114,17 +1158,26 @@ public class MethodCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     storeClassField(MATCHER.getInternalName(), "captureAsNums", BOOLEAN, false);
 
     swap();
-    compile(expr.pattern);
-    castToString(expr.pattern.location);
+    String patternField = regexPatternField(expr.pattern, modifiers);
+    if (patternField == null) {
+      compile(expr.pattern);
+      castToString(expr.pattern.location);
+    }
 
     if (!expr.isComplexReplacement) {
       compile(expr.replace);
       castToString(expr.replace.location);
+      if (patternField != null) {
+        // Load Pattern after replacement string since replacement could be async
+        expect(3);
+        loadRegexPattern(patternField);
+        swap();
+      }
       expect(4);
       loadConst(globalModifier);
       loadConst(modifiers);
       loadLocation(expr.operator);
-      invokeMethod(RegexMatcher.REGEX_SUBSTITUTE_METHOD);
+      invokeMethod(patternField != null ? RegexMatcher.REGEX_SUBSTITUTE_PATTERN_METHOD : RegexMatcher.REGEX_SUBSTITUTE_METHOD);
       return null;
     }
 
@@ -1137,12 +1190,16 @@ public class MethodCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     _storeLocal(sbVar);
 
     // Setup our Matcher and get first result
+    if (patternField != null) {
+      expect(2);
+      loadRegexPattern(patternField);
+    }
     expect(3);
     //loadConst(false);     // We are taking care of looping for 'g' flag so tell regexFind not to track position
     loadConst(globalModifier);
     loadConst(modifiers);
     loadLocation(expr.operator);
-    invokeMethod(RegexMatcher.REGEX_FIND_METHOD);
+    invokeMethod(patternField != null ? RegexMatcher.REGEX_FIND_PATTERN_METHOD : RegexMatcher.REGEX_FIND_METHOD);
 
     Label done = new Label();
     Label loop = new Label();
@@ -2397,10 +2454,13 @@ public class MethodCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         args.add(0, convertedArgs);
       }
 
-      List<PipelineCompiler.InlineFn> pipelineFns = expr != parent ? PipelineCompiler.createPipeline(pipeline, args, this) : null;
+      // Don't inline pipelines on result of parallel() since the ParallelIterator runs these itself
+      boolean isParallel = parent instanceof Expr.MethodCall && "parallel".equals(((Expr.MethodCall) parent).methodName);
+      boolean inline     = expr != parent && !isParallel;
+      List<PipelineCompiler.InlineFn> pipelineFns = inline ? PipelineCompiler.createPipeline(pipeline, args, this) : null;
       // If single function in pipeline and function has potentially more efficient direct implementation
       // (e.g. size() for list/maps) then don't inline
-      if (expr != parent && !(pipelineFns.size() == 1 && pipelineFns.get(0).canBeDirect())) {
+      if (inline && !(pipelineFns.size() == 1 && pipelineFns.get(0).canBeDirect())) {
         // If the parent is ANY, we insert a check for the right parent type before executing
         // the inline pipeline and fall back to traditional method invocation if the parent
         // runtime type is not iterable.
@@ -2426,6 +2486,10 @@ public class MethodCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
                    PipelineCompiler.compilePipeline(finalParent, this, pipeline, pipelineFns);
                  });
         }
+        else if (PipelineCompiler.isPrimitivePipeline(parent, pipeline)) {
+          // Array of primitives with closures that can be inlined so no need to box elements
+          PipelineCompiler.compilePrimitivePipeline(parent, this, pipeline);
+        }
         else {
           box();
           loadLocation(parent.location);
@@ -4145,7 +4209,7 @@ public class MethodCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
    * more efficiently.
    * @param negated  if true conversion is negated
    */
-  private Void convertToBoolean(boolean negated) {
+  Void convertToBoolean(boolean negated) {
     if (peek().isBoxedOrUnboxed(BOOLEAN) && !negated) {
       unbox();
       return null;     // Nothing to do
@@ -4769,7 +4833,7 @@ public class MethodCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     pushType(BOOLEAN);
   }
 
-  private void throwIfNull(String msg, SourceLocation location) {
+  void throwIfNull(String msg, SourceLocation location) {
     expect(1);
     _dupVal();
     Label isNotNull = new Label();
@@ -5095,25 +5159,22 @@ public class MethodCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     mv.visitLabel(blockEnd);     // :blockEnd
 
     mv.visitLabel(catchLabel);   // :catchLabel
-    savedState.saveLocals(continuationVar, globalsVar, longArr, objArr, classCompiler.context);
-    mv.visitTypeInsn(NEW, "io/jactl/runtime/Continuation");
-
-    // Move copy of new Continuation to before current one and then swap to get order we want
-    // We have     : ...,caughtCont,newCont
-    // after dup_x1: ...,newCont,caughtCont,newCont
-    // after swap  : ...,newCont,newCont,caughtCont
-    mv.visitInsn(DUP_X1);
-    mv.visitInsn(SWAP);
-
-    _loadClassField(classCompiler.internalName, Utils.continuationHandle(methodFunDecl.functionDescriptor.implementingMethod), FUNCTION, true);
-    if (!methodFunDecl.isStatic()) {
-      _loadLocal(0);    // this
-      mv.visitMethodInsn(INVOKEVIRTUAL, "io/jactl/runtime/JactlMethodHandle", "bindTo", "(Ljava/lang/Object;)Lio/jactl/runtime/JactlMethodHandle;", false);
-    }
-    _loadConst(methodLocation);
-    _loadLocal(longArr);
-    _loadLocal(objArr);
-    mv.visitMethodInsn(INVOKESPECIAL, "io/jactl/runtime/Continuation", "<init>", "(Lio/jactl/runtime/Continuation;Lio/jactl/runtime/JactlMethodHandle;I[J[Ljava/lang/Object;)V", false);
+    // Stack has caught Continuation. Create our Continuation (reusing existing one if we have been
+    // resumed) chained to caught one and then save our locals into its arrays.
+    savedState.saveLocals(continuationVar, globalsVar, longArr, objArr, classCompiler.context, (numPrimitives, numObjects) -> {
+      _loadLocal(continuationVar);
+      _loadClassField(classCompiler.internalName, Utils.continuationHandle(methodFunDecl.functionDescriptor.implementingMethod), FUNCTION, true);
+      if (methodFunDecl.isStatic()) {
+        mv.visitInsn(ACONST_NULL);
+      }
+      else {
+        _loadLocal(0);    // this
+      }
+      _loadConst(methodLocation);
+      _loadConst(numPrimitives);
+      _loadConst(numObjects);
+      mv.visitMethodInsn(INVOKESTATIC, "io/jactl/runtime/Continuation", "capture", "(Lio/jactl/runtime/Continuation;Lio/jactl/runtime/Continuation;Lio/jactl/runtime/JactlMethodHandle;Ljava/lang/Object;III)Lio/jactl/runtime/Continuation;", false);
+    });
     if (methodFunDecl.isScriptMain) {
       mv.visitInsn(DUP);
       _loadLocal(0);
@@ -5686,11 +5747,7 @@ public class MethodCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       globalSlots.put(varDecl.name.getStringValue(), slot);
     }
     int slot = stack.globalVarSlot(varName);
-    loadGlobals();
-    loadConst(varName);
-    MethodRef method = RuntimeUtils.getGlobalVarMethod(varDecl.type);
-    if (method == null) {
-      invokeMethod(MAP_GET_METHOD);
+    if (!loadGlobal(varName, varDecl)) {
       if (create && !varDecl.type.is(ANY)) {
         tryCatch(ClassCastException.class, false,
                  () -> Utils.checkCast(mv, varDecl.type),
@@ -5700,16 +5757,36 @@ public class MethodCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         Utils.checkCast(mv, varDecl.type);
       }
     }
-    else {
-      loadLocation(varDecl.location);
-      invokeMethod(method);
-    }
     popType();
     pushType(varDecl.type);
     unbox();
     storeLocal(slot);
   }
 
+  // Slot of global in GlobalsLayout of script (or -1 if compiling a class other than the script class)
+  private int globalSlot(String varName) {
+    return classCompiler instanceof ScriptCompiler ? ((ScriptCompiler)classCompiler).globalSlot(varName) : -1;
+  }
+
+  /**
+   * Load value of global variable. If compiling the script class then the global has a slot
+   * in the script's GlobalsLayout so pass the slot in case globals are in a GlobalsLayout.Globals.
+   * @return true if value has been checked/cast to type of global or false if still needs casting
+   */
+  private boolean loadGlobal(String varName, Expr.VarDecl varDecl) {
+    loadGlobals();
+    loadConst(varName);
+    loadConst(globalSlot(varName));
+    MethodRef method = RuntimeUtils.getGlobalVarMethod(varDecl.type);
+    if (method == null) {
+      invokeMethod(RuntimeUtils.GET_GLOBAL);
+      return false;
+    }
+    loadLocation(varDecl.location);
+    invokeMethod(method);
+    return true;
+  }
+
   /**
    * Load variable from slot or globals or HeapLocal as required.
    */
@@ -5722,17 +5799,9 @@ public class MethodCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         loadLocal(slot);
         return;
       }
-      loadGlobals();
-      loadConst(varName);
-      MethodRef method = RuntimeUtils.getGlobalVarMethod(varDecl.type);
-      if (method == null) {
-        invokeMethod(MAP_GET_METHOD);
+      if (!loadGlobal(varName, varDecl)) {
         checkCast(varDecl.type);
       }
-      else {
-        loadLocation(varDecl.location);
-        invokeMethod(method);
-      }
       popType();
       pushType(varDecl.type.boxed());
       if (slot != -1) {
@@ -5839,9 +5908,8 @@ public class MethodCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
       swap();
       loadConst(varName);
       swap();
-      invokeMethod(MAP_PUT_METHOD);
-      // Pop result of put since we are not interested in previous value
-      popVal();
+      loadConst(globalSlot(varName));
+      invokeMethod(RuntimeUtils.PUT_GLOBAL);
       return;
     }
 
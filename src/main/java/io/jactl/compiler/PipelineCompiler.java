@@ -25,6 +25,7 @@ import java.util.ArrayList;
 import java.util.List;
 
 import static io.jactl.JactlType.*;
+import static io.jactl.JactlType.DOUBLE;
 import static io.jactl.JactlType.LONG;
 import static org.objectweb.asm.Opcodes.*;
 
@@ -92,6 +93,202 @@ public class PipelineCompiler {
     }
   }
 
+  /**
+   * Return the element type of a pipeline source or stage if it is known at compile time to be
+   * a primitive number. This is the case for int/long/double arrays and for map/filter stages
+   * (on such a source) whose closure is a simple expression of "it" (see {@link #isSimpleClosure(Expr,JactlType)}).
+   * The Resolver uses this to give "it" the element type so that these closures can be inlined
+   * without having to box each element.
+   * @param expr  the pipeline source or stage
+   * @return INT, LONG, DOUBLE, or null if elements are not known to be primitive
+   */
+  public static JactlType primitiveElemType(Expr expr) {
+    if (expr.type == null) {
+      return null;
+    }
+    if (expr.type.is(ARRAY)) {
+      JactlType elemType = expr.type.getArrayElemType();
+      return elemType != null && elemType.is(INT, LONG, DOUBLE) ? elemType : null;
+    }
+    if (!(expr instanceof Expr.MethodCall)) {
+      return null;
+    }
+    Expr.MethodCall methodCall = (Expr.MethodCall)expr;
+    JactlType       parentType = primitiveElemType(methodCall.parent);
+    Expr            body       = parentType == null ? null : primitiveClosureBody(methodCall, parentType);
+    if (body == null) {
+      return null;
+    }
+    return methodCall.methodName.equals("filter") ? parentType : body.type;
+  }
+
+  /**
+   * Check whether arg is a closure literal with no declared parameters whose body is
+   * a single expression built only from numeric/boolean literals, "it", and arithmetic,
+   * comparison and logical operators. Such closures cannot have side effects, capture
+   * other variables, or be async.
+   * The closure must also give the same result whether "it" has the given type or is untyped,
+   * so a ternary cannot mix "it" with a value of another type (the branches would otherwise be
+   * converted to a common type).
+   * @param arg     the argument
+   * @param itType  the type that "it" would have
+   * @return true if simple closure
+   */
+  public static boolean isSimpleClosure(Expr arg, JactlType itType) {
+    Expr body = closureBody(arg);
+    return body != null && staticType(body, itType) != null;
+  }
+
+  private static Expr closureBody(Expr arg) {
+    if (!(arg instanceof Expr.Closure) || !((Expr.Closure) arg).noParamsDefined) {
+      return null;
+    }
+    Expr.FunDecl funDecl = ((Expr.Closure) arg).funDecl;
+    if (funDecl.parameters.size() != 1 || funDecl.block == null) {
+      return null;
+    }
+    Expr body = null;
+    for (Stmt stmt: funDecl.block.stmts.stmts) {
+      if (stmt instanceof Stmt.VarDecl && ((Stmt.VarDecl) stmt).declExpr.isParam) {
+        continue;
+      }
+      if (body != null) {
+        return null;
+      }
+      if (stmt instanceof Stmt.ExprStmt)                                      { body = ((Stmt.ExprStmt) stmt).expr; }
+      else if (stmt instanceof Stmt.Return && ((Stmt.Return)stmt).expr != null) { body = ((Stmt.Return) stmt).expr.expr; }
+      else {
+        return null;
+      }
+    }
+    return body != null && identifiers(body, null) ? body : null;
+  }
+
+  // Check that expr is a simple expression and collect the "it" identifiers it uses
+  private static boolean identifiers(Expr expr, List<Expr.Identifier> idents) {
+    if (expr instanceof Expr.Literal) {
+      return ((Expr.Literal) expr).value.is(TokenType.INTEGER_CONST, TokenType.LONG_CONST, TokenType.DOUBLE_CONST, TokenType.TRUE, TokenType.FALSE);
+    }
+    if (expr instanceof Expr.Identifier) {
+      Expr.Identifier ident = (Expr.Identifier) expr;
+      if (!ident.identifier.getStringValue().equals(Utils.IT_VAR) || ident.varDecl != null && ident.varDecl.isHeapLocal) {
+        return false;
+      }
+      if (idents != null) {
+        idents.add(ident);
+      }
+      return true;
+    }
+    if (expr instanceof Expr.PrefixUnary) {
+      Expr.PrefixUnary unary = (Expr.PrefixUnary) expr;
+      return unary.operator.is(TokenType.MINUS, TokenType.BANG) && identifiers(unary.expr, idents);
+    }
+    if (expr instanceof Expr.Binary) {
+      Expr.Binary binary = (Expr.Binary) expr;
+      return binary.originalOperator == null &&
+             binary.operator.is(TokenType.PLUS, TokenType.MINUS, TokenType.STAR, TokenType.SLASH, TokenType.PERCENT, TokenType.PERCENT_PERCENT,
+                                TokenType.LESS_THAN, TokenType.LESS_THAN_EQUAL, TokenType.GREATER_THAN, TokenType.GREATER_THAN_EQUAL,
+                                TokenType.EQUAL_EQUAL, TokenType.BANG_EQUAL, TokenType.AMPERSAND_AMPERSAND, TokenType.PIPE_PIPE) &&
+             identifiers(binary.left, idents) && identifiers(binary.right, idents);
+    }
+    if (expr instanceof Expr.Ternary) {
+      Expr.Ternary ternary = (Expr.Ternary) expr;
+      return identifiers(ternary.first, idents) && identifiers(ternary.second, idents) && identifiers(ternary.third, idents);
+    }
+    return false;
+  }
+
+  // Type of simple expression when "it" has given type, or null if result would be different
+  // when "it" is untyped
+  private static JactlType staticType(Expr expr, JactlType itType) {
+    if (expr instanceof Expr.Literal) {
+      Token value = ((Expr.Literal) expr).value;
+      return value.is(TokenType.INTEGER_CONST) ? INT : value.is(TokenType.LONG_CONST) ? LONG : value.is(TokenType.DOUBLE_CONST) ? DOUBLE : BOOLEAN;
+    }
+    if (expr instanceof Expr.Identifier) {
+      return itType;
+    }
+    if (expr instanceof Expr.PrefixUnary) {
+      Expr.PrefixUnary unary = (Expr.PrefixUnary) expr;
+      JactlType        type  = staticType(unary.expr, itType);
+      return type == null ? null : unary.operator.is(TokenType.BANG) ? BOOLEAN : type;
+    }
+    try {
+      if (expr instanceof Expr.Binary) {
+        Expr.Binary binary = (Expr.Binary) expr;
+        JactlType   left   = staticType(binary.left, itType);
+        JactlType   right  = staticType(binary.right, itType);
+        return left == null || right == null ? null : JactlType.result(left, binary.operator, right);
+      }
+      if (expr instanceof Expr.Ternary) {
+        Expr.Ternary ternary = (Expr.Ternary) expr;
+        JactlType    second  = staticType(ternary.second, itType);
+        JactlType    third   = staticType(ternary.third, itType);
+        if (staticType(ternary.first, itType) == null || second == null || third == null) {
+          return null;
+        }
+        List<Expr.Identifier> idents = new ArrayList<>();
+        identifiers(ternary.second, idents);
+        identifiers(ternary.third, idents);
+        if (!second.equals(third) && !idents.isEmpty()) {
+          return null;
+        }
+        return JactlType.result(second, ternary.operator1, third);
+      }
+    }
+    catch (CompileError e) {
+      // Let Resolver report the error
+    }
+    return null;
+  }
+
+  // Get body of a map/filter closure that can be inlined for a primitive element type
+  private static Expr primitiveClosureBody(Expr.MethodCall stage, JactlType elemType) {
+    boolean isFilter = "filter".equals(stage.methodName);
+    if (!isFilter && !"map".equals(stage.methodName) || stage.args.size() != 1) {
+      return null;
+    }
+    Expr body = closureBody(stage.args.get(0));
+    if (body == null || body.type == null || !((Expr.Closure) stage.args.get(0)).funDecl.parameters.get(0).declExpr.type.is(elemType)) {
+      return null;
+    }
+    return (isFilter ? body.type.is(BOOLEAN, INT, LONG, DOUBLE) : body.type.is(INT, LONG, DOUBLE)) ? body : null;
+  }
+
+  /**
+   * Check whether pipeline on given parent can be compiled using {@link #compilePrimitivePipeline}.
+   * Parent must be an int/long/double array, all stages must be map/filter with closures that
+   * can be inlined, and the pipeline can optionally end with sum() or avg().
+   * @param parent  the source of the pipeline
+   * @param exprs   the pipeline stages
+   * @return true if pipeline can be compiled without boxing
+   */
+  public static boolean isPrimitivePipeline(Expr parent, List<Expr.MethodCall> exprs) {
+    if (primitiveElemType(parent) == null) {
+      return false;
+    }
+    for (int i = 0; i < exprs.size(); i++) {
+      Expr.MethodCall expr = exprs.get(i);
+      switch (expr.methodName) {
+        case "map":
+        case "filter":
+          if (primitiveElemType(expr) == null) {
+            return false;
+          }
+          break;
+        case "sum":
+        case "avg":
+          if (i != exprs.size() - 1 || !expr.args.isEmpty()) {
+            return false;
+          }
+          break;
+        default:
+          return false;
+      }
+    }
+    return true;
+  }
+
   private static InlineFn createInlineFn(Expr.MethodCall expr, List<Expr> args, MethodCompiler methodCompiler) {
     switch (expr.methodName) {
       case "map":            return new InlineMap(expr, args, methodCompiler);
@@ -156,6 +353,170 @@ public class PipelineCompiler {
     }
   }
   
+  /**
+   * Compile pipeline where parent is an int/long/double array and each stage has been checked using
+   * {@link #isPrimitivePipeline}. We index directly into the array and compile the body of each
+   * closure inline with "it" held in a primitive local. The sum (for sum()/avg()) is also kept in a
+   * primitive local so nothing is boxed apart from the final result (or the values added to the
+   * result list if there is no sum()/avg()).
+   * Array is on the stack.
+   */
+  public static void compilePrimitivePipeline(Expr parent, MethodCompiler methodCompiler, List<Expr.MethodCall> exprs) {
+    if (parent.couldBeNull) {
+      methodCompiler.throwIfNull("Cannot iterate over null object", parent.location);
+    }
+    int arraySlot = methodCompiler.stack.allocateSlot(parent.type);
+    methodCompiler.storeLocal(arraySlot);
+
+    // Empty stack so that hotspot can optimise loop (see compilePipelineSync)
+    int stackSize = methodCompiler.stack.nonLocalStackDepth();
+    methodCompiler.stack.convertStackToLocals(stackSize);
+
+    Expr.MethodCall lastExpr      = exprs.get(exprs.size() - 1);
+    boolean         isAvg         = lastExpr.methodName.equals("avg");
+    boolean         convertToList = !isAvg && !lastExpr.methodName.equals("sum");
+    JactlType       resultType    = primitiveElemType(convertToList ? lastExpr : lastExpr.parent);
+
+    int resultSlot;
+    int countSlot  = -1;
+    if (convertToList) {
+      resultSlot = methodCompiler.stack.allocateSlot(LIST);
+      methodCompiler.loadDefaultValue(LIST);
+      methodCompiler.storeLocal(resultSlot);
+    }
+    else {
+      resultSlot = methodCompiler.stack.allocateSlot(resultType);
+      methodCompiler.loadConst(Utils.convertNumberTo(resultType, 0));
+      methodCompiler.storeLocal(resultSlot);
+      countSlot = methodCompiler.stack.allocateSlot(INT);
+      methodCompiler.loadConst(0);
+      methodCompiler.storeLocal(countSlot);
+    }
+
+    int indexSlot = methodCompiler.stack.allocateSlot(INT);
+    methodCompiler.loadConst(0);
+    methodCompiler.storeLocal(indexSlot);
+
+    // Allocate a slot for "it" for each closure
+    List<Integer> itSlots  = new ArrayList<>();
+    JactlType     elemType = parent.type.getArrayElemType();
+    for (Expr.MethodCall expr: exprs) {
+      if (expr.methodName.equals("map") || expr.methodName.equals("filter")) {
+        itSlots.add(methodCompiler.stack.allocateSlot(elemType));
+        elemType = primitiveElemType(expr);
+      }
+    }
+
+    Label LOOP = new Label();
+    Label END  = new Label();
+    methodCompiler.mv.visitLabel(LOOP);             // :LOOP
+    methodCompiler._loadLocal(indexSlot);
+    methodCompiler._loadLocal(arraySlot);
+    methodCompiler.mv.visitInsn(ARRAYLENGTH);
+    methodCompiler.mv.visitJumpInsn(IF_ICMPGE, END);
+
+    methodCompiler.loadLocal(arraySlot);
+    methodCompiler.loadLocal(indexSlot);
+    methodCompiler.unsafeLoadElem(parent.type, exprs.get(0).leftParen);
+    methodCompiler.mv.visitIincInsn(indexSlot, 1);
+
+    elemType = parent.type.getArrayElemType();
+    for (int i = 0, itIdx = 0; i < exprs.size(); i++) {
+      Expr.MethodCall expr = exprs.get(i);
+      if (!expr.methodName.equals("map") && !expr.methodName.equals("filter")) {
+        continue;
+      }
+      boolean isFilter = expr.methodName.equals("filter");
+      int     itSlot   = itSlots.get(itIdx++);
+      Expr    body     = primitiveClosureBody(expr, elemType);
+      methodCompiler.storeLocal(itSlot);
+      compileInlineBody(methodCompiler, body, itSlot);
+      if (isFilter) {
+        methodCompiler.convertToBoolean(false);
+        methodCompiler.popType();
+        methodCompiler.mv.visitJumpInsn(IFEQ, LOOP);
+        methodCompiler.loadLocal(itSlot);
+      }
+      else {
+        elemType = body.type;
+      }
+    }
+
+    if (convertToList) {
+      methodCompiler.box();
+      methodCompiler.loadLocal(resultSlot);
+      methodCompiler.swap();
+      methodCompiler.invokeMethod(MethodCompiler.LIST_ADD_METHOD);
+      methodCompiler.popVal();     // Don't need result of list.add()
+    }
+    else {
+      methodCompiler._loadLocal(resultSlot);
+      methodCompiler.mv.visitInsn(resultType.is(INT) ? IADD : resultType.is(LONG) ? LADD : DADD);
+      methodCompiler.storeLocal(resultSlot);
+      methodCompiler.mv.visitIincInsn(countSlot, 1);
+    }
+    methodCompiler.mv.visitJumpInsn(GOTO, LOOP);
+    methodCompiler.mv.visitLabel(END);              // :END
+
+    if (convertToList) {
+      methodCompiler.loadLocal(resultSlot);
+    }
+    else if (isAvg) {
+      methodCompiler.loadLocal(resultSlot);
+      methodCompiler.box();
+      methodCompiler.loadLocal(countSlot);
+      methodCompiler.mv.visitInsn(I2L);
+      methodCompiler.popType();
+      methodCompiler.pushType(LONG);
+      methodCompiler.loadLocation(lastExpr.methodNameLocation);
+      methodCompiler.invokeMethod(RuntimeUtils.CALCULATE_AVERAGE);
+    }
+    else {
+      // Sum of no elements is always int 0 (irrespective of the element type)
+      Label EMPTY = new Label();
+      Label DONE  = new Label();
+      methodCompiler._loadLocal(countSlot);
+      methodCompiler.mv.visitJumpInsn(IFEQ, EMPTY);
+      methodCompiler._loadLocal(resultSlot);
+      Utils.box(methodCompiler.mv, resultType);
+      methodCompiler.mv.visitJumpInsn(GOTO, DONE);
+      methodCompiler.mv.visitLabel(EMPTY);
+      methodCompiler._loadConst(0);
+      Utils.box(methodCompiler.mv, INT);
+      methodCompiler.mv.visitLabel(DONE);
+      methodCompiler.pushType(ANY);
+    }
+    if (!convertToList) {
+      methodCompiler.popType();
+      methodCompiler.pushType(lastExpr.type.boxed());
+    }
+
+    itSlots.forEach(methodCompiler.stack::freeSlot);
+    methodCompiler.stack.freeSlot(indexSlot);
+    methodCompiler.stack.freeSlot(countSlot);
+    methodCompiler.stack.freeSlot(resultSlot);
+    methodCompiler.stack.freeSlot(arraySlot);
+
+    // Restore stack (including new result)
+    methodCompiler.stack.expect(stackSize + 1);
+  }
+
+  // Compile body of closure in current method with "it" in given slot
+  private static void compileInlineBody(MethodCompiler methodCompiler, Expr body, int itSlot) {
+    List<Expr.Identifier> idents = new ArrayList<>();
+    identifiers(body, idents);
+    int[] slots = idents.stream().mapToInt(ident -> ident.varDecl.slot).toArray();
+    idents.forEach(ident -> ident.varDecl.slot = itSlot);
+    try {
+      methodCompiler.compile(body);
+    }
+    finally {
+      for (int i = 0; i < slots.length; i++) {
+        idents.get(i).varDecl.slot = slots[i];
+      }
+    }
+  }
+
   public static void compilePipelineSync(MethodCompiler methodCompiler, List<Expr.MethodCall> exprs, List<InlineFn> fns, boolean convertToList) {
     // Allocate variable for our iterator
     int iteratorSlot = methodCompiler.stack.allocateSlot(ITERATOR);
@@ -980,6 +1341,8 @@ public class PipelineCompiler {
     InlineSort(Expr.MethodCall expr, List<Expr> args, MethodCompiler methodCompiler) { super(expr, args, methodCompiler, 0); }
     @Override boolean couldBeAsync()     { return false; }  // Not needed for sort because it runs in post processing and already deals with async
     @Override boolean isPostProcessing() { return true; }
+    // Natural sort of primitive array can sort a copy of the array directly without boxing every element first
+    @Override boolean canBeDirect()      { return (args.isEmpty() || args.get(0) == null) && expr.parent.type != null && expr.parent.type.is(ARRAY) && expr.parent.type.getArrayElemType().is(INT, LONG, DOUBLE); }
     @Override void postProcess() {
       if (closureSlot == -1) {
         methodCompiler.loadNullContinuation();
@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl.compiler;
+
+import io.jactl.JactlContext;
+import io.jactl.JactlScript;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>In-memory cache of compiled scripts for a JactlContext.</p>
+ * <p>Scripts are keyed on their source, class name, package, the types of the globals passed in at
+ * compile time, and the options of the JactlContext. Since scripts can refer to Jactl classes, compiling
+ * a class invalidates all existing entries (they will eventually be evicted).</p>
+ * <p>The classes of each cached script are defined in their own {@link JactlContext.ScriptClassLoader}.
+ * When a script is evicted (in least recently used order once there are more than the maximum number of
+ * scripts or once the total size of the byte code of the cached scripts exceeds the maximum size) its
+ * class loader is released so that its classes can be unloaded once nothing else refers to them.</p>
+ */
+public class ScriptCache {
+
+  private final int                       maxScripts;
+  private final long                      maxBytes;
+  private final LinkedHashMap<String,Entry> entries        = new LinkedHashMap<>(16, 0.75f, true);
+  private       long                      bytes          = 0;
+  private       long                      classesVersion = 0;    // Incremented every time a Jactl class is compiled
+
+  private final LongAdder hits      = new LongAdder();
+  private final LongAdder misses    = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  private static class Entry {
+    final JactlScript                    script;
+    final JactlContext.ScriptClassLoader classLoader;
+    final long                           size;
+    Entry(JactlScript script, JactlContext.ScriptClassLoader classLoader) {
+      this.script      = script;
+      this.classLoader = classLoader;
+      this.size        = classLoader.getSize();
+    }
+  }
+
+  /**
+   * Create cache
+   * @param maxScripts  maximum number of scripts to keep in the cache
+   * @param maxBytes    maximum total size in bytes of the byte code of the cached scripts
+   */
+  public ScriptCache(int maxScripts, long maxBytes) {
+    if (maxScripts <= 0 || maxBytes <= 0) {
+      throw new IllegalArgumentException("Maximum number of scripts and maximum size must be greater than 0");
+    }
+    this.maxScripts = maxScripts;
+    this.maxBytes   = maxBytes;
+  }
+
+  /**
+   * Record that a Jactl class has been compiled. Scripts compiled before this may refer to an old
+   * version of the class so they will no longer be returned from the cache.
+   */
+  public synchronized void classCompiled() {
+    classesVersion++;
+  }
+
+  /**
+   * Get the key for a script
+   * @param source       the script source
+   * @param context      the JactlContext
+   * @param className    the class name for the script (or null for default name)
+   * @param packageName  the Jactl package of the script
+   * @param globals      the globals passed in at compile time
+   * @return the key
+   */
+  public String key(String source, JactlContext context, String className, String packageName, Map<String,Object> globals) {
+    String key = CompiledCodeCache.scriptKey(source, context, className, packageName, globals);
+    synchronized (this) {
+      return key + ";classesVersion=" + classesVersion;
+    }
+  }
+
+  /**
+   * Get script from the cache
+   * @param key  the key for the script
+   * @return the script or null if not in the cache
+   */
+  public synchronized JactlScript get(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      misses.increment();
+      return null;
+    }
+    hits.increment();
+    return entry.script;
+  }
+
+  /**
+   * Add script to the cache, evicting least recently used scripts if we are now over our limits.
+   * @param key          the key for the script
+   * @param script       the compiled script
+   * @param classLoader  the class loader that the classes of the script were defined in
+   */
+  public synchronized void put(String key, JactlScript script, JactlContext.ScriptClassLoader classLoader) {
+    Entry entry = new Entry(script, classLoader);
+    Entry old   = entries.put(key, entry);
+    if (old != null) {
+      // Same script compiled concurrently by another thread
+      bytes -= old.size;
+      if (old.classLoader != classLoader) {
+        old.classLoader.release();
+      }
+    }
+    bytes += entry.size;
+    for (Iterator<Entry> iter = entries.values().iterator(); iter.hasNext() && (entries.size() > maxScripts || bytes > maxBytes); ) {
+      Entry eldest = iter.next();
+      iter.remove();
+      bytes -= eldest.size;
+      eldest.classLoader.release();
+      evictions.increment();
+    }
+  }
+
+  /**
+   * Remove all scripts from the cache
+   */
+  public synchronized void clear() {
+    entries.values().forEach(entry -> entry.classLoader.release());
+    entries.clear();
+    bytes = 0;
+  }
+
+  /** @return the number of scripts in the cache */
+  public synchronized int  size()          { return entries.size(); }
+  /** @return the total size in bytes of the byte code of the scripts in the cache */
+  public synchronized long getBytes()      { return bytes; }
+  /** @return the maximum number of scripts */
+  public int               getMaxScripts() { return maxScripts; }
+  /** @return the maximum total size of the byte code of the cached scripts */
+  public long              getMaxBytes()   { return maxBytes; }
+  /** @return number of times a script was found in the cache */
+  public long              getHits()       { return hits.sum(); }
+  /** @return number of times a script was not found in the cache */
+  public long              getMisses()     { return misses.sum(); }
+  /** @return number of scripts evicted from the cache */
+  public long              getEvictions()  { return evictions.sum(); }
+
+  @Override public String toString() {
+    return "ScriptCache[size=" + size() + ", bytes=" + getBytes() + ", hits=" + getHits() + ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+  }
+}
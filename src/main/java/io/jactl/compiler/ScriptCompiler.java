@@ -20,11 +20,15 @@ package io.jactl.compiler;
 import io.jactl.*;
 import org.objectweb.asm.FieldVisitor;
 
-import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.objectweb.asm.Opcodes.*;
 
 public class ScriptCompiler extends ClassCompiler {
 
-  boolean globalsHaveErasedType = false;
+  boolean                     globalsHaveErasedType = false;
+  private Map<String,Integer> globalSlots           = new LinkedHashMap<>();   // Slots for GlobalsLayout
   
   public ScriptCompiler(String source, JactlContext context, Stmt.ClassDecl classDecl) {
     super(source, context, null, classDecl, classDecl.name.getStringValue() + ".jactl");
@@ -53,10 +57,35 @@ public class ScriptCompiler extends ClassCompiler {
       compileCheckpointFunction();
       compileRestoreFunction();
     }
+    compileGlobalNames();
     finishClassCompile();
     return compiledClass;
   }
 
+  /**
+   * Get slot for given global in the GlobalsLayout of the script, allocating one if first time.
+   * @param name  the name of the global
+   * @return the slot
+   */
+  int globalSlot(String name) {
+    return globalSlots.computeIfAbsent(name, k -> globalSlots.size());
+  }
+
+  // Create static field with names of globals in slot order so that JactlScript can create GlobalsLayout
+  private void compileGlobalNames() {
+    FieldVisitor globalNames = cv.visitField(ACC_PUBLIC | ACC_STATIC | ACC_FINAL | ACC_SYNTHETIC, Utils.JACTL_GLOBAL_NAMES, "[Ljava/lang/String;", null, null);
+    globalNames.visitEnd();
+    Utils.loadConst(classInit, globalSlots.size(), context);
+    classInit.visitTypeInsn(ANEWARRAY, "java/lang/String");
+    globalSlots.forEach((name, slot) -> {
+      classInit.visitInsn(DUP);
+      Utils.loadConst(classInit, slot, context);
+      classInit.visitLdcInsn(name);
+      classInit.visitInsn(AASTORE);
+    });
+    classInit.visitFieldInsn(PUTSTATIC, internalName, Utils.JACTL_GLOBAL_NAMES, "[Ljava/lang/String;");
+  }
+
   @Override protected boolean globalsHaveErasedType() {
     return globalsHaveErasedType;
   }
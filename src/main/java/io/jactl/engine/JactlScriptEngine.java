@@ -162,7 +162,9 @@ public class JactlScriptEngine extends AbstractScriptEngine implements Invocable
       }
       try {
         RuntimeState.setState(getJactlContext(), globals, context.getReader(), context.getWriter(), null);
-        return handle.invoke( null, "unknown", -1, args);
+        Object result = handle.invoke( null, "unknown", -1, args);
+        RuntimeState.flushOutput();
+        return result;
       }
       catch (Continuation c) {
         // Method called an async function so now we need to wait for it to finish
@@ -206,7 +208,9 @@ public class JactlScriptEngine extends AbstractScriptEngine implements Invocable
       // Bind handle to the instance and invoke it 
       handle = handle.bindTo(instance);
       RuntimeState.setState(getJactlContext(), globals, context.getReader(), context.getWriter(), null);
-      return handle.invoke(null, "unknown", 0, args == null ? new Object[0] : args);
+      Object result = handle.invoke(null, "unknown", 0, args == null ? new Object[0] : args);
+      RuntimeState.flushOutput();
+      return result;
     }
     catch (Continuation c) {
       // Method called an async function, so now we need to wait for it to finish
@@ -19,6 +19,7 @@ package io.jactl.resolver;
 
 import io.jactl.*;
 import io.jactl.compiler.LocalLocation;
+import io.jactl.compiler.PipelineCompiler;
 import io.jactl.runtime.*;
 
 import java.lang.reflect.Array;
@@ -2035,6 +2036,20 @@ public class Resolver implements Expr.Visitor<JactlType>, Stmt.Visitor<Void> {
     return expr.type = FUNCTION;
   }
 
+  // Change type of implicit "it" parameter of closure (before it is resolved). Default value becomes 0
+  // rather than null since null is not valid for a primitive type.
+  private void setItParamType(Expr.Closure closure, JactlType type) {
+    Expr.VarDecl itParam  = closure.funDecl.parameters.get(0).declExpr;
+    Token        location = itParam.initialiser == null ? itParam.name : itParam.initialiser.location;
+    TokenType    constType = type.is(INT) ? INTEGER_CONST : type.is(LONG) ? LONG_CONST : DOUBLE_CONST;
+    Object       zero      = Utils.convertNumberTo(type, 0);
+    itParam.type        = type;
+    itParam.initialiser = new Expr.Literal(new Token(constType, location).setValue(zero));
+    FunctionDescriptor descriptor = closure.funDecl.functionDescriptor;
+    descriptor.paramTypes.set(0, type);
+    descriptor.defaultVals[0] = zero;
+  }
+
   @Override public JactlType visitCall(Expr.Call expr) {
     if (expr.callee instanceof Expr.Identifier) {
       // Special case if we are invoking the function directly (not via a MethodHandle value)
@@ -2092,6 +2107,15 @@ public class Resolver implements Expr.Visitor<JactlType>, Stmt.Visitor<Void> {
       ((Expr.Call) expr.parent).isMethodCallTarget = true;
     }
 
+    // If elements are known to be primitive numbers (e.g. for a long[]) then give "it" in simple
+    // map/filter closures the element type so that the pipeline can be compiled without boxing
+    if (("map".equals(expr.methodName) || "filter".equals(expr.methodName)) && expr.args.size() == 1) {
+      JactlType elemType = PipelineCompiler.primitiveElemType(expr.parent);
+      if (elemType != null && PipelineCompiler.isSimpleClosure(expr.args.get(0), elemType)) {
+        setItParamType((Expr.Closure)expr.args.get(0), elemType);
+      }
+    }
+
     expr.args.forEach(this::resolve);
 
     // See if we have a direct method invocation or not. We need to know the type of the parent
@@ -2870,7 +2894,7 @@ public class Resolver implements Expr.Visitor<JactlType>, Stmt.Visitor<Void> {
           // Check for a host class
           importedClass = imports.importedPackages.stream()
                                           .map(pkg -> pkg + "." + firstClass)
-                                          .filter(name -> jactlContext.allowHostClassLookup.test(name))
+                                          .filter(name -> jactlContext.isHostClassAllowed(name))
                                           .map(name -> classForName(name))
                                           .filter(Objects::nonNull)
                                           .map(clss -> JactlType.createHostClass(clss, jactlContext))
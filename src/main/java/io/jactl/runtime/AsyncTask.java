@@ -36,6 +36,8 @@ public abstract class AsyncTask {
     this.offset = offset;
     // Preserve current thread local state so we can restore it on resume
     runtimeState = RuntimeState.getState();
+    // Write any buffered output before we suspend
+    RuntimeState.flushOutput();
     RuntimeState.resetState();
   }
 
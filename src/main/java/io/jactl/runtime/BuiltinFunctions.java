@@ -25,7 +25,9 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
 import static io.jactl.JactlType.*;
 import static io.jactl.runtime.Reducer.Type.JOIN;
@@ -258,6 +260,13 @@ public class BuiltinFunctions {
            .impl(BuiltinFunctions.class, "iteratorSort")
            .register();
 
+      Jactl.method(ITERATOR)
+           .name("sortBy")
+           .asyncInstance(true)
+           .asyncParam("key")
+           .impl(BuiltinFunctions.class, "iteratorSortBy")
+           .register();
+
       Jactl.method(ITERATOR)
            .name("grouped")
            .asyncInstance(true)
@@ -326,6 +335,12 @@ public class BuiltinFunctions {
            .impl(BuiltinFunctions.class, "iteratorTranspose")
            .register();
 
+      Jactl.method(ITERATOR)
+           .name("parallel")
+           .asyncInstance(true)
+           .impl(BuiltinFunctions.class, "iteratorParallel")
+           .register();
+
       // String methods
       Jactl.method(STRING)
            .name("lines")
@@ -504,6 +519,11 @@ public class BuiltinFunctions {
            .impl(BuiltinFunctions.class, "nextLine")
            .register();
 
+      Jactl.function()
+           .name("nextJson")
+           .impl(BuiltinFunctions.class, "nextJson")
+           .register();
+
       Jactl.function()
            .name("sprintf")
            .param("format")
@@ -713,6 +733,31 @@ public class BuiltinFunctions {
     }
   }
 
+  // = nextJson()
+  public static Object nextJson(Continuation c, String source, int offset) {
+    RuntimeState      state   = RuntimeState.getState();
+    JsonStreamDecoder decoder = state.getJsonInput(source, offset);
+    if (decoder == null) {
+      return null;
+    }
+    if (decoder.ready() || !state.getContext().isAsync) {
+      // Decoder is shared with any tasks run in parallel (see RuntimeState.forTask())
+      synchronized (decoder) {
+        return decoder.hasNext() ? decoder.next() : null;
+      }
+    }
+    // Async mode and we might block so schedule blocking operation and suspend
+    Continuation.suspendBlocking(source, offset, null, data -> {
+      try {
+        return decoder.hasNext() ? decoder.next() : null;
+      }
+      catch (RuntimeError e) {
+        return e;
+      }
+    });
+    return null;
+  }
+
   // = stream
   public static JactlIterator stream(Continuation c, String source, int offset, JactlMethodHandle closure) {
     return new StreamIterator(source, offset, closure);
@@ -990,6 +1035,9 @@ public class BuiltinFunctions {
   // = filter
 
   public static JactlIterator iteratorFilter(Object iterable, Continuation c, String source, int offset, JactlMethodHandle closure) {
+    if (iterable instanceof ParallelIterator && closure != null) {
+      return ((ParallelIterator)iterable).addStage(true, closure, source, offset);
+    }
     JactlIterator iter = RuntimeUtils.createIterator(iterable);
     if (RuntimeState.getState().getContext().isAsync) {
       return new FilterIterator(iter, source, offset, closure);
@@ -1152,6 +1200,9 @@ public class BuiltinFunctions {
   // = map
 
   public static JactlIterator iteratorMap(Object iterable, Continuation c, String source, int offset, JactlMethodHandle closure) {
+    if (iterable instanceof ParallelIterator && closure != null) {
+      return ((ParallelIterator)iterable).addStage(false, closure, source, offset);
+    }
     JactlIterator iter = RuntimeUtils.createIterator(iterable);
     if (RuntimeState.getState().getContext().isAsync) {
       return new MapIterator(iter, source, offset, closure);
@@ -1276,6 +1327,9 @@ public class BuiltinFunctions {
   // = collect
 
   public static Object iteratorCollect(Object iterable, Continuation c, String source, int offset, JactlMethodHandle closure) {
+    if (iterable instanceof ParallelIterator && ((ParallelIterator)iterable).isParallel(closure)) {
+      return ((ParallelIterator)iterable).collect(closure, source, offset);
+    }
     return doIteratorCollect(RuntimeUtils.createIterator(iterable), new ArrayList(), false, source, offset, closure, null);
   }
   public static Object doIteratorCollect(JactlIterator iter, Object result, boolean isCollectEntries, String source, int offset, JactlMethodHandle closure, Continuation c) {
@@ -1365,6 +1419,9 @@ public class BuiltinFunctions {
   // = join
 
   public static String iteratorJoin(Object iterable, Continuation c, String source, int offset, String joinStr) {
+    if (iterable instanceof ParallelIterator && ((ParallelIterator)iterable).isParallel(null)) {
+      return ((ParallelIterator)iterable).join(joinStr, source, offset);
+    }
     if (RuntimeState.getState().getContext().isAsync) {
       return (String) new Reducer(JOIN, RuntimeUtils.createIterator(iterable), source, offset, joinStr, null).reduce(null);
     }
@@ -1418,13 +1475,22 @@ public class BuiltinFunctions {
     if (size == 0) {
       throw new RuntimeError("Empty list for avg() function", source, offset);
     }
-    Object value = listSum(list, source, offset);
-    if (value instanceof Double)             { value = BigDecimal.valueOf((double)value); }
-    else if (!(value instanceof BigDecimal)) { value = BigDecimal.valueOf(((Number)value).longValue()); }
-    return RuntimeUtils.decimalDivide((BigDecimal)value, BigDecimal.valueOf(size), Utils.DEFAULT_MIN_SCALE, source, offset);
+    return average(listSum(list, source, offset), size, source, offset);
+  }
+
+  static Object average(Object sum, int count, String source, int offset) {
+    if (count == 0) {
+      throw new RuntimeError("Empty list for avg() function", source, offset);
+    }
+    if (sum instanceof Double)             { sum = BigDecimal.valueOf((double)sum); }
+    else if (!(sum instanceof BigDecimal)) { sum = BigDecimal.valueOf(((Number)sum).longValue()); }
+    return RuntimeUtils.decimalDivide((BigDecimal)sum, BigDecimal.valueOf(count), Utils.DEFAULT_MIN_SCALE, source, offset);
   }
 
   public static Object iteratorAvg(Object iterable, Continuation c, String source, int offset) {
+    if (iterable instanceof ParallelIterator && ((ParallelIterator)iterable).isParallel(null)) {
+      return ((ParallelIterator)iterable).avg(source, offset);
+    }
     return new Reducer(Reducer.Type.AVG, RuntimeUtils.createIterator(iterable), source, offset, BigDecimal.ZERO, null).reduce(null);
   }
 
@@ -1440,6 +1506,9 @@ public class BuiltinFunctions {
   }
 
   public static Object iteratorSum(Object iterable, Continuation c, String source, int offset) {
+    if (iterable instanceof ParallelIterator && ((ParallelIterator)iterable).isParallel(null)) {
+      return ((ParallelIterator)iterable).sum(source, offset);
+    }
     if (RuntimeState.getState().getContext().isAsync) {
       return new Reducer(Reducer.Type.SUM, RuntimeUtils.createIterator(iterable), source, offset, 0, null).reduce(null);
     }
@@ -1483,16 +1552,25 @@ public class BuiltinFunctions {
   }
 
   public static Object iteratorMin(Object iterable, Continuation c, String source, int offset, JactlMethodHandle closure) {
+    if (iterable instanceof ParallelIterator && ((ParallelIterator)iterable).isParallel(closure)) {
+      return ((ParallelIterator)iterable).minMax(true, closure, source, offset);
+    }
     return new Reducer(Reducer.Type.MIN, RuntimeUtils.createIterator(iterable), source, offset, null, closure).reduce(null);
   }
 
   public static Object iteratorMax(Object iterable, Continuation c, String source, int offset, JactlMethodHandle closure) {
+    if (iterable instanceof ParallelIterator && ((ParallelIterator)iterable).isParallel(closure)) {
+      return ((ParallelIterator)iterable).minMax(false, closure, source, offset);
+    }
     return new Reducer(Reducer.Type.MAX, RuntimeUtils.createIterator(iterable), source, offset, null, closure).reduce(null);
   }
 
   // = groupBy
 
   public static Map iteratorGroupBy(Object iterable, Continuation c, String source, int offset, JactlMethodHandle closure) {
+    if (iterable instanceof ParallelIterator && ((ParallelIterator)iterable).isParallel(closure)) {
+      return ((ParallelIterator)iterable).groupBy(closure, source, offset);
+    }
     return (Map)new Reducer(Reducer.Type.GROUP_BY, RuntimeUtils.createIterator(iterable), source, offset, new LinkedHashMap<>(), closure).reduce(null);
   }
 
@@ -1508,6 +1586,27 @@ public class BuiltinFunctions {
     return (List)new Reducer(Reducer.Type.TRANSPOSE, RuntimeUtils.createIterator(iterable), source, offset, new ArrayList(), null).reduce(null);
   }
 
+  // = parallel
+
+  public static JactlIterator iteratorParallel(Object iterable, Continuation c) {
+    if (iterable instanceof ParallelIterator) {
+      return (ParallelIterator)iterable;
+    }
+    try {
+      List list = c != null                 ? (List)c.getResult()
+                : iterable instanceof List ? (List)iterable
+                                           : RuntimeUtils.convertIteratorToList(iterable, null);
+      return new ParallelIterator(list);
+    }
+    catch (Continuation cont) {
+      throw new Continuation(cont, iteratorParallel$cHandle, 0, null, new Object[] { iterable });
+    }
+  }
+  public static JactlMethodHandle iteratorParallel$cHandle = RuntimeUtils.lookupMethod(BuiltinFunctions.class, "iteratorParallel$c", Object.class, Continuation.class);
+  public static Object iteratorParallel$c(Continuation c) {
+    return iteratorParallel(c.localObjects[0], c);
+  }
+
   //////////////////////////////////////
 
   // = collectEntries
@@ -1520,6 +1619,9 @@ public class BuiltinFunctions {
 
   // = sort
 
+  // Lists/arrays with at least this many elements are sorted in parallel
+  private static final int PARALLEL_SORT_THRESHOLD = 8192;
+
   public static JactlMethodHandle listSort$cHandle = RuntimeUtils.lookupMethod(BuiltinFunctions.class, "listSort$c", Object.class, Continuation.class);
   public static Object listSort$c(Continuation c) {
     return listSort((List)c.localObjects[0], c, (String)c.localObjects[1], (int)c.localPrimitives[0], (JactlMethodHandle)c.localObjects[2]);
@@ -1531,16 +1633,11 @@ public class BuiltinFunctions {
     try {
       if (location == 0) {
         if (closure == null) {
-          try {
-            list.sort((a,b) -> RuntimeUtils.compareTo(a,b,source,offset));
-            return list;
-          }
-          catch (Throwable t) {
-            throw new RuntimeError("Unexpected error", source, offset, t);
-          }
+          naturalSort(list, source, offset);
+          return list;
         }
         else {
-          return (List) mergeSort(list, closure, source, offset, null);
+          return sortWithComparator(list, closure, source, offset);
         }
       }
       else {
@@ -1562,6 +1659,12 @@ public class BuiltinFunctions {
     int location = c == null ? 0 : c.methodLocation;
     try {
       if (location == 0) {
+        if (closure == null) {
+          result = sortPrimitiveArray(iterable);
+          if (result != null) {
+            return result;
+          }
+        }
         result = iterable instanceof List ? new ArrayList((List) iterable)
                                           : RuntimeUtils.convertIteratorToList(RuntimeUtils.createIterator(iterable), null);
         location = 2;
@@ -1572,16 +1675,11 @@ public class BuiltinFunctions {
       }
       if (location == 2) {
         if (closure == null) {
-          try {
-            result.sort((a,b) -> RuntimeUtils.compareTo(a,b,source,offset));
-            return result;
-          }
-          catch (Throwable t) {
-            throw new RuntimeError("Unexpected error", source, offset, t);
-          }
+          naturalSort(result, source, offset);
+          return result;
         }
         else {
-          return (List) mergeSort(result, closure, source, offset, null);
+          return sortWithComparator(result, closure, source, offset);
         }
       }
       else {
@@ -1593,6 +1691,106 @@ public class BuiltinFunctions {
     }
   }
 
+  // Sort list in place using natural ordering of the elements. Large lists are sorted in parallel.
+  private static void naturalSort(List list, String source, int offset) {
+    Comparator<Object> comparator = (a,b) -> RuntimeUtils.compareTo(a,b,source,offset);
+    try {
+      if (list.size() < PARALLEL_SORT_THRESHOLD) {
+        list.sort(comparator);
+        return;
+      }
+      Object[] elems = list.toArray();
+      Arrays.parallelSort(elems, comparator);
+      ListIterator iter = list.listIterator();
+      for (Object elem: elems) {
+        iter.next();
+        iter.set(elem);
+      }
+    }
+    catch (Throwable t) {
+      throw new RuntimeError("Unexpected error", source, offset, t);
+    }
+  }
+
+  // Sort int/long/double arrays natively. Returns null if not one of these array types.
+  private static List sortPrimitiveArray(Object obj) {
+    if (obj instanceof int[]) {
+      int[] arr = ((int[]) obj).clone();
+      if (arr.length < PARALLEL_SORT_THRESHOLD) { Arrays.sort(arr); } else { Arrays.parallelSort(arr); }
+      List result = new ArrayList(arr.length);
+      for (int elem: arr) { result.add(elem); }
+      return result;
+    }
+    if (obj instanceof long[]) {
+      long[] arr = ((long[]) obj).clone();
+      if (arr.length < PARALLEL_SORT_THRESHOLD) { Arrays.sort(arr); } else { Arrays.parallelSort(arr); }
+      List result = new ArrayList(arr.length);
+      for (long elem: arr) { result.add(elem); }
+      return result;
+    }
+    if (obj instanceof double[]) {
+      // Arrays.sort() uses same ordering as Double.compare() which is what RuntimeUtils.compareTo() uses
+      double[] arr = ((double[]) obj).clone();
+      if (arr.length < PARALLEL_SORT_THRESHOLD) { Arrays.sort(arr); } else { Arrays.parallelSort(arr); }
+      List result = new ArrayList(arr.length);
+      for (double elem: arr) { result.add(elem); }
+      return result;
+    }
+    return null;
+  }
+
+  // Large lists are sorted in parallel unless comparator is async (since we can't suspend from
+  // another thread)
+  private static List sortWithComparator(List list, JactlMethodHandle closure, String source, int offset) {
+    if (list.size() >= PARALLEL_SORT_THRESHOLD && !closure.isAsync()) {
+      return parallelMergeSort(list, closure, source, offset);
+    }
+    return (List) mergeSort(list, closure, source, offset, null);
+  }
+
+  /**
+   * Split list into chunks and sort each chunk in parallel using mergeSort() and then merge
+   * pairs of sorted chunks in parallel until we have a single sorted list. Since we always merge
+   * adjacent chunks and take from the first chunk when elements are equal the sort is stable.
+   * @param list     the list to be sorted
+   * @param closure  the comparator (must not be async)
+   * @param source   the source code
+   * @param offset   offset into source code where sort is being performed
+   * @return the sorted list
+   */
+  private static List parallelMergeSort(List list, JactlMethodHandle closure, String source, int offset) {
+    int                  size   = list.size();
+    int                  chunks = Math.max(2, ForkJoinPool.getCommonPoolParallelism() * 4);
+    List<Supplier<List>> tasks  = new ArrayList<>(chunks);
+    for (int i = 0; i < chunks; i++) {
+      int from = (int)((long)size * i / chunks);
+      int to   = (int)((long)size * (i + 1) / chunks);
+      tasks.add(() -> (List) mergeSort(new ArrayList(list.subList(from, to)), closure, source, offset, null));
+    }
+    List<List> sorted = ParallelIterator.runTasks(tasks, source, offset);
+    while (sorted.size() > 1) {
+      List<List>           current = sorted;
+      List<Supplier<List>> merges  = new ArrayList<>();
+      for (int i = 0; i + 1 < current.size(); i += 2) {
+        List first  = current.get(i);
+        List second = current.get(i + 1);
+        merges.add(() -> {
+          List src = new ArrayList(first.size() + second.size());
+          src.addAll(first);
+          src.addAll(second);
+          List dst = new ArrayList(src.size());
+          merge(src, dst, 0, first.size(), first.size(), src.size(), closure, source, offset, null);
+          return dst;
+        });
+      }
+      sorted = ParallelIterator.runTasks(merges, source, offset);
+      if (current.size() % 2 == 1) {
+        sorted.add(current.get(current.size() - 1));
+      }
+    }
+    return sorted.get(0);
+  }
+
   /**
    * Bottom up merge sort.
    * @param list     the list to be sorted
@@ -1714,6 +1912,81 @@ public class BuiltinFunctions {
     return null;
   }
 
+  // = sortBy
+
+  public static JactlMethodHandle iteratorSortBy$cHandle = RuntimeUtils.lookupMethod(BuiltinFunctions.class, "iteratorSortBy$c", Object.class, Continuation.class);
+  public static Object iteratorSortBy$c(Continuation c) {
+    return iteratorSortBy(c.localObjects[0], c, (String)c.localObjects[1], (int)c.localPrimitives[0], (JactlMethodHandle)c.localObjects[2]);
+  }
+
+  /**
+   * Sort by key where key is calculated once for each element by the closure (rather than
+   * invoking a comparator for every comparison). Keys are compared using their natural ordering
+   * and the sort is stable.
+   */
+  public static List iteratorSortBy(Object iterable, Continuation c, String source, int offset, JactlMethodHandle closure) {
+    int  location = c == null ? 0 : c.methodLocation;
+    List list;
+    List keys;
+    if (location == 0) {
+      try {
+        list = iterable instanceof List ? (List) iterable
+                                        : RuntimeUtils.convertIteratorToList(RuntimeUtils.createIterator(iterable), null);
+      }
+      catch (Continuation cont) {
+        throw new Continuation(cont, iteratorSortBy$cHandle, 1, new long[]{ offset }, new Object[]{ iterable, source, closure, null, null });
+      }
+      keys = new ArrayList(list.size());
+    }
+    else if (location == 1) {
+      list = (List) c.getResult();
+      keys = new ArrayList(list.size());
+    }
+    else {
+      list = (List) c.localObjects[3];
+      keys = (List) c.localObjects[4];
+      keys.add(c.getResult());
+    }
+
+    // Calculate the keys
+    for (int i = keys.size(); i < list.size(); i++) {
+      try {
+        keys.add(closure.invoke((Continuation) null, source, offset, new Object[]{ list.get(i) }));
+      }
+      catch (Continuation cont) {
+        throw new Continuation(cont, iteratorSortBy$cHandle, 2, new long[]{ offset }, new Object[]{ iterable, source, closure, list, keys });
+      }
+      catch (RuntimeError e) {
+        throw e;
+      }
+      catch (Throwable t) {
+        throw new RuntimeError("Unexpected error", source, offset, t);
+      }
+    }
+
+    // Sort indexes into list using the keys and then build the result
+    Integer[] indexes = new Integer[list.size()];
+    for (int i = 0; i < indexes.length; i++) {
+      indexes[i] = i;
+    }
+    Comparator<Integer> comparator = (a,b) -> RuntimeUtils.compareTo(keys.get(a), keys.get(b), source, offset);
+    try {
+      if (indexes.length < PARALLEL_SORT_THRESHOLD) { Arrays.sort(indexes, comparator); }
+      else                                          { Arrays.parallelSort(indexes, comparator); }
+    }
+    catch (RuntimeError e) {
+      throw e;
+    }
+    catch (Throwable t) {
+      throw new RuntimeError("Unexpected error", source, offset, t);
+    }
+    List result = new ArrayList(indexes.length);
+    for (Integer index: indexes) {
+      result.add(list.get(index));
+    }
+    return result;
+  }
+
   /////////////////////////////
   //// String methods
 
@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl.runtime;
+
+import io.jactl.JactlEnv;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects checkpoints from multiple script instances and passes them to the JactlEnv
+ * as a single batch once the batch is full or once the maximum delay has expired.
+ * @see io.jactl.JactlContext.JactlContextBuilder#checkpointBatch(int, long)
+ */
+public class CheckpointBatcher {
+  private final JactlEnv               env;
+  private final int                    maxSize;
+  private final long                   maxDelayMs;
+  private       List<CheckpointRecord> batch      = new ArrayList<>();
+  private       long                   generation = 0;    // Incremented each time a batch is flushed
+
+  public CheckpointBatcher(JactlEnv env, int maxSize, long maxDelayMs) {
+    this.env        = env;
+    this.maxSize    = maxSize;
+    this.maxDelayMs = maxDelayMs;
+  }
+
+  public void add(CheckpointRecord record) {
+    List<CheckpointRecord> full     = null;
+    long                   schedule = -1;
+    synchronized (this) {
+      batch.add(record);
+      if (batch.size() >= maxSize) {
+        full = nextBatch();
+      }
+      else if (batch.size() == 1) {
+        schedule = generation;
+      }
+    }
+    if (full != null) {
+      env.saveCheckpoints(full);
+    }
+    else if (schedule >= 0) {
+      // Timer only flushes if batch has not already been flushed because it filled up
+      long gen = schedule;
+      env.scheduleEvent(() -> flush(gen), maxDelayMs);
+    }
+  }
+
+  private void flush(long gen) {
+    List<CheckpointRecord> records;
+    synchronized (this) {
+      if (gen != generation || batch.isEmpty()) {
+        return;
+      }
+      records = nextBatch();
+    }
+    env.saveCheckpoints(records);
+  }
+
+  private List<CheckpointRecord> nextBatch() {
+    List<CheckpointRecord> records = batch;
+    batch = new ArrayList<>();
+    generation++;
+    return records;
+  }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl.runtime;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec used to compress checkpoints before they are passed to the JactlEnv for saving.
+ * The codec id is recorded in the checkpoint header so that the Restorer knows which
+ * codec to use to decompress it. Ids 0-15 are reserved for the built-in codecs.
+ * @see io.jactl.JactlContext.JactlContextBuilder#checkpointCodec(CheckpointCodec)
+ */
+public interface CheckpointCodec {
+  /**
+   * Built-in codec that uses the JDK Deflater with its default compression level (better
+   * compression but slower)
+   */
+  CheckpointCodec DEFLATE = new DeflateCodec(Deflater.DEFAULT_COMPRESSION);
+
+  /**
+   * Built-in LZ77 style codec (less compression but much faster)
+   */
+  CheckpointCodec LZ = new LzCodec();
+
+  /**
+   * @return the id that identifies this codec in the checkpoint header (0-127)
+   */
+  int id();
+
+  /**
+   * Compress data
+   * @param buf     buffer holding the data
+   * @param offset  offset into buffer
+   * @param length  length of data
+   * @return the compressed data
+   */
+  byte[] encode(byte[] buf, int offset, int length);
+
+  /**
+   * Decompress data
+   * @param buf           buffer holding the compressed data
+   * @param offset        offset into buffer
+   * @param length        length of compressed data
+   * @param decodedLength length of the data once decompressed
+   * @return the decompressed data
+   */
+  byte[] decode(byte[] buf, int offset, int length, int decodedLength);
+
+  /**
+   * Find built-in codec with given id
+   * @param id  the id
+   * @return the codec or null if no such built-in codec
+   */
+  static CheckpointCodec builtin(int id) {
+    if (id == DEFLATE.id()) return DEFLATE;
+    if (id == LZ.id())      return LZ;
+    return null;
+  }
+
+  /**
+   * Create codec that uses the JDK Deflater with given compression level. Checkpoints compressed
+   * with any level can be decompressed by {@link #DEFLATE}.
+   * @param level  the compression level (0-9 or Deflater.DEFAULT_COMPRESSION)
+   * @return the codec
+   */
+  static CheckpointCodec deflate(int level) {
+    return new DeflateCodec(level);
+  }
+
+  //////////////////////////////////
+
+  class DeflateCodec implements CheckpointCodec {
+    private final int level;
+
+    DeflateCodec(int level) {
+      if ((level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) && level != Deflater.DEFAULT_COMPRESSION) {
+        throw new IllegalArgumentException("Invalid compression level " + level);
+      }
+      this.level = level;
+    }
+
+    @Override public int id() { return 1; }
+
+    @Override public byte[] encode(byte[] buf, int offset, int length) {
+      Deflater deflater = new Deflater(level);
+      try {
+        deflater.setInput(buf, offset, length);
+        deflater.finish();
+        byte[] result = new byte[Math.max(64, length / 2)];
+        int    size   = 0;
+        while (!deflater.finished()) {
+          if (size == result.length) {
+            result = Arrays.copyOf(result, result.length * 2);
+          }
+          size += deflater.deflate(result, size, result.length - size);
+        }
+        return Arrays.copyOf(result, size);
+      }
+      finally {
+        deflater.end();
+      }
+    }
+
+    @Override public byte[] decode(byte[] buf, int offset, int length, int decodedLength) {
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(buf, offset, length);
+        byte[] result = new byte[decodedLength];
+        int    size   = 0;
+        while (size < decodedLength && !inflater.finished()) {
+          int n = inflater.inflate(result, size, decodedLength - size);
+          if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+          size += n;
+        }
+        if (size != decodedLength) {
+          throw new IllegalStateException("Corrupt checkpoint: expected " + decodedLength + " bytes after decompression but got " + size);
+        }
+        return result;
+      }
+      catch (DataFormatException e) {
+        throw new IllegalStateException("Corrupt checkpoint: " + e.getMessage(), e);
+      }
+      finally {
+        inflater.end();
+      }
+    }
+  }
+
+  /**
+   * Simple LZ77 codec. Output is a sequence of:
+   * <pre>
+   *   intc   literalLength
+   *   bytes  literals
+   *   intc   matchLength     (absent after final literals)
+   *   intc   matchDistance
+   * </pre>
+   * Matches are found using a hash table of the last position that each 4 byte sequence
+   * was seen at.
+   */
+  class LzCodec implements CheckpointCodec {
+    private static final int HASH_BITS    = 14;
+    private static final int MIN_MATCH    = 4;
+    private static final int MAX_DISTANCE = 1 << 16;
+
+    @Override public int id() { return 2; }
+
+    @Override public byte[] encode(byte[] buf, int offset, int length) {
+      int[] table  = new int[1 << HASH_BITS];
+      Arrays.fill(table, -1);
+      byte[] out    = new byte[length + length / 64 + 16];
+      int    outIdx = 0;
+      int    end    = offset + length;
+      int    anchor = offset;
+      for (int i = offset; i + MIN_MATCH <= end; ) {
+        int seq  = readInt(buf, i);
+        int hash = (seq * 0x9E3779B1) >>> (32 - HASH_BITS);
+        int ref  = table[hash];
+        table[hash] = i;
+        if (ref < 0 || i - ref >= MAX_DISTANCE || readInt(buf, ref) != seq) {
+          i++;
+          continue;
+        }
+        int matchLength = MIN_MATCH;
+        while (i + matchLength < end && buf[ref + matchLength] == buf[i + matchLength]) {
+          matchLength++;
+        }
+        out    = ensureCapacity(out, outIdx, i - anchor + 15);
+        outIdx = writeLiterals(out, outIdx, buf, anchor, i - anchor);
+        outIdx = writeCInt(out, outIdx, matchLength);
+        outIdx = writeCInt(out, outIdx, i - ref);
+        i     += matchLength;
+        anchor = i;
+      }
+      out    = ensureCapacity(out, outIdx, end - anchor + 5);
+      outIdx = writeLiterals(out, outIdx, buf, anchor, end - anchor);
+      return Arrays.copyOf(out, outIdx);
+    }
+
+    @Override public byte[] decode(byte[] buf, int offset, int length, int decodedLength) {
+      byte[] out    = new byte[decodedLength];
+      int    outIdx = 0;
+      int[]  idx    = { offset };
+      try {
+        while (true) {
+          int literals = readCInt(buf, idx);
+          System.arraycopy(buf, idx[0], out, outIdx, literals);
+          idx[0] += literals;
+          outIdx += literals;
+          if (outIdx == decodedLength) {
+            break;
+          }
+          int matchLength = readCInt(buf, idx);
+          int from        = outIdx - readCInt(buf, idx);
+          // Can't use arraycopy since match can overlap with what we are writing
+          for (int i = 0; i < matchLength; i++) {
+            out[outIdx++] = out[from + i];
+          }
+        }
+      }
+      catch (IndexOutOfBoundsException e) {
+        throw new IllegalStateException("Corrupt checkpoint: error during decompression", e);
+      }
+      if (idx[0] != offset + length) {
+        throw new IllegalStateException("Corrupt checkpoint: unexpected data after decompression");
+      }
+      return out;
+    }
+
+    private static int readInt(byte[] buf, int i) {
+      return (buf[i] & 0xff) | (buf[i + 1] & 0xff) << 8 | (buf[i + 2] & 0xff) << 16 | (buf[i + 3] & 0xff) << 24;
+    }
+
+    private static byte[] ensureCapacity(byte[] out, int outIdx, int n) {
+      return outIdx + n <= out.length ? out : Arrays.copyOf(out, Math.max(out.length * 2, outIdx + n));
+    }
+
+    private static int writeLiterals(byte[] out, int outIdx, byte[] buf, int offset, int length) {
+      outIdx = writeCInt(out, outIdx, length);
+      System.arraycopy(buf, offset, out, outIdx, length);
+      return outIdx + length;
+    }
+
+    private static int writeCInt(byte[] out, int outIdx, int num) {
+      while ((num & ~0x7f) != 0) {
+        out[outIdx++] = (byte)((num & 0x7f) | 0x80);
+        num >>>= 7;
+      }
+      out[outIdx++] = (byte)num;
+      return outIdx;
+    }
+
+    private static int readCInt(byte[] buf, int[] idx) {
+      int num = 0;
+      int i   = 0;
+      do {
+        num += (buf[idx[0]] & 0x7f) << (7 * i++);
+      } while ((buf[idx[0]++] & 0x80) != 0);
+      return num;
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl.runtime;
+
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * A checkpoint waiting to be saved as part of a batch of checkpoints.
+ * @see io.jactl.JactlEnv#saveCheckpoints(java.util.List)
+ */
+public class CheckpointRecord {
+  private final UUID             id;
+  private final int              checkpointId;
+  private final byte[]           checkpoint;
+  private final boolean          isDelta;
+  private final String           source;
+  private final int              offset;
+  private final Object           result;
+  private final Consumer<Object> resumer;
+
+  public CheckpointRecord(UUID id, int checkpointId, byte[] checkpoint, boolean isDelta, String source, int offset, Object result, Consumer<Object> resumer) {
+    this.id           = id;
+    this.checkpointId = checkpointId;
+    this.checkpoint   = checkpoint;
+    this.isDelta      = isDelta;
+    this.source       = source;
+    this.offset       = offset;
+    this.result       = result;
+    this.resumer      = resumer;
+  }
+
+  /**
+   * @return the unique id of the script instance
+   */
+  public UUID getId()           { return id; }
+
+  /**
+   * @return the checkpoint id for the script instance
+   */
+  public int getCheckpointId()  { return checkpointId; }
+
+  /**
+   * @return the checkpointed state (or delta if {@link #isDelta()} is true)
+   */
+  public byte[] getCheckpoint() { return checkpoint; }
+
+  /**
+   * @return true if checkpoint is a delta from the previous checkpoint (see
+   *         {@link io.jactl.JactlEnv#saveCheckpointDelta})
+   */
+  public boolean isDelta()      { return isDelta; }
+
+  /**
+   * @return the source code (for error reporting)
+   */
+  public String getSource()     { return source; }
+
+  /**
+   * @return the offset where checkpoint occurred (for error reporting)
+   */
+  public int getOffset()        { return offset; }
+
+  /**
+   * @return the result to pass to the resumer once the checkpoint has been saved
+   */
+  public Object getResult()     { return result; }
+
+  /**
+   * @return the code to invoke to resume execution once checkpoint has been saved
+   */
+  public Consumer<Object> getResumer() { return resumer; }
+
+  /**
+   * Resume the script instance once the checkpoint has been saved
+   */
+  public void resume() {
+    resumer.accept(result);
+  }
+
+  /**
+   * Resume the script instance with an error if the checkpoint could not be saved
+   * @param message  the error message
+   */
+  public void fail(String message) {
+    resumer.accept(new RuntimeError(message, source, offset));
+  }
+}
@@ -33,7 +33,26 @@ public class CheckpointTask extends AsyncTask {
     }
     instance._$j$incrementCheckpointId();
     continuation.scriptInstance = instance;
-    byte[] buf = Checkpointer.checkpoint(continuation, getRuntimeState(), context, source, offset);
-    context.saveCheckpoint(instance._$j$getInstanceId(), instance._$j$checkpointId(), buf, source, offset, continuation.localObjects[0], resumer);
+    if (context.maxCheckpointDeltas() > 0) {
+      Checkpointer.checkpointDelta(continuation, getRuntimeState(), context, instance, source, offset, (buf, commit) -> {
+        // Next delta is only generated against this checkpoint once it has been saved
+        Consumer<Object> saved = result -> {
+          if (!(result instanceof Throwable)) {
+            commit.run();
+          }
+          resumer.accept(result);
+        };
+        if (Checkpointer.isDelta(buf)) {
+          context.saveCheckpointDelta(instance._$j$getInstanceId(), instance._$j$checkpointId(), buf, source, offset, continuation.localObjects[0], saved);
+        }
+        else {
+          context.saveCheckpoint(instance._$j$getInstanceId(), instance._$j$checkpointId(), buf, source, offset, continuation.localObjects[0], saved);
+        }
+      });
+    }
+    else {
+      Checkpointer.checkpoint(continuation, getRuntimeState(), context, source, offset, (buf, release) ->
+        context.saveCheckpoint(instance._$j$getInstanceId(), instance._$j$checkpointId(), buf, release, source, offset, continuation.localObjects[0], resumer));
+    }
   }
 }
@@ -22,7 +22,11 @@ import io.jactl.JactlType;
 import org.objectweb.asm.Type;
 
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.BiConsumer;
 
 import static io.jactl.JactlType.*;
@@ -42,15 +46,43 @@ import static io.jactl.JactlType.TypeEnum.STRING_BUILDER;
  * We generally store numbers in a compressed form where we only use as many
  * bytes as need with the top bit of a byte determining whether the number
  * extends into the next byte. We call these number types intc and longc.
+ * <p>When delta checkpoints are enabled, checkpoints after the first one for a
+ * script instance are encoded as a delta against the previous checkpoint,
+ * recording only the objects whose encoding has changed:</p>
+ * <pre>
+ *            byte  DELTA_VERSION
+ *            int32 numObjects
+ *            int32 numChanged
+ *            intc  objId           (repeated numChanged times)
+ *            intc  length
+ *            bytes encodedObject
+ * </pre>
+ * The full image is recreated by {@link Restorer#applyDelta(byte[], byte[])}.
+ * <p>If a {@link CheckpointCodec} has been configured then full checkpoints and deltas
+ * are compressed and wrapped with a header identifying the codec:</p>
+ * <pre>
+ *            byte  COMPRESSED_VERSION
+ *            byte  VERSION or DELTA_VERSION
+ *            byte  codecId
+ *            intc  uncompressedLength
+ *            bytes compressedData
+ * </pre>
  */
 public class Checkpointer {
   private static ThreadLocal<Checkpointer> checkpointerThreadLocal = ThreadLocal.withInitial(Checkpointer::new);
   static int  VERSION = 1;
+  static int  DELTA_VERSION = 64;
+  static int  COMPRESSED_VERSION = 32;
   static byte NULL_TYPE = -1;
 
   private static int  MAX_CACHE_SIZE      = 1024 * 16;
   private static int  MAX_CHECKPOINT_SIZE = 1024 * 1024 * 128;
 
+  // Buffers handed out to checkpoint sinks are returned to this pool when released
+  private static long                          MAX_POOLED_BYTES = Long.getLong("jactl.checkpoint.pool-bytes", 1024 * 1024 * 64);
+  private static ConcurrentLinkedQueue<byte[]> bufferPool       = new ConcurrentLinkedQueue<>();
+  private static AtomicLong                    pooledBytes      = new AtomicLong(0);
+
   private byte[]                            buf;
   private int                               idx;
   private String                            source;
@@ -58,7 +90,9 @@ public class Checkpointer {
   private int                               objId;
   private Object[]                          objects;
   private IdentityHashMap<Object,Integer>   objectIds;
+  private HashMap<String,Integer>           stringIds;
   private int[]                             offsets;
+  private int                               objTableOffset;
   private JactlContext                      context;
 
   private static Checkpointer get(String source, int offset, JactlContext context) {
@@ -80,11 +114,20 @@ public class Checkpointer {
     if (this.objectIds == null) {
       this.objectIds = new IdentityHashMap<>(MAX_CACHE_SIZE / 4);
     }
+    if (this.stringIds == null) {
+      this.stringIds = new HashMap<>();
+    }
     if (this.offsets == null) {
       this.offsets = new int[MAX_CACHE_SIZE / 4];
     }
     if (this.buf == null) {
-      this.buf = new byte[MAX_CACHE_SIZE];
+      this.buf = bufferPool.poll();
+      if (this.buf == null) {
+        this.buf = new byte[MAX_CACHE_SIZE];
+      }
+      else {
+        pooledBytes.addAndGet(-buf.length);
+      }
     }
     this._writeCInt(VERSION);
     this._writeInt(0);         // number of objects encoded (i.e. size of object table)
@@ -93,7 +136,7 @@ public class Checkpointer {
   }
 
   private void reset() {
-    if (buf.length > MAX_CACHE_SIZE) {
+    if (buf != null && buf.length > MAX_CACHE_SIZE) {
       buf = null;
     }
     if (offsets.length > MAX_CACHE_SIZE / 4) {
@@ -103,6 +146,7 @@ public class Checkpointer {
       objects = null;
     }
     objectIds = null;
+    stringIds = null;
     idx       = 0;
   }
 
@@ -115,21 +159,174 @@ public class Checkpointer {
   }
 
   public static byte[] checkpoint(Object obj, RuntimeState state, JactlContext context, String source, int offset) {
+    Checkpointer checkpointer = Checkpointer.get(source, offset, context);
+    checkpointer._checkpoint(checkpointState(obj, state, context));
+    byte[] buf = compress(context, checkpointer.getBuffer(), 0, checkpointer.getLength());
+    checkpointer.reset();
+    return buf;
+  }
+
+  /**
+   * Checkpoint state and pass the encoded checkpoint to the given sink without copying it.
+   * The sink is passed a read-only ByteBuffer over our internal buffer and a release callback
+   * which must be invoked once the sink no longer needs the ByteBuffer (e.g. once it has been
+   * written to a channel or copied into a buffer owned by the sink). Released buffers are
+   * pooled for use by subsequent checkpoints.
+   * @param obj       the continuation being checkpointed
+   * @param state     the runtime state
+   * @param context   the JactlContext
+   * @param source    the source code
+   * @param offset    offset in source where checkpoint is occurring
+   * @param sink      the sink to pass the checkpoint and release callback to
+   */
+  public static void checkpoint(Object obj, RuntimeState state, JactlContext context, String source, int offset, BiConsumer<ByteBuffer,Runnable> sink) {
+    Checkpointer checkpointer = Checkpointer.get(source, offset, context);
+    byte[]       buf;
+    int          length;
+    try {
+      checkpointer._checkpoint(checkpointState(obj, state, context));
+      if (context.checkpointCodec() != null) {
+        buf    = compress(context, checkpointer.getBuffer(), 0, checkpointer.getLength());
+        length = -1;
+      }
+      else {
+        buf    = checkpointer.getBuffer();
+        length = checkpointer.getLength();
+        checkpointer.buf = null;     // Sink now owns the buffer until it is released
+      }
+    }
+    finally {
+      // Reset before invoking sink since sink could resume script which could checkpoint again
+      checkpointer.reset();
+    }
+    if (length < 0) {
+      // Compressing created a new buffer so nothing to release
+      sink.accept(ByteBuffer.wrap(buf).asReadOnlyBuffer(), () -> {});
+      return;
+    }
+    AtomicBoolean released = new AtomicBoolean(false);
+    sink.accept(ByteBuffer.wrap(buf, 0, length).asReadOnlyBuffer(), () -> {
+      if (released.compareAndSet(false, true)) {
+        if (pooledBytes.addAndGet(buf.length) <= MAX_POOLED_BYTES) {
+          bufferPool.add(buf);
+        }
+        else {
+          pooledBytes.addAndGet(-buf.length);
+        }
+      }
+    });
+  }
+
+  /**
+   * Checkpoint state for a script instance where we only want to record the objects that
+   * have changed since the previous checkpoint of the instance.
+   * If there has been no previous checkpoint for this instance (since it was started or
+   * restored), or we have already generated the maximum number of deltas since the last
+   * full checkpoint, or the delta would be no smaller than the full checkpoint, then we
+   * return the full checkpoint instead. Use {@link #isDelta(byte[])} to tell which is which.
+   * <p>We track changes by keeping a copy of the encoded form of the objects of the last
+   * checkpoint that was saved on the script instance and comparing the encoded form of each
+   * object against it. The new checkpoint only becomes the one that the next delta is
+   * generated against once the sink has invoked the commit callback to indicate that the
+   * checkpoint has been saved.</p>
+   * @param obj       the continuation being checkpointed
+   * @param state     the runtime state
+   * @param context   the JactlContext
+   * @param instance  the script instance being checkpointed
+   * @param source    the source code
+   * @param offset    offset in source where checkpoint is occurring
+   * @param sink      consumer that saves the full checkpoint or delta and invokes the commit callback once it
+   *                  has been successfully saved
+   */
+  public static void checkpointDelta(Object obj, RuntimeState state, JactlContext context, JactlScriptObject instance, String source, int offset, BiConsumer<byte[],Runnable> sink) {
+    Checkpointer checkpointer = Checkpointer.get(source, offset, context);
+    byte[]       buf;
+    Snapshot     snapshot;
+    try {
+      checkpointer._checkpoint(checkpointState(obj, state, context));
+      Snapshot previous = instance._$j$checkpointSnapshot();
+      int      start    = checkpointer.getLength();
+      boolean  isDelta  = previous != null && previous.deltas < context.maxCheckpointDeltas() && checkpointer.writeDelta(previous);
+      int      end      = isDelta ? checkpointer.getLength() : start;
+      buf      = compress(context, checkpointer.getBuffer(), isDelta ? start : 0, isDelta ? end - start : end);
+      snapshot = checkpointer.snapshot(isDelta ? previous.deltas + 1 : 0);
+    }
+    finally {
+      // Reset before invoking sink since sink could resume script which could checkpoint again
+      checkpointer.reset();
+    }
+    sink.accept(buf, () -> instance._$j$checkpointSnapshot(snapshot));
+  }
+
+  /**
+   * Encoded form of the objects of the last checkpoint saved for a script instance
+   * that the next delta checkpoint is generated against.
+   */
+  public static final class Snapshot {
+    private final byte[] buf;        // Encoded objects
+    private final int[]  offsets;    // Offset of each object in buf (plus offset of end of last object)
+    private final int    deltas;     // Number of deltas since last full checkpoint
+
+    private Snapshot(byte[] buf, int[] offsets, int deltas) {
+      this.buf     = buf;
+      this.offsets = offsets;
+      this.deltas  = deltas;
+    }
+
+    private int size() {
+      return offsets.length - 1;
+    }
+  }
+
+  /**
+   * Check whether checkpoint data is a delta rather than a full checkpoint.
+   * @param checkpoint  the checkpoint data
+   * @return true if data is a delta from a previous checkpoint
+   */
+  public static boolean isDelta(byte[] checkpoint) {
+    return checkpoint.length > 0 && checkpoint[0] == DELTA_VERSION ||
+           checkpoint.length > 1 && checkpoint[0] == COMPRESSED_VERSION && checkpoint[1] == DELTA_VERSION;
+  }
+
+  /**
+   * Compress checkpoint data using the codec configured for the JactlContext (if any).
+   * If no codec is configured we just return a copy of the data.
+   * @param context  the JactlContext
+   * @param buf      the buffer
+   * @param offset   offset into buffer of data
+   * @param length   length of data
+   * @return the compressed data
+   */
+  public static byte[] compress(JactlContext context, byte[] buf, int offset, int length) {
+    CheckpointCodec codec = context.checkpointCodec();
+    if (codec == null) {
+      byte[] result = new byte[length];
+      System.arraycopy(buf, offset, result, 0, length);
+      return result;
+    }
+    byte[] compressed = codec.encode(buf, offset, length);
+    int    lengthSize = (32 - Integer.numberOfLeadingZeros(length | 1) + 6) / 7;
+    byte[] result     = new byte[3 + lengthSize + compressed.length];
+    int    idx        = 0;
+    result[idx++] = (byte)COMPRESSED_VERSION;
+    result[idx++] = buf[offset];         // VERSION or DELTA_VERSION
+    result[idx++] = (byte)codec.id();
+    for (int num = length; idx < 3 + lengthSize; num >>>= 7) {
+      result[idx++] = (byte)((num & 0x7f) | (num >= 128 ? 0x80 : 0));
+    }
+    System.arraycopy(compressed, 0, result, idx, compressed.length);
+    return result;
+  }
+
+  private static Object checkpointState(Object obj, RuntimeState state, JactlContext context) {
     Object scriptContext = state.getInvocationContext();
     // If we don't have a way of checkpointing the script context then write null instead
     if (scriptContext != null && context.getRegisteredClasses().getCheckpointer(scriptContext.getClass()) == null) {
       scriptContext = null;
     }
-    
-    // Add globals and scriptContext to checkpoint
-    obj = Arrays.asList(state.getGlobals(), obj, scriptContext);
 
-    Checkpointer checkpointer = Checkpointer.get(source, offset, context);
-    checkpointer._checkpoint(obj);
-    byte[] buf = new byte[checkpointer.getLength()];
-    System.arraycopy(checkpointer.getBuffer(), 0, buf, 0, checkpointer.getLength());
-    checkpointer.reset();
-    return buf;
+    // Add globals and scriptContext to checkpoint
+    return Arrays.asList(state.getGlobals(), obj, scriptContext);
   }
 
   private void _checkpoint(Object obj) {
@@ -138,7 +335,7 @@ public class Checkpointer {
       checkpointObj(i, objects[i]);
     }
     // Add object table
-    int objTableOffset = idx;
+    objTableOffset = idx;
     idx = 1;
     _writeInt(objId);
     _writeInt(objTableOffset);
@@ -148,6 +345,72 @@ public class Checkpointer {
     }
   }
 
+  private int objectLength(int id) {
+    return (id + 1 < objId ? offsets[id + 1] : objTableOffset) - offsets[id];
+  }
+
+  // Copy of encoded objects of the checkpoint in our buffer
+  private Snapshot snapshot(int deltas) {
+    int   start         = objId == 0 ? objTableOffset : offsets[0];
+    int[] objectOffsets = new int[objId + 1];
+    for (int i = 0; i < objId; i++) {
+      objectOffsets[i] = offsets[i] - start;
+    }
+    objectOffsets[objId] = objTableOffset - start;
+    return new Snapshot(Arrays.copyOfRange(buf, start, objTableOffset), objectOffsets, deltas);
+  }
+
+  private boolean isUnchanged(int id, Snapshot previous) {
+    if (id >= previous.size()) {
+      return false;
+    }
+    int length   = objectLength(id);
+    int prevFrom = previous.offsets[id];
+    if (previous.offsets[id + 1] - prevFrom != length) {
+      return false;
+    }
+    for (int i = offsets[id], j = prevFrom, end = offsets[id] + length; i < end; i++, j++) {
+      if (buf[i] != previous.buf[j]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Write the delta after the full checkpoint already in our buffer.
+   * @param previous  encoded objects of previous checkpoint
+   * @return false if delta is not smaller than the full checkpoint
+   */
+  private boolean writeDelta(Snapshot previous) {
+    int fullLength = idx;
+    writeCInt(DELTA_VERSION);
+    writeInt(objId);
+    int numChangedIdx = idx;
+    writeInt(0);
+    int numChanged = 0;
+    for (int i = 0; i < objId; i++) {
+      if (isUnchanged(i, previous)) {
+        continue;
+      }
+      numChanged++;
+      int length = objectLength(i);
+      writeCInt(i);
+      writeCInt(length);
+      ensureCapacity(length);
+      System.arraycopy(buf, offsets[i], buf, idx, length);
+      idx += length;
+      if (idx - fullLength >= fullLength) {
+        return false;
+      }
+    }
+    int endIdx = idx;
+    idx = numChangedIdx;
+    _writeInt(numChanged);
+    idx = endIdx;
+    return true;
+  }
+
   private void checkpointObj(int id, Object obj) {
     if (id >= offsets.length) {
       int[] newOffsets = new int[offsets.length * 2];
@@ -224,10 +487,19 @@ public class Checkpointer {
    * @return the unique object id for the object
    */
   private Integer getIdAndQueueForWriting(Object value) {
-    Integer id = objectIds.get(value);
+    // Strings are immutable so we share a single id across all equal strings (not just identical
+    // ones). This means that repeated strings (e.g. map keys) are only encoded once and will be
+    // restored as a single shared String instance.
+    boolean isString = value instanceof String;
+    Integer id       = isString ? stringIds.get(value) : objectIds.get(value);
     if (id == null) {
       id = objId++;
-      objectIds.put(value, id);
+      if (isString) {
+        stringIds.put((String)value, id);
+      }
+      else {
+        objectIds.put(value, id);
+      }
       if (id >= objects.length) {
         Object[] newObjects = new Object[objects.length * 2];
         System.arraycopy(objects, 0, newObjects, 0, objects.length);
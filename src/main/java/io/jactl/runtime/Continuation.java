@@ -23,6 +23,7 @@ import io.jactl.Utils;
 import io.jactl.compiler.MethodRef;
 
 import java.lang.reflect.Method;
+import java.util.Arrays;
 import java.util.function.Consumer;
 import java.util.function.Function;
 
@@ -45,6 +46,11 @@ import static io.jactl.JactlType.CONTINUATION;
  * If we need to suspend when in the middle of continuing from a previous suspension then we throw
  * a new Continuation and chain it to the rest of the Continuation objects in the current chain so
  * that when it is resumed and returns here we will find the rest of the chain to continue with.
+ * <p>
+ * To reduce allocations, compiled code uses {@link #capture} rather than the constructor. A function
+ * that suspends again after having been resumed reuses its existing Continuation (and its arrays),
+ * and other functions get a Continuation from a small per-thread pool that is replenished with the
+ * Continuation objects of functions that have completed after being resumed.
  */
 public class Continuation extends RuntimeException implements Checkpointable {
   private static int               VERSION = 1;
@@ -57,6 +63,16 @@ public class Continuation extends RuntimeException implements Checkpointable {
   public         Object[]          localObjects;
   public         JactlScriptObject scriptInstance = null;
   private        Object            result;             // Result of the async call when continuing after suspend
+  private        boolean           recyclable;         // True if created by capture() and can be pooled once finished with
+
+  private static final int               POOL_SIZE = Integer.getInteger("jactl.continuation.poolSize", 256);
+  private static final ThreadLocal<Pool> pool      = ThreadLocal.withInitial(Pool::new);
+
+  // Per-thread pool of Continuation objects (and their arrays) available for reuse
+  private static class Pool {
+    final Continuation[] free = new Continuation[POOL_SIZE];
+    int                  size = 0;
+  }
 
   public static final MethodRef GET_RESULT_METHOD = Utils.getMethod(Continuation.class, "getResult");
   
@@ -154,6 +170,88 @@ public class Continuation extends RuntimeException implements Checkpointable {
     this.localObjects = localObjects;
   }
 
+  private Continuation(boolean recyclable) {
+    super(null, null, false, false);
+    this.recyclable = recyclable;
+  }
+
+  /**
+   * Capture state for a stack frame of compiled code when a call it has made has thrown a Continuation. This is
+   * equivalent to the chained constructor except that the arrays are allocated here (the caller then fills them
+   * with the values of its locals) and Continuation objects and their arrays are reused where possible:
+   * <ul>
+   *   <li>if the function has previously been resumed (previous is non-null) then previous is reused since its
+   *       state has already been restored and it is no longer needed, and</li>
+   *   <li>otherwise, we take a Continuation from the per-thread pool if there is one.</li>
+   * </ul>
+   *
+   * @param continuation    the previous continuation in our chain (the one from our called child)
+   * @param previous        the Continuation the function was resumed with or null if not resumed
+   * @param methodHandle    method handle to continuation wrapper function for function
+   * @param instance        the instance to bind the method handle to or null if static
+   * @param codeLocation    the "location" to continue from
+   * @param numPrimitives   the size of the array needed for primitive locals (0 if none)
+   * @param numObjects      the size of the array needed for object locals (0 if none)
+   * @return the Continuation for the function
+   */
+  public static Continuation capture(Continuation continuation, Continuation previous, JactlMethodHandle methodHandle, Object instance, int codeLocation, int numPrimitives, int numObjects) {
+    Continuation cont = previous;
+    if (cont == null) {
+      Pool p = pool.get();
+      if (p.size > 0) {
+        cont = p.free[--p.size];
+        p.free[p.size] = null;
+      }
+      else {
+        cont = new Continuation(true);
+      }
+      cont.methodHandle = instance == null ? methodHandle : methodHandle.bindToLazily(instance);
+    }
+    // else: reuse existing method handle since it is the same function (and already bound to same instance)
+    cont.asyncTask = continuation.asyncTask;
+    continuation.asyncTask = null;
+    continuation.parent = cont;
+    cont.child = continuation;
+    cont.methodLocation = codeLocation;
+    cont.result = null;
+    if (numPrimitives == 0) {
+      cont.localPrimitives = null;
+    }
+    else if (cont.localPrimitives == null || cont.localPrimitives.length < numPrimitives) {
+      cont.localPrimitives = new long[numPrimitives];
+    }
+    if (numObjects == 0) {
+      cont.localObjects = null;
+    }
+    else if (cont.localObjects != null && cont.localObjects.length >= numObjects) {
+      Arrays.fill(cont.localObjects, null);    // Don't keep stale values alive (or checkpoint them)
+    }
+    else {
+      cont.localObjects = new Object[numObjects];
+    }
+    return cont;
+  }
+
+  // Return to pool once resumed function has completed
+  private void recycle() {
+    if (!recyclable) {
+      return;
+    }
+    asyncTask      = null;
+    parent         = null;
+    child          = null;
+    methodHandle   = null;
+    result         = null;
+    scriptInstance = null;
+    if (localObjects != null) {
+      Arrays.fill(localObjects, null);
+    }
+    Pool p = pool.get();
+    if (p.size < p.free.length) {
+      p.free[p.size++] = this;
+    }
+  }
+
   /**
    * Resume execution from where we left off, passing in the result of whatever asynchronous operation has now just
    * completed.
@@ -175,7 +273,7 @@ public class Continuation extends RuntimeException implements Checkpointable {
    * @return the result from the final Continuation being resumed
    */
   private Object doContinue(Object result) {
-    for (Continuation c = this; c != null; c = c.parent) {
+    for (Continuation c = this; c != null; ) {
       try {
         c.result = result;
         result = c.methodHandle.invoke(c);
@@ -198,6 +296,10 @@ public class Continuation extends RuntimeException implements Checkpointable {
       catch (Throwable e) {
         throw new IllegalStateException("Internal error: " + (e.getMessage() == null ? e.getClass() : e.getMessage()), e);
       }
+      // Function has completed so its Continuation is no longer needed
+      Continuation parent = c.parent;
+      c.recycle();
+      c = parent;
     }
     return result;
   }
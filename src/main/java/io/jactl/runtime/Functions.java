@@ -82,6 +82,15 @@ public class Functions {
     }
   }
 
+  /**
+   * Remove cached lookups for classes defined by the given class loader so that
+   * the class loader can be unloaded.
+   * @param classLoader  the class loader
+   */
+  public void removeClasses(ClassLoader classLoader) {
+    classes.keySet().removeIf(clss -> clss.getClassLoader() == classLoader);
+  }
+
   public void deregisterFunction(JactlType type, String name) {
     Class typeClass = type.classFromType();
     if (classes.containsKey(typeClass)) {
@@ -125,7 +134,7 @@ public class Functions {
    */
   JactlMethodHandle lookupWrapper(Object parent, String methodName) {
     Class       parentClass     = parent instanceof JactlIterator ? JactlIterator.class : parent.getClass();
-    ClassLookup classLookup     = classes.computeIfAbsent(parentClass, clss -> new ClassLookup());
+    ClassLookup classLookup     = classLookup(parentClass);
     FunctionDescriptor function = classLookup.methods.computeIfAbsent(methodName, name -> {
       JactlType parentType = JactlContext.typeOf(parent, jactlContext);
       return findMatching(parentType, name);
@@ -143,7 +152,7 @@ public class Functions {
 
   FunctionDescriptor lookupFunction(Object parent, String methodName) {
     Class       parentClass     = parent instanceof JactlIterator ? JactlIterator.class : parent.getClass();
-    ClassLookup classLookup     = classes.computeIfAbsent(parentClass, clss -> new ClassLookup());
+    ClassLookup classLookup     = classLookup(parentClass);
     FunctionDescriptor function = classLookup.methods.computeIfAbsent(methodName, name -> {
       JactlType parentType = JactlContext.typeOf(parent, jactlContext);
       return findMatching(parentType, name);
@@ -156,6 +165,16 @@ public class Functions {
     return function;
   }
 
+  private ClassLookup classLookup(Class parentClass) {
+    // Don't cache lookups for classes of scripts evicted from the ScriptCache since this would stop
+    // the classes from being unloaded
+    if (parentClass.getClassLoader() instanceof JactlContext.ScriptClassLoader && ((JactlContext.ScriptClassLoader)parentClass.getClassLoader()).isReleased()) {
+      ClassLookup classLookup = classes.get(parentClass);
+      return classLookup != null ? classLookup : new ClassLookup();
+    }
+    return classes.computeIfAbsent(parentClass, clss -> new ClassLookup());
+  }
+
   private FunctionDescriptor findMatching(JactlType objType, String methodName) {
     JactlType                type      = objType.unboxed();
     List<FunctionDescriptor> functions = methods.get(methodName);
@@ -66,7 +66,7 @@ public class HostClassDescriptor implements ClassDescriptor {
   @Override
   public ClassDescriptor getBaseClass() {
     for (Class<?> base = hostClass.getSuperclass(); base != Object.class; base = base.getSuperclass()) {
-      if (jactlContext.allowHostClassLookup.test(base.getName())) {
+      if (jactlContext.isHostClassAllowed(base.getName())) {
         return new HostClassDescriptor(base, jactlContext);
       }
     }
@@ -92,7 +92,7 @@ public class HostClassDescriptor implements ClassDescriptor {
   @Override
   public ClassDescriptor getInnerClass(String name) {
     String fullName = hostClass.getName() + "$" + name;
-    if (jactlContext.allowHostClassLookup.test(fullName)) {
+    if (jactlContext.isHostClassAllowed(fullName)) {
       Class<?> inner = null;
       try {
         inner = Class.forName(fullName);
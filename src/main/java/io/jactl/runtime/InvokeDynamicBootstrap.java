@@ -22,9 +22,12 @@ import io.jactl.Pair;
 import org.objectweb.asm.Type;
 
 import java.lang.invoke.*;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -42,6 +45,9 @@ public class InvokeDynamicBootstrap {
   private static final MethodHandle BINARY_OP_ADAPTER;           // Adapter for invoking binary operations
   private static final MethodHandle IS_SAME_CLASS;               // Check classes are still the same
   private static final MethodHandle METHOD_OR_FIELD_INVOKER;     // Invokes wrapper as fallback
+  private static final MethodHandle MEGAMORPHIC_LOOKUP;                 // Looks up target in megamorphic cache
+  private static final MethodHandle MEGAMORPHIC_METHOD_OR_FIELD_MISS;    // Adds method/field target to megamorphic cache
+  private static final MethodHandle MEGAMORPHIC_BINARY_OP_MISS;          // Adds binary op target to megamorphic cache
   
   private static final MethodHandle SAME_JMH;
   private static final MethodHandle SAME_JMH_OBJECT1;
@@ -85,6 +91,9 @@ public class InvokeDynamicBootstrap {
       BINARY_OP_ADAPTER       = lookup.findStatic(InvokeDynamicBootstrap.class, "binaryOpAdapter", MethodType.methodType(Object.class, MaxDepthCallSite.class, MethodHandles.Lookup.class, String.class, MethodHandle.class, String.class, String.class, int.class, int.class, String.class, int.class, Object.class, Object.class));
       IS_SAME_CLASS           = lookup.findStatic(InvokeDynamicBootstrap.class, "isSameClass", MethodType.methodType(boolean.class, Class.class, Class.class));
       METHOD_OR_FIELD_INVOKER = lookup.findStatic(InvokeDynamicBootstrap.class, "invokeMethodOrField", MethodType.methodType(Object.class, String.class, Object.class, Continuation.class, String.class, int.class, boolean.class, Object[].class));
+      MEGAMORPHIC_LOOKUP      = lookup.findStatic(InvokeDynamicBootstrap.class, "megamorphicLookup", MethodType.methodType(MethodHandle.class, ConcurrentHashMap.class, MethodHandle.class, Object.class));
+      MEGAMORPHIC_METHOD_OR_FIELD_MISS = lookup.findStatic(InvokeDynamicBootstrap.class, "megamorphicMethodOrFieldMiss", MethodType.methodType(Object.class, MaxDepthCallSite.class, MethodHandles.Lookup.class, String.class, String.class, int.class, boolean.class, MethodHandle.class, Object[].class));
+      MEGAMORPHIC_BINARY_OP_MISS       = lookup.findStatic(InvokeDynamicBootstrap.class, "megamorphicBinaryOpMiss", MethodType.methodType(Object.class, MaxDepthCallSite.class, String.class, MethodHandle.class, String.class, String.class, int.class, int.class, String.class, int.class, Object.class, Object.class));
       SAME_JMH                = lookup.findStatic(InvokeDynamicBootstrap.class, "sameJmh", MethodType.methodType(boolean.class, JactlMethodHandle.class, JactlMethodHandle.class));
       SAME_JMH_OBJECT1        = lookup.findStatic(InvokeDynamicBootstrap.class, "sameJmhObject1", MethodType.methodType(boolean.class, JactlMethodHandle.class, JactlMethodHandle.class, Object.class));
       SAME_JMH_OBJECT2        = lookup.findStatic(InvokeDynamicBootstrap.class, "sameJmhObject2", MethodType.methodType(boolean.class, JactlMethodHandle.class, JactlMethodHandle.class, Object.class, Object.class));
@@ -128,7 +137,7 @@ public class InvokeDynamicBootstrap {
    * @return the new call site
    */
   public static CallSite bootstrap(MethodHandles.Lookup lookup, String name, MethodType siteType, String source, int offset) {
-    MaxDepthCallSite cs = new MaxDepthCallSite(siteType);
+    MaxDepthCallSite cs = new MaxDepthCallSite(siteType, name, source, offset);
     cs.setTarget(makeAdapter(lookup, siteType, cs, source, offset));
     return cs;
   }
@@ -151,7 +160,7 @@ public class InvokeDynamicBootstrap {
    * @return the call site
    */
   public static CallSite bootstrapMethodOrField(MethodHandles.Lookup lookup, String methodOrField, MethodType siteType, String source, int offset, int captureStackTraces) {
-    MaxDepthCallSite cs = new MaxDepthCallSite(siteType);
+    MaxDepthCallSite cs = new MaxDepthCallSite(siteType, methodOrField, source, offset);
     cs.setTarget(makeMethodOrFieldAdapter(siteType, cs, methodOrField, lookup, source, offset, captureStackTraces == 1));
     return cs;
   }
@@ -162,7 +171,7 @@ public class InvokeDynamicBootstrap {
                                           MethodHandle methodHandle,
                                           String operator, String originalOp, int minScale, int captureStackTrace,
                                           String source, int offset) {
-    MaxDepthCallSite cs = new MaxDepthCallSite(siteType);
+    MaxDepthCallSite cs = new MaxDepthCallSite(siteType, operator, source, offset);
     cs.setTarget(makeBinaryOpAdapter(siteType, cs, name, lookup, methodHandle, operator, originalOp, minScale, captureStackTrace, source, offset));
     return cs;
   }
@@ -208,10 +217,10 @@ public class InvokeDynamicBootstrap {
     
     Object[] actualArgs = Arrays.copyOfRange(args, 1, args.length);
 
-    // Guard against chain depth that becomes unwieldy
+    // Guard against chain depth that becomes unwieldy. Since each closure invocation can have a different
+    // JactlMethodHandle there is nothing we can usefully cache so we just invoke via the wrapper.
     if (cs.depth.incrementAndGet() > MaxDepthCallSite.MAX_DEPTH) {
-      cs.setTarget(makeWrapperInvoker(siteType, source, offset));
-      MutableCallSite.syncAll(new MutableCallSite[]{cs});
+      cs.setMegamorphic(makeWrapperInvoker(siteType, source, offset));
       return jmh.invoke((Continuation)null, source, offset, actualArgs);
     }
 
@@ -336,25 +345,56 @@ public class InvokeDynamicBootstrap {
 
   // args: args[0] = obj, args[1..] = typed call args.
   public static Object methodOrFieldAdapter(MaxDepthCallSite cs, MethodHandles.Lookup lookup, String methodOrField, String source, int offset, boolean captureStackTraces, Object[] args) throws Throwable {
-    Object     parent   = args[0];
-    MethodType siteType = cs.type();
-
+    Object   parent     = args[0];
     Object[] actualArgs = Arrays.copyOfRange(args, 1, args.length);
 
-    // Guard against chain depth that becomes unwieldy
+    // Once chain depth becomes unwieldy switch to per-class lookup of call targets
     if (cs.depth.incrementAndGet() > MaxDepthCallSite.MAX_DEPTH) {
-      cs.setTarget(makeMethodOrFieldInvoker(siteType, methodOrField, source, offset, captureStackTraces));
-      MutableCallSite.syncAll(new MutableCallSite[]{cs});
+      cs.setMegamorphic(makeMegamorphicMethodOrField(cs, lookup, methodOrField, source, offset, captureStackTraces));
       return invokeMethodOrField(methodOrField, parent, null, source, offset, captureStackTraces, actualArgs);
     }
 
+    cs.setTarget(linkMethodOrField(cs.type(), lookup, methodOrField, source, offset, captureStackTraces, args, cs.getTarget()));
+    MutableCallSite.syncAll(new MutableCallSite[]{cs});
+
+    // First time we still invoke the wrapper after installing call site
+    return invokeMethodOrField(methodOrField, parent, null, source, offset, captureStackTraces, actualArgs);
+  }
+
+  // Megamorphic call site: look up target for class of parent in the call site's cache, and if not
+  // there link a new target for the class, add it to the cache, and invoke via slow path.
+  private static MethodHandle makeMegamorphicMethodOrField(MaxDepthCallSite cs, MethodHandles.Lookup lookup, String methodOrField, String source, int offset, boolean captureStackTraces) {
+    MethodType   siteType = cs.type();
+    MethodHandle slowPath = makeMethodOrFieldInvoker(siteType, methodOrField, source, offset, captureStackTraces);
+    MethodHandle miss     = MethodHandles.insertArguments(MEGAMORPHIC_METHOD_OR_FIELD_MISS, 0, cs, lookup, methodOrField, source, offset, captureStackTraces, slowPath)
+                                         .asCollector(Object[].class, siteType.parameterCount())
+                                         .asType(siteType);
+    return makeMegamorphicInvoker(cs, miss);
+  }
+
+  public static Object megamorphicMethodOrFieldMiss(MaxDepthCallSite cs, MethodHandles.Lookup lookup, String methodOrField, String source, int offset, boolean captureStackTraces, MethodHandle slowPath, Object[] args) throws Throwable {
+    Object parent = args[0];
+    if (parent != null) {
+      MaxDepthCallSite.MegamorphicCache cache = cs.megamorphicCache();
+      cache.misses.incrementAndGet();
+      if (cache.isCacheable(parent.getClass())) {
+        cache.targets.putIfAbsent(parent.getClass(), linkMethodOrField(cs.type(), lookup, methodOrField, source, offset, captureStackTraces, args, slowPath));
+      }
+    }
+    return invokeMethodOrField(methodOrField, parent, null, source, offset, captureStackTraces, Arrays.copyOfRange(args, 1, args.length));
+  }
+
+  // Build target for invoking method/field on given parent class that falls back to given fallback
+  // if class of parent (or argument types) do not match
+  private static MethodHandle linkMethodOrField(MethodType siteType, MethodHandles.Lookup lookup, String methodOrField, String source, int offset, boolean captureStackTraces, Object[] args, MethodHandle fallback) throws Throwable {
+    Object       parent       = args[0];
+    Object[]     actualArgs   = Arrays.copyOfRange(args, 1, args.length);
     JactlContext jactlContext = RuntimeState.getState().getContext();
 
     MethodHandle isSameClass = MethodHandles.filterArguments(IS_SAME_CLASS.bindTo(parent.getClass()), 0, GET_CLASS);
     isSameClass = MethodHandles.dropArguments(isSameClass, 1, siteType.parameterList().subList(1, siteType.parameterCount()));
 
     // If we have a JactlObject then we can look up method/field
-    MethodHandle fallback = cs.getTarget();
     FunctionDescriptor func = null;
     JactlMethodHandle  jmh  = null;
     if (parent instanceof JactlObject) {
@@ -372,9 +412,7 @@ public class InvokeDynamicBootstrap {
         else {
           // We have a field so we install something that checks parent class and invokes slow path through
           // invokeMethodOrField() which loads field to get JactlMethodHandle and invokes it.
-          cs.setTarget(MethodHandles.guardWithTest(isSameClass, makeMethodOrFieldInvoker(siteType, methodOrField, source, offset, captureStackTraces), fallback));
-          MutableCallSite.syncAll(new MutableCallSite[]{cs});
-          return invokeMethodOrField(methodOrField, parent, null, source, offset, captureStackTraces, actualArgs);
+          return MethodHandles.guardWithTest(isSameClass, makeMethodOrFieldInvoker(siteType, methodOrField, source, offset, captureStackTraces), fallback);
         }
       }
     }
@@ -388,42 +426,34 @@ public class InvokeDynamicBootstrap {
     if (func == null) {
       // If we have a map then we might have a field
       if (parent instanceof Map) {
-        cs.setTarget(MethodHandles.guardWithTest(isSameClass, makeMethodOrFieldInvoker(siteType, methodOrField, source, offset, captureStackTraces), fallback));
+        return MethodHandles.guardWithTest(isSameClass, makeMethodOrFieldInvoker(siteType, methodOrField, source, offset, captureStackTraces), fallback);
       }
-      else {
-        // Check for host class
-        if (jactlContext.allowHostAccess) {
-          jmh = jactlContext.lookupWrapperForHostClass(parent, methodOrField, actualArgs, source, offset);
-        }
-        if (jmh == null) {
-          // No method for this class so fallback to default mechanism that will throw appropriate error
-          cs.setTarget(MethodHandles.guardWithTest(isSameClass, makeMethodOrFieldInvoker(siteType, methodOrField, source, offset, captureStackTraces), fallback));
-        }
-        else {
-          int          pos     = jmh.isBoundHandle() ? 1 : 0;
-          MethodHandle adapted = jmh.handleToUnderlyingFunction();
-          if (!jmh.isBoundHandle()) {
-            // Ignore the object since we have a static method
-            adapted = MethodHandles.dropArguments(adapted, pos++, Object.class);
-          }
-
-          MethodHandle guard = createGuardForMethod(args[0].getClass(), siteType, adapted.type(), args);
-          
-          try {
-            adapted = coerceArgumentsOrFail(siteType, adapted, args, pos);
-            adapted = adapted.asType(siteType);
-            cs.setTarget(MethodHandles.guardWithTest(guard, adapted, fallback));
-          }
-          catch (WrongMethodTypeException e) {
-            // Argument types not directly compatible so fall back to slow path to let it do any coercion required
-            cs.setTarget(MethodHandles.guardWithTest(guard, makeMethodOrFieldInvoker(siteType, methodOrField, source, offset, captureStackTraces), fallback));
-          }
-        }
+      // Check for host class
+      if (jactlContext.allowHostAccess) {
+        jmh = jactlContext.lookupWrapperForHostClass(parent, methodOrField, actualArgs, source, offset);
+      }
+      if (jmh == null) {
+        // No method for this class so fallback to default mechanism that will throw appropriate error
+        return MethodHandles.guardWithTest(isSameClass, makeMethodOrFieldInvoker(siteType, methodOrField, source, offset, captureStackTraces), fallback);
+      }
+      int          pos     = jmh.isBoundHandle() ? 1 : 0;
+      MethodHandle adapted = jmh.handleToUnderlyingFunction();
+      if (!jmh.isBoundHandle()) {
+        // Ignore the object since we have a static method
+        adapted = MethodHandles.dropArguments(adapted, pos++, Object.class);
       }
-      MutableCallSite.syncAll(new MutableCallSite[]{cs});
 
-      // First time we still invoke the wrapper after installing call site
-      return invokeMethodOrField(methodOrField, parent, null, source, offset, captureStackTraces, actualArgs);
+      MethodHandle guard = createGuardForMethod(args[0].getClass(), siteType, adapted.type(), args);
+
+      try {
+        adapted = coerceArgumentsOrFail(siteType, adapted, args, pos);
+        adapted = adapted.asType(siteType);
+        return MethodHandles.guardWithTest(guard, adapted, fallback);
+      }
+      catch (WrongMethodTypeException e) {
+        // Argument types not directly compatible so fall back to slow path to let it do any coercion required
+        return MethodHandles.guardWithTest(guard, makeMethodOrFieldInvoker(siteType, methodOrField, source, offset, captureStackTraces), fallback);
+      }
     }
 
     MethodHandle adapted;
@@ -474,14 +504,23 @@ public class InvokeDynamicBootstrap {
       directInvoke = false;
     }
     
-    adapted = MethodHandles.guardWithTest(guard, directInvoke ? adapted : makeMethodOrFieldInvoker(siteType, methodOrField, source, offset, captureStackTraces), fallback);
-    cs.setTarget(adapted);
-    MutableCallSite.syncAll(new MutableCallSite[]{cs});
+    return MethodHandles.guardWithTest(guard, directInvoke ? adapted : makeMethodOrFieldInvoker(siteType, methodOrField, source, offset, captureStackTraces), fallback);
+  }
 
-    // First time we still invoke the wrapper after installing call site
-    return invokeMethodOrField(methodOrField, parent, null, source, offset, captureStackTraces, actualArgs);
+  // Builds invoker that looks up the target in the megamorphic cache of the call site based on the
+  // class of the first argument and invokes it (or invokes miss handler if not found)
+  private static MethodHandle makeMegamorphicInvoker(MaxDepthCallSite cs, MethodHandle miss) {
+    MethodType   siteType     = cs.type();
+    MethodHandle lookupTarget = MethodHandles.insertArguments(MEGAMORPHIC_LOOKUP, 0, cs.megamorphicCache().targets, miss)
+                                             .asType(MethodType.methodType(MethodHandle.class, siteType.parameterType(0)));
+    return MethodHandles.foldArguments(MethodHandles.exactInvoker(siteType), lookupTarget);
   }
-  
+
+  public static MethodHandle megamorphicLookup(ConcurrentHashMap<Class<?>,MethodHandle> targets, MethodHandle miss, Object obj) {
+    MethodHandle target = obj == null ? null : targets.get(obj.getClass());
+    return target == null ? miss : target;
+  }
+
   private static Pair<MethodHandle,Boolean> fillInDefaultValues(MethodHandle adapted, FunctionDescriptor func, Object[] args) throws Throwable {
     int argCount = args.length - 1;
     
@@ -528,11 +567,13 @@ public class InvokeDynamicBootstrap {
       return methodHandle.invoke(left, right, operator, originalOp, minScale, captureStackTrace == 1, source, offset);
     }
     
-    // Guard against chain depth that becomes unwieldy
+    // Once chain depth becomes unwieldy switch to per-class lookup of operator method
     if (cs.depth.incrementAndGet() > MaxDepthCallSite.MAX_DEPTH) {
-      cs.setTarget(MethodHandles.insertArguments(methodHandle, 2, operator, originalOp, minScale, captureStackTrace == 1, source, offset)
-                                .asType(siteType));
-      MutableCallSite.syncAll(new MutableCallSite[]{cs});
+      MethodHandle generic = MethodHandles.insertArguments(methodHandle, 2, operator, originalOp, minScale, captureStackTrace == 1, source, offset)
+                                          .asType(siteType);
+      MethodHandle miss    = MethodHandles.insertArguments(MEGAMORPHIC_BINARY_OP_MISS, 0, cs, operatorName, generic, operator, originalOp, minScale, captureStackTrace, source, offset)
+                                          .asType(siteType);
+      cs.setMegamorphic(makeMegamorphicInvoker(cs, miss));
       return methodHandle.invoke(left, right, operator, originalOp, minScale, captureStackTrace == 1, source, offset);
     }
 
@@ -553,6 +594,21 @@ public class InvokeDynamicBootstrap {
     return methodHandle.invoke(left, right, operator, originalOp, minScale, captureStackTrace == 1, source, offset);
   }
 
+  public static Object megamorphicBinaryOpMiss(MaxDepthCallSite cs, String operatorName, MethodHandle generic, String operator, String originalOp, int minScale,
+                                               int captureStackTrace, String source, int offset, Object left, Object right) throws Throwable {
+    if (left != null) {
+      MaxDepthCallSite.MegamorphicCache cache = cs.megamorphicCache();
+      cache.misses.incrementAndGet();
+      if (cache.isCacheable(left.getClass())) {
+        cache.targets.putIfAbsent(left.getClass(),
+                                  MethodHandles.insertArguments(BinaryOpMethods.lookupMethod(left.getClass().getName(), operatorName), 2,
+                                                                operator, originalOp, minScale, captureStackTrace == 1, source, offset)
+                                               .asType(cs.type()));
+      }
+    }
+    return generic.invoke(left, right);
+  }
+
   private static final HashMap<Class<?>, MethodHandle> NUMERIC_FILTERS = new HashMap<>();
   private static final HashMap<Class<?>, Integer>      NUMERIC_RANK    = new HashMap<>();
   static {
@@ -660,11 +716,138 @@ public class InvokeDynamicBootstrap {
     return clss1 == clss2;
   }
 
+  /**
+   * Call site that chains guarded targets up to a maximum depth, after which it becomes megamorphic.
+   * Megamorphic method/field and binary operator call sites look up their targets in a per-call-site
+   * cache keyed on the class of the object/left operand. The cache is only created once the call
+   * site becomes megamorphic and entries for classes of a {@link JactlContext.ScriptClassLoader} are
+   * removed when the class loader is released (see {@link #removeClasses(ClassLoader)}) so that the
+   * cached targets do not stop the classes from being unloaded.
+   * <p>If <code>jactl.invokeDynamic.stats</code> system property is true (or {@link #trackStats(boolean)}
+   * has been invoked) then call sites are tracked so that their stats can be retrieved via
+   * {@link #getCallSites()}.</p>
+   */
   public static class MaxDepthCallSite extends MutableCallSite {
-    AtomicInteger depth = new AtomicInteger(0);
-    static final int MAX_DEPTH = Integer.getInteger("jactl.invokeDynamic.maxDepth", 8);
+    static final int     MAX_DEPTH               = Integer.getInteger("jactl.invokeDynamic.maxDepth", 8);
+    static final int     MAX_MEGAMORPHIC_CLASSES = Integer.getInteger("jactl.invokeDynamic.megamorphicClasses", 64);
+
+    private static volatile boolean                             trackStats = Boolean.getBoolean("jactl.invokeDynamic.stats");
+    private static final    Queue<WeakReference<MaxDepthCallSite>> callSites = new ConcurrentLinkedQueue<>();
+    private static final    Queue<WeakReference<MaxDepthCallSite>> megamorphicSites = new ConcurrentLinkedQueue<>();
+
+    final AtomicInteger                     depth            = new AtomicInteger(0);
+    private volatile MegamorphicCache       megamorphicCache = null;     // Created when site becomes megamorphic
+    private volatile boolean                isMegamorphic    = false;
+    private final    String                        name;
+    private final    String                        source;
+    private final    int                           offset;
+
+    MaxDepthCallSite(MethodType type, String name, String source, int offset) {
+      super(type);
+      this.name   = name;
+      this.source = source;
+      this.offset = offset;
+      if (trackStats) {
+        callSites.add(new WeakReference<>(this));
+      }
+    }
 
-    MaxDepthCallSite(MethodType type) { super(type); }
+    static final class MegamorphicCache {
+      final AtomicInteger                            misses  = new AtomicInteger(0);
+      final ConcurrentHashMap<Class<?>,MethodHandle> targets = new ConcurrentHashMap<>();
+
+      boolean isCacheable(Class<?> clss) {
+        if (targets.size() >= MAX_MEGAMORPHIC_CLASSES) {
+          return false;
+        }
+        // Don't cache targets for classes of scripts evicted from the ScriptCache since this would
+        // stop the classes from being unloaded
+        ClassLoader loader = clss.getClassLoader();
+        return !(loader instanceof JactlContext.ScriptClassLoader) || !((JactlContext.ScriptClassLoader)loader).isReleased();
+      }
+    }
+
+    void setMegamorphic(MethodHandle target) {
+      isMegamorphic = true;
+      setTarget(target);
+      MutableCallSite.syncAll(new MutableCallSite[]{ this });
+    }
+
+    MegamorphicCache megamorphicCache() {
+      MegamorphicCache cache = megamorphicCache;
+      if (cache == null) {
+        synchronized (this) {
+          cache = megamorphicCache;
+          if (cache == null) {
+            megamorphicCache = cache = new MegamorphicCache();
+            megamorphicSites.add(new WeakReference<>(this));
+          }
+        }
+      }
+      return cache;
+    }
+
+    /**
+     * Remove cached targets for classes defined by the given class loader from the caches of
+     * megamorphic call sites so that the class loader can be unloaded.
+     * @param classLoader  the class loader
+     */
+    public static void removeClasses(ClassLoader classLoader) {
+      for (Iterator<WeakReference<MaxDepthCallSite>> iter = megamorphicSites.iterator(); iter.hasNext(); ) {
+        MaxDepthCallSite cs = iter.next().get();
+        if (cs == null) {
+          iter.remove();
+        }
+        else {
+          cs.megamorphicCache.targets.keySet().removeIf(clss -> clss.getClassLoader() == classLoader);
+        }
+      }
+    }
+
+    /**
+     * Enable/disable tracking of call sites created from now on
+     * @param value true to enable tracking
+     */
+    public static void trackStats(boolean value) {
+      trackStats = value;
+    }
+
+    /**
+     * @return the tracked call sites that are still live
+     */
+    public static List<MaxDepthCallSite> getCallSites() {
+      List<MaxDepthCallSite> result = new ArrayList<>();
+      for (Iterator<WeakReference<MaxDepthCallSite>> iter = callSites.iterator(); iter.hasNext(); ) {
+        MaxDepthCallSite cs = iter.next().get();
+        if (cs == null) {
+          iter.remove();
+        }
+        else {
+          result.add(cs);
+        }
+      }
+      return result;
+    }
+
+    public String  getName()               { return name; }
+    public String  getSource()             { return source; }
+    public int     getOffset()             { return offset; }
+    public int     getLineNum()            { return new Location(source, offset).getLineNum(); }
+    /** @return number of times the call site has been relinked */
+    public int     getRelinks()            { return depth.get(); }
+    /** @return number of guarded targets chained in the call site */
+    public int     getDepth()              { return Math.min(depth.get(), MAX_DEPTH); }
+    public boolean isMegamorphic()         { return isMegamorphic; }
+    /** @return number of classes in the megamorphic cache */
+    public int     getMegamorphicClasses() { return megamorphicCache == null ? 0 : megamorphicCache.targets.size(); }
+    /** @return number of megamorphic cache misses */
+    public int     getMegamorphicMisses()  { return megamorphicCache == null ? 0 : megamorphicCache.misses.get(); }
+
+    @Override public String toString() {
+      return "MaxDepthCallSite[name=" + name + ", line=" + getLineNum() +
+             ", relinks=" + getRelinks() + ", depth=" + getDepth() + ", megamorphic=" + isMegamorphic +
+             ", megamorphicClasses=" + getMegamorphicClasses() + ", megamorphicMisses=" + getMegamorphicMisses() + "]";
+    }
   }
   
   public static BigDecimal decimalValue(Number n) {
@@ -52,6 +52,7 @@ public abstract class JactlIterator<T> implements Iterator<T>, Checkpointable {
     STRING,
     STRING_SPLIT,
     TRANSPOSE,
+    PARALLEL,
   }
 
   public static JactlIterator create(int ordinal) {
@@ -77,6 +78,7 @@ public abstract class JactlIterator<T> implements Iterator<T>, Checkpointable {
       case NUMBER:         return new NumberIterator();
       case STRING:         return new StringIterator();
       case STRING_SPLIT:   return new StringSplitIterator();
+      case PARALLEL:       return new ParallelIterator();
       default:             throw new IllegalStateException("Unexpected iterator type " + ordinal);
     }
   }
@@ -103,6 +105,7 @@ public abstract class JactlIterator<T> implements Iterator<T>, Checkpointable {
       case NUMBER:         return NumberIterator.class;
       case STRING:         return StringIterator.class;
       case STRING_SPLIT:   return StringSplitIterator.class;
+      case PARALLEL:       return ParallelIterator.class;
       default:             throw new IllegalStateException("Unexpected iterator type " + type);
     }
   }
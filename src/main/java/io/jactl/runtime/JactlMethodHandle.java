@@ -78,6 +78,15 @@ public abstract class JactlMethodHandle implements Checkpointable {
   public JactlMethodHandle bindTo(Object obj) {
     return new BoundHandle(this, obj);
   }
+
+  // Bind without creating the bound MethodHandle until it is needed (used for Continuations
+  // which are usually only invoked once and which can then avoid the cost of binding)
+  JactlMethodHandle bindToLazily(Object obj) {
+    BoundHandle boundHandle = new BoundHandle();
+    boundHandle.wrappedHandle = this;
+    boundHandle.boundObj      = obj;
+    return boundHandle;
+  }
   
   public MethodHandle handleToUnderlyingFunction() {
     throw new UnsupportedOperationException();
@@ -437,6 +446,11 @@ public abstract class JactlMethodHandle implements Checkpointable {
     }
 
     @Override public Object invoke(Continuation c) throws Throwable {
+      if (handle == null && !(wrappedHandle instanceof BoundHandle)) {
+        // Resuming a Continuation is usually a one-off invocation for a given BoundHandle so
+        // avoid the cost of creating a bound MethodHandle and pass the bound object instead
+        return wrappedHandle.handle.invoke(boundObj, c);
+      }
       populateHandle();
       return handle.invokeExact(c);
     }
@@ -24,6 +24,9 @@ public class JactlScriptObject implements Checkpointable {
   private UUID _$j$instanceId   = RuntimeUtils.randomUUID();
   private int  _$j$checkpointId = 0;
 
+  // For delta checkpoints: encoded objects of last saved checkpoint (not checkpointed itself)
+  private Checkpointer.Snapshot _$j$checkpointSnapshot = null;
+
   public UUID _$j$getInstanceId() {
     return _$j$instanceId;
   }
@@ -40,6 +43,14 @@ public class JactlScriptObject implements Checkpointable {
     _$j$checkpointId++;
   }
 
+  public Checkpointer.Snapshot _$j$checkpointSnapshot() {
+    return _$j$checkpointSnapshot;
+  }
+
+  public void _$j$checkpointSnapshot(Checkpointer.Snapshot snapshot) {
+    _$j$checkpointSnapshot = snapshot;
+  }
+
   @Override public void _$j$checkpoint(Checkpointer checkpointer) {
     checkpointer.writeLong(_$j$instanceId.getMostSignificantBits());
     checkpointer.writeLong(_$j$instanceId.getLeastSignificantBits());
@@ -17,6 +17,10 @@
 
 package io.jactl.runtime;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
 public class Json {
 
   public static String toJson(Object obj, String source, int offset) {
@@ -30,4 +34,60 @@ public class Json {
     return decoder.decode();
   }
 
+  /**
+   * Encode object as JSON returning UTF-8 encoded bytes. Since non-ASCII chars are
+   * always escaped the bytes will only contain ASCII chars.
+   * @param obj  the object to encode
+   * @return the bytes of the encoded JSON
+   */
+  public static byte[] toJsonBytes(Object obj) {
+    JsonEncoder buf = JsonEncoder.get(null, 0);
+    buf.writeObj(obj);
+    return buf.finaliseBytes();
+  }
+
+  /**
+   * Encode object as JSON and write the UTF-8 encoded bytes to output stream
+   * @param obj  the object to encode
+   * @param out  the output stream
+   * @throws IOException if error writing to the stream
+   */
+  public static void writeJson(Object obj, OutputStream out) throws IOException {
+    JsonEncoder buf = JsonEncoder.get(null, 0);
+    buf.writeObj(obj);
+    buf.finalise(out);
+  }
+
+  /**
+   * Encode object as JSON and put the UTF-8 encoded bytes into the buffer
+   * @param obj  the object to encode
+   * @param out  the buffer
+   * @throws java.nio.BufferOverflowException if not enough room in the buffer (in which case nothing is written)
+   */
+  public static void writeJson(Object obj, ByteBuffer out) {
+    JsonEncoder buf = JsonEncoder.get(null, 0);
+    buf.writeObj(obj);
+    buf.finalise(out);
+  }
+
+  /**
+   * Decode UTF-8 encoded JSON
+   * @param json  the bytes of the JSON
+   * @return the decoded object
+   */
+  public static Object fromJsonBytes(byte[] json) {
+    return fromJsonBytes(json, 0, json.length);
+  }
+
+  /**
+   * Decode UTF-8 encoded JSON
+   * @param json    the buffer holding the JSON
+   * @param offset  offset into buffer where JSON starts
+   * @param length  length of the JSON
+   * @return the decoded object
+   */
+  public static Object fromJsonBytes(byte[] json, int offset, int length) {
+    return JsonDecoder.get(json, offset, length).decode();
+  }
+
 }
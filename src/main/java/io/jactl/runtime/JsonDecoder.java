@@ -24,6 +24,7 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -38,16 +39,33 @@ public class JsonDecoder {
   int    offset = 0;
   String source;
   int    sourceOffset;
+  int    baseOffset;     // Offset of json within larger stream (for error messages)
 
   public static final MethodRef DECODE_JACTL_OBJ_METHOD = Utils.getMethod(JsonDecoder.class, "decodeJactlObj", String.class, String.class, int.class, JactlObject.class);
   
   public static JsonDecoder get(String json, String source, int sourceOffset) {
+    return get(json, source, sourceOffset, 0);
+  }
+
+  /**
+   * Get decoder for UTF-8 encoded JSON
+   * @param json    the buffer holding the JSON
+   * @param offset  offset in buffer where JSON starts
+   * @param length  length of the JSON
+   * @return the decoder
+   */
+  public static JsonDecoder get(byte[] json, int offset, int length) {
+    return get(new String(json, offset, length, StandardCharsets.UTF_8), null, 0);
+  }
+
+  static JsonDecoder get(String json, String source, int sourceOffset, int baseOffset) {
     JsonDecoder decoder = threadDecoder.get();
     decoder.offset = 0;
     decoder.json = json;
     decoder.length = json.length();
     decoder.source = source;
     decoder.sourceOffset = sourceOffset;
+    decoder.baseOffset = baseOffset;
     return decoder;
   }
 
@@ -55,7 +73,7 @@ public class JsonDecoder {
     Object result = _decode();
     skipWhitespace();
     if (offset != length) {
-      throw new RuntimeError("Offset " + offset + ": Extra data found at end of json", source, offset);
+      throw new RuntimeError("Offset " + (baseOffset + offset) + ": Extra data found at end of json", source, offset);
     }
     return result;
   }
@@ -360,7 +378,7 @@ public class JsonDecoder {
   }
 
   public void error(String error, int errOffset) {
-    throw new RuntimeError("At JSON offset " + errOffset + ": " + error, source, sourceOffset);
+    throw new RuntimeError("At JSON offset " + (baseOffset + errOffset) + ": " + error, source, sourceOffset);
   }
 
   public void missingFields(int flag, long value, JactlObject obj) {
@@ -17,7 +17,12 @@
 
 package io.jactl.runtime;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.math.BigDecimal;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -43,11 +48,54 @@ public class JsonEncoder {
 
   public String finalise() {
     String result = new String(bytes, 0, offset);
+    release();
+    return result;
+  }
+
+  /**
+   * Return the encoded JSON as UTF-8 bytes (non-ASCII chars are always escaped
+   * so the bytes are also valid ASCII)
+   * @return the encoded bytes
+   */
+  public byte[] finaliseBytes() {
+    byte[] result = Arrays.copyOf(bytes, offset);
+    release();
+    return result;
+  }
+
+  /**
+   * Write encoded JSON to output stream
+   * @param out  the output stream
+   * @throws IOException if error writing
+   */
+  public void finalise(OutputStream out) throws IOException {
+    try {
+      out.write(bytes, 0, offset);
+    }
+    finally {
+      release();
+    }
+  }
+
+  /**
+   * Write encoded JSON to buffer
+   * @param buf  the buffer
+   * @throws BufferOverflowException if not enough room in buffer (nothing is written)
+   */
+  public void finalise(ByteBuffer buf) {
+    try {
+      buf.put(bytes, 0, offset);
+    }
+    finally {
+      release();
+    }
+  }
+
+  private void release() {
     if (length >= MAX_CACHE_SIZE) {
       length = 128;
       bytes = new byte[length];
     }
-    return result;
   }
 
   public void ensureCapacity(int n) {
@@ -81,6 +129,30 @@ public class JsonEncoder {
     }
   }
 
+  /**
+   * Write bytes that have already been JSON encoded
+   * @param b  the bytes
+   */
+  public void writeBytes(byte[] b) {
+    ensureCapacity(b.length);
+    System.arraycopy(b, 0, bytes, offset, b.length);
+    offset += b.length;
+  }
+
+  /**
+   * Used by generated code to precompute the encoded form of a field name.
+   * @param prefix  the '{' or ',' that precedes the field
+   * @param name    the field name
+   * @return the bytes for prefix followed by the quoted name and ':'
+   */
+  public static byte[] fieldName(char prefix, String name) {
+    JsonEncoder encoder = new JsonEncoder();
+    encoder.writeByte(prefix);
+    encoder.writeString(name, true);
+    encoder.writeByte(':');
+    return Arrays.copyOf(encoder.bytes, encoder.offset);
+  }
+
   public void writeObj(Object obj) {
     writeObj(obj, null, 0);
   }
@@ -0,0 +1,313 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl.runtime;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * <p>Decoder for JSON data that is too large to be read into memory in one go.</p>
+ * <p>If the data is a JSON array then the decoder iterates over the elements of the
+ * array, decoding them one at a time. Otherwise, the data is treated as a sequence of
+ * JSON values (separated by optional whitespace such as newlines) and each value is
+ * returned in turn.</p>
+ * <p>The data is read in chunks so only the text of the element currently being decoded
+ * needs to be held in memory.</p>
+ */
+public class JsonStreamDecoder implements Iterator<Object>, Closeable {
+  private static final int    BUF_SIZE = 8 * JsonDecoder.CHAR_BUF_SIZE;
+  private static final int    EOS      = -1;
+  private static final Object END      = new Object();
+
+  private final Reader  reader;
+  private final char[]  buf       = new char[BUF_SIZE];
+  private int           pos       = 0;
+  private int           limit     = 0;
+  private int           bufOffset = 0;                    // Offset in stream of start of buf
+  private StringBuilder element   = new StringBuilder();  // For elements that span multiple chunks
+  private String        source;
+  private int           sourceOffset;
+  private boolean       started   = false;
+  private boolean       isArray   = false;
+  private boolean       finished  = false;
+  private boolean       haveNext  = false;
+  private Object        next;
+
+  public JsonStreamDecoder(Reader reader) {
+    this(reader, null, 0);
+  }
+
+  /**
+   * Create decoder for JSON data encoded as UTF-8
+   * @param in  the input stream
+   */
+  public JsonStreamDecoder(InputStream in) {
+    this(new InputStreamReader(in, StandardCharsets.UTF_8));
+  }
+
+  /**
+   * Create decoder for JSON data encoded as UTF-8. The position of the buffer is not modified.
+   * @param buffer  the buffer holding the data
+   */
+  public JsonStreamDecoder(ByteBuffer buffer) {
+    this(new ByteBufferReader(buffer.duplicate()));
+  }
+
+  /**
+   * Create decoder for JSON data being read by a script
+   * @param reader        the reader
+   * @param source        the script source (for errors)
+   * @param sourceOffset  offset in source of function reading the data
+   */
+  public JsonStreamDecoder(Reader reader, String source, int sourceOffset) {
+    this.reader       = reader;
+    this.source       = source;
+    this.sourceOffset = sourceOffset;
+  }
+
+  @Override public boolean hasNext() {
+    if (!haveNext) {
+      next     = decodeNext();
+      haveNext = true;
+    }
+    return next != END;
+  }
+
+  @Override public Object next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    Object result = next;
+    haveNext = false;
+    next     = null;
+    return result;
+  }
+
+  @Override public void close() throws IOException {
+    reader.close();
+  }
+
+  /**
+   * @return true if data is available without blocking
+   */
+  boolean ready() {
+    try {
+      return haveNext || pos < limit || reader.ready();
+    }
+    catch (IOException e) {
+      return true;     // Let subsequent read report the error
+    }
+  }
+
+  private Object decodeNext() {
+    if (finished) {
+      return END;
+    }
+    int c = skipWhitespace();
+    if (!started) {
+      started = true;
+      if (c == '[') {
+        isArray = true;
+        pos++;
+        c = skipWhitespace();
+        if (c == ']') {
+          return end();
+        }
+      }
+    }
+    else if (isArray) {
+      if (c == ']') {
+        return end();
+      }
+      if (c == EOS) error("Unexpected end of JSON decoding list");
+      if (c != ',') error("Expected ',' or ']' but found " + quoted(c) + " while decoding list");
+      pos++;
+      c = skipWhitespace();
+    }
+    if (c == EOS) {
+      if (isArray) error("Unexpected end of JSON decoding list");
+      finished = true;
+      return END;
+    }
+    int    start = bufOffset + pos;
+    String json  = readValue((char)c);
+    return JsonDecoder.get(json, source, sourceOffset, start).decode();
+  }
+
+  private Object end() {
+    pos++;
+    finished = true;
+    int c = skipWhitespace();
+    if (c != EOS) error("Extra data found at end of json");
+    return END;
+  }
+
+  /**
+   * Read the text of the next value. For objects, lists, and strings we only need to track
+   * nesting (and whether we are in a string) to find the end. Other values are terminated
+   * by whitespace or a delimiter. Validation of the text is left to the JsonDecoder.
+   */
+  private String readValue(char c) {
+    boolean scalar   = c != '{' && c != '[' && c != '"';
+    boolean inString = false;
+    boolean escaped  = false;
+    int     depth    = 0;
+    int     start    = pos;
+   LOOP:
+    while (true) {
+      if (pos == limit) {
+        element.append(buf, start, pos - start);
+        boolean haveData = fill();
+        start = pos;
+        if (!haveData) {
+          if (!scalar) error("Unexpected end of JSON");
+          break;
+        }
+      }
+      char ch = buf[pos];
+      if (inString) {
+        if (escaped) {
+          escaped = false;
+        }
+        else if (ch == '\\') {
+          escaped = true;
+        }
+        else if (ch == '"') {
+          inString = false;
+          if (depth == 0) {
+            pos++;
+            break;
+          }
+        }
+      }
+      else if (scalar) {
+        switch (ch) {
+          case ' ': case '\n': case '\r': case '\t':
+          case ',': case ']': case '}': case '[': case '{': case '"':
+            break LOOP;
+        }
+      }
+      else {
+        switch (ch) {
+          case '"':           inString = true; break;
+          case '{': case '[': depth++;         break;
+          case '}': case ']':
+            if (--depth == 0) {
+              pos++;
+              break LOOP;
+            }
+            break;
+        }
+      }
+      pos++;
+    }
+    if (element.length() == 0) {
+      return new String(buf, start, pos - start);
+    }
+    element.append(buf, start, pos - start);
+    String result = element.toString();
+    if (element.capacity() > 4 * BUF_SIZE) {
+      // Don't hang on to memory used for an unusually large element
+      element = new StringBuilder();
+    }
+    else {
+      element.setLength(0);
+    }
+    return result;
+  }
+
+  private int skipWhitespace() {
+    while (true) {
+      for (; pos < limit; pos++) {
+        char c = buf[pos];
+        if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+          return c;
+        }
+      }
+      if (!fill()) {
+        return EOS;
+      }
+    }
+  }
+
+  private boolean fill() {
+    bufOffset += limit;
+    pos = limit = 0;
+    try {
+      int n;
+      do {
+        n = reader.read(buf, 0, buf.length);
+      } while (n == 0);
+      if (n < 0) {
+        return false;
+      }
+      limit = n;
+      return true;
+    }
+    catch (IOException e) {
+      throw new RuntimeError("Error reading JSON", source, sourceOffset, e);
+    }
+  }
+
+  private void error(String error) {
+    throw new RuntimeError("At JSON offset " + (bufOffset + pos) + ": " + error, source, sourceOffset);
+  }
+
+  private static String quoted(int c) {
+    return c == EOS ? "end of json" : "'" + (char)c + "'";
+  }
+
+  //////////////////////////////////
+
+  private static class ByteBufferReader extends Reader {
+    private final ByteBuffer     bytes;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                                                                 .onMalformedInput(CodingErrorAction.REPLACE)
+                                                                 .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private boolean decoded = false;
+    private boolean flushed = false;
+
+    ByteBufferReader(ByteBuffer bytes) {
+      this.bytes = bytes;
+    }
+
+    @Override public int read(char[] cbuf, int off, int len) {
+      if (flushed) {
+        return -1;
+      }
+      CharBuffer out = CharBuffer.wrap(cbuf, off, len);
+      if (!decoded && decoder.decode(bytes, out, true).isUnderflow()) {
+        decoded = true;
+      }
+      if (decoded && decoder.flush(out).isUnderflow()) {
+        flushed = true;
+      }
+      int n = out.position() - off;
+      return n == 0 && flushed ? -1 : n;
+    }
+
+    @Override public boolean ready() { return true; }
+    @Override public void    close() {}
+  }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl.runtime;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * List created by the Restorer in lazy restore mode. The contents of the list are only
+ * restored from the checkpoint the first time the list is accessed.
+ */
+class LazyList implements List<Object>, RandomAccess {
+  private volatile ArrayList<Object> list;
+  private Restorer                   restorer;
+  private int                        objOffset;
+
+  LazyList(Restorer restorer, int objOffset) {
+    this.restorer  = restorer;
+    this.objOffset = objOffset;
+  }
+
+  private ArrayList<Object> list() {
+    ArrayList<Object> result = list;
+    if (result == null) {
+      synchronized (this) {
+        if (list == null) {
+          ArrayList<Object> restored = new ArrayList<>();
+          restorer.restoreLazy(objOffset, restored);
+          restorer = null;
+          list = restored;
+        }
+        result = list;
+      }
+    }
+    return result;
+  }
+
+  @Override public int                    size()                                    { return list().size(); }
+  @Override public boolean                isEmpty()                                 { return list().isEmpty(); }
+  @Override public boolean                contains(Object o)                        { return list().contains(o); }
+  @Override public Iterator<Object>       iterator()                                { return list().iterator(); }
+  @Override public Object[]               toArray()                                 { return list().toArray(); }
+  @Override public <T> T[]                toArray(T[] a)                            { return list().toArray(a); }
+  @Override public boolean                add(Object o)                             { return list().add(o); }
+  @Override public boolean                remove(Object o)                          { return list().remove(o); }
+  @Override public boolean                containsAll(Collection<?> c)              { return list().containsAll(c); }
+  @Override public boolean                addAll(Collection<?> c)                   { return list().addAll(c); }
+  @Override public boolean                addAll(int index, Collection<?> c)        { return list().addAll(index, c); }
+  @Override public boolean                removeAll(Collection<?> c)                { return list().removeAll(c); }
+  @Override public boolean                retainAll(Collection<?> c)                { return list().retainAll(c); }
+  @Override public void                   clear()                                   { list().clear(); }
+  @Override public Object                 get(int index)                            { return list().get(index); }
+  @Override public Object                 set(int index, Object element)            { return list().set(index, element); }
+  @Override public void                   add(int index, Object element)            { list().add(index, element); }
+  @Override public Object                 remove(int index)                         { return list().remove(index); }
+  @Override public int                    indexOf(Object o)                         { return list().indexOf(o); }
+  @Override public int                    lastIndexOf(Object o)                     { return list().lastIndexOf(o); }
+  @Override public ListIterator<Object>   listIterator()                            { return list().listIterator(); }
+  @Override public ListIterator<Object>   listIterator(int index)                   { return list().listIterator(index); }
+  @Override public List<Object>           subList(int fromIndex, int toIndex)       { return list().subList(fromIndex, toIndex); }
+  @Override public void                   sort(Comparator<? super Object> c)        { list().sort(c); }
+  @Override public void                   forEach(Consumer<? super Object> action)  { list().forEach(action); }
+  @Override public boolean                removeIf(Predicate<? super Object> filter) { return list().removeIf(filter); }
+  @Override public void                   replaceAll(UnaryOperator<Object> op)      { list().replaceAll(op); }
+  @Override public Spliterator<Object>    spliterator()                             { return list().spliterator(); }
+  @Override public boolean                equals(Object o)                          { return list().equals(o); }
+  @Override public int                    hashCode()                                { return list().hashCode(); }
+  @Override public String                 toString()                                { return list().toString(); }
+}
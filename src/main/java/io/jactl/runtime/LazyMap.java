@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl.runtime;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Map created by the Restorer in lazy restore mode. The contents of the map are only
+ * restored from the checkpoint the first time the map is accessed.
+ */
+class LazyMap implements Map<Object,Object> {
+  private volatile LinkedHashMap<Object,Object> map;
+  private Restorer                              restorer;
+  private int                                   objOffset;
+
+  LazyMap(Restorer restorer, int objOffset) {
+    this.restorer  = restorer;
+    this.objOffset = objOffset;
+  }
+
+  private LinkedHashMap<Object,Object> map() {
+    LinkedHashMap<Object,Object> result = map;
+    if (result == null) {
+      synchronized (this) {
+        if (map == null) {
+          LinkedHashMap<Object,Object> restored = new LinkedHashMap<>();
+          restorer.restoreLazy(objOffset, restored);
+          restorer = null;
+          map = restored;
+        }
+        result = map;
+      }
+    }
+    return result;
+  }
+
+  @Override public int                      size()                                       { return map().size(); }
+  @Override public boolean                  isEmpty()                                    { return map().isEmpty(); }
+  @Override public boolean                  containsKey(Object key)                      { return map().containsKey(key); }
+  @Override public boolean                  containsValue(Object value)                  { return map().containsValue(value); }
+  @Override public Object                   get(Object key)                              { return map().get(key); }
+  @Override public Object                   put(Object key, Object value)                { return map().put(key, value); }
+  @Override public Object                   remove(Object key)                           { return map().remove(key); }
+  @Override public void                     putAll(Map<?,?> m)                           { map().putAll(m); }
+  @Override public void                     clear()                                      { map().clear(); }
+  @Override public Set<Object>              keySet()                                     { return map().keySet(); }
+  @Override public Collection<Object>       values()                                     { return map().values(); }
+  @Override public Set<Entry<Object,Object>> entrySet()                                  { return map().entrySet(); }
+  @Override public Object                   getOrDefault(Object key, Object defaultValue) { return map().getOrDefault(key, defaultValue); }
+  @Override public Object                   putIfAbsent(Object key, Object value)        { return map().putIfAbsent(key, value); }
+  @Override public void                     forEach(BiConsumer<? super Object,? super Object> action) { map().forEach(action); }
+  @Override public Object                   computeIfAbsent(Object key, Function<? super Object,?> fn) { return map().computeIfAbsent(key, fn); }
+  @Override public Object                   merge(Object key, Object value, BiFunction<? super Object,? super Object,?> fn) { return map().merge(key, value, fn); }
+  @Override public boolean                  equals(Object o)                             { return map().equals(o); }
+  @Override public int                      hashCode()                                   { return map().hashCode(); }
+  @Override public String                   toString()                                   { return map().toString(); }
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl.runtime;
+
+import io.jactl.JactlType;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static io.jactl.JactlType.ITERATOR;
+
+/**
+ * Iterator returned by the parallel() method. Calls to map() and filter() on this iterator are
+ * recorded as stages of a pipeline rather than creating MapIterator/FilterIterator instances.
+ * When one of the supported terminal methods (sum, avg, min, max, collect, groupBy, join) is
+ * invoked, the source list is split into chunks and the stages are run for each chunk on the
+ * ForkJoin common pool. The partial results for each chunk are then combined in order so that
+ * the result is the same as for sequential execution.
+ * <p>If any of the closures are async then we can't run them on another thread so we fall back
+ * to sequential execution by building the normal chain of iterators. This is also what happens
+ * if the iterator is used in any other way (e.g. by other iterator methods or in a for loop).</p>
+ */
+class ParallelIterator extends JactlIterator<Object> {
+  private static int VERSION = 1;
+
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  List<Object>  list;
+  List<Stage>   stages = new ArrayList<>();
+  JactlIterator sequential;                 // Created if we end up iterating sequentially
+
+  private static class Stage {
+    boolean           isFilter;
+    JactlMethodHandle closure;
+    String            source;
+    int               offset;
+    Stage(boolean isFilter, JactlMethodHandle closure, String source, int offset) {
+      this.isFilter = isFilter;
+      this.closure  = closure;
+      this.source   = source;
+      this.offset   = offset;
+    }
+  }
+
+  @Override public void _$j$checkpoint(Checkpointer checkpointer) {
+    checkpointer.writeType(ITERATOR);
+    checkpointer.writeCInt(IteratorType.PARALLEL.ordinal());
+    checkpointer.writeCInt(VERSION);
+    checkpointer.writeObject(list);
+    checkpointer.writeCInt(stages.size());
+    for (Stage stage: stages) {
+      checkpointer.writeBoolean(stage.isFilter);
+      checkpointer.writeObject(stage.closure);
+      checkpointer.writeObject(stage.source);
+      checkpointer.writeCInt(stage.offset);
+    }
+    checkpointer.writeObject(sequential);
+  }
+
+  @Override public void _$j$restore(Restorer restorer) {
+    restorer.expectTypeEnum(JactlType.TypeEnum.ITERATOR);
+    restorer.expectCInt(IteratorType.PARALLEL.ordinal(), "Expected PARALLEL");
+    restorer.expectCInt(VERSION, "Bad version");
+    list = (List<Object>)restorer.readObject();
+    int numStages = restorer.readCInt();
+    stages = new ArrayList<>(numStages);
+    for (int i = 0; i < numStages; i++) {
+      boolean           isFilter = restorer.readBoolean();
+      JactlMethodHandle closure  = (JactlMethodHandle)restorer.readObject();
+      String            source   = (String)restorer.readObject();
+      int               offset   = restorer.readCInt();
+      stages.add(new Stage(isFilter, closure, source, offset));
+    }
+    sequential = (JactlIterator)restorer.readObject();
+  }
+
+  ParallelIterator() {}
+
+  ParallelIterator(List<Object> list) {
+    this.list = list;
+  }
+
+  /**
+   * Return new ParallelIterator with an additional map or filter stage
+   * @param isFilter  true for filter, false for map
+   * @param closure   the closure to invoke for each element
+   * @param source    the source code
+   * @param offset    offset into source
+   * @return the new iterator
+   */
+  ParallelIterator addStage(boolean isFilter, JactlMethodHandle closure, String source, int offset) {
+    ParallelIterator result = new ParallelIterator(list);
+    result.stages.addAll(stages);
+    result.stages.add(new Stage(isFilter, closure, source, offset));
+    return result;
+  }
+
+  /**
+   * Check whether terminal operation can be run in parallel. We can only run in parallel if
+   * none of the closures are async and we have not already started iterating sequentially.
+   * @param closure  the closure for the terminal operation (or null)
+   * @return true if parallel execution is possible
+   */
+  boolean isParallel(JactlMethodHandle closure) {
+    return sequential == null && (closure == null || !closure.isAsync()) && stages.stream().noneMatch(stage -> stage.closure.isAsync());
+  }
+
+  /**
+   * Get iterator for sequential iteration. This chains normal map/filter iterators
+   * to handle any async closures.
+   * @return the iterator
+   */
+  JactlIterator sequential() {
+    if (sequential == null) {
+      JactlIterator iter = JactlIterator.of(list);
+      for (Stage stage: stages) {
+        iter = stage.isFilter ? new FilterIterator(iter, stage.source, stage.offset, stage.closure)
+                              : new MapIterator(iter, stage.source, stage.offset, stage.closure);
+      }
+      sequential = iter;
+    }
+    return sequential;
+  }
+
+  @Override public boolean hasNext() { return sequential().hasNext(); }
+  @Override public Object  next()    { return sequential().next(); }
+
+  //////////////////////////////////
+
+  Object sum(String source, int offset) {
+    Object sum = 0;
+    for (Object partial: runParallel(elems -> BuiltinFunctions.listSum(elems, source, offset), source, offset)) {
+      sum = Reducer.addNumbers(sum, partial, source, offset);
+    }
+    return sum;
+  }
+
+  Object avg(String source, int offset) {
+    Object sum   = 0;
+    int    count = 0;
+    for (Object[] partial: runParallel(elems -> new Object[]{ BuiltinFunctions.listSum(elems, source, offset), elems.size() }, source, offset)) {
+      sum    = Reducer.addNumbers(sum, partial[0], source, offset);
+      count += (int)partial[1];
+    }
+    return BuiltinFunctions.average(sum, count, source, offset);
+  }
+
+  Object minMax(boolean isMin, JactlMethodHandle closure, String source, int offset) {
+    Object[] result = null;
+    for (Object[] partial: runParallel(elems -> {
+                                         Object[] value = null;
+                                         for (Object elem: elems) {
+                                           Object key = closure == null ? elem : invoke(closure, elem, source, offset);
+                                           value = minMax(isMin, value, new Object[]{ key, elem }, source, offset);
+                                         }
+                                         return value;
+                                       }, source, offset)) {
+      if (partial != null) {
+        result = minMax(isMin, result, partial, source, offset);
+      }
+    }
+    return result == null ? null : result[1];
+  }
+
+  List collect(JactlMethodHandle closure, String source, int offset) {
+    List<Object> result = new ArrayList<>();
+    for (List<Object> partial: runParallel(elems -> {
+                                             if (closure != null) {
+                                               elems.replaceAll(elem -> invoke(closure, elem, source, offset));
+                                             }
+                                             return elems;
+                                           }, source, offset)) {
+      result.addAll(partial);
+    }
+    return result;
+  }
+
+  Map groupBy(JactlMethodHandle closure, String source, int offset) {
+    Map<Object,List<Object>> result = new LinkedHashMap<>();
+    for (List<Object[]> partial: runParallel(elems -> {
+                                               List<Object[]> keyed = new ArrayList<>(elems.size());
+                                               for (Object elem: elems) {
+                                                 keyed.add(new Object[]{ invoke(closure, elem, source, offset), elem });
+                                               }
+                                               return keyed;
+                                             }, source, offset)) {
+      for (Object[] keyAndElem: partial) {
+        result.computeIfAbsent(keyAndElem[0], k -> new ArrayList<>()).add(keyAndElem[1]);
+      }
+    }
+    return result;
+  }
+
+  String join(String separator, String source, int offset) {
+    StringBuilder result = new StringBuilder();
+    boolean       first  = true;
+    for (String partial: runParallel(elems -> {
+                                       StringBuilder sb = new StringBuilder();
+                                       for (int i = 0; i < elems.size(); i++) {
+                                         if (i > 0 && separator != null) {
+                                           sb.append(separator);
+                                         }
+                                         sb.append(RuntimeUtils.toString(elems.get(i)));
+                                       }
+                                       return elems.isEmpty() ? null : sb.toString();
+                                     }, source, offset)) {
+      if (partial != null) {
+        if (!first && separator != null) {
+          result.append(separator);
+        }
+        result.append(partial);
+        first = false;
+      }
+    }
+    return result.toString();
+  }
+
+  //////////////////////////////////
+
+  /**
+   * Split source list into chunks and run the stages on each chunk in parallel, passing the
+   * elements that come out of the last stage to the given function to get the partial result
+   * for that chunk.
+   * @return the partial results in chunk order
+   */
+  private <T> List<T> runParallel(Function<List<Object>,T> chunkFn, String source, int offset) {
+    int size   = list.size();
+    int chunks = Math.max(1, Math.min(size, ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_THREAD));
+    if (chunks == 1) {
+      List<T> result = new ArrayList<>(1);
+      result.add(chunkFn.apply(process(0, size)));
+      return result;
+    }
+    List<Supplier<T>> tasks = new ArrayList<>(chunks);
+    for (int i = 0; i < chunks; i++) {
+      int from = (int)((long)size * i / chunks);
+      int to   = (int)((long)size * (i + 1) / chunks);
+      tasks.add(() -> chunkFn.apply(process(from, to)));
+    }
+    return runTasks(tasks, source, offset);
+  }
+
+  /**
+   * Run tasks on the ForkJoin common pool and wait for them to complete. Each task gets its own
+   * RuntimeState (see {@link RuntimeState#forTask()}) which is merged back into the caller's
+   * state once the tasks have completed.
+   * @param tasks   the tasks
+   * @param source  source code
+   * @param offset  offset into source for errors
+   * @return the results in task order
+   */
+  static <T> List<T> runTasks(List<Supplier<T>> tasks, String source, int offset) {
+    RuntimeState          state      = RuntimeState.getState();
+    List<RuntimeState>    taskStates = new ArrayList<>(tasks.size());
+    List<ForkJoinTask<T>> futures    = new ArrayList<>(tasks.size());
+    for (Supplier<T> task: tasks) {
+      RuntimeState taskState = state.forTask();
+      taskStates.add(taskState);
+      futures.add(ForkJoinPool.commonPool().submit(() -> {
+        RuntimeState previous = RuntimeState.getState();
+        RuntimeState.setState(taskState);
+        try {
+          return task.get();
+        }
+        finally {
+          RuntimeState.setState(previous);
+        }
+      }));
+    }
+    try {
+      List<T> result = new ArrayList<>(tasks.size());
+      for (ForkJoinTask<T> future: futures) {
+        result.add(future.get());
+      }
+      state.mergeTasks(taskStates, source, offset);
+      return result;
+    }
+    catch (ExecutionException e) {
+      futures.forEach(future -> future.cancel(false));
+      // Merge state of tasks that have finished so that their output is not lost
+      List<RuntimeState> finished = new ArrayList<>();
+      for (int i = 0; i < futures.size(); i++) {
+        if (futures.get(i).isDone()) {
+          finished.add(taskStates.get(i));
+        }
+      }
+      try {
+        state.mergeTasks(finished, source, offset);
+      }
+      catch (RuntimeError ignored) {
+        // Report original error
+      }
+      if (e.getCause() instanceof RuntimeError) {
+        throw (RuntimeError)e.getCause();
+      }
+      throw new RuntimeError("Unexpected error", source, offset, e.getCause());
+    }
+    catch (InterruptedException e) {
+      futures.forEach(future -> future.cancel(false));
+      throw new RuntimeError("Interrupted", source, offset, e);
+    }
+  }
+
+  /**
+   * Run stages on elements of source list from <code>from</code> up to (but not including) <code>to</code>
+   */
+  private List<Object> process(int from, int to) {
+    List<Object> result = new ArrayList<>(to - from);
+    ELEMS:
+    for (int i = from; i < to; i++) {
+      Object elem = list.get(i);
+      for (Stage stage: stages) {
+        Object value = invoke(stage.closure, elem, stage.source, stage.offset);
+        if (!stage.isFilter) {
+          elem = value;
+        }
+        else if (!RuntimeUtils.isTruth(value, false)) {
+          continue ELEMS;
+        }
+      }
+      result.add(elem);
+    }
+    return result;
+  }
+
+  private static Object invoke(JactlMethodHandle closure, Object elem, String source, int offset) {
+    try {
+      return closure.invoke((Continuation)null, source, offset, new Object[]{ elem });
+    }
+    catch (RuntimeError e) {
+      throw e;
+    }
+    catch (Throwable t) {
+      throw new RuntimeError("Unexpected error", source, offset, t);
+    }
+  }
+
+  // Same semantics as Reducer: value and nextValue are [key, elem]
+  private static Object[] minMax(boolean isMin, Object[] value, Object[] nextValue, String source, int offset) {
+    if (value == null) {
+      return nextValue;
+    }
+    int compare = RuntimeUtils.compareTo(value[0], nextValue[0], source, offset);
+    return compare < 0 ? (isMin ? value : nextValue)
+                       : (isMin ? nextValue : value);
+  }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl.runtime;
+
+import io.jactl.Utils;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Cache of compiled regex Patterns shared by all threads.
+ * <p>Lookups are lock-free: there is one ConcurrentHashMap per combination of modifiers
+ * keyed on the regex string itself, so a lookup does not need to build a composite key.</p>
+ * <p>The cache is bounded by the number of patterns (<code>jactl.regex.cache.size</code>) and
+ * by the total length of the regex strings (<code>jactl.regex.cache.weight</code>). When either
+ * limit is exceeded, entries are evicted using the "clock" (second chance) algorithm: a hit marks
+ * the entry as referenced and the eviction sweep clears the mark on referenced entries and
+ * removes those that have not been used since the previous sweep. The position of the clock
+ * hand is kept between sweeps so that each sweep carries on from where the previous one stopped
+ * rather than starting again from the beginning.</p>
+ */
+public class PatternCache {
+  public static final int DEFAULT_MAX_SIZE   = Integer.getInteger("jactl.regex.cache.size", 1000);
+  public static final int DEFAULT_MAX_WEIGHT = Integer.getInteger("jactl.regex.cache.weight", 1000000);
+
+  private static final int CASE_INSENSITIVE = 1;
+  private static final int MULTI_LINE       = 2;
+  private static final int DOTALL           = 4;
+
+  private final ConcurrentHashMap<String,Entry>[] caches = new ConcurrentHashMap[8];
+  private final int                               maxSize;
+  private final int                               maxWeight;
+
+  private final AtomicInteger size      = new AtomicInteger();
+  private final AtomicLong    weight    = new AtomicLong();
+  private final LongAdder     hits      = new LongAdder();
+  private final LongAdder     misses    = new LongAdder();
+  private final LongAdder     evictions = new LongAdder();
+  private final Object        evictLock = new Object();
+
+  // Clock hand: the cache being swept and our position within it (guarded by evictLock)
+  private int                                handCache = -1;
+  private Iterator<Map.Entry<String,Entry>>  hand;
+
+  private static final class Entry {
+    final    Pattern pattern;
+    final    int     weight;
+    volatile boolean referenced;
+    Entry(Pattern pattern, int weight) {
+      this.pattern = pattern;
+      this.weight  = weight;
+    }
+  }
+
+  public PatternCache() {
+    this(DEFAULT_MAX_SIZE, DEFAULT_MAX_WEIGHT);
+  }
+
+  /**
+   * Create a PatternCache
+   * @param maxSize    maximum number of patterns to cache
+   * @param maxWeight  maximum total length of regex strings of cached patterns
+   */
+  public PatternCache(int maxSize, int maxWeight) {
+    this.maxSize   = maxSize;
+    this.maxWeight = maxWeight;
+    for (int i = 0; i < caches.length; i++) {
+      caches[i] = new ConcurrentHashMap<>();
+    }
+  }
+
+  /**
+   * Get compiled Pattern for given regex and modifiers, compiling and caching the Pattern
+   * if not already cached.
+   * @param regex     the regex pattern
+   * @param modifiers the modifiers (only 'i', 'm', and 's' are valid)
+   * @param source    source code (for error reporting)
+   * @param offset    offset into source code (for error reporting)
+   * @return the Pattern
+   */
+  public Pattern get(String regex, String modifiers, String source, int offset) {
+    int                             flags = flags(modifiers, source, offset);
+    ConcurrentHashMap<String,Entry> cache = caches[flags];
+    Entry entry = cache.get(regex);
+    if (entry != null) {
+      hits.increment();
+      if (!entry.referenced) {
+        entry.referenced = true;
+      }
+      return entry.pattern;
+    }
+    misses.increment();
+    Pattern pattern = compile(regex, flags, source, offset);
+    if (regex.length() > maxWeight) {
+      return pattern;
+    }
+    entry = new Entry(pattern, regex.length());
+    Entry existing = cache.putIfAbsent(regex, entry);
+    if (existing != null) {
+      return existing.pattern;
+    }
+    if (size.incrementAndGet() > maxSize() | weight.addAndGet(entry.weight) > maxWeight) {
+      evict();
+    }
+    return pattern;
+  }
+
+  /**
+   * Compile pattern without caching it.
+   * @param regex     the regex pattern
+   * @param modifiers the modifiers (only 'i', 'm', and 's' are valid)
+   * @param source    source code (for error reporting)
+   * @param offset    offset into source code (for error reporting)
+   * @return the Pattern
+   */
+  public static Pattern compile(String regex, String modifiers, String source, int offset) {
+    return compile(regex, flags(modifiers, source, offset), source, offset);
+  }
+
+  private static Pattern compile(String regex, int flags, String source, int offset) {
+    try {
+      return Pattern.compile(regex, ((flags & CASE_INSENSITIVE) != 0 ? Pattern.CASE_INSENSITIVE : 0) |
+                                    ((flags & MULTI_LINE)       != 0 ? Pattern.MULTILINE        : 0) |
+                                    ((flags & DOTALL)           != 0 ? Pattern.DOTALL           : 0));
+    }
+    catch (PatternSyntaxException e) {
+      throw new RuntimeError("Pattern error: " + e.getMessage(), source, offset);
+    }
+  }
+
+  private static int flags(String modifiers, String source, int offset) {
+    int flags = 0;
+    for (int i = 0; i < modifiers.length(); i++) {
+      switch (modifiers.charAt(i)) {
+        case Utils.REGEX_CASE_INSENSITIVE:  flags |= CASE_INSENSITIVE;  break;
+        case Utils.REGEX_MULTI_LINE_MODE:   flags |= MULTI_LINE;        break;
+        case Utils.REGEX_DOTALL_MODE:       flags |= DOTALL;            break;
+        default:
+          throw new RuntimeError("Unexpected regex modifier '" + modifiers.charAt(i) + "'", source, offset);
+      }
+    }
+    return flags;
+  }
+
+  private void evict() {
+    synchronized (evictLock) {
+      // Two revolutions of the hand are enough to evict as much as needed since the first one
+      // clears all referenced flags
+      for (long steps = 2L * (size.get() + caches.length); steps > 0 && isOverLimit(); steps--) {
+        if (hand == null || !hand.hasNext()) {
+          // Move on to next cache (iterators are weakly consistent so entries added since
+          // the hand last passed will be seen on the next revolution)
+          handCache = (handCache + 1) % caches.length;
+          hand      = caches[handCache].entrySet().iterator();
+          continue;
+        }
+        Map.Entry<String,Entry> mapEntry = hand.next();
+        Entry                   entry    = mapEntry.getValue();
+        if (entry.referenced) {
+          entry.referenced = false;
+        }
+        else if (caches[handCache].remove(mapEntry.getKey(), entry)) {
+          size.decrementAndGet();
+          weight.addAndGet(-entry.weight);
+          evictions.increment();
+        }
+      }
+    }
+  }
+
+  private boolean isOverLimit() {
+    return size.get() > maxSize() || weight.get() > maxWeight;
+  }
+
+  /**
+   * @return the maximum number of patterns to cache
+   */
+  protected int maxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Remove all cached patterns (stats are not reset)
+   */
+  public void clear() {
+    synchronized (evictLock) {
+      for (ConcurrentHashMap<String,Entry> cache: caches) {
+        for (Iterator<Entry> iter = cache.values().iterator(); iter.hasNext(); ) {
+          Entry entry = iter.next();
+          iter.remove();
+          size.decrementAndGet();
+          weight.addAndGet(-entry.weight);
+        }
+      }
+      hand = null;
+    }
+  }
+
+  /** @return number of cached patterns */
+  public int  size()         { return size.get(); }
+  /** @return total length of regex strings of cached patterns */
+  public long getWeight()    { return weight.get(); }
+  /** @return number of lookups that found a cached pattern */
+  public long getHits()      { return hits.sum(); }
+  /** @return number of lookups that had to compile the pattern */
+  public long getMisses()    { return misses.sum(); }
+  /** @return number of patterns evicted from the cache */
+  public long getEvictions() { return evictions.sum(); }
+
+  @Override public String toString() {
+    return "PatternCache[size=" + size() + ", weight=" + getWeight() + ", hits=" + getHits() +
+           ", misses=" + getMisses() + ", evictions=" + getEvictions() + "]";
+  }
+}
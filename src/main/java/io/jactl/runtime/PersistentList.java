@@ -0,0 +1,245 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl.runtime;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * List returned by the non-mutating list operators (+ and &lt;&lt;) when persistent collections
+ * are enabled in the JactlContext. Elements are stored in a 32-way trie with a separate tail
+ * node for the last (up to) 32 elements. Nodes are never modified once they are shared, so
+ * copying a list is O(1) and the copy shares all of its nodes with the original.
+ * <p>Updates copy the path from the root to the node being changed and then update the
+ * fields of this list only, which means that other lists sharing the same nodes are not
+ * affected. Appending and setting elements are O(log32 n). Inserting or removing elements
+ * anywhere other than at the end rebuilds the list.</p>
+ */
+final class PersistentList extends AbstractList<Object> implements RandomAccess {
+  private static final int      BITS  = 5;
+  private static final int      WIDTH = 1 << BITS;
+  private static final int      MASK  = WIDTH - 1;
+  private static final Object[] EMPTY = new Object[0];
+
+  private int      size     = 0;
+  private int      trieSize = 0;       // Number of elements in trie (always a multiple of WIDTH)
+  private int      shift    = BITS;    // Level of root node: leaves are at level 0
+  private Object[] root     = EMPTY;   // Interior nodes hold child nodes, leaves hold elements
+  private Object[] tail     = EMPTY;
+
+  PersistentList() {}
+
+  private PersistentList(PersistentList other) {
+    this.size     = other.size;
+    this.trieSize = other.trieSize;
+    this.shift    = other.shift;
+    this.root     = other.root;
+    this.tail     = other.tail;
+  }
+
+  /**
+   * Return a persistent list with the same elements as the given list. If the list is
+   * already a PersistentList then the result shares its structure and takes O(1) time.
+   * @param list  the list
+   * @return a new PersistentList
+   */
+  static PersistentList from(List list) {
+    if (list instanceof PersistentList) {
+      return new PersistentList((PersistentList)list);
+    }
+    PersistentList result = new PersistentList();
+    result.appendAll(list);
+    return result;
+  }
+
+  @Override public int size() { return size; }
+
+  @Override public Object get(int index) {
+    checkIndex(index);
+    if (index >= trieSize) {
+      return tail[index - trieSize];
+    }
+    Object[] node = root;
+    for (int level = shift; level > 0; level -= BITS) {
+      node = (Object[])node[(index >>> level) & MASK];
+    }
+    return node[index & MASK];
+  }
+
+  @Override public Object set(int index, Object element) {
+    Object old = get(index);
+    if (index >= trieSize) {
+      tail = tail.clone();
+      tail[index - trieSize] = element;
+    }
+    else {
+      root = set(shift, root, index, element);
+    }
+    return old;
+  }
+
+  @Override public boolean add(Object element) {
+    if (tail.length == WIDTH) {
+      pushLeaf(tail);
+      tail = new Object[]{ element };
+    }
+    else {
+      Object[] newTail = Arrays.copyOf(tail, tail.length + 1);
+      newTail[tail.length] = element;
+      tail = newTail;
+    }
+    size++;
+    modCount++;
+    return true;
+  }
+
+  @Override public boolean addAll(Collection<?> c) {
+    if (c.isEmpty()) {
+      return false;
+    }
+    appendAll(c);
+    modCount++;
+    return true;
+  }
+
+  @Override public void add(int index, Object element) {
+    if (index == size) {
+      add(element);
+      return;
+    }
+    checkIndex(index);
+    List<Object> elems = new ArrayList<>(this);
+    elems.add(index, element);
+    rebuild(elems);
+  }
+
+  @Override public Object remove(int index) {
+    checkIndex(index);
+    List<Object> elems = new ArrayList<>(this);
+    Object       old   = elems.remove(index);
+    rebuild(elems);
+    return old;
+  }
+
+  @Override public boolean removeIf(Predicate<? super Object> filter) {
+    List<Object> elems = new ArrayList<>(this);
+    if (!elems.removeIf(filter)) {
+      return false;
+    }
+    rebuild(elems);
+    return true;
+  }
+
+  @Override protected void removeRange(int fromIndex, int toIndex) {
+    List<Object> elems = new ArrayList<>(this);
+    elems.subList(fromIndex, toIndex).clear();
+    rebuild(elems);
+  }
+
+  @Override public void clear() {
+    reset();
+    modCount++;
+  }
+
+  //////////////////////////////////
+
+  private void checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+  }
+
+  private void reset() {
+    size     = 0;
+    trieSize = 0;
+    shift    = BITS;
+    root     = EMPTY;
+    tail     = EMPTY;
+  }
+
+  private void rebuild(List<Object> elems) {
+    reset();
+    appendAll(elems);
+    modCount++;
+  }
+
+  /**
+   * Append elements filling in a new tail node directly rather than copying the
+   * tail for each element.
+   */
+  private void appendAll(Collection<?> c) {
+    if (c == this) {
+      c = new ArrayList<>(c);
+    }
+    Object[] newTail = Arrays.copyOf(tail, WIDTH);
+    int      tailLen = tail.length;
+    for (Object elem: c) {
+      if (tailLen == WIDTH) {
+        pushLeaf(newTail);
+        newTail = new Object[WIDTH];
+        tailLen = 0;
+      }
+      newTail[tailLen++] = elem;
+      size++;
+    }
+    tail = tailLen == WIDTH ? newTail : Arrays.copyOf(newTail, tailLen);
+  }
+
+  /**
+   * Add full leaf node to the end of the trie, adding a new level if root is full.
+   */
+  private void pushLeaf(Object[] leaf) {
+    if ((trieSize >>> BITS) >= (1 << shift)) {
+      root   = new Object[]{ root, newPath(shift, leaf) };
+      shift += BITS;
+    }
+    else {
+      root = pushLeaf(shift, root, leaf);
+    }
+    trieSize += WIDTH;
+  }
+
+  private Object[] pushLeaf(int level, Object[] node, Object[] leaf) {
+    int      idx    = (trieSize >>> level) & MASK;
+    Object[] result = Arrays.copyOf(node, Math.max(node.length, idx + 1));
+    if (level == BITS) {
+      result[idx] = leaf;
+    }
+    else {
+      result[idx] = idx < node.length ? pushLeaf(level - BITS, (Object[])node[idx], leaf)
+                                      : newPath(level - BITS, leaf);
+    }
+    return result;
+  }
+
+  private static Object[] newPath(int level, Object[] leaf) {
+    return level == 0 ? leaf : new Object[]{ newPath(level - BITS, leaf) };
+  }
+
+  private static Object[] set(int level, Object[] node, int index, Object element) {
+    Object[] result = node.clone();
+    if (level == 0) {
+      result[index & MASK] = element;
+    }
+    else {
+      int idx = (index >>> level) & MASK;
+      result[idx] = set(level - BITS, (Object[])node[idx], index, element);
+    }
+    return result;
+  }
+}
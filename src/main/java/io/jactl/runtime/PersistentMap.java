@@ -0,0 +1,329 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl.runtime;
+
+import java.util.*;
+
+/**
+ * Map returned by the non-mutating map operators (+ and -) when persistent collections are
+ * enabled in the JactlContext. Like LinkedHashMap, iteration order is the order in which keys
+ * were first added.
+ * <p>Entries are stored in insertion order in a {@link PersistentList} (removed entries are
+ * left as null until there are enough of them to make it worthwhile compacting the list).
+ * A hash array mapped trie maps each key to the position of its entry in the list. Both
+ * structures are immutable once shared, so copying a map is O(1) and updates only copy the
+ * nodes on the path to the key being changed.</p>
+ */
+final class PersistentMap extends AbstractMap<Object,Object> {
+  private static final int BITS          = 5;
+  private static final int MASK          = (1 << BITS) - 1;
+  private static final int MIN_COMPACT   = 32;
+
+  private PersistentList entries = new PersistentList();  // Entry in insertion order (or null if removed)
+  private Object         index   = null;                  // Root of trie: Leaf, Node, Collision or null
+  private int            size    = 0;
+  private int            removed = 0;
+
+  PersistentMap() {}
+
+  private PersistentMap(PersistentMap other) {
+    this.entries = PersistentList.from(other.entries);
+    this.index   = other.index;
+    this.size    = other.size;
+    this.removed = other.removed;
+  }
+
+  /**
+   * Return a persistent map with the same entries (in the same order) as the given map.
+   * If the map is already a PersistentMap then the result shares its structure and takes
+   * O(1) time.
+   * @param map  the map
+   * @return a new PersistentMap
+   */
+  static PersistentMap from(Map<?,?> map) {
+    if (map instanceof PersistentMap) {
+      return new PersistentMap((PersistentMap)map);
+    }
+    PersistentMap result = new PersistentMap();
+    result.putAll(map);
+    return result;
+  }
+
+  @Override public int size() { return size; }
+
+  @Override public boolean containsKey(Object key) {
+    return find(index, key, hash(key), 0) != null;
+  }
+
+  @Override public Object get(Object key) {
+    Leaf leaf = find(index, key, hash(key), 0);
+    return leaf == null ? null : entry(leaf.pos).getValue();
+  }
+
+  @Override public Object put(Object key, Object value) {
+    int  hash = hash(key);
+    Leaf leaf = find(index, key, hash, 0);
+    if (leaf != null) {
+      Object old = entry(leaf.pos).getValue();
+      entries.set(leaf.pos, new SimpleImmutableEntry<>(key, value));
+      return old;
+    }
+    int pos = entries.size();
+    entries.add(new SimpleImmutableEntry<>(key, value));
+    index = put(index, new Leaf(key, hash, pos), 0);
+    size++;
+    return null;
+  }
+
+  @Override public Object remove(Object key) {
+    return remove(key, true);
+  }
+
+  @Override public void clear() {
+    entries = new PersistentList();
+    index   = null;
+    size    = 0;
+    removed = 0;
+  }
+
+  @Override public Set<Entry<Object,Object>> entrySet() {
+    return new AbstractSet<Entry<Object,Object>>() {
+      @Override public int size() { return size; }
+      @Override public boolean contains(Object o) {
+        if (!(o instanceof Entry)) {
+          return false;
+        }
+        Entry<?,?> e    = (Entry<?,?>)o;
+        Leaf       leaf = find(index, e.getKey(), hash(e.getKey()), 0);
+        return leaf != null && Objects.equals(entry(leaf.pos).getValue(), e.getValue());
+      }
+      @Override public Iterator<Entry<Object,Object>> iterator() {
+        return new Iterator<Entry<Object,Object>>() {
+          int                  pos  = 0;
+          Entry<Object,Object> last = null;
+          @Override public boolean hasNext() {
+            while (pos < entries.size() && entries.get(pos) == null) {
+              pos++;
+            }
+            return pos < entries.size();
+          }
+          @Override public Entry<Object,Object> next() {
+            if (!hasNext()) {
+              throw new NoSuchElementException();
+            }
+            last = entry(pos++);
+            return new SimpleEntry<Object,Object>(last) {
+              @Override public Object setValue(Object value) {
+                super.setValue(value);
+                return PersistentMap.this.put(getKey(), value);
+              }
+            };
+          }
+          @Override public void remove() {
+            if (last == null) {
+              throw new IllegalStateException();
+            }
+            // Don't compact while iterating since that would change positions of entries
+            PersistentMap.this.remove(last.getKey(), false);
+            last = null;
+          }
+        };
+      }
+    };
+  }
+
+  //////////////////////////////////
+
+  @SuppressWarnings("unchecked")
+  private Entry<Object,Object> entry(int pos) {
+    return (Entry<Object,Object>)entries.get(pos);
+  }
+
+  private Object remove(Object key, boolean allowCompact) {
+    int  hash = hash(key);
+    Leaf leaf = find(index, key, hash, 0);
+    if (leaf == null) {
+      return null;
+    }
+    Object old = entry(leaf.pos).getValue();
+    entries.set(leaf.pos, null);
+    index = remove(index, key, hash, 0);
+    size--;
+    removed++;
+    if (allowCompact && removed >= MIN_COMPACT && removed > size) {
+      compact();
+    }
+    return old;
+  }
+
+  private void compact() {
+    PersistentList oldEntries = entries;
+    clear();
+    for (Object entry: oldEntries) {
+      if (entry != null) {
+        Entry<?,?> e = (Entry<?,?>)entry;
+        put(e.getKey(), e.getValue());
+      }
+    }
+  }
+
+  private static int hash(Object key) {
+    int h = key == null ? 0 : key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private static int bit(int hash, int shift) {
+    return 1 << ((hash >>> shift) & MASK);
+  }
+
+  private static Leaf find(Object node, Object key, int hash, int shift) {
+    while (node instanceof Node) {
+      Node n   = (Node)node;
+      int  bit = bit(hash, shift);
+      if ((n.bitmap & bit) == 0) {
+        return null;
+      }
+      node   = n.children[n.index(bit)];
+      shift += BITS;
+    }
+    if (node instanceof Leaf) {
+      Leaf leaf = (Leaf)node;
+      return leaf.matches(key, hash) ? leaf : null;
+    }
+    if (node instanceof Collision) {
+      for (Leaf leaf: ((Collision)node).leaves) {
+        if (leaf.matches(key, hash)) {
+          return leaf;
+        }
+      }
+    }
+    return null;
+  }
+
+  private static Object put(Object node, Leaf leaf, int shift) {
+    if (node == null) {
+      return leaf;
+    }
+    if (node instanceof Leaf) {
+      Leaf existing = (Leaf)node;
+      return existing.hash == leaf.hash ? new Collision(leaf.hash, new Leaf[]{ existing, leaf })
+                                        : merge(existing, existing.hash, leaf, shift);
+    }
+    if (node instanceof Collision) {
+      Collision collision = (Collision)node;
+      if (collision.hash != leaf.hash) {
+        return merge(collision, collision.hash, leaf, shift);
+      }
+      Leaf[] leaves = Arrays.copyOf(collision.leaves, collision.leaves.length + 1);
+      leaves[collision.leaves.length] = leaf;
+      return new Collision(leaf.hash, leaves);
+    }
+    Node     n   = (Node)node;
+    int      bit = bit(leaf.hash, shift);
+    int      idx = n.index(bit);
+    Object[] children;
+    if ((n.bitmap & bit) == 0) {
+      children = new Object[n.children.length + 1];
+      System.arraycopy(n.children, 0, children, 0, idx);
+      System.arraycopy(n.children, idx, children, idx + 1, n.children.length - idx);
+      children[idx] = leaf;
+    }
+    else {
+      children = n.children.clone();
+      children[idx] = put(n.children[idx], leaf, shift + BITS);
+    }
+    return new Node(n.bitmap | bit, children);
+  }
+
+  /**
+   * Create node(s) to hold existing leaf/collision and new leaf which has a different hash.
+   */
+  private static Object merge(Object existing, int existingHash, Leaf leaf, int shift) {
+    int existingIdx = (existingHash >>> shift) & MASK;
+    int leafIdx     = (leaf.hash >>> shift) & MASK;
+    if (existingIdx == leafIdx) {
+      return new Node(1 << leafIdx, new Object[]{ merge(existing, existingHash, leaf, shift + BITS) });
+    }
+    return new Node((1 << existingIdx) | (1 << leafIdx),
+                    existingIdx < leafIdx ? new Object[]{ existing, leaf } : new Object[]{ leaf, existing });
+  }
+
+  private static Object remove(Object node, Object key, int hash, int shift) {
+    if (node instanceof Leaf) {
+      return ((Leaf)node).matches(key, hash) ? null : node;
+    }
+    if (node instanceof Collision) {
+      Leaf[] leaves = ((Collision)node).leaves;
+      for (int i = 0; i < leaves.length; i++) {
+        if (leaves[i].matches(key, hash)) {
+          if (leaves.length == 2) {
+            return leaves[1 - i];
+          }
+          Leaf[] remaining = new Leaf[leaves.length - 1];
+          System.arraycopy(leaves, 0, remaining, 0, i);
+          System.arraycopy(leaves, i + 1, remaining, i, remaining.length - i);
+          return new Collision(hash, remaining);
+        }
+      }
+      return node;
+    }
+    Node n   = (Node)node;
+    int  bit = bit(hash, shift);
+    if ((n.bitmap & bit) == 0) {
+      return node;
+    }
+    int    idx   = n.index(bit);
+    Object child = remove(n.children[idx], key, hash, shift + BITS);
+    if (child == n.children[idx]) {
+      return node;
+    }
+    if (child != null) {
+      Object[] children = n.children.clone();
+      children[idx] = child;
+      return new Node(n.bitmap, children);
+    }
+    if (n.children.length == 1) {
+      return null;
+    }
+    Object[] children = new Object[n.children.length - 1];
+    System.arraycopy(n.children, 0, children, 0, idx);
+    System.arraycopy(n.children, idx + 1, children, idx, children.length - idx);
+    return new Node(n.bitmap & ~bit, children);
+  }
+
+  private static final class Leaf {
+    final Object key;
+    final int    hash;
+    final int    pos;
+    Leaf(Object key, int hash, int pos) { this.key = key; this.hash = hash; this.pos = pos; }
+    boolean matches(Object key, int hash) { return this.hash == hash && Objects.equals(this.key, key); }
+  }
+
+  private static final class Node {
+    final int      bitmap;
+    final Object[] children;
+    Node(int bitmap, Object[] children) { this.bitmap = bitmap; this.children = children; }
+    int index(int bit) { return Integer.bitCount(bitmap & (bit - 1)); }
+  }
+
+  private static final class Collision {
+    final int    hash;
+    final Leaf[] leaves;
+    Collision(int hash, Leaf[] leaves) { this.hash = hash; this.leaves = leaves; }
+  }
+}
@@ -23,11 +23,8 @@ import io.jactl.compiler.MethodRef;
 
 import java.lang.reflect.Method;
 import java.math.BigDecimal;
-import java.util.LinkedHashMap;
-import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 /**
  * Container to hold the Matcher and the source string so that we can tell
@@ -64,15 +61,19 @@ import java.util.regex.PatternSyntaxException;
 public class RegexMatcher implements Checkpointable {
   private static int VERSION = 1;
 
-  private static final ThreadLocal<LinkedHashMap<String, Pattern>> patternCache = ThreadLocal.withInitial(
-    () -> new LinkedHashMap(16, 0.75f, true) {
-      @Override
-      protected boolean removeEldestEntry(Map.Entry eldest) {
-        return size() > patternCacheSize;
-      }
-    });
+  /**
+   * Maximum number of patterns in the shared pattern cache. Changes take effect the next time
+   * a pattern is added to the cache.
+   * @deprecated the cache is now shared by all threads rather than per thread: set its size
+   *             using the <code>jactl.regex.cache.size</code> system property instead
+   */
+  @Deprecated
+  public static int patternCacheSize = PatternCache.DEFAULT_MAX_SIZE;
 
-  public static int patternCacheSize = Integer.getInteger("jactl.regex.cache.size", 100); // Per thread cache size
+  // Pattern cache shared by all threads
+  public static final PatternCache patternCache = new PatternCache() {
+    @Override protected int maxSize() { return patternCacheSize; }
+  };
 
   private JactlMatcher globalMatcher    = new GlobalMatcher();
   private JactlMatcher nonGlobalMatcher = new NonGlobalMatcher();
@@ -82,6 +83,8 @@ public class RegexMatcher implements Checkpointable {
   // Create Method objects to avoid expensive reflection every time
   public static final MethodRef REGEX_FIND_METHOD       = Utils.getMethod(RegexMatcher.class, "regexFind", String.class, String.class, boolean.class, String.class, String.class, int.class);
   public static final MethodRef REGEX_SUBSTITUTE_METHOD = Utils.getMethod(RegexMatcher.class, "regexSubstitute", String.class, String.class, String.class, boolean.class, String.class, String.class, int.class);
+  public static final MethodRef REGEX_FIND_PATTERN_METHOD       = Utils.getMethod(RegexMatcher.class, "regexFind", String.class, Pattern.class, boolean.class, String.class, String.class, int.class);
+  public static final MethodRef REGEX_SUBSTITUTE_PATTERN_METHOD = Utils.getMethod(RegexMatcher.class, "regexSubstitute", String.class, Pattern.class, String.class, boolean.class, String.class, String.class, int.class);
   public static final MethodRef REGEX_FIND_NEXT_METHOD    = Utils.getMethod(RegexMatcher.class, "regexFindNext");
   public static final MethodRef REGEX_GROUP_METHOD        = Utils.getMethod(RegexMatcher.class, "regexGroup", int.class);
   public static final MethodRef APPEND_REPLACEMENT_METHOD = Utils.getMethod(RegexMatcher.class, "appendReplacement", StringBuffer.class, String.class);
@@ -123,38 +126,7 @@ public class RegexMatcher implements Checkpointable {
     if (regex == null) {
       throw new NullError("Null regex in regex match", source, offset);
     }
-    LinkedHashMap<String, Pattern> cache = patternCache.get();
-    String                         key   = regex + "/" + modifiers;
-    Pattern pattern = cache.get(key);
-    if (pattern == null) {
-      try {
-        int flags = 0;
-        for (int i = 0; i < modifiers.length(); i++) {
-          switch (modifiers.charAt(i)) {
-            case Utils.REGEX_CASE_INSENSITIVE:
-              flags += Pattern.CASE_INSENSITIVE;
-              break;
-            case Utils.REGEX_MULTI_LINE_MODE:
-              flags += Pattern.MULTILINE;
-              break;
-            case Utils.REGEX_DOTALL_MODE:
-              flags += Pattern.DOTALL;
-              break;
-            default:
-              throw new RuntimeError("Unexpected regex modifier '" + modifiers.charAt(i) + "'", source, offset);
-          }
-        }
-        pattern = Pattern.compile(regex, flags);
-      }
-      catch (PatternSyntaxException e) {
-        throw new RuntimeError("Pattern error: " + e.getMessage(), source, offset);
-      }
-      cache.put(key, pattern);
-      if (cache.size() > patternCacheSize) {
-        cache.remove(cache.keySet().iterator().next());
-      }
-    }
-    return pattern.matcher(str);
+    return patternCache.get(regex, modifiers, source, offset).matcher(str);
   }
 
   /**
@@ -173,12 +145,34 @@ public class RegexMatcher implements Checkpointable {
   public boolean regexFind(String str, String regex, boolean globalModifier, String modifiers, String source, int offset) {
     if (globalModifier) {
       lastWasGlobal = true;
-      return globalMatcher.regexFind(str, regex, modifiers, source, offset);
+      return globalMatcher.regexFind(str, regex, null, modifiers, source, offset);
     }
 
     // No global modifier so start from scratch and leave lastPos untouched
     lastWasGlobal = false;
-    return nonGlobalMatcher.regexFind(str, regex, modifiers, source, offset);
+    return nonGlobalMatcher.regexFind(str, regex, null, modifiers, source, offset);
+  }
+
+  /**
+   * Same as {@link #regexFind(String, String, boolean, String, String, int)} but for when the regex
+   * is a constant and the compiler has already compiled the Pattern into a static field of the
+   * generated class, so there is no need to look up the pattern cache.
+   *
+   * @param str            the string being matched
+   * @param pattern        the precompiled pattern
+   * @param globalModifier true if find is a global find ('g' modifier used)
+   * @param modifiers      modifiers used to compile the pattern (needed for checkpoint/restore)
+   * @param source         the source code
+   * @param offset         the offset into the source
+   * @return true if regex find/match succeeds
+   */
+  public boolean regexFind(String str, Pattern pattern, boolean globalModifier, String modifiers, String source, int offset) {
+    if (globalModifier) {
+      lastWasGlobal = true;
+      return globalMatcher.regexFind(str, pattern.pattern(), pattern, modifiers, source, offset);
+    }
+    lastWasGlobal = false;
+    return nonGlobalMatcher.regexFind(str, pattern.pattern(), pattern, modifiers, source, offset);
   }
 
   public boolean regexFindNext() {
@@ -189,11 +183,20 @@ public class RegexMatcher implements Checkpointable {
   public String regexSubstitute(String str, String regex, String replace, boolean globalModifier, String modifiers, String source, int offset) {
     if (globalModifier) {
       lastWasGlobal = true;
-      return globalMatcher.regexSubstitute(str, regex, replace, modifiers, source, offset);
+      return globalMatcher.regexSubstitute(str, regex, null, replace, modifiers, source, offset);
     }
 
     lastWasGlobal = false;
-    return nonGlobalMatcher.regexSubstitute(str, regex, replace, modifiers, source, offset);
+    return nonGlobalMatcher.regexSubstitute(str, regex, null, replace, modifiers, source, offset);
+  }
+
+  public String regexSubstitute(String str, Pattern pattern, String replace, boolean globalModifier, String modifiers, String source, int offset) {
+    if (globalModifier) {
+      lastWasGlobal = true;
+      return globalMatcher.regexSubstitute(str, pattern.pattern(), pattern, replace, modifiers, source, offset);
+    }
+    lastWasGlobal = false;
+    return nonGlobalMatcher.regexSubstitute(str, pattern.pattern(), pattern, replace, modifiers, source, offset);
   }
 
   public Object regexGroup(int group) {
@@ -221,9 +224,10 @@ public class RegexMatcher implements Checkpointable {
     public String  regex;
     public String  modifiers;
 
-    abstract boolean regexFind(String str, String regex, String modifiers, String source, int offset);
+    // pattern is null if regex has not been precompiled
+    abstract boolean regexFind(String str, String regex, Pattern pattern, String modifiers, String source, int offset);
     abstract boolean regexFindNext();
-    abstract String  regexSubstitute(String str, String regex, String replace, String modifiers, String source, int offset);
+    abstract String  regexSubstitute(String str, String regex, Pattern pattern, String replace, String modifiers, String source, int offset);
     abstract void _restore(boolean haveMatcher);
 
     public void checkpoint(Checkpointer checkpointer) {
@@ -249,8 +253,17 @@ public class RegexMatcher implements Checkpointable {
       _restore(haveMatcher);
     }
 
-    protected void initMatcher(String str, String regex, String modifiers, String source, int offset) {
-      this.matcher     = getMatcher(str, regex, modifiers, source, offset);
+    protected void initMatcher(String str, String regex, Pattern pattern, String modifiers, String source, int offset) {
+      if (pattern == null) {
+        this.matcher = getMatcher(str, regex, modifiers, source, offset);
+      }
+      else {
+        if (str == null) {
+          throw new NullError("Null string in regex match", source, offset);
+        }
+        // Reuse Matcher if same Pattern as last time
+        this.matcher = matcher != null && matcher.pattern() == pattern ? matcher.reset(str) : pattern.matcher(str);
+      }
       this.str         = str;
       this.originalStr = str;
       this.regex       = regex;
@@ -307,7 +320,7 @@ public class RegexMatcher implements Checkpointable {
   }
 
   private static class GlobalMatcher extends JactlMatcher {
-    @Override public boolean regexFind(String str, String regex, String modifiers, String source, int offset) {
+    @Override public boolean regexFind(String str, String regex, Pattern pattern, String modifiers, String source, int offset) {
       if (str == null) {
         return false;      // null never matches anything
       }
@@ -315,7 +328,7 @@ public class RegexMatcher implements Checkpointable {
       // Check to see if the Matcher has the same source string (note we use == not .equals())
       if (!str.equals(this.originalStr) || !regex.equals(matcher.pattern().pattern()) || lastPos == -1) {
         lastPos = -1;
-        initMatcher(str, regex, modifiers, source, offset);
+        initMatcher(str, regex, pattern, modifiers, source, offset);
       }
       return regexFindNext();
     }
@@ -332,8 +345,8 @@ public class RegexMatcher implements Checkpointable {
       return matched;
     }
 
-    @Override public String regexSubstitute(String str, String regex, String replace, String modifiers, String source, int offset) {
-      initMatcher(str, regex, modifiers, source, offset);
+    @Override public String regexSubstitute(String str, String regex, Pattern pattern, String replace, String modifiers, String source, int offset) {
+      initMatcher(str, regex, pattern, modifiers, source, offset);
       try {
         return matcher.replaceAll(replace);
       }
@@ -357,11 +370,11 @@ public class RegexMatcher implements Checkpointable {
   }
 
   private static class NonGlobalMatcher extends JactlMatcher {
-    @Override public boolean regexFind(String str, String regex, String modifiers, String source, int offset) {
+    @Override public boolean regexFind(String str, String regex, Pattern pattern, String modifiers, String source, int offset) {
       if (str == null) {
         return false;       // null never matches
       }
-      initMatcher(str, regex, modifiers, source, offset);
+      initMatcher(str, regex, pattern, modifiers, source, offset);
       return matched = matcher.find();
     }
 
@@ -369,8 +382,8 @@ public class RegexMatcher implements Checkpointable {
       throw new IllegalStateException("Internal error: regexFindNext() invoked on non-global matcher");
     }
 
-    @Override public String regexSubstitute(String str, String regex, String replace, String modifiers, String source, int offset) {
-      initMatcher(str, regex, modifiers, source, offset);
+    @Override public String regexSubstitute(String str, String regex, Pattern pattern, String replace, String modifiers, String source, int offset) {
+      initMatcher(str, regex, pattern, modifiers, source, offset);
       try {
         return matcher.replaceFirst(replace);
       }
@@ -39,6 +39,8 @@ public class Restorer {
 
   private int           objTableOffset;
   private Object[]      restoredObjects;
+  private boolean       lazy;           // Whether lists/maps are restored on first access
+  private int           pendingLazy;    // Number of lazy lists/maps not yet restored
 
   private CircularBuffer<Pair<Integer,Object>> toBeProcessed = new CircularBuffer<>(127, true);
 
@@ -58,6 +60,7 @@ public class Restorer {
     objTableOffset = _readInt(idx);
     idx += 4;
     restoredObjects = new Object[numObjects];
+    lazy = context.lazyRestore();
     return this;
   }
 
@@ -65,8 +68,129 @@ public class Restorer {
     return context;
   }
 
+  /**
+   * Apply deltas to a full checkpoint to get the full checkpoint corresponding
+   * to the last delta.
+   * @param context      the JactlContext (for decompressing checkpoints)
+   * @param checkpoints  list of checkpoints where first one is full checkpoint and rest are deltas
+   *                     (an empty list or list with a single entry is also allowed)
+   * @return the full (uncompressed) checkpoint
+   */
+  public static byte[] applyDeltas(JactlContext context, List<byte[]> checkpoints) {
+    byte[] image = null;
+    for (byte[] checkpoint: checkpoints) {
+      checkpoint = decompress(context, checkpoint);
+      image = image == null || !Checkpointer.isDelta(checkpoint) ? checkpoint : applyDelta(image, checkpoint);
+    }
+    return image;
+  }
+
+  /**
+   * Decompress checkpoint if it has been compressed by a {@link CheckpointCodec}.
+   * @param context     the JactlContext (which may have a custom codec)
+   * @param checkpoint  the checkpoint
+   * @return the uncompressed checkpoint
+   */
+  public static byte[] decompress(JactlContext context, byte[] checkpoint) {
+    if (checkpoint.length == 0 || checkpoint[0] != Checkpointer.COMPRESSED_VERSION) {
+      return checkpoint;
+    }
+    Restorer header = new Restorer();
+    header.buf = checkpoint;
+    header.idx = 2;
+    int             codecId = header.readByte();
+    CheckpointCodec codec   = context.checkpointCodec() != null && context.checkpointCodec().id() == codecId ? context.checkpointCodec()
+                                                                                                             : CheckpointCodec.builtin(codecId);
+    if (codec == null) {
+      throw new IllegalStateException("Unknown checkpoint codec: " + codecId);
+    }
+    int length = header.readCInt();
+    byte[] result = codec.decode(checkpoint, header.idx, checkpoint.length - header.idx, length);
+    if (result.length == 0 || result[0] != checkpoint[1]) {
+      throw new IllegalStateException("Corrupt checkpoint: bad version after decompression");
+    }
+    return result;
+  }
+
+  /**
+   * Create a new full checkpoint by applying a delta to the full checkpoint it was
+   * generated against. Both checkpoints must already have been decompressed.
+   * @param image  the full checkpoint
+   * @param delta  the delta
+   * @return the new full checkpoint
+   */
+  public static byte[] applyDelta(byte[] image, byte[] delta) {
+    Restorer base = new Restorer();
+    base.buf = image;
+    base.expectCInt(Checkpointer.VERSION, "Bad checkpointer version");
+    int headerIdx  = base.idx;
+    int oldObjects = base._readInt(headerIdx);
+    int oldTable   = base._readInt(headerIdx + 4);
+    int[] oldOffsets = new int[oldObjects];
+    for (int i = 0; i < oldObjects; i++) {
+      oldOffsets[i] = base._readInt(oldTable + i * 4);
+    }
+
+    Restorer patch = new Restorer();
+    patch.buf = delta;
+    patch.expectCInt(Checkpointer.DELTA_VERSION, "Bad checkpoint delta version");
+    int numObjects = patch._readInt(patch.idx);
+    int numChanged = patch._readInt(patch.idx + 4);
+    patch.idx += 8;
+
+    // Work out where each object comes from (old image or delta) and its length
+    int[] sources = new int[numObjects];
+    int[] lengths = new int[numObjects];
+    byte[][] bufs = new byte[numObjects][];
+    for (int i = 0; i < Math.min(oldObjects, numObjects); i++) {
+      sources[i] = oldOffsets[i];
+      lengths[i] = (i + 1 < oldObjects ? oldOffsets[i + 1] : oldTable) - oldOffsets[i];
+      bufs[i]    = image;
+    }
+    for (int i = 0; i < numChanged; i++) {
+      int objId = patch.readCInt();
+      int length = patch.readCInt();
+      sources[objId] = patch.idx;
+      lengths[objId] = length;
+      bufs[objId]    = delta;
+      patch.idx += length;
+    }
+
+    // Header and root object reference are the same for every checkpoint
+    int prefix = oldObjects > 0 ? oldOffsets[0] : oldTable;
+    int size   = prefix + numObjects * 4;
+    for (int i = 0; i < numObjects; i++) {
+      if (bufs[i] == null) {
+        throw new IllegalStateException("Checkpoint delta missing object " + i);
+      }
+      size += lengths[i];
+    }
+    byte[] result = new byte[size];
+    System.arraycopy(image, 0, result, 0, prefix);
+    int   idx     = prefix;
+    int[] offsets = new int[numObjects];
+    for (int i = 0; i < numObjects; i++) {
+      offsets[i] = idx;
+      System.arraycopy(bufs[i], sources[i], result, idx, lengths[i]);
+      idx += lengths[i];
+    }
+    putInt(result, headerIdx, numObjects);
+    putInt(result, headerIdx + 4, idx);
+    for (int i = 0; i < numObjects; i++, idx += 4) {
+      putInt(result, idx, offsets[i]);
+    }
+    return result;
+  }
+
+  private static void putInt(byte[] buf, int i, int num) {
+    buf[i++] = (byte)(num & 0xff); num >>>= 8;
+    buf[i++] = (byte)(num & 0xff); num >>>= 8;
+    buf[i++] = (byte)(num & 0xff); num >>>= 8;
+    buf[i]   = (byte)(num & 0xff);
+  }
+
   public static Object restore(JactlContext context, byte[] buf) {
-    Restorer restorer = get(context, buf);
+    Restorer restorer = get(context, decompress(context, buf));
     // We checkpoint a three element list (globals, continuation, scriptContext) so
     // restore the globals and scriptContext and return the continuation
     List restored = (List)restorer.restore();
@@ -76,12 +200,33 @@ public class Restorer {
 
   private Object restore() {
     Object result = readObject();
+    processPending();
+    return result;
+  }
+
+  private void processPending() {
     Pair<Integer,Object> objectPair;
     while ((objectPair = toBeProcessed.remove()) != null) {
       restoreObject(objectPair.first, objectPair.second);
     }
-    restoredObjects = null;
-    return result;
+    if (pendingLazy == 0) {
+      // Nothing else can refer to the checkpoint data so allow it to be garbage collected
+      restoredObjects = null;
+      buf             = null;
+    }
+  }
+
+  /**
+   * Restore the contents of a lazily restored list or map on first access.
+   * The Restorer is shared by all lazy objects from the same checkpoint so we
+   * need to serialise access.
+   * @param objOffset  the offset of the list/map in the checkpoint
+   * @param obj        the ArrayList/LinkedHashMap to restore into
+   */
+  synchronized void restoreLazy(int objOffset, Object obj) {
+    pendingLazy--;
+    restoreObject(objOffset, obj);
+    processPending();
   }
 
   public JactlType.TypeEnum readTypeEnum() {
@@ -320,8 +465,8 @@ public class Restorer {
         case STRING_BUFFER:  result = readStringBuffer();      shouldRestore = false;   break;
         case STRING_BUILDER: result = readStringBuilder();     shouldRestore = false;   break;
 
-        case MAP:            result = add.apply(new LinkedHashMap<>());                 break;
-        case LIST:           result = add.apply(new ArrayList<>());                     break;
+        case MAP:            result = lazy && !restore ? lazy(new LazyMap(this, objOffset))  : add.apply(new LinkedHashMap<>());  break;
+        case LIST:           result = lazy && !restore ? lazy(new LazyList(this, objOffset)) : add.apply(new ArrayList<>());      break;
         case INSTANCE:       result = add.apply(createInstance());                      break;
         case FUNCTION:       result = add.apply(JactlMethodHandle.create(readCInt()));  break;
         case ARRAY:          result = add.apply(createArray());                         break;
@@ -348,6 +493,11 @@ public class Restorer {
     }
   }
 
+  private Object lazy(Object obj) {
+    pendingLazy++;
+    return obj;
+  }
+
   private void restoreObject(int objOffset, Object obj) {
     int oldIdx = idx;
     try {
@@ -383,7 +533,9 @@ public class Restorer {
   private void restoreList(List list) {
     int size = readCInt();
     for (int i = 0; i < size; i++) {
-      list.add(readObject(true));
+      // In lazy mode don't restore elements immediately since lists/maps will be lazy
+      // and anything else will be restored before we return to the caller
+      list.add(readObject(!lazy));
     }
   }
 
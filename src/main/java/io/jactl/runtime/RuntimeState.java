@@ -23,6 +23,7 @@ import io.jactl.compiler.MethodRef;
 
 import java.io.*;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
@@ -49,6 +50,12 @@ public class RuntimeState {
   private Object              invocationContext;
   private long                loopIterationCount;
   private long                endTime;
+  private StringBuilder       outputBuffer;      // Buffered print output if outputBufferSize set on JactlContext
+  private String              printSource;       // Location of last buffered print (for errors on flush)
+  private int                 printOffset;
+  private JsonStreamDecoder   jsonInput;         // For nextJson()
+  private RuntimeState        parent;            // Set if state is for a task run in parallel (see forTask())
+  private long                taskStartCount;    // Loop iteration count when task was created
 
   private static ThreadLocal<RuntimeState> threadLocalState = ThreadLocal.withInitial(RuntimeState::new);
 
@@ -81,6 +88,8 @@ public class RuntimeState {
     state.invocationContext = null;
     state.loopIterationCount = 0;
     state.endTime = 0;
+    state.outputBuffer = null;
+    state.jsonInput = null;
   }
   
   public static void setState(JactlContext context, Map<String, Object> globals, Reader input, Writer writer, Object invocationContext) {
@@ -96,12 +105,33 @@ public class RuntimeState {
     }
     state.loopIterationCount = 0;
     state.invocationContext = invocationContext;
+    state.outputBuffer = null;
+    state.jsonInput = null;
   }
   
   public BufferedReader getInput() {
     return input;
   }
 
+  /**
+   * Get decoder for reading JSON values from the input (created on first use)
+   * @param source  source code of nextJson() call
+   * @param offset  offset into source
+   * @return the decoder or null if there is no input
+   */
+  public JsonStreamDecoder getJsonInput(String source, int offset) {
+    if (parent != null) {
+      // Tasks share the decoder of the script invocation
+      return parent.getJsonInput(source, offset);
+    }
+    synchronized (this) {
+      if (jsonInput == null && input != null) {
+        jsonInput = new JsonStreamDecoder(input, source, offset);
+      }
+      return jsonInput;
+    }
+  }
+
   public Writer getWriter() {
     return writer;
   }
@@ -111,6 +141,150 @@ public class RuntimeState {
   }
 
   public JactlContext getContext() { return context; }
+
+  /**
+   * Create state for a task that is run in parallel with other tasks on another thread (see
+   * {@link ParallelIterator}). Each task gets its own loop iteration count and output buffer so
+   * that tasks do not update the same state concurrently. Once the tasks have completed their
+   * state is merged back in using {@link #mergeTasks(List, String, int)}.
+   * @return the new state for the task
+   */
+  public RuntimeState forTask() {
+    RuntimeState task = new RuntimeState();
+    task.context            = context;
+    task.globals            = globals;
+    task.writer             = writer;
+    task.input              = input;
+    task.invocationContext  = invocationContext;
+    task.endTime            = endTime;
+    task.loopIterationCount = loopIterationCount;
+    task.taskStartCount     = loopIterationCount;
+    task.parent             = this;
+    return task;
+  }
+
+  /**
+   * Merge state of completed tasks created using {@link #forTask()}. The loop iterations of the
+   * tasks are added to our count and their output is written in task order.
+   * @param tasks   the task states
+   * @param source  source code of the parallel operation
+   * @param offset  offset into source
+   */
+  public void mergeTasks(List<RuntimeState> tasks, String source, int offset) {
+    for (RuntimeState task: tasks) {
+      loopIterationCount += task.loopIterationCount - task.taskStartCount;
+      if (task.outputBuffer != null && task.outputBuffer.length() > 0) {
+        print(task.outputBuffer.toString(), false, task.printSource, task.printOffset);
+      }
+    }
+    // Each task is only limited by the iterations it performs itself so check combined total here
+    long limit = context.maxLoopLimit;
+    if (limit >= 0 && loopIterationCount > limit) {
+      throw new TimeoutError("Loop iterations limit of " + limit + " exceeded (count=" + loopIterationCount + ")", source, offset);
+    }
+  }
+
+  /**
+   * Print output for this script invocation. Output of tasks run in parallel is always buffered
+   * until the task completes so that it is not interleaved with the output of other tasks.
+   * @param str      the output
+   * @param newLine  true if newline should be added
+   * @param source   source code of print statement
+   * @param offset   offset of print statement in source
+   */
+  public void print(String str, boolean newLine, String source, int offset) {
+    if (parent != null) {
+      bufferOutput(str, newLine, source, offset);
+    }
+    else if (writer == null) {
+      if (newLine) {
+        System.out.println(str);
+      }
+      else {
+        System.out.print(str);
+      }
+    }
+    else if (context.outputBufferSize > 0) {
+      bufferOutput(str, newLine, source, offset);
+    }
+    else {
+      try {
+        writer.write(str.toCharArray(), 0, str.length());
+        if (newLine) {
+          writer.write('\n');
+        }
+        writer.flush();
+      }
+      catch (IOException e) {
+        throw new RuntimeError("Error writing to output: " + e.getMessage(), source, offset, e);
+      }
+    }
+  }
+
+  /**
+   * Buffer output for writer rather than writing it immediately. The output is written once the
+   * amount buffered reaches the outputBufferSize of the JactlContext, or when the script suspends
+   * or completes.
+   * @param str      the output
+   * @param newLine  true if newline should be added
+   * @param source   source code of print statement
+   * @param offset   offset of print statement in source
+   */
+  public void bufferOutput(String str, boolean newLine, String source, int offset) {
+    if (outputBuffer == null) {
+      outputBuffer = new StringBuilder(Math.max(16, Math.min(context.outputBufferSize, 8192)));
+    }
+    outputBuffer.append(str);
+    if (newLine) {
+      outputBuffer.append('\n');
+    }
+    printSource = source;
+    printOffset = offset;
+    // Output of parallel task is only written once task completes (see mergeTasks())
+    if (parent == null && outputBuffer.length() >= context.outputBufferSize) {
+      flush();
+    }
+  }
+
+  /**
+   * Write any buffered output for the current script invocation to its writer
+   */
+  public static void flushOutput() {
+    getState().flush();
+  }
+
+  /**
+   * Write any buffered output for the current script invocation to its writer ignoring any
+   * errors (used when script has already failed)
+   */
+  public static void flushOutputQuietly() {
+    try {
+      flushOutput();
+    }
+    catch (RuntimeError ignored) {}
+  }
+
+  private void flush() {
+    if (outputBuffer == null || outputBuffer.length() == 0) {
+      return;
+    }
+    try {
+      writer.append(outputBuffer);
+      writer.flush();
+    }
+    catch (IOException e) {
+      throw new RuntimeError("Error writing to output: " + e.getMessage(), printSource, printOffset, e);
+    }
+    finally {
+      // Don't hang on to large buffers
+      if (outputBuffer.capacity() > 2 * context.outputBufferSize) {
+        outputBuffer = null;
+      }
+      else {
+        outputBuffer.setLength(0);
+      }
+    }
+  }
   
   public Object getInvocationContext() { return invocationContext; }
 
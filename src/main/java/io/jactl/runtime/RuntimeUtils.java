@@ -20,8 +20,6 @@ package io.jactl.runtime;
 import io.jactl.*;
 import io.jactl.compiler.MethodRef;
 
-import java.io.IOException;
-import java.io.Writer;
 import java.lang.invoke.MethodHandles;
 import java.lang.invoke.MethodType;
 import java.lang.reflect.Array;
@@ -1033,7 +1031,7 @@ public class RuntimeUtils {
       throw new NullError("Left hand side of " + (isPlusEqual ? "'+='" : "'+'") + " is null", source, offset);
     }
     // If ++= then add to existing list rather than creating a new one
-    List result = isPlusEqual ? list : new ArrayList<>(list);
+    List result = isPlusEqual ? list : copyList(list);
     if (obj instanceof List) {
       result.addAll((List) obj);
     }
@@ -1052,7 +1050,7 @@ public class RuntimeUtils {
    * @return the list (same list for &lt;&lt;= and new list for &lt;&lt;)
    */
   public static List listAddSingle(List list, Object elem, boolean isAssignment) {
-    List result = isAssignment ? list : new ArrayList(list);
+    List result = isAssignment ? list : copyList(list);
     result.add(elem);
     return result;
   }
@@ -1077,14 +1075,14 @@ public class RuntimeUtils {
       throw new NullError("Right hand side of " + (isPlusEqual ? "'+='" : "'+'") + " is null", source, offset);
     }
     // If plusEqual then just merge map2 into map1
-    Map result = isPlusEqual ? map1 : new LinkedHashMap(map1);
+    Map result = isPlusEqual ? map1 : copyMap(map1);
     result.putAll(map2);
     return result;
   }
   public static final MethodRef MAP_ADD_METHOD = Utils.getMethod(RuntimeUtils.class, "mapAdd", Map.class, Map.class, boolean.class, String.class, int.class);
 
   public static Map mapSubtract(Map map1, Object obj2, boolean isMinusEqual, String source, int offset) {
-    Map result = isMinusEqual ? map1 : new LinkedHashMap(map1);
+    Map result = isMinusEqual ? map1 : copyMap(map1);
     if (obj2 instanceof Map) {
       ((Map)obj2).keySet().forEach(result::remove);
       return result;
@@ -1096,6 +1094,21 @@ public class RuntimeUtils {
     throw new RuntimeError("Cannot subtract object of type " + className(obj2) + " from Map", source, offset);
   }
   public static final MethodRef MAP_SUBSTRACT_METHOD = Utils.getMethod(RuntimeUtils.class, "mapSubtract", Map.class, Object.class, boolean.class, String.class, int.class);
+
+  // Copy list/map for non-mutating operators. If persistent collections are enabled we return a
+  // copy that shares structure with the original rather than copying every element.
+  private static List copyList(List list) {
+    return persistentCollections() ? PersistentList.from(list) : new ArrayList<>(list);
+  }
+
+  private static Map copyMap(Map map) {
+    return persistentCollections() ? PersistentMap.from(map) : new LinkedHashMap(map);
+  }
+
+  private static boolean persistentCollections() {
+    JactlContext context = RuntimeState.getState().getContext();
+    return context != null && context.persistentCollections;
+  }
   
 
   /**
@@ -1702,7 +1715,7 @@ public class RuntimeUtils {
     JactlClassDescriptor descriptor = context.getRegisteredClasses().getClassDescriptor(clss);
     if (descriptor == null) {
       // Check for a host class
-      if (context.allowHostAccess && context.allowHostClassLookup.test(clss.getName())) {
+      if (context.allowHostAccess && context.isHostClassAllowed(clss.getName())) {
         return context.lookupStaticWrapperForHostClass(clss, fieldName, source, offset);
       }
       else {
@@ -2147,6 +2160,7 @@ public class RuntimeUtils {
   }
 
   public static JactlIterator createCollectionIteratorOrNull(Object obj) {
+    if (obj instanceof ParallelIterator) { return ((ParallelIterator)obj).sequential(); }
     if (obj instanceof JactlIterator) { return (JactlIterator)obj;               }
     if (obj instanceof List)          { return JactlIterator.of((List)obj);      }
     if (obj instanceof Map)           { return JactlIterator.of((Map)obj);       }
@@ -2699,28 +2713,7 @@ public class RuntimeUtils {
 
   private static boolean doPrint(String source, int offset, String obj, boolean newLine) {
     if (obj == null) { obj = "null"; }
-    RuntimeState state = RuntimeState.getState();
-    Writer       out   = state.getWriter();
-    if (out == null) {
-      if (newLine) {
-        System.out.println(obj);
-      }
-      else {
-        System.out.print(obj);
-      }
-    }
-    else {
-      try {
-        out.write(obj.toCharArray(), 0, obj.length());
-        if (newLine) {
-          out.write('\n');
-        }
-        out.flush();
-      }
-      catch (IOException e) {
-        throw new RuntimeError("Error writing to output: " + e.getMessage(), source, offset, e);
-      }
-    }
+    RuntimeState.getState().print(obj, newLine, source, offset);
     return true;
   }
 
@@ -3299,9 +3292,35 @@ public class RuntimeUtils {
     list.add(value);
   }
 
-  public static final MethodRef GET_GLOBAL_BOOLEAN = Utils.getMethod(RuntimeUtils.class, "getGlobalBoolean", Map.class, String.class, String.class, int.class);
+  public static final MethodRef GET_GLOBAL = Utils.getMethod(RuntimeUtils.class, "getGlobal", Map.class, String.class, int.class);
+  /**
+   * Get value of global. If globals is a GlobalsLayout.Globals then we can get the value directly from
+   * its slot (if its layout matches that of the script) rather than doing a Map lookup.
+   * @param globals  the globals
+   * @param name     the name of the global
+   * @param slot     the slot allocated for the global when script was compiled or -1 if none
+   * @return the value of the global
+   */
+  public static Object getGlobal(Map globals, String name, int slot) {
+    return slot >= 0 && globals instanceof GlobalsLayout.Globals ? ((GlobalsLayout.Globals)globals).get(slot, name) : globals.get(name);
+  }
+
+  public static final MethodRef PUT_GLOBAL = Utils.getMethod(RuntimeUtils.class, "putGlobal", Map.class, String.class, Object.class, int.class);
+  public static void putGlobal(Map globals, String name, Object value, int slot) {
+    if (slot >= 0 && globals instanceof GlobalsLayout.Globals) {
+      ((GlobalsLayout.Globals)globals).put(slot, name, value);
+    }
+    else {
+      globals.put(name, value);
+    }
+  }
+
+  public static final MethodRef GET_GLOBAL_BOOLEAN = Utils.getMethod(RuntimeUtils.class, "getGlobalBoolean", Map.class, String.class, int.class, String.class, int.class);
   public static Boolean getGlobalBoolean(Map globals, String name, String source, int offset) {
-    Object value = globals.get(name);
+    return getGlobalBoolean(globals, name, -1, source, offset);
+  }
+  public static Boolean getGlobalBoolean(Map globals, String name, int slot, String source, int offset) {
+    Object value = getGlobal(globals, name, slot);
     if (value == null) {
       throw new NullError("Null value for global variable '" + name + "' of type Boolean", source, offset);
     }
@@ -3311,9 +3330,12 @@ public class RuntimeUtils {
     throw new RuntimeError("Global variable '" + name + "' not of type Boolean", source, offset);
   }
 
-  public static final MethodRef GET_GLOBAL_BYTE = Utils.getMethod(RuntimeUtils.class, "getGlobalByte", Map.class, String.class, String.class, int.class);
+  public static final MethodRef GET_GLOBAL_BYTE = Utils.getMethod(RuntimeUtils.class, "getGlobalByte", Map.class, String.class, int.class, String.class, int.class);
   public static Byte getGlobalByte(Map globals, String name, String source, int offset) {
-    Object value = globals.get(name);
+    return getGlobalByte(globals, name, -1, source, offset);
+  }
+  public static Byte getGlobalByte(Map globals, String name, int slot, String source, int offset) {
+    Object value = getGlobal(globals, name, slot);
     if (value == null) {
       throw new NullError("Null value for global variable '" + name + "' of type Byte", source, offset);
     }
@@ -3323,9 +3345,12 @@ public class RuntimeUtils {
     throw new RuntimeError("Global variable '" + name + "' not of type Byte", source, offset);
   }
 
-  public static final MethodRef GET_GLOBAL_INT = Utils.getMethod(RuntimeUtils.class, "getGlobalInt", Map.class, String.class, String.class, int.class);
+  public static final MethodRef GET_GLOBAL_INT = Utils.getMethod(RuntimeUtils.class, "getGlobalInt", Map.class, String.class, int.class, String.class, int.class);
   public static Integer getGlobalInt(Map globals, String name, String source, int offset) {
-    Object value = globals.get(name);
+    return getGlobalInt(globals, name, -1, source, offset);
+  }
+  public static Integer getGlobalInt(Map globals, String name, int slot, String source, int offset) {
+    Object value = getGlobal(globals, name, slot);
     if (value == null) {
       throw new NullError("Null value for global variable '" + name + "' of type Integer", source, offset);
     }
@@ -3335,9 +3360,12 @@ public class RuntimeUtils {
     throw new RuntimeError("Global variable " + name + "' not of type Integer", source, offset);
   }
 
-  public static final MethodRef GET_GLOBAL_LONG = Utils.getMethod(RuntimeUtils.class, "getGlobalLong", Map.class, String.class, String.class, int.class);
+  public static final MethodRef GET_GLOBAL_LONG = Utils.getMethod(RuntimeUtils.class, "getGlobalLong", Map.class, String.class, int.class, String.class, int.class);
   public static Long getGlobalLong(Map globals, String name, String source, int offset) {
-    Object value = globals.get(name);
+    return getGlobalLong(globals, name, -1, source, offset);
+  }
+  public static Long getGlobalLong(Map globals, String name, int slot, String source, int offset) {
+    Object value = getGlobal(globals, name, slot);
     if (value == null) {
       throw new NullError("Null value for global variable '" + name + "' of type Long", source, offset);
     }
@@ -3347,9 +3375,12 @@ public class RuntimeUtils {
     throw new RuntimeError("Global variable " + name + "' not of type Long", source, offset);
   }
 
-  public static final MethodRef GET_GLOBAL_DOUBLE = Utils.getMethod(RuntimeUtils.class, "getGlobalDouble", Map.class, String.class, String.class, int.class);
+  public static final MethodRef GET_GLOBAL_DOUBLE = Utils.getMethod(RuntimeUtils.class, "getGlobalDouble", Map.class, String.class, int.class, String.class, int.class);
   public static Double getGlobalDouble(Map globals, String name, String source, int offset) {
-    Object value = globals.get(name);
+    return getGlobalDouble(globals, name, -1, source, offset);
+  }
+  public static Double getGlobalDouble(Map globals, String name, int slot, String source, int offset) {
+    Object value = getGlobal(globals, name, slot);
     if (value == null) {
       throw new NullError("Null value for global variable '" + name + "' of type Double", source, offset);
     }
@@ -3359,9 +3390,12 @@ public class RuntimeUtils {
     throw new RuntimeError("Global variable " + name + "' not of type Double", source, offset);
   }
 
-  public static final MethodRef GET_GLOBAL_DECIMAL = Utils.getMethod(RuntimeUtils.class, "getGlobalDecimal", Map.class, String.class, String.class, int.class);
+  public static final MethodRef GET_GLOBAL_DECIMAL = Utils.getMethod(RuntimeUtils.class, "getGlobalDecimal", Map.class, String.class, int.class, String.class, int.class);
   public static BigDecimal getGlobalDecimal(Map globals, String name, String source, int offset) {
-    Object value = globals.get(name);
+    return getGlobalDecimal(globals, name, -1, source, offset);
+  }
+  public static BigDecimal getGlobalDecimal(Map globals, String name, int slot, String source, int offset) {
+    Object value = getGlobal(globals, name, slot);
     if (value == null) {
       return null;
     }
@@ -3371,9 +3405,12 @@ public class RuntimeUtils {
     throw new RuntimeError("Global variable " + name + "' not of type Decimal", source, offset);
   }
 
-  public static final MethodRef GET_GLOBAL_STRING = Utils.getMethod(RuntimeUtils.class, "getGlobalString", Map.class, String.class, String.class, int.class);
+  public static final MethodRef GET_GLOBAL_STRING = Utils.getMethod(RuntimeUtils.class, "getGlobalString", Map.class, String.class, int.class, String.class, int.class);
   public static String getGlobalString(Map globals, String name, String source, int offset) {
-    Object value = globals.get(name);
+    return getGlobalString(globals, name, -1, source, offset);
+  }
+  public static String getGlobalString(Map globals, String name, int slot, String source, int offset) {
+    Object value = getGlobal(globals, name, slot);
     if (value == null) {
       return null;
     }
@@ -3383,9 +3420,12 @@ public class RuntimeUtils {
     throw new RuntimeError("Global variable " + name + "' not of type String", source, offset);
   }
 
-  public static final MethodRef GET_GLOBAL_LIST = Utils.getMethod(RuntimeUtils.class, "getGlobalList", Map.class, String.class, String.class, int.class);
+  public static final MethodRef GET_GLOBAL_LIST = Utils.getMethod(RuntimeUtils.class, "getGlobalList", Map.class, String.class, int.class, String.class, int.class);
   public static List getGlobalList(Map globals, String name, String source, int offset) {
-    Object value = globals.get(name);
+    return getGlobalList(globals, name, -1, source, offset);
+  }
+  public static List getGlobalList(Map globals, String name, int slot, String source, int offset) {
+    Object value = getGlobal(globals, name, slot);
     if (value == null) {
       return null;
     }
@@ -3395,9 +3435,12 @@ public class RuntimeUtils {
     throw new RuntimeError("Global variable " + name + "' not of type List", source, offset);
   }
 
-  public static final MethodRef GET_GLOBAL_MAP = Utils.getMethod(RuntimeUtils.class, "getGlobalMap", Map.class, String.class, String.class, int.class);
+  public static final MethodRef GET_GLOBAL_MAP = Utils.getMethod(RuntimeUtils.class, "getGlobalMap", Map.class, String.class, int.class, String.class, int.class);
   public static Map getGlobalMap(Map globals, String name, String source, int offset) {
-    Object value = globals.get(name);
+    return getGlobalMap(globals, name, -1, source, offset);
+  }
+  public static Map getGlobalMap(Map globals, String name, int slot, String source, int offset) {
+    Object value = getGlobal(globals, name, slot);
     if (value == null) {
       return null;
     }
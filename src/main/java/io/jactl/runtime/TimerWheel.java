@@ -0,0 +1,310 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl.runtime;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Hierarchical timer wheel for scheduling large numbers of timers.</p>
+ * <p>Scheduling and cancelling a timer are O(1): the timer is added to a lock-free queue that the
+ * timer thread drains before each tick. Only the timer thread modifies the wheel itself so no locking
+ * is needed. Each level of the wheel has 64 slots, with each slot of level n covering 64^n ticks.
+ * At the start of each block of ticks for a level, the timers in the slot for that block are moved
+ * down to the lower levels. Timers that are further away than the top level can cover are put in the
+ * top level and moved down as the wheel turns.</p>
+ * <p>When timers expire they are not run on the timer thread. Instead, all expired timers for the same
+ * executor are passed to that executor as a single batch.</p>
+ * <p>The timer thread is a daemon thread that is only started when the first timer is scheduled so
+ * that applications that never use timers do not have an extra thread (and are not prevented from
+ * exiting).</p>
+ */
+public class TimerWheel {
+  private static final int  SLOT_BITS = 6;
+  private static final int  SLOTS     = 1 << SLOT_BITS;
+  private static final int  LEVELS    = 4;
+  private static final long MAX_TICKS = 1L << (SLOT_BITS * LEVELS);
+
+  private final long                         tickNanos;
+  private final long                         startNanos = System.nanoTime();
+  private final Timer[][]                    wheel      = new Timer[LEVELS][SLOTS];   // Each slot is a doubly linked list
+  private final ConcurrentLinkedQueue<Timer> added      = new ConcurrentLinkedQueue<>();
+  private final ConcurrentLinkedQueue<Timer> cancelled  = new ConcurrentLinkedQueue<>();
+  private final String                       threadName;
+  private volatile Thread                    thread;
+  private       long                         currentTick = 0;    // Next tick to be processed
+  private       int                          size        = 0;    // Number of timers in wheel
+  private volatile long                      wakeTick    = 0;    // Tick timer thread is sleeping until
+  private volatile boolean                   running     = true;
+
+  /**
+   * Handle for a scheduled timer
+   */
+  public static class Timer {
+    private final    TimerWheel timerWheel;
+    private final    Runnable   task;
+    private final    Executor   executor;
+    private final    long       deadline;     // Tick when timer is due
+    private volatile boolean    isCancelled;
+    private          int        level = -1;   // Level and slot when in wheel
+    private          int        slot;
+    private          Timer      prev;
+    private          Timer      next;
+
+    private Timer(TimerWheel timerWheel, Runnable task, Executor executor, long deadline) {
+      this.timerWheel = timerWheel;
+      this.task       = task;
+      this.executor   = executor;
+      this.deadline   = deadline;
+    }
+
+    /**
+     * Cancel timer. Has no effect if timer has already expired.
+     */
+    public void cancel() {
+      if (!isCancelled) {
+        isCancelled = true;
+        timerWheel.cancelled.add(this);
+      }
+    }
+
+    public boolean isCancelled() {
+      return isCancelled;
+    }
+  }
+
+  /**
+   * Create a timer wheel. The timer thread is started when the first timer is scheduled.
+   * @param tickMs      resolution of timers in milliseconds
+   * @param threadName  name of the timer thread
+   */
+  public TimerWheel(long tickMs, String threadName) {
+    this.tickNanos  = TimeUnit.MILLISECONDS.toNanos(Math.max(1, tickMs));
+    this.threadName = threadName;
+  }
+
+  /**
+   * Schedule task to be run on given executor after given delay
+   * @param task      the task to run
+   * @param delayMs   the delay in milliseconds
+   * @param executor  the executor to run the task on
+   * @return the Timer which can be used to cancel the task
+   */
+  public Timer schedule(Runnable task, long delayMs, Executor executor) {
+    // Round up so that timer never fires early
+    long  deadline = (System.nanoTime() - startNanos + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs)) + tickNanos - 1) / tickNanos;
+    Timer timer    = new Timer(this, task, executor, deadline);
+    added.add(timer);
+    Thread t = thread;
+    if (t == null) {
+      startThread();
+    }
+    else if (timer.deadline < wakeTick) {
+      LockSupport.unpark(t);
+    }
+    return timer;
+  }
+
+  /**
+   * Stop the timer thread. Timers that have not yet expired will not be run.
+   */
+  public synchronized void shutdown() {
+    running = false;
+    if (thread != null) {
+      LockSupport.unpark(thread);
+    }
+  }
+
+  /**
+   * @return true if the timer thread has been started
+   */
+  public boolean isStarted() {
+    return thread != null;
+  }
+
+  private synchronized void startThread() {
+    if (thread == null && running) {
+      Thread t = new Thread(this::run, threadName);
+      t.setDaemon(true);
+      t.start();
+      thread = t;
+    }
+  }
+
+  ////////////////////////////////////
+
+  private long now() {
+    return (System.nanoTime() - startNanos) / tickNanos;
+  }
+
+  private void run() {
+    Map<Executor,List<Runnable>> expired = new IdentityHashMap<>();
+    while (running) {
+      long now = now();
+      while (currentTick <= now) {
+        drainQueues();
+        cascade();
+        expire(expired);
+        currentTick++;
+      }
+      dispatch(expired);
+      drainQueues();
+      long wake = size == 0 ? Long.MAX_VALUE : nextWakeTick();
+      wakeTick = wake;
+      if (added.isEmpty() && running) {
+        if (wake == Long.MAX_VALUE) {
+          LockSupport.park(this);
+        }
+        else {
+          LockSupport.parkNanos(this, startNanos + wake * tickNanos - System.nanoTime());
+        }
+      }
+      wakeTick = 0;
+      if (size == 0) {
+        // Nothing in the wheel so no need to process the ticks we have missed while waiting
+        currentTick = Math.max(currentTick, now());
+      }
+    }
+  }
+
+  /**
+   * Find next tick that has timers at level 0 or, if none before the end of the current block of
+   * level 0 ticks, the tick at the start of the next block (where we might need to cascade timers).
+   */
+  private long nextWakeTick() {
+    long blockEnd = (currentTick | (SLOTS - 1)) + 1;
+    for (long tick = currentTick; tick < blockEnd; tick++) {
+      if (wheel[0][(int)tick & (SLOTS - 1)] != null) {
+        return tick;
+      }
+    }
+    return blockEnd;
+  }
+
+  private void drainQueues() {
+    for (Timer timer = added.poll(); timer != null; timer = added.poll()) {
+      if (!timer.isCancelled) {
+        add(timer);
+      }
+    }
+    for (Timer timer = cancelled.poll(); timer != null; timer = cancelled.poll()) {
+      if (timer.level >= 0) {
+        remove(timer);
+      }
+    }
+  }
+
+  private void add(Timer timer) {
+    long deadline = Math.max(timer.deadline, currentTick);
+    if (deadline - currentTick >= MAX_TICKS) {
+      deadline = currentTick + MAX_TICKS - 1;       // Will be re-added when its slot is cascaded
+    }
+    long delta = deadline - currentTick;
+    int  level = 0;
+    while (delta >= 1L << (SLOT_BITS * (level + 1))) {
+      level++;
+    }
+    int slot    = (int)(deadline >>> (SLOT_BITS * level)) & (SLOTS - 1);
+    timer.level = level;
+    timer.slot  = slot;
+    timer.prev  = null;
+    timer.next  = wheel[level][slot];
+    if (timer.next != null) {
+      timer.next.prev = timer;
+    }
+    wheel[level][slot] = timer;
+    size++;
+  }
+
+  private void remove(Timer timer) {
+    if (timer.prev == null) {
+      wheel[timer.level][timer.slot] = timer.next;
+    }
+    else {
+      timer.prev.next = timer.next;
+    }
+    if (timer.next != null) {
+      timer.next.prev = timer.prev;
+    }
+    timer.level = -1;
+    timer.prev  = timer.next = null;
+    size--;
+  }
+
+  /**
+   * At the start of each block of ticks for a level we move the timers in the slot for that block
+   * down to lower levels (starting at the highest level so that timers can cascade through multiple
+   * levels at once).
+   */
+  private void cascade() {
+    for (int level = LEVELS - 1; level > 0; level--) {
+      if ((currentTick & ((1L << (SLOT_BITS * level)) - 1)) == 0) {
+        for (Timer timer = detach(level, (int)(currentTick >>> (SLOT_BITS * level)) & (SLOTS - 1)); timer != null; ) {
+          Timer next = timer.next;
+          add(timer);
+          timer = next;
+        }
+      }
+    }
+  }
+
+  private void expire(Map<Executor,List<Runnable>> expired) {
+    for (Timer timer = detach(0, (int)currentTick & (SLOTS - 1)); timer != null; timer = timer.next) {
+      if (!timer.isCancelled) {
+        expired.computeIfAbsent(timer.executor, e -> new ArrayList<>()).add(timer.task);
+      }
+    }
+  }
+
+  private Timer detach(int level, int slot) {
+    Timer head = wheel[level][slot];
+    wheel[level][slot] = null;
+    for (Timer timer = head; timer != null; timer = timer.next) {
+      timer.level = -1;
+      size--;
+    }
+    return head;
+  }
+
+  private static void dispatch(Map<Executor,List<Runnable>> expired) {
+    expired.forEach((executor, tasks) -> {
+      try {
+        executor.execute(() -> tasks.forEach(TimerWheel::runTask));
+      }
+      catch (RuntimeException ignored) {
+        // Executor has been shut down
+      }
+    });
+    expired.clear();
+  }
+
+  private static void runTask(Runnable task) {
+    try {
+      task.run();
+    }
+    catch (RuntimeException ignored) {
+      // Error in one task should not stop the other tasks in the batch from running
+    }
+  }
+}
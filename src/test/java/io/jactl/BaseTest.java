@@ -58,6 +58,7 @@ public class BaseTest {
   protected boolean            skipCheckpointTests;
   protected boolean            runTestsWithAllowHostAccess = false;
   protected boolean            invokeDynamic = true;
+  protected boolean            persistentCollections = false;
   protected JactlEnv           jactlEnv;
 
   protected static int testCounter = 0;
@@ -327,6 +328,7 @@ public class BaseTest {
                                             .evaluateConstExprs(evalConsts)
                                             .replMode(replMode)
                                             .invokeDynamic(invokeDynamic)
+                                            .persistentCollections(persistentCollections)
                                             .debug(debugLevel)
                                             .checkpoint(isAsync && testCheckpoint)
                                             .restore(isAsync && testCheckpoint)
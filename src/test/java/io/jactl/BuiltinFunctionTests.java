@@ -1226,6 +1226,60 @@ public class BuiltinFunctionTests extends BaseTest {
     assertEquals("abc", result.get());
   }
 
+  @Test
+  public void nextLineVirtualThreads() throws IOException, ExecutionException, InterruptedException {
+    JactlContext ctx    = JactlContext.create().environment(new VirtualThreadEnv()).build();
+    JactlScript  script = Compiler.compileScript("nextLine()", ctx, new HashMap<>());
+    // Use more blocked scripts than there are threads in the DefaultEnv blocking pool
+    int                  count   = VirtualThreadEnv.virtualThreadsSupported() ? Runtime.getRuntime().availableProcessors() * 4 + 10 : 1;
+    List<PipedWriter>    writers = new ArrayList<>();
+    List<Future<Object>> results = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      PipedReader in  = new PipedReader();
+      PipedWriter src = new PipedWriter();
+      in.connect(src);
+      writers.add(src);
+      results.add(script.run(new HashMap(), in, (Writer) null));
+    }
+    // Last script can only complete if it is not queued behind the other blocked scripts
+    for (int i = count - 1; i >= 0; i--) {
+      writers.get(i).write("abc" + i + "\n");
+      writers.get(i).close();
+      assertEquals("abc" + i, results.get(i).get());
+    }
+  }
+
+  @Test
+  public void printOutputBuffer() throws ExecutionException, InterruptedException {
+    class CountingWriter extends StringWriter {
+      int flushes = 0;
+      @Override public void flush() { flushes++; }
+    }
+    String expected = java.util.stream.IntStream.range(0, 100).mapToObj(i -> i + "\n").collect(Collectors.joining());
+    JactlContext   ctx      = JactlContext.create().outputBufferSize(64).build();
+    // Suspends half way through so output must be flushed before suspending
+    JactlScript    script   = Compiler.compileScript("for (int i = 0; i < 100; i++) { println i; sleep(0) if i == 50 }; 'done'", ctx, new HashMap<>());
+    CountingWriter out      = new CountingWriter();
+    assertEquals("done", script.run(new HashMap(), null, out).get());
+    assertEquals(expected, out.toString());
+    assertTrue(out.flushes > 1 && out.flushes < 20, "flushes=" + out.flushes);
+
+    // Unbuffered flushes on every print
+    ctx    = JactlContext.create().build();
+    script = Compiler.compileScript("for (int i = 0; i < 100; i++) { println i }", ctx, new HashMap<>());
+    out    = new CountingWriter();
+    script.run(new HashMap(), null, out).get();
+    assertEquals(expected, out.toString());
+    assertEquals(100, out.flushes);
+
+    // Buffered output still written when script fails
+    ctx    = JactlContext.create().outputBufferSize(64).async(false).build();
+    script = Compiler.compileScript("println 'abc'; die 'error'", ctx, new HashMap<>());
+    out    = new CountingWriter();
+    script.run(new HashMap(), null, out).get();
+    assertEquals("abc\n", out.toString());
+  }
+
   @Test
   public void nextLineSync() throws IOException, ExecutionException, InterruptedException {
     JactlContext ctx    = JactlContext.create().async(false).build();
@@ -1353,6 +1407,45 @@ public class BuiltinFunctionTests extends BaseTest {
     test("def x = [1,2,3,4]; x.flatMap{ x.size().filter{ it % 2 == 0 } }.sum()", 8);
   }
 
+  @Test public void pipelinePrimitiveArrays() {
+    test("long[] x = [1,2,3,4,5,6,7,8]; x.map{ it * 2 }.filter{ it > 10 }.sum()", 42L);
+    test("long[] x = [1,2,3,4,5,6,7,8]; x.map{ it * 2 }.filter{ it > 10 }", Utils.listOf(12L, 14L, 16L));
+    test("long[] x = [1,2,3,4,5,6,7,8]; x.map{ it * 2 }.filter{ it > 10 }.avg()", "#14");
+    test("long[] x = [1,2,3]; def y = x.map{ it * 2 }; y", Utils.listOf(2L, 4L, 6L));
+    test("long[] x = []; x.map{ it * 2 }.sum()", 0);
+    test("long[] x = []; x.sum() instanceof int", true);
+    test("int[] x = [2147483647, 1]; x.sum()", -2147483648);
+    test("int[] x = [1,2,3,4]; x.filter{ it % 2 }.map{ -it }.sum()", -4);
+    test("int[] x = [1,2,3,4]; x.map{ it > 2 ? it : 0L }.sum()", 7L);
+    test("int[] x = [1,2,3]; x.map{ it * 2 }.map{ it + 1 }.filter{ it != 5 }.map{ it * 1000000000 }.sum()", 1410065408);
+    test("int[] x = [1,2,3,4]; x.map{ it * 1.5 }.sum()", "#15.0");
+    test("int[] x = [1,2,3,4]; def y = 2; x.map{ it * y }.sum()", 20);
+    test("int[] x = [1,2,3,4]; def f = { it * 3 }; x.map(f).sum()", 30);
+    test("int[] x = [1,2,3,4]; x.map{ it * 2 }.filter{ it > 2 }.map{ it.toString() }.join(',')", "4,6,8");
+    test("double[] x = [1.5D, 2.5D]; x.map{ it * 2 }.sum()", 8.0D);
+    test("double[] x = [1.5D, 2.5D]; x.filter{ it > 2 }.avg()", "#2.5");
+    testError("double[] x = []; x.avg()", "empty list");
+    testError("int[] x = [1,2,3]; x.map{ it / 0 }.sum()", "divide by zero");
+    testError("int[] x = null; x.map{ it * 2 }.sum()", "null object");
+    test("int[] x = [1,2,3]; x.map{ it > 2 ? it : 0L }", Utils.listOf(0L, 0L, 3));
+    test("int[] x = [1,2,3]; x.map{ it > 2 ? it : 0L }.map{ it.className() }", Utils.listOf("long", "long", "int"));
+  }
+
+  @Test public void pipelinePrimitiveArraysSameAsList() {
+    List<String> closures = Utils.listOf("it * 2", "it * 2L", "-it + 1", "it / 2", "it > 2 ? it : 0", "it > 2 ? it : 0L", "it > 2 ? 0L : it",
+                                         "(it > 2 ? it : 0L) * 2", "it % 2 == 0 ? it + 1 : 1.5D", "it > 2 ? 1 : 0L", "it > 2 && it < 4");
+    for (String type: Utils.listOf("int", "long", "double")) {
+      for (String closure: closures) {
+        String script = type + "[] x = [1,2,3,4]; def types = { it.map{ [it, it.className()] } }; ";
+        test(script + "types(x.map{ " + closure + " }) == types((x as List).map{ " + closure + " })", true);
+        test(script + "types(x.filter{ it != 3 }.map{ " + closure + " }) == types((x as List).filter{ it != 3 }.map{ " + closure + " })", true);
+        if (!closure.contains("&&")) {
+          test(script + "types([x.map{ " + closure + " }.sum()]) == types([(x as List).map{ " + closure + " }.sum()])", true);
+        }
+      }
+    }
+  }
+
   @Test public void pipelineOverloadedMethods() {
     test("class X { def map(f) { f(3) } }; def x = new X(); x.map{ it + 7 }", 10);
   }
@@ -21,12 +21,16 @@ import io.jactl.runtime.*;
 import org.junit.jupiter.api.Test;
 
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
@@ -326,6 +330,52 @@ public class BuiltinFunctionTests2 extends BaseTest {
     test("" + randomNums + ".sort{ a,b -> sleep(sleep(0,0),a) <=> sleep(0,sleep(0,b)) }", sorted);
   }
 
+  @Test public void parallelLargeSort() {
+    skipCheckpointTests = true;
+    test("def x = 20000.map{ (it * 7919) % 20000 }; x.sort() == 20000.map()", true);
+    test("def x = 20000.map{ (it * 7919) % 20000 }; x.sort{ a,b -> b <=> a } == 20000.map{ 19999 - it }", true);
+    test("def x = 20000.map{ [(it * 7919) % 20000, it] }; x.sort{ a,b -> a[0] <=> b[0] }.map{ it[0] } == 20000.map()", true);
+    test("def x = 20000.map{ [it % 10, it] }; x.sort{ a,b -> a[0] <=> b[0] }.filter{ it[0] == 3 }.map{ it[1] } == 20000.filter{ it % 10 == 3 }", true);
+    test("def x = 20000.map{ ((it * 7919) % 20000).toString() }; x.sort() == 20000.map{ it.toString() }.sort{ a,b -> a <=> b }", true);
+    test("def x = 20000.map{ (it * 7919) % 20000 }; x.sort{ a,b -> sleep(0,b) <=> sleep(0,a) } == 20000.map{ 19999 - it }", true);
+    test("int[] x = 20000.map{ (it * 7919) % 20000 }; x.sort() == 20000.map()", true);
+    testError("def x = 20000.map{ it }; x.sort{ a,b -> if (a == 1234) { die 'bad' }; a <=> b }", "bad");
+    testError("def x = 20000.map{ it == 1234 ? 'x' : it }; x.sort()", "cannot compare");
+    skipCheckpointTests = false;
+  }
+
+  @Test public void primitiveArraySort() {
+    test("int[] x = [3,1,2]; x.sort()", Utils.listOf(1,2,3));
+    test("int[] x = [3,1,2]; x.sort(); x", new int[]{3,1,2});
+    test("int[] x = []; x.sort()", Utils.listOf());
+    test("long[] x = [3,-1,2]; x.sort()", Utils.listOf(-1L,2L,3L));
+    test("double[] x = [3.5,-1,2]; x.sort()", Utils.listOf(-1.0D,2.0D,3.5D));
+    test("int[] x = [3,1,2]; x.sort{ a,b -> b <=> a }", Utils.listOf(3,2,1));
+    test("int[] x = [3,1,2]; x.sort().map{ it * 2 }", Utils.listOf(2,4,6));
+    test("int[] x = [3,1,2]; def y = x; y.sort()", Utils.listOf(1,2,3));
+    test("String[] x = ['c','a','b']; x.sort()", Utils.listOf("a","b","c"));
+    testError("int[] x = null; x.sort()", "null");
+  }
+
+  @Test public void collectionSortBy() {
+    test("[].sortBy{ it }", Utils.listOf());
+    test("[3,1,2].sortBy{ it }", Utils.listOf(1,2,3));
+    test("[3,1,2].sortBy{ -it }", Utils.listOf(3,2,1));
+    test("['ccc','a','bb'].sortBy{ it.size() }", Utils.listOf("a","bb","ccc"));
+    test("['ccc','a','bb'].sortBy(key:{ it.size() })", Utils.listOf("a","bb","ccc"));
+    test("def f = ['ccc','a','bb'].sortBy; f{ it.size() }", Utils.listOf("a","bb","ccc"));
+    test("['ccc','a','bb'].sortBy{ sleep(0,it.size()) }", Utils.listOf("a","bb","ccc"));
+    test("['ccc','a','bb'].map{ sleep(0,it) }.sortBy{ sleep(0,it.size()) }", Utils.listOf("a","bb","ccc"));
+    test("[[2,'b'],[1,'z'],[2,'a'],[1,'y']].sortBy{ it[0] }", Utils.listOf(Utils.listOf(1,"z"),Utils.listOf(1,"y"),Utils.listOf(2,"b"),Utils.listOf(2,"a")));
+    test("[[2,'b'],[1,'z'],[2,'a'],[1,'y']].sortBy{ [it[0], it[1]] }", Utils.listOf(Utils.listOf(1,"y"),Utils.listOf(1,"z"),Utils.listOf(2,"a"),Utils.listOf(2,"b")));
+    test("[a:3,b:1,c:2].sortBy{ it[1] }.map{ it[0] }", Utils.listOf("b","c","a"));
+    test("'cab'.sortBy{ it }.join()", "abc");
+    test("[3,null,1].sortBy{ it }", Utils.listOf(null,1,3));
+    testError("[3,'a',1].sortBy{ it }", "cannot compare");
+    testError("[3,1].sortBy{ die 'bad' }", "bad");
+    testError("def f = [3,1].sortBy; f(keyx:{ it })", "missing value");
+  }
+
   @Test public void listAddAt() {
     test("[].add(1)", Utils.listOf(1));
     test("[].add(element:1)", Utils.listOf(1));
@@ -657,6 +707,61 @@ public class BuiltinFunctionTests2 extends BaseTest {
     test("def f = [a:1,b:2,c:3,d:4].windowSliding; f(2)", Utils.listOf(Utils.listOf(Utils.listOf("a",1),Utils.listOf("b",2)),Utils.listOf(Utils.listOf("b",2),Utils.listOf("c",3)),Utils.listOf(Utils.listOf("c",3),Utils.listOf("d",4))));
   }
 
+  @Test public void parallel() {
+    test("[].parallel().sum()", 0);
+    test("[].parallel().collect()", Utils.listOf());
+    test("[].parallel().min()", null);
+    test("[].parallel().join(',')", "");
+    testError("[].parallel().avg()", "empty list");
+    test("[1,2,3].parallel().sum()", 6);
+    test("[1,2,3].parallel().map{ it * 2 }.sum()", 12);
+    test("def f = [1,2,3].parallel; f().map{ it * 2 }.sum()", 12);
+    test("def x = [1,2,3]; x.parallel().map{ it * 2 }.filter{ it > 2 }.collect()", Utils.listOf(4,6));
+    test("20.parallel().filter{ it > 5 }.join(',')", "6,7,8,9,10,11,12,13,14,15,16,17,18,19");
+    test("20.parallel().map{ it / 2.0 }.avg()", "#4.75");
+    test("[a:1,b:2,c:3].parallel().map{ k,v -> v }.sum()", 6);
+    test("[a:1,b:2,c:3].parallel().map{ k,v -> k }.join()", "abc");
+
+    // Too many checkpoints for checkpoint tests
+    skipCheckpointTests = true;
+    test("def x = 30.map{ it }; x.parallel().map{ it * 2 }.filter{ it % 3 == 0 }.sum() == x.map{ it * 2 }.filter{ it % 3 == 0 }.sum()", true);
+    test("def x = 30.map{ it }; x.parallel().filter{ it % 7 == 0 }.collect{ it + 1 }", Utils.listOf(1,8,15,22,29));
+    test("def x = 40.map{ it % 17 }; [x.parallel().min(), x.parallel().max(), x.parallel().min{ -it }, x.parallel().max{ -it }]", Utils.listOf(0,16,16,0));
+    test("def x = 30.map{ it }; x.parallel().groupBy{ it % 3 } == x.groupBy{ it % 3 }", true);
+    test("def x = 30.map{ it }; x.parallel().groupBy{ it % 3 }.map{ k,v -> k }", Utils.listOf(0,1,2));
+    test("def x = 30.map{ it }; def p = x.parallel(); p.map{ it * 2 }.sum()", 870);
+    test("def x = 30.map{ it }; var p = x.parallel(); p.map{ it * 2 }.sum()", 870);
+    test("def x = 30.map{ it }; x.parallel().map{ it + 1 }.limit(3)", Utils.listOf(1,2,3));
+    test("def x = 30.map{ it }; def s = 0; for (y in x.parallel().filter{ it < 3 }) { s += y }; s", 3);
+    test("def x = 30.map{ it }; x.parallel().map{ it }.each{ x[it] = -it }; x.sum()", -435);
+    testError("def x = 30.map{ it }; x.parallel().map{ die 'bad' if it == 17; it }.sum()", "bad");
+    testError("def x = 30.map{ it }; x.parallel().map{ it == 17 ? 'x' : it }.sum()", "non-numeric");
+    skipCheckpointTests = false;
+
+    // Async closures fall back to sequential execution
+    test("def x = 10.map{ it }; x.parallel().map{ sleep(0, it) }.sum()", 45);
+    test("def x = 5.map{ it }; x.parallel().map{ it * 2 }.collect{ sleep(0, it) }", Utils.listOf(0,2,4,6,8));
+    test("def x = 10.map{ sleep(0, it) }; x.parallel().map{ it * 2 }.sum()", 90);
+    test("def x = [1,2,3].parallel().map{ it * 2 }; sleep(0); x.sum()", 12);
+  }
+
+  @Test public void parallelRuntimeState() throws ExecutionException, InterruptedException {
+    // Output of each chunk is written in order once all chunks have completed
+    String expected = IntStream.range(0, 200).mapToObj(i -> i + "\n").collect(Collectors.joining());
+    for (int bufferSize: new int[]{ 0, 64 }) {
+      JactlContext ctx    = JactlContext.create().outputBufferSize(bufferSize).build();
+      JactlScript  script = Compiler.compileScript("200.parallel().map{ println it; it }.sum()", ctx, new HashMap<>());
+      java.io.StringWriter out = new java.io.StringWriter();
+      assertEquals(19900, script.run(new HashMap(), null, out).get());
+      assertEquals(expected, out.toString());
+    }
+
+    // Loop iterations of all chunks count towards the limit
+    JactlContext ctx = JactlContext.create().maxLoopIterations(1000).build();
+    assertEquals(200, Jactl.eval("200.parallel().map{ for (int i = 0; i < 2; i++) {}; 1 }.sum()", new HashMap(), ctx));
+    assertThrows(TimeoutError.class, () -> Jactl.eval("200.parallel().map{ for (int i = 0; i < 6; i++) {}; 1 }.sum()", new HashMap(), ctx));
+  }
+
   @Test public void sqrt() {
     test("((byte)4).sqrt()", 2);
     test("((byte)-1).sqrt()", Math.sqrt(255));
@@ -876,6 +981,9 @@ public class BuiltinFunctionTests2 extends BaseTest {
     test("class X { int i = 1, j = 2; def m = [a:1] }; [x:new X()].toJson()", "{\"x\":{\"i\":1,\"j\":2,\"m\":{\"a\":1}}}");
     test("class X { int i = 1, j = 2; def m = [a:1]; X x = null }; [x:new X(x:new X())].toJson()", "{\"x\":{\"i\":1,\"j\":2,\"m\":{\"a\":1},\"x\":{\"i\":1,\"j\":2,\"m\":{\"a\":1},\"x\":null}}}");
     testError("class X { int i = 1, j = 2; def m = [a:1]; X x = null }; def x = new X(); x.x = x; x.toJson()", "StackOverflow");
+    test("class X {}; new X().toJson()", "{}");
+    test("class X { byte b = 255; byte[] arr = [255,1] }; new X().toJson()", "{\"b\":255,\"arr\":[255,1]}");
+    test("class X { String s = null; int i = 1 }; class Y extends X { long[] arr = [1,2]; X x = null }; new Y(s:'a', x:new X()).toJson()", "{\"s\":\"a\",\"i\":1,\"arr\":[1,2],\"x\":{\"s\":null,\"i\":1}}");
     test("127.map{ it.asChar() }.join().toJson()", "\"\\u0000\\u0001\\u0002\\u0003\\u0004\\u0005\\u0006\\u0007\\b\\t\\n\\u000B\\f\\r\\u000E\\u000F\\u0010\\u0011\\u0012\\u0013\\u0014\\u0015\\u0016\\u0017\\u0018\\u0019\\u001A\\u001B\\u001C\\u001D\\u001E\\u001F !\\\"#$%&'()*+,-./0123456789:;<=>?@ABCDEFGHIJKLMNOPQRSTUVWXYZ[\\\\]^_`abcdefghijklmnopqrstuvwxyz{|}~\"");
     test("[a:null,b:123].toJson()", "{\"a\":null,\"b\":123}");
     test("class X { int i = 3; X x = null }; new X().toJson()", "{\"i\":3,\"x\":null}");
@@ -953,6 +1061,93 @@ public class BuiltinFunctionTests2 extends BaseTest {
     test("def s = 127.map{ it.asChar() }.join(); s.toJson().fromJson() == s", true);
   }
 
+  @Test public void fromJsonStream() throws Exception {
+    Function<JsonStreamDecoder,List<Object>> decodeAll = decoder -> {
+      List<Object> result = new ArrayList<>();
+      decoder.forEachRemaining(result::add);
+      return result;
+    };
+    Function<String,List<Object>> decode = json -> decodeAll.apply(new JsonStreamDecoder(new java.io.StringReader(json)));
+    assertEquals(Utils.listOf(), decode.apply(""));
+    assertEquals(Utils.listOf(), decode.apply(" [ ] "));
+    assertEquals(Utils.listOf(1, "a", true, new ArrayList() {{ add(null); }}, Utils.mapOf("x", Utils.listOf(2))), decode.apply("[1, \"a\" ,true,[null],{\"x\":[2]}]"));
+    assertEquals(Utils.listOf(1, "a]\"", Utils.mapOf("x", "}")), decode.apply("1 \"a]\\\"\"\n{\"x\":\"}\"}"));
+    assertEquals(Utils.listOf(Utils.listOf(1, 2)), decode.apply("[[1,2]]"));
+    assertEquals(new ArrayList() {{ add(null); add(null); }}, decode.apply("[null,null]"));
+
+    // Elements spanning multiple chunks of input
+    String bigStr  = IntStream.range(0, 5000).mapToObj(i -> "ab\\\"c").collect(Collectors.joining());
+    String bigJson = IntStream.range(0, 10).mapToObj(i -> "{\"i\":" + i + ",\"s\":\"" + bigStr + "\"}").collect(Collectors.joining(",", "[", "]"));
+    List<Object> result = decode.apply(bigJson);
+    assertEquals(10, result.size());
+    assertEquals(9, ((Map)result.get(9)).get("i"));
+    assertEquals(bigStr.replace("\\\"", "\""), ((Map)result.get(9)).get("s"));
+    assertEquals(result, decodeAll.apply(new JsonStreamDecoder(new java.io.ByteArrayInputStream(bigJson.getBytes("UTF-8")))));
+    ByteBuffer buf = ByteBuffer.wrap(("[\"\u00e9\u4e2d\"," + bigJson + "]").getBytes("UTF-8"));
+    assertEquals(Utils.listOf("\u00e9\u4e2d", result), decodeAll.apply(new JsonStreamDecoder(buf)));
+    assertEquals(0, buf.position());
+
+    BiConsumer<String,String> error = (json, err) -> {
+      try {
+        decode.apply(json);
+        fail("Expected error for " + json);
+      }
+      catch (RuntimeError e) {
+        assertTrue(e.getMessage().toLowerCase().contains(err.toLowerCase()), "Error was " + e.getMessage());
+      }
+    };
+    error.accept("[1,2", "unexpected end of json decoding list");
+    error.accept("[1 2]", "expected ',' or ']'");
+    error.accept("[1] x", "extra data");
+    error.accept("[{\"a\":1]", "at json offset 8");
+    error.accept("[1,{\"a\":1", "unexpected end of json");
+
+    // Script level
+    JactlContext ctx    = JactlContext.create().build();
+    JactlScript  script = Compiler.compileScript("stream(nextJson).map{ it.i }.sum()", ctx, new HashMap<>());
+    assertEquals(45, script.run(new HashMap(), new java.io.StringReader(bigJson), (java.io.Writer)null).get());
+    assertEquals(45, script.run(new HashMap(), new java.io.StringReader(bigJson.replace("},{", "}\n{").replaceAll("^\\[|]$", "")), (java.io.Writer)null).get());
+    // Input arriving slowly so we need to block
+    java.io.PipedReader in  = new java.io.PipedReader();
+    java.io.PipedWriter src = new java.io.PipedWriter();
+    in.connect(src);
+    Future<Object> future = script.run(new HashMap(), in, (java.io.Writer)null);
+    for (int i = 0; i < 10; i++) {
+      src.write((i == 0 ? "[" : ",") + "{\"i\":" + i + "}");
+      src.flush();
+      Thread.sleep(5);
+    }
+    src.write("]");
+    src.close();
+    assertEquals(45, future.get());
+    script = Compiler.compileScript("nextJson(); nextJson()", ctx, new HashMap<>());
+    Object err = script.run(new HashMap(), new java.io.StringReader("[1 2]"), (java.io.Writer)null).get();
+    assertTrue(err instanceof RuntimeError && ((RuntimeError) err).getMessage().contains("Expected ','"), "Got " + err);
+  }
+
+  @Test public void jsonBytes() throws Exception {
+    Map<String,Object> obj  = Utils.mapOf("a", Utils.listOf(1, Long.MAX_VALUE, new BigDecimal("1.5")), "b", "\u00e9\"\n", "c", null);
+    String             json = Json.toJson(obj, null, 0);
+    byte[]             bytes = Json.toJsonBytes(obj);
+    assertArrayEquals(json.getBytes("UTF-8"), bytes);
+    assertEquals(obj, Json.fromJsonBytes(bytes));
+    byte[] padded = new byte[bytes.length + 4];
+    System.arraycopy(bytes, 0, padded, 2, bytes.length);
+    assertEquals(obj, Json.fromJsonBytes(padded, 2, bytes.length));
+    assertEquals("\u00e9", Json.fromJsonBytes("\"\u00e9\"".getBytes("UTF-8")));
+
+    java.io.ByteArrayOutputStream out = new java.io.ByteArrayOutputStream();
+    Json.writeJson(obj, out);
+    assertArrayEquals(bytes, out.toByteArray());
+
+    ByteBuffer buf = ByteBuffer.allocate(bytes.length + 1);
+    buf.put((byte)'x');
+    Json.writeJson(obj, buf);
+    assertEquals(bytes.length + 1, buf.position());
+    assertEquals(obj, Json.fromJsonBytes(buf.array(), 1, bytes.length));
+    assertThrows(java.nio.BufferOverflowException.class, () -> Json.writeJson(obj, ByteBuffer.allocate(3)));
+  }
+
   @Test public void classFromJson() {
     useAsyncDecorator = false;
     test("class X { byte i; }; X.fromJson('{\"i\":3}').i", (byte)3);
@@ -1290,6 +1485,261 @@ public class BuiltinFunctionTests2 extends BaseTest {
     checkpointTest("[[1,2,3],[4,5,6]].transpose().map{ _checkpoint(it) }.size()", 3L, 3L);
   }
   
+  @Test public void checkpointDeltas() throws ExecutionException, InterruptedException {
+    if (!isAsync) {
+      return;
+    }
+    List<byte[]> checkpoints = new ArrayList<>();
+    boolean[]    recording   = { true };
+    jactlEnv = new DefaultEnv() {
+      @Override public void saveCheckpoint(UUID id, int checkpointId, byte[] checkpoint, String source, int offset, Object result, Consumer<Object> resumer) {
+        if (recording[0]) { checkpoints.add(checkpoint); }
+        resumer.accept(result);
+      }
+      @Override public void saveCheckpointDelta(UUID id, int checkpointId, byte[] delta, String source, int offset, Object result, Consumer<Object> resumer) {
+        saveCheckpoint(id, checkpointId, delta, source, offset, result, resumer);
+      }
+    };
+    JactlContext context = JactlContext.create().environment(jactlEnv).checkpointDeltas(3).build();
+    JactlScript  script  = Jactl.compileScript("def big = 1000.map{ [id:it, name:\"name$it\"] }; def total = 0\n" +
+                                               "5.each{ total += it; checkpoint{ total }{ -total } }\n" +
+                                               "\"$total:${big.size()}:${big[999].name}\"", Utils.mapOf(), context);
+    assertEquals("10:1000:name999", script.eval(Utils.mapOf()));
+    recording[0] = false;
+    assertEquals(5, checkpoints.size());
+    assertEquals(Utils.listOf(false, true, true, true, false), checkpoints.stream().map(Checkpointer::isDelta).collect(Collectors.toList()));
+    assertTrue(checkpoints.get(1).length * 10 < checkpoints.get(0).length);
+    for (int i = 1; i <= checkpoints.size(); i++) {
+      CompletableFuture result = new CompletableFuture();
+      List<byte[]> recoverFrom = checkpoints.subList(i == 5 ? 4 : 0, i);
+      context.recoverCheckpoint(recoverFrom, value -> result.complete(value));
+      assertEquals("10:1000:name999", result.get());
+    }
+    assertThrows(IllegalArgumentException.class, () -> context.compactCheckpoints(checkpoints.subList(1, 3)));
+  }
+
+  @Test public void checkpointDeltasSameLength() throws ExecutionException, InterruptedException {
+    if (!isAsync) {
+      return;
+    }
+    // Changed objects whose encoded form has the same length must still be detected
+    List<byte[]> checkpoints = new ArrayList<>();
+    jactlEnv = new DefaultEnv() {
+      @Override public void saveCheckpoint(UUID id, int checkpointId, byte[] checkpoint, String source, int offset, Object result, Consumer<Object> resumer) {
+        checkpoints.add(checkpoint);
+        resumer.accept(result);
+      }
+      @Override public void saveCheckpointDelta(UUID id, int checkpointId, byte[] delta, String source, int offset, Object result, Consumer<Object> resumer) {
+        saveCheckpoint(id, checkpointId, delta, source, offset, result, resumer);
+      }
+    };
+    JactlContext context = JactlContext.create().environment(jactlEnv).checkpointDeltas(5).build();
+    JactlScript  script  = Jactl.compileScript("def big = 100.map{ [it, 'abc'] }; def small = [1,2,3]; def x = 0\n" +
+                                               "4.each{ i -> small[1] += 1; big[50][1] = 'xy' + i; x += checkpoint{ i }{ 100 * (i + 1) } }\n" +
+                                               "\"${small}:${big[50]}:${big.size()}:$x\"", Utils.mapOf(), context);
+    assertEquals("[1, 6, 3]:[50, 'xy3']:100:6", script.eval(Utils.mapOf()));
+    assertEquals(4, checkpoints.size());
+    assertEquals(Utils.listOf(false, true, true, true), checkpoints.stream().map(Checkpointer::isDelta).collect(Collectors.toList()));
+    for (int i = 1; i < checkpoints.size(); i++) {
+      assertTrue(checkpoints.get(i).length * 5 < checkpoints.get(0).length);
+    }
+    // Recover closure result shows which iteration state was restored from
+    CompletableFuture result = new CompletableFuture();
+    context.recoverCheckpoint(checkpoints, value -> result.complete(value));
+    assertEquals("[1, 6, 3]:[50, 'xy3']:100:403", result.get());
+    CompletableFuture result2 = new CompletableFuture();
+    context.recoverCheckpoint(checkpoints.subList(0, 2), value -> result2.complete(value));
+    assertEquals("[1, 6, 3]:[50, 'xy3']:100:205", result2.get());
+  }
+
+  @Test public void checkpointByteBuffer() throws ExecutionException, InterruptedException {
+    if (!isAsync) {
+      return;
+    }
+    List<byte[]> checkpoints = new ArrayList<>();
+    jactlEnv = new DefaultEnv() {
+      @Override public void saveCheckpoint(UUID id, int checkpointId, ByteBuffer checkpoint, Runnable release, String source, int offset, Object result, Consumer<Object> resumer) {
+        assertTrue(checkpoint.isReadOnly());
+        byte[] buf = new byte[checkpoint.remaining()];
+        checkpoint.get(buf);
+        checkpoints.add(buf);
+        release.run();
+        release.run();
+        resumer.accept(result);
+      }
+      @Override public void saveCheckpoint(UUID id, int checkpointId, byte[] checkpoint, String source, int offset, Object result, Consumer<Object> resumer) {
+        fail("Unexpected call to saveCheckpoint with byte[]");
+      }
+    };
+    JactlContext context = getJactlContext(false);
+    JactlScript  script  = Jactl.compileScript("def x = 0; 3.each{ x += it; checkpoint{ x }{ -x } }; x", Utils.mapOf(), context);
+    assertEquals(3, script.eval(Utils.mapOf()));
+    assertEquals(3, checkpoints.size());
+    CompletableFuture result = new CompletableFuture();
+    context.recoverCheckpoint(checkpoints.get(1), value -> result.complete(value));
+    assertEquals(3, result.get());
+  }
+
+  @Test public void checkpointCodec() throws ExecutionException, InterruptedException {
+    if (!isAsync) {
+      return;
+    }
+    CheckpointCodec customCodec = new CheckpointCodec() {
+      @Override public int id() { return 99; }
+      @Override public byte[] encode(byte[] buf, int offset, int length) { return CheckpointCodec.LZ.encode(buf, offset, length); }
+      @Override public byte[] decode(byte[] buf, int offset, int length, int decodedLength) { return CheckpointCodec.LZ.decode(buf, offset, length, decodedLength); }
+    };
+    String source = "def big = 1000.map{ [id:it, name:\"name$it\", value:'abcdefghijklmnopqrstuvwxyz'] }; def total = 0\n" +
+                    "3.each{ total += it; checkpoint{ total }{ -total } }\n" +
+                    "\"$total:${big.size()}:${big[999].name}\"";
+    Map<CheckpointCodec,Integer> sizes = new HashMap<>();
+    for (CheckpointCodec codec: Arrays.asList(null, CheckpointCodec.DEFLATE, CheckpointCodec.LZ, customCodec)) {
+      for (int deltas: new int[]{ 0, 5 }) {
+        List<byte[]> checkpoints = new ArrayList<>();
+        jactlEnv = new DefaultEnv() {
+          @Override public void saveCheckpoint(UUID id, int checkpointId, byte[] checkpoint, String source, int offset, Object result, Consumer<Object> resumer) {
+            checkpoints.add(checkpoint);
+            resumer.accept(result);
+          }
+          @Override public void saveCheckpointDelta(UUID id, int checkpointId, byte[] delta, String source, int offset, Object result, Consumer<Object> resumer) {
+            saveCheckpoint(id, checkpointId, delta, source, offset, result, resumer);
+          }
+        };
+        JactlContext context = JactlContext.create().environment(jactlEnv).checkpointCodec(codec).checkpointDeltas(deltas).build();
+        JactlScript  script  = Jactl.compileScript(source, Utils.mapOf(), context);
+        assertEquals("3:1000:name999", script.eval(Utils.mapOf()));
+        assertEquals(3, checkpoints.size());
+        assertEquals(deltas > 0, Checkpointer.isDelta(checkpoints.get(2)));
+        sizes.putIfAbsent(codec, checkpoints.get(0).length);
+        List<byte[]> recoverFrom = new ArrayList<>(deltas > 0 ? checkpoints : checkpoints.subList(2, 3));
+        CompletableFuture result = new CompletableFuture();
+        context.recoverCheckpoint(recoverFrom, value -> result.complete(value));
+        assertEquals("3:1000:name999", result.get());
+        CompletableFuture result2 = new CompletableFuture();
+        context.recoverCheckpoint(context.compactCheckpoints(recoverFrom), value -> result2.complete(value));
+        assertEquals("3:1000:name999", result2.get());
+      }
+    }
+    assertTrue(sizes.get(CheckpointCodec.DEFLATE) * 2 < sizes.get(null));
+    assertTrue(sizes.get(CheckpointCodec.LZ) < sizes.get(null));
+    assertThrows(IllegalArgumentException.class, () -> JactlContext.create().checkpointCodec(new CheckpointCodec() {
+      @Override public int id() { return 1; }
+      @Override public byte[] encode(byte[] buf, int offset, int length) { return null; }
+      @Override public byte[] decode(byte[] buf, int offset, int length, int decodedLength) { return null; }
+    }));
+  }
+
+  @Test public void checkpointCodecRoundTrip() {
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    CheckpointCodec bestSpeed = CheckpointCodec.deflate(java.util.zip.Deflater.BEST_SPEED);
+    for (CheckpointCodec codec: Arrays.asList(CheckpointCodec.DEFLATE, CheckpointCodec.LZ, bestSpeed)) {
+      for (int size: new int[]{ 0, 1, 3, 4, 5, 17, 1000, 100000 }) {
+        byte[] data = new byte[size + 2];
+        for (int i = 1; i <= size; i++) {
+          // Mix of repeated and random data
+          data[i] = (i / 50) % 2 == 0 ? (byte)(i % 7) : (byte)random.nextInt();
+        }
+        byte[] encoded = codec.encode(data, 1, size);
+        assertArrayEquals(Arrays.copyOfRange(data, 1, size + 1), codec.decode(encoded, 0, encoded.length, size));
+        // Decoding does not depend on compression level
+        assertArrayEquals(Arrays.copyOfRange(data, 1, size + 1), CheckpointCodec.builtin(codec.id()).decode(encoded, 0, encoded.length, size));
+      }
+    }
+    JactlContext.create().checkpointCodec(bestSpeed);
+    assertThrows(IllegalArgumentException.class, () -> CheckpointCodec.deflate(10));
+  }
+
+  @Test public void checkpointSharedStrings() throws ExecutionException, InterruptedException {
+    if (!isAsync) {
+      return;
+    }
+    // Keys created dynamically are different String instances but should only be encoded once
+    Function<String,Integer> checkpointSize = source -> {
+      List<byte[]> checkpoints = new ArrayList<>();
+      jactlEnv = new DefaultEnv() {
+        @Override public void saveCheckpoint(UUID id, int checkpointId, byte[] checkpoint, String source, int offset, Object result, Consumer<Object> resumer) {
+          checkpoints.add(checkpoint);
+          resumer.accept(result);
+        }
+      };
+      JactlContext context = getJactlContext(false);
+      JactlScript  script  = Jactl.compileScript(source + "; checkpoint{ x.map{ it.firstName + it.lastName }.join() }{ 'recovered' }", Utils.mapOf(), context);
+      assertEquals(1000.0 * "firstlast".length(), ((String)script.eval(Utils.mapOf())).length() * 1.0);
+      try {
+        CompletableFuture result = new CompletableFuture();
+        context.recoverCheckpoint(checkpoints.get(0), value -> result.complete(value));
+        assertEquals("recovered", result.get());
+      }
+      catch (InterruptedException | ExecutionException e) {
+        fail(e);
+      }
+      return checkpoints.get(0).length;
+    };
+    int constantKeys = checkpointSize.apply("def x = 1000.map{ [firstName:'first', lastName:'last'] }");
+    int dynamicKeys  = checkpointSize.apply("def f = 'first'; def l = 'last'; def x = 1000.map{ [(\"${f}Name\"):\"$f\", (\"${l}Name\"):\"$l\"] }");
+    assertTrue(dynamicKeys < constantKeys * 1.1, "dynamicKeys=" + dynamicKeys + ", constantKeys=" + constantKeys);
+  }
+
+  @Test public void checkpointLazyRestore() throws ExecutionException, InterruptedException {
+    if (!isAsync) {
+      return;
+    }
+    List<byte[]> checkpoints = new ArrayList<>();
+    jactlEnv = new DefaultEnv() {
+      @Override public void saveCheckpoint(UUID id, int checkpointId, byte[] checkpoint, String source, int offset, Object result, Consumer<Object> resumer) {
+        checkpoints.add(checkpoint);
+        resumer.accept(result);
+      }
+    };
+    String source = "class X { def list = [1,2,[3,4]]; Map m = [a:[b:[c:1]]] }\n" +
+                    "def shared = [1,2,3]; def m = [a:shared, b:shared, c:[x:1]]; m.self = m\n" +
+                    "def k = [([1,2]):'listKey']; def x = new X(); def big = 1000.map{ [id:it] }\n" +
+                    "def r = checkpoint{ 'commit' }{ 'recover' }\n" +
+                    "m.a[3] = 4\n" +
+                    "\"$r:${m.b.size()}:${m.self.c.x}:${k[[1,2]]}:${x.list[2][1]}:${x.m.a.b.c}:${big[999].id}:${m.self.self.a.size()}:${big.size()}\"";
+    JactlContext context = JactlContext.create().environment(jactlEnv).lazyRestore(true).build();
+    JactlScript  script  = Jactl.compileScript(source, Utils.mapOf(), context);
+    assertEquals("commit:4:1:listKey:4:1:999:4:1000", script.eval(Utils.mapOf()));
+    assertEquals(1, checkpoints.size());
+    for (int i = 0; i < 2; i++) {
+      CompletableFuture result = new CompletableFuture();
+      context.recoverCheckpoint(checkpoints.get(0), value -> result.complete(value));
+      assertEquals("recover:4:1:listKey:4:1:999:4:1000", result.get());
+    }
+  }
+
+  @Test public void checkpointBatch() throws ExecutionException, InterruptedException {
+    if (!isAsync) {
+      return;
+    }
+    List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+    List<byte[]>  saved      = Collections.synchronizedList(new ArrayList<>());
+    jactlEnv = new DefaultEnv() {
+      @Override public void saveCheckpoints(List<CheckpointRecord> records) {
+        batchSizes.add(records.size());
+        records.forEach(r -> saved.add(r.getCheckpoint()));
+        records.forEach(r -> scheduleEvent(null, r::resume));
+      }
+    };
+    JactlContext context = JactlContext.create().environment(jactlEnv).checkpointBatch(4, 200).build();
+    JactlScript  script  = Jactl.compileScript("def x = checkpoint{ 1 }{ 2 }; def y = checkpoint{ x + 1 }{ x + 2 }; y", Utils.mapOf(), context);
+    List<CompletableFuture<Object>> results = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      CompletableFuture<Object> result = new CompletableFuture<>();
+      script.run(Utils.mapOf(), result::complete);
+      results.add(result);
+    }
+    for (CompletableFuture<Object> result: results) {
+      assertEquals(2, result.get());
+    }
+    assertEquals(20, batchSizes.stream().mapToInt(i -> i).sum());
+    assertTrue(batchSizes.stream().allMatch(size -> size <= 4));
+    assertTrue(batchSizes.stream().anyMatch(size -> size > 1));
+    CompletableFuture<Object> recovered = new CompletableFuture<>();
+    context.recoverCheckpoint(saved.get(0), recovered::complete);
+    assertEquals(3, recovered.get());
+  }
+
   @Test public void checkpointWithInvocationContext() throws ExecutionException, InterruptedException {
     try {
       Jactl.function()
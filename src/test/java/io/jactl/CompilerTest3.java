@@ -18,6 +18,7 @@
 package io.jactl;
 
 import io.jactl.compiler.Compiler;
+import io.jactl.runtime.InvokeDynamicBootstrap;
 import io.jactl.runtime.NullError;
 import io.jactl.runtime.RuntimeError;
 import io.jactl.runtime.TimeoutError;
@@ -30,6 +31,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -177,6 +179,15 @@ public class CompilerTest3 extends BaseTest {
     testError("def f(m) { m.x == ('x'+m.x) as Decimal ? 1 : sleep(0,m.x) + sleep(0,f([x:m.x-1])) }; f([x:3])", "string value is not a valid decimal");
   }
 
+  @Test public void asyncResuspend() {
+    // Functions that suspend again after being resumed and deep recursion (Continuations are reused)
+    test("def f(n) { n == 0 ? sleep(0,1) : f(n - 1) + sleep(0,1) }; int t = 0; for (int i = 0; i < 5; i++) { t += f(20) }; t", 105);
+    test("def g(n) { if (n == 0) { int s = 0; for (int i = 0; i < 10; i++) { s += sleep(0,i) }; return s }; g(n - 1) }; g(20)", 45);
+    test("def f(x) { long a = sleep(0,x); String s = sleep(0,'s'); def l = [a, s]; double d = sleep(0,2D); int i = sleep(0,3); \"$a$s$l$d$i\" }; f(1) + f(2)", "1s[1, 's']2.032s[2, 's']2.03");
+    test("class X { int i = 1; def f(n) { n == 0 ? sleep(0,i) : f(n - 1) + sleep(0,i) } }; def x = new X(i:2); x.f(10) + x.f(sleep(0,5))", 34);
+    test("def f(n) { n == 0 ? [1].map{ sleep(0,it) }.sum() : f(n - 1) + [1,2].map{ sleep(0,it) }.sum() }; f(10)", 31);
+  }
+
   @Test public void keywordAsIdentifier() {
     testError("int for = 3", "expecting identifier");
     testError("int for(x){x}", "expecting identifier");
@@ -739,6 +750,39 @@ public class CompilerTest3 extends BaseTest {
     test("class X { static def f(a) { a }; }; [1, 1L, 1, 1, 1, 1L, 1L, 1L, 1D].map{ a -> X.f(a) }.sum()", 9D);
   }
 
+  @Test public void invokeDynamicMegamorphic() {
+    String values = "['abc', [1,2], [a:1], new int[3], new long[4], new String[5], [1,2,3].map{it}, 'x', new double[2], new Object[7], new byte[1], new Decimal[6], [x:1,y:2]]";
+    test("def r = []; " + values + ".each{ r <<= it.size() }; r", Utils.listOf(3,2,1,3,4,5,3,1,2,7,1,6,2));
+    test("def r = []; 2.each{ " + values + ".each{ r <<= it.size() } }; r.sum()", 80);
+    test("def r = []; [1, 2L, 3.0, 4D, 'a', [1], [a:1], (byte)5, 6, 7L, 'b', [2]].each{ r <<= it + it }; r",
+         Utils.listOf(2, 4L, new BigDecimal("6.0"), 8D, "aa", Utils.listOf(1,1), Utils.mapOf("a",1), (byte)10, 12, 14L, "bb", Utils.listOf(2,2)));
+    test("class X { def f() { 'X' } }; class Y { def f() { 'Y' } }; class Z { def f() { 'Z' } }; def r = []; 3.each{ [new X(), new Y(), new Z(), [f:{'M'}], new X()].each{ r <<= it.f() } }; r.join()",
+         "XYZMXXYZMXXYZMX");
+  }
+
+  @Test public void invokeDynamicStats() {
+    InvokeDynamicBootstrap.MaxDepthCallSite.trackStats(true);
+    try {
+      JactlScript script = Jactl.compileScript("def r = 0; ['abc', [1,2], [a:1], new int[3], new long[4], new String[5], [1,2,3].map{it}, 'x', new double[2], new Object[7], new byte[1]].each{ r += it.size() }; r", new HashMap<>());
+      assertEquals(32, script.eval(new HashMap<>()));
+      assertEquals(32, script.eval(new HashMap<>()));
+      List<InvokeDynamicBootstrap.MaxDepthCallSite> sizeSites = InvokeDynamicBootstrap.MaxDepthCallSite.getCallSites()
+                                                                                                       .stream()
+                                                                                                       .filter(cs -> cs.getName().equals("size"))
+                                                                                                       .collect(Collectors.toList());
+      assertEquals(1, sizeSites.size());
+      InvokeDynamicBootstrap.MaxDepthCallSite cs = sizeSites.get(0);
+      assertTrue(cs.isMegamorphic());
+      assertEquals(1, cs.getLineNum());
+      assertTrue(cs.getRelinks() > cs.getDepth());
+      assertTrue(cs.getMegamorphicClasses() > 0);
+      assertTrue(cs.getMegamorphicClasses() <= cs.getMegamorphicMisses());
+    }
+    finally {
+      InvokeDynamicBootstrap.MaxDepthCallSite.trackStats(false);
+    }
+  }
+
   @Test public void invokeDynamic2() {
     test("def f(byte x) { x }; def g = f; g((byte)200) == 200", true);
     test("class X { def f(byte x) { x } }; def x = new X(); x.f((byte)200) == 200", true);
@@ -17,12 +17,18 @@
 
 package io.jactl;
 
+import io.jactl.runtime.PatternCache;
+import io.jactl.runtime.RegexMatcher;
+import io.jactl.runtime.RuntimeError;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.parallel.Execution;
 import org.junit.jupiter.api.parallel.ExecutionMode;
 
 import java.util.function.BiConsumer;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
 
 public class CompilerTests2 extends BaseTest {
 
@@ -685,6 +691,83 @@ public class CompilerTests2 extends BaseTest {
     testError("def x = 0; int i = 0; def f() { die if i++ > 0; '123' }; while(f() =~ /(\\d)/ng) { x+= $1 }; x", "script death");
   }
 
+  @Test public void regexPatternCache() {
+    PatternCache cache = new PatternCache(3, 20);
+    Pattern      abc   = cache.get("abc", "", null, 0);
+    assertSame(abc, cache.get("abc", "", null, 0));
+    assertNotSame(abc, cache.get("abc", "i", null, 0));
+    assertTrue(cache.get("abc", "i", null, 0).matcher("ABC").matches());
+    assertEquals(2, cache.size());
+    assertEquals(2, cache.getHits());
+    assertEquals(2, cache.getMisses());
+    cache.get("x", "", null, 0);
+    cache.get("y", "", null, 0);
+    assertEquals(3, cache.size());
+    assertEquals(1, cache.getEvictions());
+    assertSame(abc, cache.get("abc", "", null, 0));         // Referenced entries survive eviction
+    cache.get("0123456789012345", "", null, 0);              // Exceeds weight so forces more evictions
+    assertTrue(cache.getWeight() <= 20);
+    cache.get("012345678901234567890", "", null, 0);         // Too big to cache
+    assertTrue(cache.getWeight() <= 20);
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getWeight());
+    try {
+      cache.get("abc", "x", null, 0);
+      fail("Expected error");
+    }
+    catch (RuntimeError e) {
+      assertTrue(e.getMessage().toLowerCase().contains("unexpected regex modifier"));
+    }
+    test("def x = 0; for (int i = 0; i < 50; i++) { x += 'a' + i =~ /a${i % 7}$/ ? 1 : 0 }; x", 7);
+    test("def x = 0; for (int i = 0; i < 50; i++) { x += 'A' + i =~ /a${i % 7}$/i ? 1 : 0 }; x", 7);
+    testError("def x = '['; 'a' =~ /$x/", "pattern error");
+
+    // Clock hand carries on from where previous eviction stopped
+    cache = new PatternCache(2, 100);
+    Pattern a = cache.get("a", "", null, 0);
+    cache.get("a", "", null, 0);
+    cache.get("b", "", null, 0);
+    cache.get("c", "", null, 0);                              // Clears referenced flag of "a" and evicts "b"
+    assertEquals(1, cache.getEvictions());
+    cache.get("d", "", null, 0);                              // Evicts "c" rather than starting again at "a"
+    assertEquals(2, cache.getEvictions());
+    assertSame(a, cache.get("a", "", null, 0));
+
+    // Deprecated size setting applies to shared cache
+    int savedSize = RegexMatcher.patternCacheSize;
+    try {
+      RegexMatcher.patternCache.clear();
+      RegexMatcher.patternCacheSize = 5;
+      for (int i = 0; i < 20; i++) {
+        RegexMatcher.patternCache.get("x" + i, "", null, 0);
+      }
+      assertEquals(5, RegexMatcher.patternCache.size());
+    }
+    finally {
+      RegexMatcher.patternCacheSize = savedSize;
+    }
+  }
+
+  @Test public void regexConstPattern() {
+    test("def x = 0; for (int i = 0; i < 5; i++) { x += 'abc' =~ /B/i ? 1 : 0; x += 'abc' =~ /B/ ? 1 : 0 }; x", 5);
+    test("def x = 0; for (int i = 0; i < 5; i++) { x += ('a' + i) =~ /a[0-2]/ ? 1 : 0 }; x", 3);
+    test("def f(x) { x =~ /^([a-z]+)(\\d+)$/n ? $1 + $2 : null }; [f('ab12'), f('x1'), f('12')]", Utils.listOf("ab12", "x1", null));
+    test("def f(x) { x =~ /^([a-z]+)(\\d+)$/n ? $2 + 1 : null }; [f('ab12'), f('x1'), f('12')]", Utils.listOf(13L, 2L, null));
+    test("String x = 'a1b2c3'; def y = ''; while (x =~ /([a-z])(\\d)/g) { y += $2 + $1 }; y", "1a2b3c");
+    test("def it = 'a1b2c3'; def y = ''; while (/([A-Z])(\\d)/ig) { y += $2 + $1 }; y", "1a2b3c");
+    test("def f(x) { x =~ s/a/b/g }; [f('aa'), f('cac')]", Utils.listOf("bb", "cbc"));
+    test("def f(x) { x =~ s/A/b/ir }; [f('aa'), f('cac')]", Utils.listOf("ba", "cbc"));
+    test("def f(x) { x =~ s/(a)/${$1 + $1}/g }; [f('aa'), f('cac')]", Utils.listOf("aaaa", "caac"));
+    test("def f(x) { x =~ s/(a)/${sleep(0,$1) + $1}/g }; [f('aa'), f('cac')]", Utils.listOf("aaaa", "caac"));
+    test("class X { def f(x) { x =~ /^X/ } }; [new X().f('Xy'), new X().f('yX')]", Utils.listOf(true, false));
+    test("def p = 'b'; 'abc' =~ /a${p}c/", true);
+    test("def x = 'abc'; x =~ /a${'b'}c/", true);
+    test("def x = 'abc'; x =~ 'a.c'", true);
+    testError("'a' =~ /[/", "pattern error");
+    test("def f(x) { x =~ /[/ }; 1", 1);
+  }
+
   @Test public void regexSubstitute() {
     test("def it = 'abc'; s/a/x/", "xbc");
     test("def it = 'abc'; s/a/x/; it", "xbc");
@@ -3163,6 +3246,31 @@ public class CompilerTests2 extends BaseTest {
     testError("def x = [a:1]; x - 1", "cannot subtract");
   }
 
+  @Test public void persistentCollections() {
+    persistentCollections = true;
+    listAdd();
+    listAddSingle();
+    mapAdd();
+    mapSubtract();
+    // Large enough for multiple levels in the tries (too many checkpoints for checkpoint tests)
+    skipCheckpointTests = true;
+    test("def x = []; for (int i = 0; i < 40; i++) { x = x + 50.map{ it + i * 50 } }; x = x + 2000; x.size() == 2001 && x.allMatch{ x[it] == it }", true);
+    test("def x = 1100.map{ it }; for (int i = 1100; i < 1200; i++) { x = x << i }; x.sum()", 719400);
+    test("def x = [:]; for (int i = 0; i < 20; i++) { x = x + (100.map{ ['k'+(it + i * 100), it + i * 100] } as Map) }; x.size() == 2000 && x.map{ k,v -> v }.join(',') == 2000.map{ it }.join(',') && x.map{ k,v -> v }.allMatch{ x['k'+it] == it }", true);
+    test("def x = [:] + (2000.map{ ['k'+it, it] } as Map); x = x - 2000.filter{ it % 2 == 0 }.map{ 'k'+it }; x.size() == 1000 && x.map{ k,v -> v }.allMatch{ it % 2 == 1 } && !x.k2 && x.k3 == 3", true);
+    skipCheckpointTests = false;
+    test("def x = [1,2,3]; def y = x + 4; def z = x + 5; y[0] = 0; [x, y, z]", Utils.listOf(Utils.listOf(1,2,3), Utils.listOf(0,2,3,4), Utils.listOf(1,2,3,5)));
+    test("def x = 100.map{ it }; def y = x + 100; y[50] = -1; y.remove(0); [x[50], y[49], x.size(), y.size()]", Utils.listOf(50,-1,100,100));
+    test("def x = [1,2]; x = x + x; x = x + x; x", Utils.listOf(1,2,1,2,1,2,1,2));
+    test("def x = [a:1,b:2,c:3]; def y = x + [a:4]; def z = x - ['b']; z.d = 5; [x, y, z]",
+         Utils.listOf(Utils.mapOf("a",1,"b",2,"c",3), Utils.mapOf("a",4,"b",2,"c",3), Utils.mapOf("a",1,"c",3,"d",5)));
+    test("def x = [a:1,b:2] + [c:3]; x.b = 4; x.remove('a'); x.a = 5; x", Utils.mapOf("b",4,"c",3,"a",5));
+    test("def x = [a:1,b:2] + [c:3]; x.map{ k,v -> k + v }.join(',') + ':' + x.toString()", "a1,b2,c3:[a:1, b:2, c:3]");
+    test("def x = [a:[1,2]] + [b:[c:3]]; x.toJson()", "{\"a\":[1,2],\"b\":{\"c\":3}}");
+    test("def x = ([1,2] + 3).sort{ a,b -> b <=> a }; x", Utils.listOf(3,2,1));
+    test("def x = [Aa:1] + [BB:2] + [AaAa:3, BBBB:4, AaBB:5]; def y = x - ['BB','AaBB']; [x.BB, x.AaBB, y.Aa, y.BB, y.AaAa, y.BBBB, y.AaBB]", Utils.listOf(2,5,1,null,3,4,null));
+  }
+
   @Test public void classNameErrors() {
     testError("class X{}\nX\n1", "class name not allowed");
     testError("class X{}; ++X", "class name not allowed");
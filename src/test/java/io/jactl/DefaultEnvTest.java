@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2022-2026 James Crawford
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package io.jactl;
+
+import io.jactl.runtime.TimerWheel;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DefaultEnvTest {
+
+  @Test public void threadAffinity() throws ExecutionException, InterruptedException {
+    DefaultEnv env = new DefaultEnv();
+    assertNull(env.getThreadContext());
+
+    CompletableFuture<Object> context = new CompletableFuture<>();
+    CompletableFuture<Thread> thread  = new CompletableFuture<>();
+    env.scheduleEvent(null, () -> {
+      context.complete(env.getThreadContext());
+      thread.complete(Thread.currentThread());
+    });
+    assertNotNull(context.get());
+
+    for (int i = 0; i < 20; i++) {
+      CompletableFuture<Thread> event = new CompletableFuture<>();
+      CompletableFuture<Thread> timer = new CompletableFuture<>();
+      env.scheduleEvent(context.get(), () -> event.complete(Thread.currentThread()));
+      env.scheduleEvent(context.get(), () -> timer.complete(Thread.currentThread()), 1);
+      assertSame(thread.get(), event.get());
+      assertSame(thread.get(), timer.get());
+    }
+
+    // Timers with no thread context run on the current event loop
+    CompletableFuture<Thread> timer = new CompletableFuture<>();
+    env.scheduleEvent(context.get(), () -> env.scheduleEvent(() -> timer.complete(Thread.currentThread()), 1));
+    assertSame(thread.get(), timer.get());
+  }
+
+  @Test public void timerWheel() throws ExecutionException, InterruptedException {
+    TimerWheel wheel = new TimerWheel(1, "test-timer");
+    try {
+      long[]                        delays = { 0, 1, 5, 63, 64, 65, 130, 700 };
+      List<CompletableFuture<Long>> fired  = new ArrayList<>();
+      long                          start  = System.nanoTime();
+      for (long delay: delays) {
+        CompletableFuture<Long> future = new CompletableFuture<>();
+        wheel.schedule(() -> future.complete(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)), delay, Runnable::run);
+        fired.add(future);
+      }
+      CompletableFuture<Long> cancelled = new CompletableFuture<>();
+      TimerWheel.Timer        timer     = wheel.schedule(() -> cancelled.complete(0L), 50, Runnable::run);
+      timer.cancel();
+      assertTrue(timer.isCancelled());
+      for (int i = 0; i < delays.length; i++) {
+        assertTrue(fired.get(i).get() >= delays[i], "delay=" + delays[i] + ", fired=" + fired.get(i).get());
+      }
+      assertFalse(cancelled.isDone());
+    }
+    finally {
+      wheel.shutdown();
+    }
+  }
+
+  @Test public void timerWheelBatch() throws ExecutionException, InterruptedException {
+    // Large tick so that all timers are due on the same tick
+    TimerWheel wheel = new TimerWheel(100, "test-timer");
+    try {
+      AtomicInteger              batches  = new AtomicInteger();
+      Executor                   executor = batch -> { batches.incrementAndGet(); batch.run(); };
+      List<CompletableFuture<?>> tasks    = new ArrayList<>();
+      for (int i = 0; i < 100; i++) {
+        CompletableFuture<Object> task = new CompletableFuture<>();
+        wheel.schedule(() -> task.complete(null), 1, executor);
+        tasks.add(task);
+      }
+      for (CompletableFuture<?> task: tasks) {
+        task.get();
+      }
+      // Timers scheduled for the same tick on the same executor are passed as a single batch
+      assertTrue(batches.get() < tasks.size());
+    }
+    finally {
+      wheel.shutdown();
+    }
+  }
+
+  @Test public void timerWheelThread() throws ExecutionException, InterruptedException {
+    TimerWheel wheel = new TimerWheel(1, "test-timer-lazy");
+    try {
+      // Timer thread not started until first timer scheduled and does not stop JVM from exiting
+      assertFalse(wheel.isStarted());
+      CompletableFuture<Thread> timerThread = new CompletableFuture<>();
+      wheel.schedule(() -> {}, 1, task -> { timerThread.complete(Thread.currentThread()); task.run(); });
+      assertTrue(wheel.isStarted());
+      assertEquals("test-timer-lazy", timerThread.get().getName());
+      assertTrue(timerThread.get().isDaemon());
+    }
+    finally {
+      wheel.shutdown();
+    }
+  }
+}
@@ -17,10 +17,21 @@
 
 package io.jactl;
 
+import io.jactl.compiler.ScriptCache;
+import io.jactl.runtime.InvokeDynamicBootstrap;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -89,6 +100,290 @@ class JactlTest {
     assertEquals(221, result);
   }
 
+  @Test void globalsLayout() {
+    HashMap<String, Object> globals = new HashMap<String,Object>();
+    globals.put("x", 0);
+    globals.put("y", 0L);
+    globals.put("m", null);
+    JactlContext  context = JactlContext.create().async(false).build();
+    JactlScript   script  = Jactl.compileScript("def f() { x * 2 }; y += x; m.a = f(); [x, y, m]", globals, context);
+    GlobalsLayout layout  = script.getGlobalsLayout();
+    assertEquals(3, layout.size());
+    assertTrue(layout.getNames().containsAll(Utils.listOf("x", "y", "m")));
+    assertEquals(-1, layout.slotOf("z"));
+
+    GlobalsLayout.Globals values = layout.newGlobals().set(layout.slotOf("x"), 3).set(layout.slotOf("y"), 4L).set(layout.slotOf("m"), new HashMap<>());
+    assertEquals(Utils.listOf(3, 7L, Utils.mapOf("a", 6)), script.eval(values));
+    assertEquals(7L, values.get("y"));
+    assertEquals(7L, values.get(layout.slotOf("y")));
+    assertEquals(3, values.size());
+
+    // Normal Map still works
+    HashMap<String, Object> map = new HashMap<String,Object>(Utils.mapOf("x", 3, "y", 4L, "m", new HashMap<>()));
+    assertEquals(Utils.listOf(3, 7L, Utils.mapOf("a", 6)), script.eval(map));
+
+    // Globals from a different layout fall back to lookup by name
+    GlobalsLayout.Globals other = new GlobalsLayout("m", "q", "x", "y").newGlobals(Utils.mapOf("x", 3, "y", 4L, "m", new HashMap<>(), "z", 1));
+    assertEquals(Utils.listOf(3, 7L, Utils.mapOf("a", 6)), script.eval(other));
+    assertEquals(7L, other.get("y"));
+    assertEquals(1, other.get("z"));
+    assertFalse(other.containsKey("q"));
+    assertEquals(Utils.mapOf("m", Utils.mapOf("a", 6), "x", 3, "y", 7L, "z", 1), new HashMap<>(other));
+
+    // Missing value
+    GlobalsLayout.Globals missing = layout.newGlobals().set(layout.slotOf("y"), 4L);
+    try {
+      script.eval(missing);
+      fail("Expected error");
+    }
+    catch (JactlError e) {
+      assertTrue(e.getMessage().toLowerCase().contains("null value for global variable"));
+    }
+
+    assertEquals(0, Jactl.compileScript("3 + 4", new HashMap<>(), context).getGlobalsLayout().size());
+  }
+
+  @Test void compiledCodeCache() throws IOException {
+    String                  dir     = Files.createTempDirectory("jactl-cache").toString();
+    HashMap<String, Object> globals = new HashMap<String,Object>(Utils.mapOf("x", 3));
+    String                  source  = "class X { int i = 2; def f() { sleep(0, i) } }; def y = new X().f(); x + y + new Z().z";
+
+    JactlContext context = JactlContext.create().compiledCodeCache(dir).build();
+    Jactl.compileClass("class Z { int z = 7 }", context);
+    assertEquals(12, Jactl.compileScript(source, globals, context).eval(globals));
+    assertEquals(0, context.getCompiledCodeCache().getHits());
+    assertEquals(1, context.getCompiledCodeCache().getMisses());
+
+    // New context with same classes and options loads from cache
+    JactlContext context2 = JactlContext.create().compiledCodeCache(dir).build();
+    Jactl.compileClass("class Z { int z = 7 }", context2);
+    JactlScript  script   = Jactl.compileScript(source, globals, context2);
+    assertEquals(12, script.eval(globals));
+    assertEquals(12, script.eval(Utils.mapOf("x", 3)));
+    assertEquals(1, context2.getCompiledCodeCache().getHits());
+
+    // Different global types, different options, or different class source all mean a miss
+    HashMap<String, Object> strGlobals = new HashMap<String,Object>(Utils.mapOf("x", "a"));
+    assertEquals("a27", Jactl.compileScript(source, strGlobals, context2).eval(strGlobals));
+    assertEquals(1, context2.getCompiledCodeCache().getHits());
+    JactlContext context3 = JactlContext.create().compiledCodeCache(dir).async(false).build();
+    Jactl.compileClass("class Z { int z = 7 }", context3);
+    assertEquals(12, Jactl.compileScript(source, globals, context3).eval(globals));
+    assertEquals(0, context3.getCompiledCodeCache().getHits());
+    JactlContext context4 = JactlContext.create().compiledCodeCache(dir).build();
+    Jactl.compileClass("class Z { int z = 8 }", context4);
+    assertEquals(13, Jactl.compileScript(source, globals, context4).eval(globals));
+    assertEquals(0, context4.getCompiledCodeCache().getHits());
+
+    // Corrupt entry is treated as a miss and is rewritten
+    File[] files = new File(dir).listFiles();
+    assertEquals(4, files.length);
+    Arrays.stream(files).forEach(f -> {
+      try { Files.write(f.toPath(), new byte[]{ 1, 2, 3 }); } catch (IOException e) { throw new RuntimeException(e); }
+    });
+    JactlContext context5 = JactlContext.create().compiledCodeCache(dir).build();
+    Jactl.compileClass("class Z { int z = 7 }", context5);
+    assertEquals(12, Jactl.compileScript(source, globals, context5).eval(globals));
+    assertEquals(1, context5.getCompiledCodeCache().getErrors());
+    JactlContext context6 = JactlContext.create().compiledCodeCache(dir).build();
+    Jactl.compileClass("class Z { int z = 7 }", context6);
+    assertEquals(12, Jactl.compileScript(source, globals, context6).eval(globals));
+    assertEquals(1, context6.getCompiledCodeCache().getHits());
+
+    context6.getCompiledCodeCache().clear();
+    assertEquals(0, new File(dir).listFiles().length);
+    new File(dir).delete();
+  }
+
+  @Test void compiledCodeCacheWithClasses() throws Exception {
+    String dir    = Files.createTempDirectory("jactl-cache").toString();
+    String source = "class X { int i = 2; def f() { i } }; def x = new X(); x.f() + x.i";
+    for (int i = 0; i < 2; i++) {
+      JactlContext context = JactlContext.create().compiledCodeCache(dir).build();
+      assertEquals(4, Jactl.compileScript(source, Utils.mapOf(), context).eval(Utils.mapOf()));
+      assertEquals(i, context.getCompiledCodeCache().getHits());
+    }
+
+    // Checkpoint saved by one context can be restored by another that loads script from the cache
+    List<byte[]> checkpoints = new ArrayList<>();
+    JactlEnv env = new DefaultEnv() {
+      @Override public void saveCheckpoint(UUID id, int checkpointId, byte[] checkpoint, String source, int offset, Object result, Consumer<Object> resumer) {
+        checkpoints.add(checkpoint);
+        resumer.accept(result);
+      }
+    };
+    String checkpointSource = "class Y { int i = 3; def f() { i } }; def y = new Y(); checkpoint{ y.f() }{ def z = y; z.f() + z.i }";
+    JactlContext context = JactlContext.create().environment(env).compiledCodeCache(dir).build();
+    assertEquals(3, Jactl.compileScript(checkpointSource, Utils.mapOf(), context).eval(Utils.mapOf()));
+    assertEquals(1, checkpoints.size());
+    JactlContext context2 = JactlContext.create().environment(env).compiledCodeCache(dir).scriptCache(10, 1_000_000).build();
+    Jactl.compileScript(checkpointSource, Utils.mapOf(), context2);
+    assertEquals(1, context2.getCompiledCodeCache().getHits());
+    CompletableFuture<Object> result = new CompletableFuture<>();
+    context2.recoverCheckpoint(checkpoints.get(0), result::complete);
+    assertEquals(6, result.get());
+
+    context2.getCompiledCodeCache().clear();
+    new File(dir).delete();
+  }
+
+  @Test void compiledCodeCacheHostClassLookup() throws IOException {
+    String dir    = Files.createTempDirectory("jactl-cache").toString();
+    String source = "java.lang.Integer.parseInt('12')";
+    JactlContext context = JactlContext.create().compiledCodeCache(dir).allowHostAccess(true).allowHostClassLookup(true).build();
+    assertEquals(12, Jactl.compileScript(source, Utils.mapOf(), context).eval(Utils.mapOf()));
+
+    // Context that does not allow the host class must not load the cached code
+    JactlContext context2 = JactlContext.create().compiledCodeCache(dir).allowHostAccess(true).allowHostClassLookup(false).build();
+    assertThrows(CompileError.class, () -> Jactl.compileScript(source, Utils.mapOf(), context2));
+    assertEquals(0, context2.getCompiledCodeCache().getHits());
+
+    // Different predicate that still allows the class can share the cached code
+    JactlContext context3 = JactlContext.create().compiledCodeCache(dir).allowHostAccess(true).allowHostClassLookup(name -> name.startsWith("java.lang.")).build();
+    assertEquals(12, Jactl.compileScript(source, Utils.mapOf(), context3).eval(Utils.mapOf()));
+    assertEquals(1, context3.getCompiledCodeCache().getHits());
+
+    // Different setting for localAliasesForGlobals means a miss
+    JactlContext context4 = JactlContext.create().compiledCodeCache(dir).allowHostAccess(true).allowHostClassLookup(true).localAliasesForGlobals(!context.localAliasesForGlobals()).build();
+    assertEquals(12, Jactl.compileScript(source, Utils.mapOf(), context4).eval(Utils.mapOf()));
+    assertEquals(0, context4.getCompiledCodeCache().getHits());
+
+    context4.getCompiledCodeCache().clear();
+    new File(dir).delete();
+  }
+
+  @Test void scriptCache() {
+    JactlContext context = JactlContext.create().scriptCache(3, 1_000_000).build();
+    ScriptCache  cache   = context.getScriptCache();
+    String       source  = "class X { int i = 2; def f() { sleep(0, i) } }; x + new X().f()";
+
+    JactlScript script = Jactl.compileScript(source, Utils.mapOf("x", 1), context);
+    assertEquals(3, script.eval(Utils.mapOf("x", 1)));
+    assertTrue(script.getCompiledClass().getClassLoader() instanceof JactlContext.ScriptClassLoader);
+    assertSame(script, Jactl.compileScript(source, Utils.mapOf("x", 2), context));
+    assertEquals(1, cache.getHits());
+    assertEquals(1, cache.size());
+    assertTrue(cache.getBytes() > 0);
+
+    // Different global types or compiling a class means a miss
+    assertEquals("a2", Jactl.compileScript(source, Utils.mapOf("x", "a"), context).eval(Utils.mapOf("x", "a")));
+    Jactl.compileClass("class Z { int z = 7 }", context);
+    JactlScript script2 = Jactl.compileScript(source, Utils.mapOf("x", 2), context);
+    assertNotSame(script, script2);
+    assertEquals(3, cache.size());
+    assertEquals(0, cache.getEvictions());
+    // Not run until after it has been evicted
+    JactlScript script3 = Jactl.compileScript("class Q { int i = 5; def f() { i } }; def q = new Q(); q.f() + q.i + x", Utils.mapOf("x", 2), context);
+
+    // Evict least recently used once over maximum number of scripts
+    for (int i = 0; i < 5; i++) {
+      assertEquals(i + 2, Jactl.compileScript("class X { int i = " + i + " }; x + new X().i", Utils.mapOf("x", 2), context).eval(Utils.mapOf("x", 2)));
+    }
+    assertEquals(3, cache.size());
+    assertEquals(6, cache.getEvictions());
+    // Evicted scripts still run
+    assertEquals(4, script.eval(Utils.mapOf("x", 2)));
+    assertEquals(4, script2.eval(Utils.mapOf("x", 2)));
+    assertEquals(12, script3.eval(Utils.mapOf("x", 2)));
+
+    // Evict based on size of byte code
+    JactlContext context2 = JactlContext.create().scriptCache(100, 1).build();
+    assertEquals(3, Jactl.compileScript(source, Utils.mapOf("x", 1), context2).eval(Utils.mapOf("x", 1)));
+    assertEquals(3, Jactl.compileScript(source, Utils.mapOf("x", 1), context2).eval(Utils.mapOf("x", 1)));
+    assertEquals(0, context2.getScriptCache().size());
+    assertEquals(2, context2.getScriptCache().getEvictions());
+
+    cache.clear();
+    assertEquals(0, cache.size());
+    assertEquals(0, cache.getBytes());
+  }
+
+  @Test void scriptCacheMegamorphic() {
+    InvokeDynamicBootstrap.MaxDepthCallSite.trackStats(true);
+    try {
+      JactlContext context = JactlContext.create().scriptCache(2, 1_000_000).build();
+      Jactl.compileClass("class Sizer { static def size(x) { x.size() } }", context);
+      for (int i = 0; i < 20; i++) {
+        assertEquals(i, Jactl.compileScript("class X { def size() { " + i + " } }; Sizer.size(new X())", new HashMap<>(), context).eval(new HashMap<>()));
+      }
+      InvokeDynamicBootstrap.MaxDepthCallSite cs = InvokeDynamicBootstrap.MaxDepthCallSite.getCallSites()
+                                                                                         .stream()
+                                                                                         .filter(site -> site.getName().equals("size") && site.getSource().contains("Sizer"))
+                                                                                         .findFirst()
+                                                                                         .get();
+      assertTrue(cs.isMegamorphic());
+      // Classes of evicted scripts are no longer cached
+      assertTrue(cs.getMegamorphicClasses() <= 2, "megamorphicClasses=" + cs.getMegamorphicClasses());
+    }
+    finally {
+      InvokeDynamicBootstrap.MaxDepthCallSite.trackStats(false);
+    }
+  }
+
+  @Test void scriptCacheRestoreEvicted() throws Exception {
+    List<byte[]> checkpoints = new ArrayList<>();
+    JactlEnv env = new DefaultEnv() {
+      @Override public void saveCheckpoint(UUID id, int checkpointId, byte[] checkpoint, String source, int offset, Object result, Consumer<Object> resumer) {
+        checkpoints.add(checkpoint);
+        resumer.accept(result);
+      }
+    };
+    JactlContext context = JactlContext.create().environment(env).scriptCache(1, 1_000_000).build();
+    JactlScript  script  = Jactl.compileScript("class Y { int i = 3; def f() { i } }; def y = new Y(); checkpoint{ y.f() }{ def z = y; z.f() + z.i }", Utils.mapOf(), context);
+    assertEquals(3, script.eval(Utils.mapOf()));
+    assertEquals(1, checkpoints.size());
+
+    // Checkpoint can still be restored once script has been evicted
+    Jactl.compileScript("1", Utils.mapOf(), context);
+    assertEquals(1, context.getScriptCache().getEvictions());
+    CompletableFuture<Object> result = new CompletableFuture<>();
+    context.recoverCheckpoint(checkpoints.get(0), result::complete);
+    assertEquals(6, result.get());
+  }
+
+  @Test void compileAll() {
+    JactlContext      context = JactlContext.create().build();
+    List<JactlSource> sources = new ArrayList<>();
+    // Classes in reverse order of dependency
+    sources.add(JactlSource.jactlClass("package a.b.c; class Z extends Y { int z = 3 }"));
+    sources.add(JactlSource.jactlClass("package a.b.c; class Y extends X { int y = 2 }"));
+    sources.add(JactlSource.jactlClass("package a.b.c; class X { int x = 1 }"));
+    for (int i = 0; i < 50; i++) {
+      sources.add(JactlSource.script("import a.b.c.Z; def z = new Z(); class W { int w = " + i + " }; z.x + z.y + z.z + new W().w + sleep(0, n)", Utils.mapOf("n", 0)));
+    }
+    List<JactlScript> scripts = Jactl.compileAll(sources, context);
+    assertEquals(sources.size(), scripts.size());
+    assertNull(scripts.get(0));
+    for (int i = 0; i < 50; i++) {
+      assertEquals(6 + i + 1, scripts.get(i + 3).eval(Utils.mapOf("n", 1)));
+    }
+
+    try {
+      Jactl.compileAll(Utils.listOf(JactlSource.jactlClass("class Q extends UnknownClass {}"),
+                                    JactlSource.script("1 +", Utils.mapOf()),
+                                    JactlSource.script("x", Utils.mapOf()),
+                                    JactlSource.script("2", Utils.mapOf())), context);
+      fail("Expected compile error");
+    }
+    catch (CompileError e) {
+      assertTrue(e.getErrors().get(0).getMessage().toLowerCase().contains("unknown class"));
+      assertTrue(e.getMessage().toLowerCase().contains("unknown variable 'x'"));
+    }
+
+    // Unexpected exceptions are reported along with compile errors for other sources
+    try {
+      Jactl.compileAll(Utils.listOf(JactlSource.script(null, Utils.mapOf()),
+                                    JactlSource.script("x", Utils.mapOf())), context);
+      fail("Expected compile error");
+    }
+    catch (CompileError e) {
+      assertEquals(2, e.getErrors().size());
+      assertTrue(e.getErrors().get(0).getMessage().toLowerCase().contains("internal error"));
+      assertTrue(e.getErrors().get(0).getCause() instanceof NullPointerException);
+      assertTrue(e.getErrors().get(1).getMessage().toLowerCase().contains("unknown variable 'x'"));
+    }
+  }
+
   @Test public void scriptPackageName() {
     JactlContext context = JactlContext.create().build();
 